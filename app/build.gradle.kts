@@ -61,6 +61,7 @@ dependencies {
 
     // WorkManager
     implementation("androidx.work:work-runtime:2.9.0")
+    implementation("androidx.concurrent:concurrent-futures:1.1.0")
 
     testImplementation("junit:junit:4.13.2")
     testImplementation("org.robolectric:robolectric:4.11.1")
@@ -9,6 +9,7 @@ import androidx.fragment.app.FragmentTransaction;
 import com.example.anchornotes.context.NotificationHelper;
 import com.example.anchornotes.context.RelevantCleanup;
 import com.example.anchornotes.ui.HomeFragment;
+import com.example.anchornotes.util.AppExecutors;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -37,4 +38,10 @@ public class MainActivity extends AppCompatActivity {
         // Cleanup expired relevant notes on resume
         RelevantCleanup.runNow(this);
     }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        AppExecutors.logStats();
+    }
 }
@@ -3,20 +3,25 @@ package com.example.anchornotes.context;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
 
 import androidx.annotation.NonNull;
 
+import com.example.anchornotes.data.db.AppDatabase;
 import com.example.anchornotes.receiver.GeofenceReceiver;
+import com.example.anchornotes.util.AppExecutors;
+import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofenceStatusCodes;
 import com.google.android.gms.location.GeofencingClient;
 import com.google.android.gms.location.GeofencingRequest;
 import com.google.android.gms.location.LocationServices;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.Consumer;
 
@@ -24,10 +29,12 @@ import java.util.function.Consumer;
  * Manages geofence registration and removal using Play Services Location API.
  */
 public class GeofenceManager {
+    /** Request id of {@link GeofenceScheduler}'s rebalance geofence. */
+    public static final String REBALANCE_ID = "rebalance";
+
     private final Context context;
     private final GeofencingClient geofencingClient;
-    private static final String PREFS_NAME = "geofence_prefs";
-    private static final String PREFS_ACTIVE_GEOFENCES = "active_geofences";
+    static final String PREFS_NAME = "geofence_prefs";
 
     public GeofenceManager(@NonNull Context context) {
         this.context = context.getApplicationContext();
@@ -48,35 +55,133 @@ public class GeofenceManager {
                            String geofenceId,
                            @NonNull Consumer<Boolean> onDone,
                            @NonNull Consumer<Exception> onError) {
-        Geofence geofence = new Geofence.Builder()
-                .setRequestId(geofenceId)
-                .setCircularRegion(lat, lon, radiusMeters)
-                .setExpirationDuration(Geofence.NEVER_EXPIRE)
-                .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
-                .setLoiteringDelay(0)
+        GeofencingRequest request = new GeofencingRequest.Builder()
+                .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER)
+                .addGeofence(geofenceOf(geofenceId, lat, lon, radiusMeters))
                 .build();
 
+        Intent intent = new Intent(context, GeofenceReceiver.class);
+        intent.putExtra(GeofenceReceiver.EXTRA_NOTE_ID, noteId);
+
+        geofencingClient.addGeofences(request, pendingIntent(intent))
+                .addOnSuccessListener(v -> onDone.accept(true))
+                .addOnFailureListener(onError::accept);
+    }
+
+    /** One geofence to register with {@link #addAll}. */
+    public static final class Spec {
+        public final String geofenceId;
+        public final double lat;
+        public final double lon;
+        public final float radiusMeters;
+
+        public Spec(@NonNull String geofenceId, double lat, double lon, float radiusMeters) {
+            this.geofenceId = geofenceId;
+            this.lat = lat;
+            this.lon = lon;
+            this.radiusMeters = radiusMeters;
+        }
+    }
+
+    /** Outcome of {@link #addAll}, per geofence id. */
+    public static final class BatchResult {
+        public final Set<String> added = new LinkedHashSet<>();
+        public final Map<String, Exception> failed = new HashMap<>();
+    }
+
+    /**
+     * Registers many geofences with a single GeofencingRequest and reports which ones were
+     * added. Play Services accepts or rejects a request as a whole, so when a request fails with
+     * an error that could come from one of its geofences, it is split in half and each half is
+     * sent again until the failing geofences are isolated; a clean batch costs one call. Errors
+     * about the service itself (location off, no permission, too many requests) fail every
+     * geofence in the request without splitting.
+     * <p>
+     * {@code onDone} runs once, on the thread Play Services calls back on (the main thread), or
+     * on the calling thread if nothing had to be sent.
+     */
+    public void addAll(@NonNull List<Spec> specs, @NonNull Consumer<BatchResult> onDone) {
+        BatchResult result = new BatchResult();
         List<Geofence> geofences = new ArrayList<>();
-        geofences.add(geofence);
+        for (Spec spec : specs) {
+            try {
+                geofences.add(geofenceOf(spec.geofenceId, spec.lat, spec.lon, spec.radiusMeters));
+            } catch (IllegalArgumentException e) {
+                result.failed.put(spec.geofenceId, e); // bad coordinates or radius; never sent
+            }
+        }
+        if (geofences.isEmpty()) {
+            onDone.accept(result);
+            return;
+        }
+        PendingIntent pendingIntent = pendingIntent(new Intent(context, GeofenceReceiver.class));
+        send(geofences, pendingIntent, result, () -> onDone.accept(result));
+    }
 
+    private void send(List<Geofence> geofences, PendingIntent pendingIntent,
+                      BatchResult result, Runnable onSent) {
         GeofencingRequest request = new GeofencingRequest.Builder()
                 .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_ENTER)
                 .addGeofences(geofences)
                 .build();
+        try {
+            geofencingClient.addGeofences(request, pendingIntent)
+                    .addOnSuccessListener(v -> {
+                        for (Geofence g : geofences) result.added.add(g.getRequestId());
+                        onSent.run();
+                    })
+                    .addOnFailureListener(e -> split(geofences, pendingIntent, e, result, onSent));
+        } catch (SecurityException e) {
+            // permission revoked since the caller checked it
+            for (Geofence g : geofences) result.failed.put(g.getRequestId(), e);
+            onSent.run();
+        }
+    }
 
-        Intent intent = new Intent(context, GeofenceReceiver.class);
-        intent.putExtra(GeofenceReceiver.EXTRA_NOTE_ID, noteId);
+    private void split(List<Geofence> geofences, PendingIntent pendingIntent, Exception error,
+                       BatchResult result, Runnable onSent) {
+        if (geofences.size() == 1 || !mayBePerGeofence(error)) {
+            for (Geofence g : geofences) result.failed.put(g.getRequestId(), error);
+            onSent.run();
+            return;
+        }
+        int mid = geofences.size() / 2;
+        List<Geofence> first = new ArrayList<>(geofences.subList(0, mid));
+        List<Geofence> second = new ArrayList<>(geofences.subList(mid, geofences.size()));
+        send(first, pendingIntent, result, () -> send(second, pendingIntent, result, onSent));
+    }
 
+    /** False for failures that would repeat for any subset of the request. */
+    private static boolean mayBePerGeofence(Exception error) {
+        if (error instanceof SecurityException) return false;
+        if (!(error instanceof ApiException)) return true;
+        switch (((ApiException) error).getStatusCode()) {
+            case GeofenceStatusCodes.GEOFENCE_NOT_AVAILABLE:
+            case GeofenceStatusCodes.GEOFENCE_TOO_MANY_PENDING_INTENTS:
+            case GeofenceStatusCodes.GEOFENCE_INSUFFICIENT_LOCATION_PERMISSION:
+            case GeofenceStatusCodes.GEOFENCE_REQUEST_TOO_FREQUENT:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static Geofence geofenceOf(String geofenceId, double lat, double lon, float radiusMeters) {
+        return new Geofence.Builder()
+                .setRequestId(geofenceId)
+                .setCircularRegion(lat, lon, radiusMeters)
+                .setExpirationDuration(Geofence.NEVER_EXPIRE)
+                .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_EXIT)
+                .setLoiteringDelay(0)
+                .build();
+    }
+
+    private PendingIntent pendingIntent(Intent intent) {
         int flags = PendingIntent.FLAG_UPDATE_CURRENT;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             flags |= PendingIntent.FLAG_IMMUTABLE;
         }
-
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent, flags);
-
-        geofencingClient.addGeofences(request, pendingIntent)
-                .addOnSuccessListener(v -> onDone.accept(true))
-                .addOnFailureListener(onError::accept);
+        return PendingIntent.getBroadcast(context, 0, intent, flags);
     }
 
     /**
@@ -89,36 +194,55 @@ public class GeofenceManager {
         geofencingClient.removeGeofences(ids);
 
         // Remove from active geofences tracking
-        removeFromActiveGeofences(geofenceId);
+        forgetActive(ids);
     }
 
-    /**
-     * Get currently active geofence IDs for template prioritization
-     * This is maintained by the GeofenceReceiver when geofences are entered/exited
-     */
-    public List<String> getCurrentActiveGeofenceIds() {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        Set<String> activeSet = prefs.getStringSet(PREFS_ACTIVE_GEOFENCES, new HashSet<>());
-        return new ArrayList<>(activeSet);
+    /** Removes several geofences with one call. */
+    public void removeAll(@NonNull List<String> geofenceIds) {
+        if (geofenceIds.isEmpty()) return;
+        geofencingClient.removeGeofences(new ArrayList<>(geofenceIds));
+        forgetActive(geofenceIds);
     }
 
     /**
-     * Called by GeofenceReceiver when entering a geofence
+     * Registers (or moves) the rebalance geofence: it fires once when the user leaves the circle,
+     * or right away if they are already outside it.
      */
-    public void addToActiveGeofences(String geofenceId) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        Set<String> activeSet = new HashSet<>(prefs.getStringSet(PREFS_ACTIVE_GEOFENCES, new HashSet<>()));
-        activeSet.add(geofenceId);
-        prefs.edit().putStringSet(PREFS_ACTIVE_GEOFENCES, activeSet).apply();
+    public void setRebalanceFence(double lat, double lon, float radiusMeters) {
+        Geofence fence = new Geofence.Builder()
+                .setRequestId(REBALANCE_ID)
+                .setCircularRegion(lat, lon, radiusMeters)
+                .setExpirationDuration(Geofence.NEVER_EXPIRE)
+                .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_EXIT)
+                .build();
+        GeofencingRequest request = new GeofencingRequest.Builder()
+                .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_EXIT)
+                .addGeofence(fence)
+                .build();
+        try {
+            geofencingClient.addGeofences(request, pendingIntent(new Intent(context, GeofenceReceiver.class)));
+        } catch (SecurityException ignored) {
+            // no location permission; the next rebalance tries again
+        }
     }
 
     /**
-     * Called by GeofenceReceiver when exiting a geofence
+     * Get currently active geofence IDs for template prioritization
+     * This is maintained by the GeofenceReceiver when geofences are entered/exited
      */
-    public void removeFromActiveGeofences(String geofenceId) {
-        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        Set<String> activeSet = new HashSet<>(prefs.getStringSet(PREFS_ACTIVE_GEOFENCES, new HashSet<>()));
-        activeSet.remove(geofenceId);
-        prefs.edit().putStringSet(PREFS_ACTIVE_GEOFENCES, activeSet).apply();
+    public List<String> getCurrentActiveGeofenceIds() {
+        return AppDatabase.get(context).activeGeofenceDao().getIds();
+    }
+
+    /** Drops unregistered geofences from the active set; the user can't be inside them any more. */
+    private void forgetActive(List<String> geofenceIds) {
+        List<String> ids = new ArrayList<>(geofenceIds);
+        AppExecutors.maintenance().execute(() -> {
+            try {
+                AppDatabase.get(context).activeGeofenceDao().deleteAll(ids);
+            } catch (Exception ignored) {
+                // best effort: the next exit event clears it as well
+            }
+        });
     }
 }
@@ -0,0 +1,253 @@
+package com.example.anchornotes.context;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.anchornotes.data.db.GeofenceTarget;
+import com.example.anchornotes.data.db.NoteDao;
+import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.search.GeoHash;
+import com.example.anchornotes.model.PlaceSelection;
+import com.example.anchornotes.util.AppExecutors;
+import com.example.anchornotes.worker.GeofenceRetryWorker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Keeps geofence reminders within Play Services' limit of {@value #MAX_GEOFENCES} geofences per
+ * app. Every geofence reminder stays in Room (notes with reminderType GEOFENCE); only the ones
+ * nearest to the last known location hold a slot and are registered, plus one large "rebalance"
+ * geofence around that location. Leaving the rebalance geofence runs the selection again from
+ * where the user is, and only the difference goes to Play Services.
+ * <p>
+ * The rebalance geofence reaches to the edge of the nearest reminder left out, so the user can't
+ * enter a reminder that isn't registered without leaving it first. Call from a background thread.
+ * <p>
+ * Slots are per geofence rather than per note: notes pinned to the same place share one.
+ */
+public class GeofenceScheduler {
+    /** Play Services' limit of registered geofences per app. */
+    public static final int MAX_GEOFENCES = 100;
+    /** For reminders set before the radius was stored. */
+    public static final float DEFAULT_RADIUS_METERS = 175.0f;
+    /** Circles no farther apart than this (centre distance plus radius difference) share a geofence. */
+    static final double MERGE_TOLERANCE_METERS = 25.0;
+    /** Smaller rebalance geofences would fire on location jitter. */
+    static final float MIN_REBALANCE_RADIUS_METERS = 150.0f;
+
+    private static final String PREFS_CENTER_LAT = "rebalance_lat";
+    private static final String PREFS_CENTER_LON = "rebalance_lon";
+    /** Instances are cheap and made per caller; slot changes are serialized across all of them. */
+    private static final Object LOCK = new Object();
+
+    private final Context context;
+    private final NoteDao noteDao;
+    private final GeofenceManager geofenceManager;
+    private final ReminderPayloads payloads;
+    /** Slots for note geofences; one more is kept for the rebalance geofence. */
+    private final int capacity;
+
+    public GeofenceScheduler(@NonNull Context context, @NonNull NoteDao noteDao,
+                             @NonNull GeofenceManager geofenceManager) {
+        this(context, noteDao, geofenceManager, MAX_GEOFENCES);
+    }
+
+    public GeofenceScheduler(@NonNull Context context, @NonNull NoteDao noteDao,
+                             @NonNull GeofenceManager geofenceManager, int maxGeofences) {
+        this.context = context.getApplicationContext();
+        this.noteDao = noteDao;
+        this.geofenceManager = geofenceManager;
+        this.payloads = new ReminderPayloads(this.context);
+        this.capacity = maxGeofences - 1;
+    }
+
+    /**
+     * Sets a note's geofence reminder at {@code place}. A note whose circle nearly coincides
+     * with an existing geofence is attached to it and shares its registration, so notes at the
+     * same place cost one geofence. Otherwise a new geofence is registered right away while a
+     * slot is free, and the callbacks report that registration as {@link GeofenceManager#addForNote}
+     * does; with no slot free it competes with the registered ones in a rebalance. In every case
+     * but a failed registration {@code onDone} runs once the reminder is stored.
+     */
+    public void schedule(long noteId, @NonNull PlaceSelection place,
+                         @NonNull Consumer<Boolean> onDone, @NonNull Consumer<Exception> onError) {
+        long now = System.currentTimeMillis();
+        String geofenceId = null;
+        boolean free = false;
+        synchronized (LOCK) {
+            GeofenceTarget shared = null;
+            double closest = MERGE_TOLERANCE_METERS;
+            // measured from each geofence's stored centre, so joining never moves one
+            for (GeofenceTarget t : noteDao.getGeofenceTargets()) {
+                // the farthest a point on one circle is from the other one
+                double apart = GeoHash.distanceMeters(place.latitude, place.longitude, t.latitude, t.longitude)
+                        + Math.abs(place.radiusMeters - radiusOf(t));
+                if (apart <= closest) {
+                    closest = apart;
+                    shared = t;
+                }
+            }
+            if (shared != null) {
+                noteDao.joinGeofence(noteId, shared.geofenceId, shared.latitude, shared.longitude,
+                        radiusOf(shared), shared.geofenceRegistered, shared.pendingActivation, now);
+            } else {
+                geofenceId = placeId(place);
+                noteDao.setReminderGeofence(noteId, geofenceId, place.latitude, place.longitude,
+                        place.radiusMeters, now);
+                free = noteDao.countGeofences(true) < capacity;
+                if (free) noteDao.setGeofencesRegistered(Collections.singletonList(geofenceId), true);
+            }
+        }
+        // GeofenceReceiver posts from this without reading the note
+        NoteEntity note = noteDao.getById(noteId);
+        if (note != null) payloads.put(ReminderPayloads.Payload.of(note, 0, note.geofenceId));
+        if (geofenceId == null) {
+            onDone.accept(true); // nothing new to register
+            return;
+        }
+        if (free) {
+            geofenceManager.addForNote(noteId, place.latitude, place.longitude, place.radiusMeters,
+                    geofenceId, onDone, onError);
+            return;
+        }
+        // No location yet: start from the new place; if the user isn't there the rebalance
+        // geofence fires right away with their real location.
+        double[] center = lastCenter();
+        if (center == null) center = new double[]{place.latitude, place.longitude};
+        rebalance(center[0], center[1]);
+        onDone.accept(true);
+    }
+
+    /**
+     * Call after a note left {@code geofenceId} (reminder cleared, replaced or note deleted).
+     * Unregisters the geofence once no note uses it and gives its slot to the nearest waiting one.
+     */
+    public void release(@Nullable String geofenceId) {
+        if (geofenceId == null || noteDao.countNotesWithGeofence(geofenceId) > 0) return;
+        geofenceManager.removeForNote(geofenceId);
+        refill();
+    }
+
+    /** Gives slots freed by removed or replaced reminders to the nearest waiting ones. */
+    public void refill() {
+        if (noteDao.countGeofences(false) == 0) return;
+        double[] center = lastCenter();
+        if (center != null) rebalance(center[0], center[1]);
+    }
+
+    /**
+     * Registers the geofences again after a reboot, app update or Play Services data clear, which
+     * drop every registration. With a rebalance centre the nearest ones are chosen from there;
+     * otherwise every reminder fit and the ones that held a slot go back in one request.
+     */
+    public void restore() {
+        double[] center = lastCenter();
+        List<GeofenceManager.Spec> specs = new ArrayList<>();
+        synchronized (LOCK) {
+            if (center != null) {
+                noteDao.clearGeofenceSlots();
+            } else {
+                for (GeofenceTarget t : noteDao.getGeofenceTargets()) {
+                    if (t.geofenceRegistered) {
+                        specs.add(new GeofenceManager.Spec(t.geofenceId, t.latitude, t.longitude, radiusOf(t)));
+                    }
+                }
+            }
+        }
+        if (center != null) {
+            rebalance(center[0], center[1]);
+            return;
+        }
+        if (specs.isEmpty()) return;
+        geofenceManager.addAll(specs, result ->
+                // Play Services calls back on the main thread; the DB writes go to the background
+                AppExecutors.maintenance().execute(() -> {
+                    if (!result.added.isEmpty()) noteDao.markGeofencesActive(new ArrayList<>(result.added));
+                    if (result.failed.isEmpty()) return;
+                    noteDao.markGeofencesPending(new ArrayList<>(result.failed.keySet()));
+                    GeofenceRetryWorker.enqueue(context);
+                }));
+    }
+
+    /** Registers the geofences nearest to (lat, lon), unregisters the rest and moves the rebalance geofence. */
+    public void rebalance(double lat, double lon) {
+        List<String> removed = new ArrayList<>();
+        List<GeofenceManager.Spec> added = new ArrayList<>();
+        float fenceRadius = 0;
+        synchronized (LOCK) {
+            List<GeofenceTarget> targets = noteDao.getGeofenceTargets();
+            targets.sort(Comparator.comparingDouble(t -> edgeDistance(t, lat, lon)));
+
+            List<String> slotted = new ArrayList<>();
+            for (int i = 0; i < targets.size(); i++) {
+                GeofenceTarget t = targets.get(i);
+                if (i < capacity && !t.geofenceRegistered) {
+                    slotted.add(t.geofenceId);
+                    added.add(new GeofenceManager.Spec(t.geofenceId, t.latitude, t.longitude, radiusOf(t)));
+                } else if (i >= capacity && t.geofenceRegistered) {
+                    removed.add(t.geofenceId);
+                }
+            }
+            if (targets.size() > capacity) {
+                fenceRadius = (float) Math.max(MIN_REBALANCE_RADIUS_METERS,
+                        edgeDistance(targets.get(capacity), lat, lon));
+            }
+            noteDao.moveGeofenceSlots(slotted, removed);
+            saveCenter(lat, lon);
+        }
+
+        geofenceManager.removeAll(removed);
+        if (fenceRadius > 0) {
+            geofenceManager.setRebalanceFence(lat, lon, fenceRadius);
+        } else {
+            geofenceManager.removeAll(Collections.singletonList(GeofenceManager.REBALANCE_ID));
+        }
+        if (added.isEmpty()) return;
+        geofenceManager.addAll(added, result -> {
+            if (result.failed.isEmpty()) return;
+            // Play Services calls back on the main thread; the DB writes go to the background
+            AppExecutors.maintenance().execute(() -> {
+                noteDao.markGeofencesPending(new ArrayList<>(result.failed.keySet()));
+                GeofenceRetryWorker.enqueue(context);
+            });
+        });
+    }
+
+    /** Id of a new geofence: its cell and radius, so the same circle always gets the same id. */
+    private static String placeId(PlaceSelection place) {
+        return "place-" + GeoHash.encode(place.latitude, place.longitude) + "-" + Math.round(place.radiusMeters);
+    }
+
+    /** Meters to walk from (lat, lon) into the reminder's circle; negative when inside it. */
+    private static double edgeDistance(GeofenceTarget t, double lat, double lon) {
+        return GeoHash.distanceMeters(lat, lon, t.latitude, t.longitude) - radiusOf(t);
+    }
+
+    private static float radiusOf(GeofenceTarget t) {
+        return t.geofenceRadius != null ? t.geofenceRadius : DEFAULT_RADIUS_METERS;
+    }
+
+    /** Where the last rebalance was centred; null before the first one. */
+    @Nullable
+    private double[] lastCenter() {
+        SharedPreferences prefs = context.getSharedPreferences(GeofenceManager.PREFS_NAME, Context.MODE_PRIVATE);
+        if (!prefs.contains(PREFS_CENTER_LAT)) return null;
+        return new double[]{
+                Double.longBitsToDouble(prefs.getLong(PREFS_CENTER_LAT, 0)),
+                Double.longBitsToDouble(prefs.getLong(PREFS_CENTER_LON, 0))};
+    }
+
+    private void saveCenter(double lat, double lon) {
+        context.getSharedPreferences(GeofenceManager.PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putLong(PREFS_CENTER_LAT, Double.doubleToRawLongBits(lat))
+                .putLong(PREFS_CENTER_LON, Double.doubleToRawLongBits(lon))
+                .apply();
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.anchornotes.context;
 
+import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -14,12 +15,18 @@ import com.example.anchornotes.MainActivity;
 import com.example.anchornotes.R;
 import com.example.anchornotes.data.db.NoteEntity;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Helper class for creating and showing reminder notifications.
  */
 public class NotificationHelper {
     private static final String CHANNEL_ID = "ANCHOR_NOTES_REMINDERS";
     private static final String CHANNEL_NAME = "Anchor Notes Reminders";
+    private static final String GROUP_REMINDERS = "ANCHOR_NOTES_REMINDER_GROUP";
+    /** Note ids are positive, so the group summary can't replace a reminder. */
+    private static final int SUMMARY_ID = -1;
 
     private final Context context;
     private final NotificationManager notificationManager;
@@ -49,8 +56,14 @@ public class NotificationHelper {
      */
     @NonNull
     public NotificationCompat.Builder buildReminder(@NonNull NoteEntity note) {
+        return buildReminder(ReminderPayloads.Payload.of(note, 0, null));
+    }
+
+    /** Builds a notification for a reminder from its pre-rendered payload. */
+    @NonNull
+    public NotificationCompat.Builder buildReminder(@NonNull ReminderPayloads.Payload payload) {
         Intent intent = new Intent(context, MainActivity.class);
-        intent.putExtra("noteId", note.id);
+        intent.putExtra("noteId", payload.noteId);
         intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
 
         int flags = PendingIntent.FLAG_UPDATE_CURRENT;
@@ -60,22 +73,16 @@ public class NotificationHelper {
 
         PendingIntent pendingIntent = PendingIntent.getActivity(
                 context,
-                (int) note.id,
+                (int) payload.noteId,
                 intent,
                 flags
         );
 
-        String title = note.title != null && !note.title.isEmpty() ? note.title : "Reminder";
-        String text = note.bodyHtml != null ? android.text.Html.fromHtml(note.bodyHtml, 0).toString() : "";
-        if (text.length() > 100) {
-            text = text.substring(0, 100) + "...";
-        }
-
         return new NotificationCompat.Builder(context, CHANNEL_ID)
                 .setSmallIcon(R.drawable.ic_launcher_foreground)
-                .setContentTitle(title)
-                .setContentText(text)
-                .setStyle(new NotificationCompat.BigTextStyle().bigText(text))
+                .setContentTitle(payload.title)
+                .setContentText(payload.text)
+                .setStyle(new NotificationCompat.BigTextStyle().bigText(payload.text))
                 .setPriority(NotificationCompat.PRIORITY_DEFAULT)
                 .setContentIntent(pendingIntent)
                 .setAutoCancel(true);
@@ -89,4 +96,45 @@ public class NotificationHelper {
         NotificationCompat.Builder builder = buildReminder(note);
         notificationManager.notify((int) note.id, builder.build());
     }
+
+    /**
+     * Shows reminders that fired together (one alarm, one geofence event) as a group with a
+     * summary when there is more than one, so they alert once rather than once per note.
+     * @param notes The notes to remind about
+     */
+    public void showReminders(@NonNull List<NoteEntity> notes) {
+        List<ReminderPayloads.Payload> payloads = new ArrayList<>();
+        for (NoteEntity note : notes) payloads.add(ReminderPayloads.Payload.of(note, 0, null));
+        showPayloads(payloads);
+    }
+
+    /** As {@link #showReminders}, from pre-rendered payloads. */
+    public void showPayloads(@NonNull List<ReminderPayloads.Payload> payloads) {
+        if (payloads.isEmpty()) return;
+        if (payloads.size() == 1) {
+            ReminderPayloads.Payload payload = payloads.get(0);
+            notificationManager.notify((int) payload.noteId, buildReminder(payload).build());
+            return;
+        }
+
+        NotificationCompat.InboxStyle inbox = new NotificationCompat.InboxStyle();
+        for (ReminderPayloads.Payload payload : payloads) {
+            NotificationCompat.Builder builder = buildReminder(payload)
+                    .setGroup(GROUP_REMINDERS)
+                    .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_SUMMARY);
+            notificationManager.notify((int) payload.noteId, builder.build());
+            inbox.addLine(payload.title);
+        }
+        String title = payloads.size() + " reminders";
+        Notification summary = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_launcher_foreground)
+                .setContentTitle(title)
+                .setStyle(inbox.setBigContentTitle(title))
+                .setPriority(NotificationCompat.PRIORITY_DEFAULT)
+                .setGroup(GROUP_REMINDERS)
+                .setGroupSummary(true)
+                .setAutoCancel(true)
+                .build();
+        notificationManager.notify(SUMMARY_ID, summary);
+    }
 }
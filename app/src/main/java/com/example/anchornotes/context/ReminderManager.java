@@ -4,54 +4,98 @@ import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Build;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.db.ReminderQueueDao;
+import com.example.anchornotes.data.db.ReminderQueueEntity;
 import com.example.anchornotes.receiver.AlarmReceiver;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Manages time-based reminders using AlarmManager.
+ * <p>
+ * Pending reminders wait in the reminder_queue table, ordered by due time; only the ones due
+ * first have an alarm. When it fires, {@link AlarmReceiver} takes every reminder due by then in
+ * one batch ({@link #takeDue}) and the alarm moves to the next ones, so there is one
+ * AlarmManager entry and one wakeup at a time however many reminders exist.
+ * <p>
+ * A reminder with a tolerance may arrive up to that much late. The alarm covers every reminder
+ * due before the earliest deadline, as a window (setWindow) from the last of them to that
+ * deadline, so reminders whose windows overlap share a wakeup and the system can line it up
+ * with others. Only exact reminders get an exact while-idle alarm.
+ * <p>
+ * Reminders scheduled with their note also get a {@link ReminderPayloads} entry, so the
+ * notification can be posted before the queue is read.
+ * Call from a background thread.
  */
 public class ReminderManager {
-    private static final int NOTE_ALARM_BASE = 10000;
+    /** A tolerance that suits most reminders: a quarter of an hour late is still on time. */
+    public static final long FLEXIBLE_TOLERANCE_MS = 15 * 60 * 1000;
+    /** Request code of the single reminder alarm. */
+    private static final int ALARM_REQUEST_CODE = 10000;
+    /** Queue changes and re-arming are serialized across instances. */
+    private static final Object LOCK = new Object();
+
+    private static final String PREFS_NAME = "reminder_stats";
+    /** Deliveries this far past the deadline count as late; exact alarms are never quite on the dot. */
+    private static final long LATE_GRACE_MS = 60 * 1000;
 
     private final Context context;
     private final AlarmManager alarmManager;
+    private final ReminderPayloads payloads;
+    @Nullable private ReminderQueueDao queue;
 
     public ReminderManager(@NonNull Context context) {
+        this(context, null);
+    }
+
+    /** @param queue null to use the app database's */
+    public ReminderManager(@NonNull Context context, @Nullable ReminderQueueDao queue) {
         this.context = context.getApplicationContext();
         this.alarmManager = (AlarmManager) this.context.getSystemService(Context.ALARM_SERVICE);
+        this.queue = queue;
+        this.payloads = new ReminderPayloads(this.context);
+    }
+
+    private ReminderQueueDao queue() {
+        if (queue == null) queue = AppDatabase.get(context).reminderQueueDao();
+        return queue;
     }
 
     /**
-     * Schedules an exact alarm for a note reminder.
+     * Schedules an exact alarm for a note reminder, replacing the note's earlier one.
      * @param noteId The note ID
      * @param atMillis The time (in milliseconds since epoch) when the alarm should fire
      */
     public void scheduleExact(long noteId, long atMillis) {
-        Intent intent = new Intent(context, AlarmReceiver.class);
-        intent.putExtra(AlarmReceiver.EXTRA_NOTE_ID, noteId);
+        schedule(noteId, atMillis, 0);
+    }
 
-        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            flags |= PendingIntent.FLAG_IMMUTABLE;
+    /**
+     * Schedules a note reminder to be delivered between {@code atMillis} and
+     * {@code atMillis + toleranceMs}, replacing the note's earlier one.
+     * @param toleranceMs How late the reminder may be; 0 for an exact reminder
+     */
+    public void schedule(long noteId, long atMillis, long toleranceMs) {
+        synchronized (LOCK) {
+            queue().upsert(new ReminderQueueEntity(noteId, atMillis, atMillis + Math.max(0, toleranceMs)));
+            arm();
         }
+    }
 
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                context,
-                NOTE_ALARM_BASE + (int) noteId,
-                intent,
-                flags
-        );
-
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, atMillis, pendingIntent);
-        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-            alarmManager.setExact(AlarmManager.RTC_WAKEUP, atMillis, pendingIntent);
-        } else {
-            alarmManager.set(AlarmManager.RTC_WAKEUP, atMillis, pendingIntent);
-        }
+    /** As above, storing the note's notification as it will be posted. */
+    public void schedule(@NonNull NoteEntity note, long atMillis, long toleranceMs) {
+        payloads.put(ReminderPayloads.Payload.of(note, atMillis, null));
+        schedule(note.id, atMillis, toleranceMs);
     }
 
     /**
@@ -59,22 +103,165 @@ public class ReminderManager {
      * @param noteId The note ID
      */
     public void cancel(long noteId) {
+        synchronized (LOCK) {
+            queue().delete(noteId);
+            arm();
+        }
+        payloads.remove(noteId);
+    }
+
+    /**
+     * Removes and returns the IDs of every reminder due by {@code now}, earliest first, records
+     * how late each one is and arms the alarm for the next ones. Their payloads go too, so read
+     * them ({@link ReminderPayloads#dueBy}) first.
+     */
+    @NonNull
+    public List<Long> takeDue(long now) {
+        List<Long> ids = new ArrayList<>();
+        for (ReminderQueueEntity r : takeDueReminders(now)) ids.add(r.noteId);
+        return ids;
+    }
+
+    /** As {@link #takeDue}, with each reminder's due time and deadline. */
+    @NonNull
+    public List<ReminderQueueEntity> takeDueReminders(long now) {
+        List<ReminderQueueEntity> due;
+        synchronized (LOCK) {
+            due = queue().takeDue(now);
+            arm();
+        }
+        if (due.isEmpty()) return Collections.emptyList();
+        List<Long> ids = new ArrayList<>();
+        for (ReminderQueueEntity r : due) ids.add(r.noteId);
+        payloads.removeAll(ids);
+        recordDelivery(due, now);
+        return due;
+    }
+
+    /**
+     * Schedules several reminders (e.g. the next occurrences of repeating ones) with one re-arm.
+     * @param notifications their payloads, as {@link #schedule(NoteEntity, long, long)} stores
+     */
+    public void scheduleAll(@NonNull List<ReminderQueueEntity> reminders,
+                            @NonNull List<ReminderPayloads.Payload> notifications) {
+        if (reminders.isEmpty()) return;
+        payloads.putAll(notifications);
+        synchronized (LOCK) {
+            queue().upsertAll(reminders);
+            arm();
+        }
+    }
+
+    /**
+     * Queues reminders that are missing from the queue, e.g. ones set before a restore, without
+     * arming; call {@link #rearm} after the last batch.
+     */
+    public void requeue(@NonNull List<ReminderQueueEntity> reminders) {
+        if (reminders.isEmpty()) return;
+        synchronized (LOCK) {
+            queue().insertMissing(reminders);
+        }
+    }
+
+    /** Sets the alarm again, e.g. after a reboot or app update dropped it. */
+    public void rearm() {
+        synchronized (LOCK) {
+            arm();
+        }
+    }
+
+    /** Points the alarm at the reminders due first, or cancels it when there are none. */
+    private void arm() {
+        Long deadline = queue().nextDeadline();
+        if (deadline == null) {
+            alarmManager.cancel(alarmIntent());
+            return;
+        }
+        // every reminder due by the deadline can wait for the last of them
+        Long start = queue().latestFireAtBy(deadline);
+        if (start == null || start >= deadline) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, deadline, alarmIntent());
+        } else {
+            alarmManager.setWindow(AlarmManager.RTC_WAKEUP, start, deadline - start, alarmIntent());
+        }
+    }
+
+    private PendingIntent alarmIntent() {
         Intent intent = new Intent(context, AlarmReceiver.class);
-        intent.putExtra(AlarmReceiver.EXTRA_NOTE_ID, noteId);
 
         int flags = PendingIntent.FLAG_UPDATE_CURRENT;
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             flags |= PendingIntent.FLAG_IMMUTABLE;
         }
+        return PendingIntent.getBroadcast(context, ALARM_REQUEST_CODE, intent, flags);
+    }
+
+    // ========== Delivery skew ==========
+
+    /** How late reminders were delivered, over all deliveries so far. */
+    public static final class DeliveryStats {
+        public final long delivered;
+        /** Delivered more than a minute past their deadline. */
+        public final long late;
+        public final long totalSkewMs;
+        public final long maxSkewMs;
+
+        DeliveryStats(long delivered, long late, long totalSkewMs, long maxSkewMs) {
+            this.delivered = delivered;
+            this.late = late;
+            this.totalSkewMs = totalSkewMs;
+            this.maxSkewMs = maxSkewMs;
+        }
 
-        PendingIntent pendingIntent = PendingIntent.getBroadcast(
-                context,
-                NOTE_ALARM_BASE + (int) noteId,
-                intent,
-                flags
-        );
+        public long averageSkewMs() {
+            return delivered == 0 ? 0 : totalSkewMs / delivered;
+        }
 
-        alarmManager.cancel(pendingIntent);
-        pendingIntent.cancel();
+        @NonNull
+        @Override
+        public String toString() {
+            return "delivered=" + delivered + " late=" + late
+                    + " avgSkewMs=" + averageSkewMs() + " maxSkewMs=" + maxSkewMs;
+        }
+    }
+
+    /**
+     * Delivery skew (delivery time minus due time) of exact or of windowed reminders, kept apart
+     * so the cost of a tolerance shows.
+     */
+    @NonNull
+    public DeliveryStats deliveryStats(boolean windowed) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String kind = windowed ? "windowed_" : "exact_";
+        return new DeliveryStats(
+                prefs.getLong(kind + "delivered", 0),
+                prefs.getLong(kind + "late", 0),
+                prefs.getLong(kind + "total_skew_ms", 0),
+                prefs.getLong(kind + "max_skew_ms", 0));
+    }
+
+    private void recordDelivery(List<ReminderQueueEntity> due, long now) {
+        synchronized (LOCK) {
+            SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            SharedPreferences.Editor editor = prefs.edit();
+            for (boolean windowed : new boolean[]{false, true}) {
+                String kind = windowed ? "windowed_" : "exact_";
+                long delivered = 0, late = 0, total = 0, max = prefs.getLong(kind + "max_skew_ms", 0);
+                for (ReminderQueueEntity r : due) {
+                    if ((r.deadlineAt > r.fireAt) != windowed) continue;
+                    long skew = Math.max(0, now - r.fireAt);
+                    delivered++;
+                    if (now > r.deadlineAt + LATE_GRACE_MS) late++;
+                    total += skew;
+                    max = Math.max(max, skew);
+                }
+                if (delivered == 0) continue;
+                editor.putLong(kind + "delivered", prefs.getLong(kind + "delivered", 0) + delivered)
+                        .putLong(kind + "late", prefs.getLong(kind + "late", 0) + late)
+                        .putLong(kind + "total_skew_ms", prefs.getLong(kind + "total_skew_ms", 0) + total)
+                        .putLong(kind + "max_skew_ms", max);
+            }
+            editor.apply();
+        }
     }
 }
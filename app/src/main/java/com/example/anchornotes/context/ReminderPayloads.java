@@ -0,0 +1,224 @@
+package com.example.anchornotes.context;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.anchornotes.data.db.NoteEntity;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pre-rendered reminder notifications, one per note with a reminder: the title, snippet and note
+ * to open, plus what makes it fire. They are written when a reminder is scheduled so that
+ * AlarmReceiver and GeofenceReceiver can post before opening the database; Room is only touched
+ * afterwards for the bookkeeping.
+ * <p>
+ * Kept in SharedPreferences, a small file read into memory once per process, rather than in
+ * Room, whose first query in a cold process opens and checks the database. A note without a
+ * payload (set by an older version) is posted from Room as before.
+ * <p>
+ * Payloads are JSON under the note id. Beside them a small index maps each time reminder's
+ * note to its fireAt, and each geofence to its notes, so a firing reminder only decodes the
+ * payloads it posts. A payload stored before the index existed is not found through it; its
+ * note is posted from Room like one without a payload, and indexed when it is next stored.
+ */
+public class ReminderPayloads {
+    private static final String PREFS_NAME = "reminder_payloads";
+    /** "at:{noteId}" -> fireAt of a time reminder. */
+    private static final String FIRE_AT = "at:";
+    /** "fence:{noteId}" -> geofenceId of a geofence reminder, to find its entry below. */
+    private static final String FENCE_OF = "fence:";
+    /** "notes:{geofenceId}" -> ids of the notes attached to it. */
+    private static final String NOTES_OF = "notes:";
+
+    /** One note's notification, ready to post. */
+    public static final class Payload {
+        /** The note the notification opens; also its notification ID. */
+        public final long noteId;
+        public final String title;
+        public final String text;
+        /** When a time reminder is due; 0 for a geofence reminder. */
+        public final long fireAt;
+        @Nullable public final String geofenceId;
+
+        public Payload(long noteId, @NonNull String title, @NonNull String text, long fireAt,
+                       @Nullable String geofenceId) {
+            this.noteId = noteId;
+            this.title = title;
+            this.text = text;
+            this.fireAt = fireAt;
+            this.geofenceId = geofenceId;
+        }
+
+        /** Renders a note's notification from its stored title and snippet. */
+        @NonNull
+        public static Payload of(@NonNull NoteEntity note, long fireAt, @Nullable String geofenceId) {
+            String title = note.title != null && !note.title.isEmpty() ? note.title : "Reminder";
+            // stored snippet, so rendering never parses the note HTML
+            String text = note.previewText != null ? note.previewText : "";
+            if (text.length() > 100) {
+                text = text.substring(0, 100) + "...";
+            }
+            return new Payload(note.id, title, text, fireAt, geofenceId);
+        }
+
+        /** The same notification with the note's current title and snippet. */
+        @NonNull
+        Payload rerender(@NonNull NoteEntity note) {
+            return of(note, fireAt, geofenceId);
+        }
+    }
+
+    private final SharedPreferences prefs;
+
+    public ReminderPayloads(@NonNull Context context) {
+        this.prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** Stores a note's payload, replacing the one of its earlier reminder. */
+    public void put(@NonNull Payload payload) {
+        putAll(Collections.singletonList(payload));
+    }
+
+    public void putAll(@NonNull Collection<Payload> payloads) {
+        if (payloads.isEmpty()) return;
+        SharedPreferences.Editor editor = prefs.edit();
+        Map<String, Set<String>> fences = new HashMap<>();
+        for (Payload p : payloads) {
+            unindex(editor, fences, p.noteId);
+            editor.putString(String.valueOf(p.noteId), encode(p));
+            if (p.geofenceId != null) {
+                editor.putString(FENCE_OF + p.noteId, p.geofenceId);
+                notesOf(fences, p.geofenceId).add(String.valueOf(p.noteId));
+            } else {
+                editor.putLong(FIRE_AT + p.noteId, p.fireAt);
+            }
+        }
+        writeFences(editor, fences);
+        editor.apply();
+    }
+
+    public void remove(long noteId) {
+        removeAll(Collections.singletonList(noteId));
+    }
+
+    public void removeAll(@NonNull Collection<Long> noteIds) {
+        if (noteIds.isEmpty()) return;
+        SharedPreferences.Editor editor = prefs.edit();
+        Map<String, Set<String>> fences = new HashMap<>();
+        for (long id : noteIds) {
+            unindex(editor, fences, id);
+            editor.remove(String.valueOf(id));
+        }
+        writeFences(editor, fences);
+        editor.apply();
+    }
+
+    /** Re-renders the payload of an edited note, if it has a reminder. */
+    public void update(@NonNull NoteEntity note) {
+        Payload old = decode(note.id, prefs.getString(String.valueOf(note.id), null));
+        if (old != null) put(old.rerender(note));
+    }
+
+    /** Payloads of the time reminders due by {@code now}, earliest first. */
+    @NonNull
+    public List<Payload> dueBy(long now) {
+        List<Payload> due = new ArrayList<>();
+        for (Map.Entry<String, ?> e : prefs.getAll().entrySet()) {
+            if (!e.getKey().startsWith(FIRE_AT) || !(e.getValue() instanceof Long)) continue;
+            if ((Long) e.getValue() > now) continue;
+            Payload p = load(e.getKey().substring(FIRE_AT.length()));
+            if (p != null && p.geofenceId == null) due.add(p);
+        }
+        due.sort((a, b) -> Long.compare(a.fireAt, b.fireAt));
+        return due;
+    }
+
+    /** Payloads of the notes attached to these geofences. */
+    @NonNull
+    public List<Payload> forGeofences(@NonNull Collection<String> geofenceIds) {
+        List<Payload> found = new ArrayList<>();
+        for (String geofenceId : new HashSet<>(geofenceIds)) {
+            for (String noteId : prefs.getStringSet(NOTES_OF + geofenceId, Collections.emptySet())) {
+                Payload p = load(noteId);
+                if (p != null && geofenceId.equals(p.geofenceId)) found.add(p);
+            }
+        }
+        return found;
+    }
+
+    @Nullable
+    private Payload load(String noteId) {
+        try {
+            return decode(Long.parseLong(noteId), prefs.getString(noteId, null));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /** Drops a note's index entries; geofence note sets are collected in {@code fences}. */
+    private void unindex(SharedPreferences.Editor editor, Map<String, Set<String>> fences, long noteId) {
+        editor.remove(FIRE_AT + noteId);
+        String geofenceId = prefs.getString(FENCE_OF + noteId, null);
+        if (geofenceId == null) return;
+        editor.remove(FENCE_OF + noteId);
+        notesOf(fences, geofenceId).remove(String.valueOf(noteId));
+    }
+
+    /** The note set of a geofence being edited, copied from the stored one on first use. */
+    private Set<String> notesOf(Map<String, Set<String>> fences, String geofenceId) {
+        Set<String> notes = fences.get(geofenceId);
+        if (notes == null) {
+            // the stored set must not be modified in place
+            notes = new HashSet<>(prefs.getStringSet(NOTES_OF + geofenceId, Collections.emptySet()));
+            fences.put(geofenceId, notes);
+        }
+        return notes;
+    }
+
+    private static void writeFences(SharedPreferences.Editor editor, Map<String, Set<String>> fences) {
+        for (Map.Entry<String, Set<String>> e : fences.entrySet()) {
+            if (e.getValue().isEmpty()) editor.remove(NOTES_OF + e.getKey());
+            else editor.putStringSet(NOTES_OF + e.getKey(), e.getValue());
+        }
+    }
+
+    private static String encode(Payload p) {
+        try {
+            JSONObject json = new JSONObject()
+                    .put("title", p.title)
+                    .put("text", p.text)
+                    .put("fireAt", p.fireAt);
+            if (p.geofenceId != null) json.put("geofenceId", p.geofenceId);
+            return json.toString();
+        } catch (JSONException e) {
+            throw new IllegalStateException(e); // only thrown for non-finite numbers
+        }
+    }
+
+    @Nullable
+    private static Payload decode(long noteId, @Nullable String value) {
+        if (value == null) return null;
+        try {
+            JSONObject json = new JSONObject(value);
+            return new Payload(noteId, json.getString("title"), json.optString("text"),
+                    json.optLong("fireAt"), json.has("geofenceId") ? json.getString("geofenceId") : null);
+        } catch (JSONException e) {
+            // Unreadable payload; the note is posted from Room instead
+            return null;
+        }
+    }
+}
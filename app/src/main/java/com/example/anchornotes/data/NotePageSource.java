@@ -0,0 +1,26 @@
+package com.example.anchornotes.data;
+
+import android.os.CancellationSignal;
+
+import androidx.annotation.Nullable;
+
+import com.example.anchornotes.data.db.NoteSummary;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Loads one page of notes in home list order. Implemented by the plain list and by
+ * search results so the home screen can page through either the same way.
+ */
+public interface NotePageSource {
+    /**
+     * @param after key of the last row already loaded, or null for the first page
+     * @param limit maximum number of rows to return
+     * @param signal cancelled when a newer load supersedes this one; sources that can't
+     *               interrupt their query may ignore it
+     * @return completes off the main thread with up to {@code limit} rows;
+     *         fewer means the end was reached
+     */
+    CompletableFuture<List<NoteSummary>> load(@Nullable PageKey after, int limit, CancellationSignal signal);
+}
@@ -8,14 +8,38 @@ import java.util.List;
 public class NoteSearchFilter implements Parcelable {
     public String query;              // nullable
     public List<Long> tagIds;         // empty = no tag filter
+    public boolean matchAllTags;      // notes must have every tag in tagIds, not just one
+    public List<Long> excludedTagIds; // notes with any of these tags are left out
     public Long fromDate;             // nullable
     public Long toDate;               // nullable
     public Boolean hasPhoto;          // nullable
     public Boolean hasVoice;          // nullable
     public Boolean hasLocation;       // nullable
+    public boolean rankByRelevance;   // best text match first instead of list order
+    public Double nearLatitude;       // nullable; with nearLongitude and nearRadiusMeters,
+    public Double nearLongitude;      // only notes within the radius of this point
+    public Float nearRadiusMeters;
 
     public NoteSearchFilter() {
         this.tagIds = new ArrayList<>();
+        this.excludedTagIds = new ArrayList<>();
+    }
+
+    /** Copy, so a query running in the background never sees later UI edits. */
+    public NoteSearchFilter(NoteSearchFilter other) {
+        this.query = other.query;
+        this.tagIds = other.tagIds == null ? new ArrayList<>() : new ArrayList<>(other.tagIds);
+        this.matchAllTags = other.matchAllTags;
+        this.excludedTagIds = other.excludedTagIds == null ? new ArrayList<>() : new ArrayList<>(other.excludedTagIds);
+        this.fromDate = other.fromDate;
+        this.toDate = other.toDate;
+        this.hasPhoto = other.hasPhoto;
+        this.hasVoice = other.hasVoice;
+        this.hasLocation = other.hasLocation;
+        this.rankByRelevance = other.rankByRelevance;
+        this.nearLatitude = other.nearLatitude;
+        this.nearLongitude = other.nearLongitude;
+        this.nearRadiusMeters = other.nearRadiusMeters;
     }
 
     protected NoteSearchFilter(Parcel in) {
@@ -25,9 +49,19 @@ public class NoteSearchFilter implements Parcelable {
         for (int i=0;i<n;i++) tagIds.add(in.readLong());
         fromDate = in.readByte()==0 ? null : in.readLong();
         toDate   = in.readByte()==0 ? null : in.readLong();
-        hasPhoto = (Boolean) (in.readByte()==2 ? null : (in.readByte()==1));
-        hasVoice = (Boolean) (in.readByte()==2 ? null : (in.readByte()==1));
-        hasLocation = (Boolean) (in.readByte()==2 ? null : (in.readByte()==1));
+        hasPhoto = readNullableBool(in);
+        hasVoice = readNullableBool(in);
+        hasLocation = readNullableBool(in);
+        rankByRelevance = in.readByte() == 1;
+        matchAllTags = in.readByte() == 1;
+        int x = in.readInt();
+        excludedTagIds = new ArrayList<>();
+        for (int i=0;i<x;i++) excludedTagIds.add(in.readLong());
+        if (in.readByte() == 1) {
+            nearLatitude = in.readDouble();
+            nearLongitude = in.readDouble();
+            nearRadiusMeters = in.readFloat();
+        }
     }
 
     public static final Creator<NoteSearchFilter> CREATOR = new Creator<NoteSearchFilter>() {
@@ -46,6 +80,27 @@ public class NoteSearchFilter implements Parcelable {
         writeNullableBool(dest, hasPhoto);
         writeNullableBool(dest, hasVoice);
         writeNullableBool(dest, hasLocation);
+        dest.writeByte((byte) (rankByRelevance ? 1 : 0));
+        dest.writeByte((byte) (matchAllTags ? 1 : 0));
+        dest.writeInt(excludedTagIds==null?0:excludedTagIds.size());
+        if (excludedTagIds!=null) for (Long id: excludedTagIds) dest.writeLong(id);
+        if (!hasNear()) dest.writeByte((byte)0);
+        else {
+            dest.writeByte((byte)1);
+            dest.writeDouble(nearLatitude);
+            dest.writeDouble(nearLongitude);
+            dest.writeFloat(nearRadiusMeters);
+        }
+    }
+
+    /** True if the "near a point" criterion is set. */
+    public boolean hasNear() {
+        return nearLatitude != null && nearLongitude != null && nearRadiusMeters != null;
+    }
+
+    private static Boolean readNullableBool(Parcel in) {
+        byte b = in.readByte();
+        return b == 2 ? null : b == 1;
     }
 
     private void writeNullableBool(Parcel dest, Boolean b) {
@@ -0,0 +1,28 @@
+package com.example.anchornotes.data;
+
+import androidx.annotation.NonNull;
+
+import com.example.anchornotes.data.db.NoteSummary;
+
+/**
+ * Keyset position in the home list order (pinned DESC, updatedAt DESC, id DESC).
+ * A page "after" a key holds the rows that sort strictly below the last row already shown,
+ * so loading the next page costs the same no matter how far the user has scrolled.
+ */
+public final class PageKey {
+    public final boolean pinned;
+    public final long updatedAt;
+    public final long id;
+
+    public PageKey(boolean pinned, long updatedAt, long id) {
+        this.pinned = pinned;
+        this.updatedAt = updatedAt;
+        this.id = id;
+    }
+
+    /** Key of the last row of a page; the next page starts right after it. */
+    @NonNull
+    public static PageKey after(@NonNull NoteSummary last) {
+        return new PageKey(last.pinned, last.updatedAt, last.id);
+    }
+}
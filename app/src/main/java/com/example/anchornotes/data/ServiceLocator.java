@@ -3,25 +3,70 @@ package com.example.anchornotes.data;
 import android.content.Context;
 
 import com.example.anchornotes.context.GeofenceManager;
+import com.example.anchornotes.context.GeofenceScheduler;
 import com.example.anchornotes.data.db.AppDatabase;
 import com.example.anchornotes.data.db.NoteTagCrossRefDao;
 import com.example.anchornotes.data.db.TagDao;
 import com.example.anchornotes.data.repo.NoteRepository;
 import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.repo.TagRepository;
 import com.example.anchornotes.data.repo.TemplateRepository;
+import com.example.anchornotes.data.search.InvertedIndex;
+import com.example.anchornotes.data.search.SearchResultCache;
+import com.example.anchornotes.data.search.TagBitmapIndex;
+import com.example.anchornotes.util.AppExecutors;
 
 public class ServiceLocator {
 
     public static NoteRepository noteRepository(Context c) {
         AppDatabase db = AppDatabase.get(c);
-        return new NoteRepository(db.noteDao(), db.relevantDao(), c);
+        return new NoteRepository(db.noteDao(), db.relevantDao(), c, searchIndex(db), tagBitmapIndex(db));
     }
 
     /** Search repository used by HomeFragment for query + filters. */
     public static NoteSearchRepository noteSearchRepository(Context c) {
         // If your NoteSearchRepository constructor needs more params,
         // add them here (e.g., tagDao, db). For most cases the search DAO is enough.
-        return new NoteSearchRepository(AppDatabase.get(c).noteSearchDao());
+        AppDatabase db = AppDatabase.get(c);
+        return new NoteSearchRepository(db.noteSearchDao(), db, searchResultCache(db), searchIndex(db),
+                tagBitmapIndex(db));
+    }
+
+    private static SearchResultCache searchCache;
+    private static AppDatabase searchCacheDb;
+
+    /** One cache per database, shared by every search repository. */
+    private static synchronized SearchResultCache searchResultCache(AppDatabase db) {
+        if (searchCache == null || searchCacheDb != db) {
+            searchCache = new SearchResultCache(db);
+            searchCacheDb = db;
+        }
+        return searchCache;
+    }
+
+    private static InvertedIndex searchIndex;
+    private static AppDatabase searchIndexDb;
+
+    /** One in-memory index per database; it builds itself the first time a search needs it. */
+    private static synchronized InvertedIndex searchIndex(AppDatabase db) {
+        if (searchIndex == null || searchIndexDb != db) {
+            searchIndex = new InvertedIndex(db, db.noteDao(), AppExecutors.maintenance());
+            searchIndexDb = db;
+        }
+        return searchIndex;
+    }
+
+    private static TagBitmapIndex tagBitmapIndex;
+    private static AppDatabase tagBitmapIndexDb;
+
+    /** One set of tag bitmaps per database; built the first time a tag filter needs it. */
+    private static synchronized TagBitmapIndex tagBitmapIndex(AppDatabase db) {
+        if (tagBitmapIndex == null || tagBitmapIndexDb != db) {
+            tagBitmapIndex = new TagBitmapIndex(db, db.noteTagCrossRefDao(), AppExecutors.maintenance(),
+                    searchResultCache(db));
+            tagBitmapIndexDb = db;
+        }
+        return tagBitmapIndex;
     }
 
     public static TagDao tagDao(Context c) {
@@ -32,6 +77,11 @@ public class ServiceLocator {
         return AppDatabase.get(c).noteTagCrossRefDao();
     }
 
+    public static TagRepository tagRepository(Context c) {
+        AppDatabase db = AppDatabase.get(c);
+        return new TagRepository(db.tagDao(), db.noteTagCrossRefDao(), tagBitmapIndex(db));
+    }
+
     public static TemplateRepository templateRepository(Context c) {
         return new TemplateRepository(c);
     }
@@ -39,4 +89,8 @@ public class ServiceLocator {
     public static GeofenceManager geofenceManager(Context c) {
         return new GeofenceManager(c);
     }
+
+    public static GeofenceScheduler geofenceScheduler(Context c) {
+        return new GeofenceScheduler(c, AppDatabase.get(c).noteDao(), geofenceManager(c));
+    }
 }
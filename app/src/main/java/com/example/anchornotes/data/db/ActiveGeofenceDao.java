@@ -0,0 +1,21 @@
+package com.example.anchornotes.data.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface ActiveGeofenceDao {
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertAll(List<ActiveGeofenceEntity> entities);
+
+    @Query("DELETE FROM active_geofences WHERE geofenceId IN (:geofenceIds)")
+    void deleteAll(List<String> geofenceIds);
+
+    @Query("SELECT geofenceId FROM active_geofences")
+    List<String> getIds();
+}
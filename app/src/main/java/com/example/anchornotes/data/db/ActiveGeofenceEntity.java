@@ -0,0 +1,27 @@
+package com.example.anchornotes.data.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.PrimaryKey;
+
+/**
+ * A geofence the user is currently inside, from its ENTER until its EXIT transition.
+ * Templates tied to one of these are offered first.
+ */
+@Entity(tableName = "active_geofences")
+public class ActiveGeofenceEntity {
+    @PrimaryKey
+    @NonNull
+    public String geofenceId = "";
+
+    public long enteredAt;
+
+    public ActiveGeofenceEntity() {} // Room
+
+    @Ignore
+    public ActiveGeofenceEntity(@NonNull String geofenceId, long enteredAt) {
+        this.geofenceId = geofenceId;
+        this.enteredAt = enteredAt;
+    }
+}
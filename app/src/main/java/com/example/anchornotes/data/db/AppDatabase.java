@@ -1,23 +1,37 @@
 package com.example.anchornotes.data.db;
 
 import android.content.Context;
+import android.database.Cursor;
 
 import androidx.annotation.NonNull;                       // ← add
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.room.Database;
 import androidx.room.Room;
 import androidx.room.RoomDatabase;
 import androidx.room.migration.Migration;                // ← add
 import androidx.sqlite.db.SupportSQLiteDatabase;        // ← add
 
+import com.example.anchornotes.data.search.GeoHash;
+import com.example.anchornotes.data.search.Trigrams;
+import com.example.anchornotes.util.NoteText;
+
+import java.util.ArrayList;
+import java.util.List;
+
 @Database(
         entities = {
                 NoteEntity.class,
                 TagEntity.class,
                 NoteTagCrossRef.class,
                 RelevantNoteEntity.class,
-                TemplateEntity.class
+                TemplateEntity.class,
+                NoteFtsEntity.class,
+                NoteTrigram.class,
+                ActiveGeofenceEntity.class,
+                ReminderQueueEntity.class
         },
-        version = 4,
+        version = 17,
         exportSchema = false
 )
 public abstract class AppDatabase extends RoomDatabase {
@@ -28,6 +42,8 @@ public abstract class AppDatabase extends RoomDatabase {
     public abstract NoteSearchDao noteSearchDao();
     public abstract RelevantDao relevantDao();
     public abstract TemplateDao templateDao();
+    public abstract ActiveGeofenceDao activeGeofenceDao();
+    public abstract ReminderQueueDao reminderQueueDao();
 
     private static volatile AppDatabase INSTANCE;
 
@@ -111,6 +127,275 @@ public abstract class AppDatabase extends RoomDatabase {
         }
     };
 
+    // v4 -> v5 migration: full-text index over notes (external content, kept in sync by triggers)
+    @VisibleForTesting
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            // must match the table Room generates for NoteFtsEntity
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `notes_fts` USING FTS4(" +
+                    "`title` TEXT, `bodyHtml` TEXT, tokenize=unicode61, content=`notes`)");
+
+            // same sync triggers Room creates on a fresh install
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_BEFORE_UPDATE " +
+                    "BEFORE UPDATE ON `notes` BEGIN DELETE FROM `notes_fts` WHERE `docid`=OLD.`rowid`; END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_BEFORE_DELETE " +
+                    "BEFORE DELETE ON `notes` BEGIN DELETE FROM `notes_fts` WHERE `docid`=OLD.`rowid`; END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_AFTER_UPDATE " +
+                    "AFTER UPDATE ON `notes` BEGIN INSERT INTO `notes_fts`(`docid`, `title`, `bodyHtml`) " +
+                    "VALUES (NEW.`rowid`, NEW.`title`, NEW.`bodyHtml`); END");
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_AFTER_INSERT " +
+                    "AFTER INSERT ON `notes` BEGIN INSERT INTO `notes_fts`(`docid`, `title`, `bodyHtml`) " +
+                    "VALUES (NEW.`rowid`, NEW.`title`, NEW.`bodyHtml`); END");
+
+            // backfill the index from the existing notes
+            db.execSQL("INSERT INTO `notes_fts`(`notes_fts`) VALUES('rebuild')");
+        }
+    };
+
+    // v5 -> v6 migration: stored plain-text body + preview, and index the plain text instead of HTML
+    @VisibleForTesting
+    public static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            // drop the HTML index first so the backfill below doesn't re-index every row twice
+            dropNotesFts(db);
+
+            try { db.execSQL("ALTER TABLE notes ADD COLUMN bodyText TEXT"); } catch (Exception ignored) {}
+            try { db.execSQL("ALTER TABLE notes ADD COLUMN previewText TEXT"); } catch (Exception ignored) {}
+
+            // backfill in id order, a batch at a time, so large accounts don't load every body at once
+            long lastId = -1;
+            while (true) {
+                List<Object[]> batch = new ArrayList<>();
+                try (Cursor c = db.query("SELECT id, bodyHtml FROM notes WHERE id > ? ORDER BY id LIMIT ?",
+                        new Object[]{lastId, BACKFILL_BATCH})) {
+                    while (c.moveToNext()) {
+                        String text = NoteText.toPlainText(c.getString(1));
+                        batch.add(new Object[]{text, NoteText.preview(text), c.getLong(0)});
+                    }
+                }
+                for (Object[] row : batch) {
+                    db.execSQL("UPDATE notes SET bodyText = ?, previewText = ? WHERE id = ?", row);
+                }
+                if (batch.size() < BACKFILL_BATCH) break;
+                lastId = (long) batch.get(batch.size() - 1)[2];
+            }
+
+            createNotesFts(db);
+        }
+    };
+
+    // v6 -> v7 migration: trigram table for substring search, filled from the stored plain text
+    private static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `note_trigrams` (" +
+                    "`gram` INTEGER NOT NULL, `noteId` INTEGER NOT NULL, PRIMARY KEY(`gram`, `noteId`), " +
+                    "FOREIGN KEY(`noteId`) REFERENCES `notes`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_trigrams_noteId` ON `note_trigrams` (`noteId`)");
+
+            long lastId = -1;
+            while (true) {
+                List<Object[]> batch = new ArrayList<>();
+                long batchLastId = lastId;
+                int notes = 0;
+                try (Cursor c = db.query("SELECT id, title, bodyText FROM notes WHERE id > ? ORDER BY id LIMIT ?",
+                        new Object[]{lastId, BACKFILL_BATCH})) {
+                    while (c.moveToNext()) {
+                        batchLastId = c.getLong(0);
+                        notes++;
+                        for (long gram : Trigrams.ofNote(c.getString(1), c.getString(2))) {
+                            batch.add(new Object[]{gram, batchLastId});
+                        }
+                    }
+                }
+                for (Object[] row : batch) {
+                    db.execSQL("INSERT OR IGNORE INTO note_trigrams (gram, noteId) VALUES (?, ?)", row);
+                }
+                if (notes < BACKFILL_BATCH) break;
+                lastId = batchLastId;
+            }
+        }
+    };
+
+    // v7 -> v8 migration: indexes for list order, search filters and reminder lookups
+    private static final Migration MIGRATION_7_8 = new Migration(7, 8) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_pinned_updatedAt` ON `notes` (`pinned`, `updatedAt`)");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_updatedAt` ON `notes` (`updatedAt`)");
+            createPartialNoteIndexes(db);
+
+            // the (tagId, noteId) index covers tag filters, which made the tagId-only one redundant
+            db.execSQL("DROP INDEX IF EXISTS `index_note_tag_cross_ref_tagId`");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_note_tag_cross_ref_tagId_noteId` " +
+                    "ON `note_tag_cross_ref` (`tagId`, `noteId`)");
+        }
+    };
+
+    // v8 -> v9 migration: geohash column for "near" filters, filled from the stored coordinates
+    private static final Migration MIGRATION_8_9 = new Migration(8, 9) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            try { db.execSQL("ALTER TABLE notes ADD COLUMN geohash TEXT"); } catch (Exception ignored) {}
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_geohash` ON `notes` (`geohash`)");
+
+            long lastId = -1;
+            while (true) {
+                List<Object[]> batch = new ArrayList<>();
+                try (Cursor c = db.query("SELECT id, latitude, longitude FROM notes WHERE id > ?" +
+                                " AND latitude IS NOT NULL AND longitude IS NOT NULL ORDER BY id LIMIT ?",
+                        new Object[]{lastId, BACKFILL_BATCH})) {
+                    while (c.moveToNext()) {
+                        batch.add(new Object[]{GeoHash.encode(c.getDouble(1), c.getDouble(2)), c.getLong(0)});
+                    }
+                }
+                for (Object[] row : batch) {
+                    db.execSQL("UPDATE notes SET geohash = ? WHERE id = ?", row);
+                }
+                if (batch.size() < BACKFILL_BATCH) break;
+                lastId = (long) batch.get(batch.size() - 1)[1];
+            }
+        }
+    };
+
+    // v9 -> v10 migration: per-note geofence retry count
+    private static final Migration MIGRATION_9_10 = new Migration(9, 10) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            try { db.execSQL("ALTER TABLE notes ADD COLUMN geofenceAttempts INTEGER NOT NULL DEFAULT 0"); } catch (Exception ignored) {}
+        }
+    };
+
+    // v10 -> v11 migration: geofence radius and scheduler slot
+    private static final Migration MIGRATION_10_11 = new Migration(10, 11) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            try { db.execSQL("ALTER TABLE notes ADD COLUMN geofenceRadius REAL"); } catch (Exception ignored) {}
+            try { db.execSQL("ALTER TABLE notes ADD COLUMN geofenceRegistered INTEGER NOT NULL DEFAULT 0"); } catch (Exception ignored) {}
+            // Geofences registered so far were added without a limit; every one holds a slot
+            // until the first rebalance trims them to the nearest.
+            db.execSQL("UPDATE notes SET geofenceRegistered = 1 WHERE reminderType = 'GEOFENCE'");
+            createGeofenceIndex(db);
+        }
+    };
+
+    // v11 -> v12 migration: geofence transitions look notes up by geofenceId
+    private static final Migration MIGRATION_11_12 = new Migration(11, 12) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_notes_geofenceId` ON `notes` (`geofenceId`)");
+        }
+    };
+
+    // v12 -> v13 migration: the set of geofences the user is inside moves from SharedPreferences
+    // to Room, so a transition updates it in the same transaction as the relevant notes.
+    // It starts empty and fills again with the next ENTER.
+    private static final Migration MIGRATION_12_13 = new Migration(12, 13) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `active_geofences` (`geofenceId` TEXT NOT NULL, " +
+                    "`enteredAt` INTEGER NOT NULL, PRIMARY KEY(`geofenceId`))");
+        }
+    };
+
+    // v13 -> v14 migration: time reminders wait in reminder_queue and share one alarm.
+    // Reminders still in the future are queued; their old per-note alarms drain the queue
+    // when they fire, so nothing is shown twice.
+    private static final Migration MIGRATION_13_14 = new Migration(13, 14) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `reminder_queue` (`noteId` INTEGER NOT NULL, " +
+                    "`fireAt` INTEGER NOT NULL, PRIMARY KEY(`noteId`))");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_reminder_queue_fireAt` ON `reminder_queue` (`fireAt`)");
+            db.execSQL("INSERT INTO reminder_queue (noteId, fireAt) SELECT id, reminderAt FROM notes " +
+                    "WHERE reminderType = 'TIME' AND reminderAt > strftime('%s', 'now') * 1000");
+        }
+    };
+
+    // v14 -> v15 migration: reminders may be delivered up to deadlineAt; queued ones stay exact
+    private static final Migration MIGRATION_14_15 = new Migration(14, 15) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            try { db.execSQL("ALTER TABLE reminder_queue ADD COLUMN deadlineAt INTEGER NOT NULL DEFAULT 0"); } catch (Exception ignored) {}
+            db.execSQL("UPDATE reminder_queue SET deadlineAt = fireAt");
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_reminder_queue_deadlineAt` ON `reminder_queue` (`deadlineAt`)");
+        }
+    };
+
+    // v15 -> v16 migration: time reminders can repeat (RRULE subset, see RecurrenceRule)
+    private static final Migration MIGRATION_15_16 = new Migration(15, 16) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            try { db.execSQL("ALTER TABLE notes ADD COLUMN reminderRule TEXT"); } catch (Exception ignored) {}
+        }
+    };
+
+    // v16 -> v17 migration: a geofence's centre is stored with it instead of being read from
+    // whichever note's location the query happens to return. Existing ones keep the location of
+    // their oldest note, the one most likely to have created them.
+    private static final Migration MIGRATION_16_17 = new Migration(16, 17) {
+        @Override public void migrate(@NonNull SupportSQLiteDatabase db) {
+            try { db.execSQL("ALTER TABLE notes ADD COLUMN geofenceLat REAL"); } catch (Exception ignored) {}
+            try { db.execSQL("ALTER TABLE notes ADD COLUMN geofenceLon REAL"); } catch (Exception ignored) {}
+            String first = "FROM notes AS n WHERE n.geofenceId = notes.geofenceId AND n.latitude IS NOT NULL" +
+                    " AND n.longitude IS NOT NULL ORDER BY n.id LIMIT 1";
+            db.execSQL("UPDATE notes SET geofenceLat = (SELECT n.latitude " + first + ")," +
+                    " geofenceLon = (SELECT n.longitude " + first + ") WHERE geofenceId IS NOT NULL");
+        }
+    };
+
+    /**
+     * Name and definition of the partial indexes on notes; each only holds the rows its query
+     * asks for. Room can't declare a WHERE clause, so NoteEntity declares them with the same
+     * name and columns (all Room's schema check compares) and they are recreated here.
+     */
+    private static final String[][] PARTIAL_NOTE_INDEXES = {
+            {"index_notes_photo_order", "ON `notes` (`pinned`, `updatedAt`) WHERE hasPhoto = 1"},
+            {"index_notes_voice_order", "ON `notes` (`pinned`, `updatedAt`) WHERE hasVoice = 1"},
+            {"index_notes_pending", "ON `notes` (`pendingActivation`) WHERE pendingActivation = 1"},
+            {"index_notes_reminderAt", "ON `notes` (`reminderAt`) WHERE reminderAt IS NOT NULL"},
+    };
+
+    private static void createPartialNoteIndexes(SupportSQLiteDatabase db) {
+        for (String[] index : PARTIAL_NOTE_INDEXES) {
+            db.execSQL("DROP INDEX IF EXISTS `" + index[0] + "`");
+            db.execSQL("CREATE INDEX `" + index[0] + "` " + index[1]);
+        }
+    }
+
+    /** Partial like the ones above; kept apart because MIGRATION_7_8 predates its column. */
+    private static void createGeofenceIndex(SupportSQLiteDatabase db) {
+        db.execSQL("DROP INDEX IF EXISTS `index_notes_geofence`");
+        db.execSQL("CREATE INDEX `index_notes_geofence` ON `notes` (`geofenceRegistered`)" +
+                " WHERE reminderType = 'GEOFENCE'");
+    }
+
+    /** On a fresh install Room creates the partial indexes as full ones; swap them right after. */
+    @VisibleForTesting
+    public static final RoomDatabase.Callback PARTIAL_INDEXES = new RoomDatabase.Callback() {
+        @Override public void onCreate(@NonNull SupportSQLiteDatabase db) {
+            createPartialNoteIndexes(db);
+            createGeofenceIndex(db);
+        }
+    };
+
+    private static final int BACKFILL_BATCH = 500;
+
+    private static void dropNotesFts(SupportSQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_notes_fts_BEFORE_UPDATE");
+        db.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_notes_fts_BEFORE_DELETE");
+        db.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_notes_fts_AFTER_UPDATE");
+        db.execSQL("DROP TRIGGER IF EXISTS room_fts_content_sync_notes_fts_AFTER_INSERT");
+        db.execSQL("DROP TABLE IF EXISTS `notes_fts`");
+    }
+
+    // must match the table and triggers Room generates for NoteFtsEntity
+    private static void createNotesFts(SupportSQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `notes_fts` USING FTS4(" +
+                "`title` TEXT, `bodyText` TEXT, tokenize=unicode61, content=`notes`)");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_BEFORE_UPDATE " +
+                "BEFORE UPDATE ON `notes` BEGIN DELETE FROM `notes_fts` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_BEFORE_DELETE " +
+                "BEFORE DELETE ON `notes` BEGIN DELETE FROM `notes_fts` WHERE `docid`=OLD.`rowid`; END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_AFTER_UPDATE " +
+                "AFTER UPDATE ON `notes` BEGIN INSERT INTO `notes_fts`(`docid`, `title`, `bodyText`) " +
+                "VALUES (NEW.`rowid`, NEW.`title`, NEW.`bodyText`); END");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_notes_fts_AFTER_INSERT " +
+                "AFTER INSERT ON `notes` BEGIN INSERT INTO `notes_fts`(`docid`, `title`, `bodyText`) " +
+                "VALUES (NEW.`rowid`, NEW.`title`, NEW.`bodyText`); END");
+        db.execSQL("INSERT INTO `notes_fts`(`notes_fts`) VALUES('rebuild')");
+    }
+
     public static AppDatabase get(Context context) {
         if (INSTANCE == null) {
             synchronized (AppDatabase.class) {
@@ -120,8 +405,11 @@ public abstract class AppDatabase extends RoomDatabase {
                                     AppDatabase.class,
                                     "anchornotes.db"
                             )
-                            .allowMainThreadQueries()          // OK for class project / quick testing
-                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4)      // preserves data across versions
+                            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7,
+                                    MIGRATION_7_8, MIGRATION_8_9, MIGRATION_9_10, MIGRATION_10_11,
+                                    MIGRATION_11_12, MIGRATION_12_13, MIGRATION_13_14,
+                                    MIGRATION_14_15, MIGRATION_15_16, MIGRATION_16_17)      // preserves data across versions
+                            .addCallback(PARTIAL_INDEXES)
                             // .fallbackToDestructiveMigration() // dev-only alternative if you want a wipe
                             .build();
                 }
@@ -129,4 +417,15 @@ public abstract class AppDatabase extends RoomDatabase {
         }
         return INSTANCE;
     }
+
+    /**
+     * Replaces the singleton. Robolectric runs tests on the main looper, so tests install an
+     * in-memory database that allows main-thread queries; pass null to go back to the real one.
+     */
+    @VisibleForTesting
+    public static void setInstanceForTesting(@Nullable AppDatabase db) {
+        synchronized (AppDatabase.class) {
+            INSTANCE = db;
+        }
+    }
 }
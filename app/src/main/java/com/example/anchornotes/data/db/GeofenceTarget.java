@@ -0,0 +1,16 @@
+package com.example.anchornotes.data.db;
+
+/**
+ * A geofence as the scheduler sees it: where it is and whether it holds a slot. One per
+ * geofenceId, read from the notes attached to it, see {@link NoteDao#getGeofenceTargets()}.
+ */
+public class GeofenceTarget {
+    public String geofenceId;
+    public double latitude;  // the geofence's centre, as stored on its notes
+    public double longitude;
+    public Float geofenceRadius; // null for reminders set before the radius was stored
+    public boolean geofenceRegistered;
+    public boolean pendingActivation;
+
+    public GeofenceTarget() {} // Room
+}
@@ -1,13 +1,19 @@
 package com.example.anchornotes.data.db;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 
+import com.example.anchornotes.data.PageKey;
+import com.example.anchornotes.data.search.GeoHash;
+
+import java.util.ArrayList;
 import java.util.List;
 
 @Dao
@@ -22,26 +28,101 @@ public interface NoteDao {
     @Delete
     void delete(NoteEntity note);
 
+    // --- Substring search (data/search/Trigrams); rows go away with the note by cascade ---
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertTrigrams(List<NoteTrigram> grams);
+
+    @Query("DELETE FROM note_trigrams WHERE noteId = :noteId")
+    void deleteTrigrams(long noteId);
+
+    /** Inserts a note together with its trigrams, so the two never disagree. */
+    @Transaction
+    default long insertWithTrigrams(NoteEntity note, long[] grams) {
+        long id = insert(note);
+        List<NoteTrigram> rows = new ArrayList<>(grams.length);
+        for (long g : grams) rows.add(new NoteTrigram(g, id));
+        insertTrigrams(rows);
+        return id;
+    }
+
+    /** Updates a note and replaces its trigrams in one transaction. */
+    @Transaction
+    default void updateWithTrigrams(NoteEntity note, long[] grams) {
+        update(note);
+        deleteTrigrams(note.id);
+        List<NoteTrigram> rows = new ArrayList<>(grams.length);
+        for (long g : grams) rows.add(new NoteTrigram(g, note.id));
+        insertTrigrams(rows);
+    }
+
+    /**
+     * Every note as a full entity. Kept for the instrumented and unit tests that check what was
+     * stored; screens page {@link NoteSummary} rows instead.
+     */
+    @VisibleForTesting
     @Query("SELECT * FROM notes ORDER BY pinned DESC, updatedAt DESC")
     List<NoteEntity> getAll();
 
+    // Keyset paging in list order; the id tie-breaker keeps pages stable when updatedAt repeats
+    @Query("SELECT " + NoteSummary.COLUMNS + " FROM notes ORDER BY pinned DESC, updatedAt DESC, id DESC LIMIT :limit")
+    List<NoteSummary> getFirstPage(int limit);
+
+    @Query("SELECT " + NoteSummary.COLUMNS + " FROM notes WHERE pinned < :pinned " +
+           "OR (pinned = :pinned AND (updatedAt < :updatedAt OR (updatedAt = :updatedAt AND id < :id))) " +
+           "ORDER BY pinned DESC, updatedAt DESC, id DESC LIMIT :limit")
+    List<NoteSummary> getPageAfter(boolean pinned, long updatedAt, long id, int limit);
+
+    // --- In-memory search index (data/search/InvertedIndex) ---
+
+    @Query("SELECT id, title, bodyText, pinned, updatedAt FROM notes WHERE id > :afterId ORDER BY id LIMIT :limit")
+    List<NoteIndexRow> getIndexRowsAfter(long afterId, int limit);
+
+    @Query("SELECT id, title, bodyText, pinned, updatedAt FROM notes WHERE id IN (:ids)")
+    List<NoteIndexRow> getIndexRowsByIds(List<Long> ids);
+
+    @Query("SELECT pinned, updatedAt, id FROM notes")
+    List<PageKey> getOrderKeys();
+
+    @Query("SELECT COUNT(*) AS count, COALESCE(SUM(id), 0) AS idSum, COALESCE(SUM(pinned), 0) AS pinnedCount," +
+           " COALESCE(MAX(updatedAt), 0) AS maxUpdatedAt FROM notes")
+    NoteOrderStamp getOrderStamp();
+
     @Query("SELECT * FROM notes WHERE id = :id LIMIT 1")
     NoteEntity getById(long id);   // ← added
 
+    @Query("SELECT * FROM notes WHERE id IN (:ids)")
+    List<NoteEntity> getByIds(List<Long> ids);
+
     @Query("UPDATE notes SET pinned = :pinned, updatedAt = :updatedAt WHERE id = :noteId")
     void setPinned(long noteId, boolean pinned, long updatedAt);
 
-    @Query("UPDATE notes SET latitude = :lat, longitude = :lon, locationLabel = :label, updatedAt = :updatedAt WHERE id = :noteId")
-    void updateLocation(long noteId, Double lat, Double lon, String label, long updatedAt);
+    @Query("UPDATE notes SET latitude = :lat, longitude = :lon, geohash = :geohash, locationLabel = :label, updatedAt = :updatedAt WHERE id = :noteId")
+    void updateLocationAndGeohash(long noteId, Double lat, Double lon, String geohash, String label, long updatedAt);
+
+    /** Sets the location and keeps the geohash that "near" searches probe in step with it. */
+    default void updateLocation(long noteId, Double lat, Double lon, String label, long updatedAt) {
+        String geohash = lat == null || lon == null ? null : GeoHash.encode(lat, lon);
+        updateLocationAndGeohash(noteId, lat, lon, geohash, label, updatedAt);
+    }
 
     // Reminder queries
-    @Query("UPDATE notes SET reminderType='TIME', reminderAt=:at, geofenceId=NULL, pendingActivation=0, updatedAt=:updatedAt WHERE id=:noteId")
+    @Query("UPDATE notes SET reminderType='TIME', reminderAt=:at, reminderRule=NULL, geofenceId=NULL, pendingActivation=0, geofenceRegistered=0, updatedAt=:updatedAt WHERE id=:noteId")
     int setReminderTime(long noteId, long at, long updatedAt);
 
-    @Query("UPDATE notes SET reminderType='GEOFENCE', reminderAt=NULL, geofenceId=:gid, pendingActivation=0, updatedAt=:updatedAt WHERE id=:noteId")
-    int setReminderGeofence(long noteId, String gid, long updatedAt);
+    /** A time reminder first due at {@code at} that repeats by {@code rule} (RecurrenceRule). */
+    @Query("UPDATE notes SET reminderType='TIME', reminderAt=:at, reminderRule=:rule, geofenceId=NULL, pendingActivation=0, geofenceRegistered=0, updatedAt=:updatedAt WHERE id=:noteId")
+    int setRepeatingReminderTime(long noteId, long at, String rule, long updatedAt);
+
+    /** Moves a repeating reminder on to its next occurrence; the note itself is unchanged. */
+    @Query("UPDATE notes SET reminderAt=:at WHERE id=:noteId AND reminderType='TIME'")
+    void advanceReminder(long noteId, long at);
+
+    /** A new geofence centred on (lat, lon); the note is its first member. */
+    @Query("UPDATE notes SET reminderType='GEOFENCE', reminderAt=NULL, reminderRule=NULL, geofenceId=:gid, geofenceLat=:lat, geofenceLon=:lon, geofenceRadius=:radiusMeters, pendingActivation=0, geofenceRegistered=0, updatedAt=:updatedAt WHERE id=:noteId")
+    int setReminderGeofence(long noteId, String gid, double lat, double lon, float radiusMeters, long updatedAt);
 
-    @Query("UPDATE notes SET reminderType=NULL, reminderAt=NULL, geofenceId=NULL, pendingActivation=0, updatedAt=:updatedAt WHERE id=:noteId")
+    @Query("UPDATE notes SET reminderType=NULL, reminderAt=NULL, reminderRule=NULL, geofenceId=NULL, pendingActivation=0, geofenceRegistered=0, updatedAt=:updatedAt WHERE id=:noteId")
     int clearReminder(long noteId, long updatedAt);
 
     @Query("SELECT * FROM notes WHERE id=:noteId LIMIT 1")
@@ -50,7 +131,70 @@ public interface NoteDao {
     @Query("SELECT * FROM notes WHERE pendingActivation=1")
     List<NoteEntity> getPendingActivationNotes();
 
-    @Query("UPDATE notes SET pendingActivation=:pending WHERE id=:noteId")
+    @Query("UPDATE notes SET pendingActivation=:pending, geofenceAttempts=0 WHERE id=:noteId")
     void setPendingActivation(long noteId, boolean pending);
 
+    /** Geofences registered by the retry worker; their notes stop being pending. */
+    @Query("UPDATE notes SET pendingActivation=0, geofenceAttempts=0 WHERE geofenceId IN (:geofenceIds)")
+    void markGeofencesActive(List<String> geofenceIds);
+
+    /** One more failed registration attempt for each of these pending geofences. */
+    @Query("UPDATE notes SET geofenceAttempts=geofenceAttempts+1 WHERE geofenceId IN (:geofenceIds)")
+    void recordGeofenceFailures(List<String> geofenceIds);
+
+    /** Geofences that failed to register; the retry worker picks them up. */
+    @Query("UPDATE notes SET pendingActivation=1, geofenceAttempts=0 WHERE geofenceId IN (:geofenceIds)")
+    void markGeofencesPending(List<String> geofenceIds);
+
+    // --- Geofence scheduler (context/GeofenceScheduler). Notes whose circles nearly coincide
+    // share a geofenceId and are registered as one geofence; slot state, centre and radius are
+    // kept on every one. ---
+
+    /**
+     * Every geofence the scheduler can place, registered or not, once per geofenceId. Centre
+     * and radius are the same on every note of a geofence, so any row of the group gives them.
+     */
+    @Query("SELECT geofenceId, geofenceLat AS latitude, geofenceLon AS longitude, geofenceRadius," +
+            " MAX(geofenceRegistered) AS geofenceRegistered, MAX(pendingActivation) AS pendingActivation" +
+            " FROM notes WHERE reminderType = 'GEOFENCE' AND geofenceId IS NOT NULL" +
+            " AND geofenceLat IS NOT NULL AND geofenceLon IS NOT NULL GROUP BY geofenceId")
+    List<GeofenceTarget> getGeofenceTargets();
+
+    @Query("SELECT COUNT(DISTINCT geofenceId) FROM notes WHERE reminderType = 'GEOFENCE' AND geofenceRegistered = :registered")
+    int countGeofences(boolean registered);
+
+    @Query("SELECT COUNT(*) FROM notes WHERE geofenceId = :geofenceId")
+    int countNotesWithGeofence(String geofenceId);
+
+    /** The notes a geofence transition is for. */
+    @Query("SELECT * FROM notes WHERE geofenceId IN (:geofenceIds)")
+    List<NoteEntity> getByGeofenceIds(List<String> geofenceIds);
+
+    /** Attaches a note to an existing geofence, taking over its centre, radius, slot and pending state. */
+    @Query("UPDATE notes SET reminderType='GEOFENCE', reminderAt=NULL, reminderRule=NULL, geofenceId=:gid, geofenceLat=:lat, geofenceLon=:lon, geofenceRadius=:radiusMeters, pendingActivation=:pending, geofenceAttempts=0, geofenceRegistered=:registered, updatedAt=:updatedAt WHERE id=:noteId")
+    int joinGeofence(long noteId, String gid, double lat, double lon, float radiusMeters,
+                     boolean registered, boolean pending, long updatedAt);
+
+    /** Gives these geofences a slot or takes it away; either way they are no longer pending. */
+    @Query("UPDATE notes SET geofenceRegistered=:registered, pendingActivation=0, geofenceAttempts=0 WHERE geofenceId IN (:geofenceIds)")
+    void setGeofencesRegistered(List<String> geofenceIds, boolean registered);
+
+    /** After a reboot or update nothing is registered any more; every geofence gives up its slot. */
+    @Query("UPDATE notes SET geofenceRegistered=0 WHERE reminderType='GEOFENCE' AND geofenceRegistered=1")
+    void clearGeofenceSlots();
+
+    @Transaction
+    default void moveGeofenceSlots(List<String> slotted, List<String> released) {
+        if (!slotted.isEmpty()) setGeofencesRegistered(slotted, true);
+        if (!released.isEmpty()) setGeofencesRegistered(released, false);
+    }
+
+    /**
+     * One page of the time reminders still to come, in (reminderAt, id) order after the given
+     * key, shaped as exact reminder_queue rows.
+     */
+    @Query("SELECT id AS noteId, reminderAt AS fireAt, reminderAt AS deadlineAt FROM notes " +
+           "WHERE reminderType='TIME' AND reminderAt IS NOT NULL AND reminderAt >= :afterAt " +
+           "AND (reminderAt > :afterAt OR id > :afterId) ORDER BY reminderAt, id LIMIT :limit")
+    List<ReminderQueueEntity> getTimeRemindersAfter(long afterAt, long afterId, int limit);
 }
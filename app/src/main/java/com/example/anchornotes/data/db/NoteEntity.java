@@ -2,13 +2,30 @@ package com.example.anchornotes.data.db;
 
 import androidx.room.Entity;
 import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
-@Entity(tableName = "notes")
+// Indexes follow the queries: list order (keyset paging, also read backwards for DESC), date
+// range, the flag filters and the geofence scheduler. The photo, voice, pending, reminderAt and
+// geofence indexes are partial, see AppDatabase.PARTIAL_NOTE_INDEXES.
+@Entity(tableName = "notes",
+        indices = {
+                @Index({"pinned", "updatedAt"}),
+                @Index("updatedAt"),
+                @Index(value = {"pinned", "updatedAt"}, name = "index_notes_photo_order"),
+                @Index(value = {"pinned", "updatedAt"}, name = "index_notes_voice_order"),
+                @Index(value = "pendingActivation", name = "index_notes_pending"),
+                @Index(value = "reminderAt", name = "index_notes_reminderAt"),
+                @Index("geohash"),
+                @Index(value = "geofenceRegistered", name = "index_notes_geofence"),
+                @Index("geofenceId")
+        })
 public class NoteEntity {
     @PrimaryKey(autoGenerate = true) public long id;
     public String title;
     public String bodyHtml;
+    public String bodyText;    // bodyHtml as plain text, derived on write
+    public String previewText; // first NoteText.PREVIEW_LENGTH chars of bodyText
     public boolean hasPhoto;
     public String photoUri;
     public boolean hasVoice;
@@ -20,15 +37,26 @@ public class NoteEntity {
     public Double latitude;
     public Double longitude;
     public String locationLabel;
+    public String geohash;     // GeoHash of latitude/longitude, for "near" filters; set with them
     
     // Reminder fields
     @androidx.annotation.Nullable
     public String reminderType; // "TIME" | "GEOFENCE" | null
     @androidx.annotation.Nullable
-    public Long reminderAt; // millis if TIME
+    public Long reminderAt; // millis if TIME; the next occurrence of a repeating reminder
     @androidx.annotation.Nullable
-    public String geofenceId; // stable id like "note-{id}"
+    public String reminderRule; // RecurrenceRule if a TIME reminder repeats
+    @androidx.annotation.Nullable
+    public String geofenceId; // "place-..." shared by notes at the same place; older ones "note-{id}"
+    @androidx.annotation.Nullable
+    public Double geofenceLat; // centre of the geofence, the same on every note sharing it
+    @androidx.annotation.Nullable
+    public Double geofenceLon;
     public boolean pendingActivation; // true if geofence registration failed
+    public int geofenceAttempts; // failed retries while pendingActivation
+    @androidx.annotation.Nullable
+    public Float geofenceRadius; // meters if GEOFENCE
+    public boolean geofenceRegistered; // holds one of GeofenceScheduler's slots (registered or pending retry)
 
     public NoteEntity() {} // Room
     
@@ -0,0 +1,22 @@
+package com.example.anchornotes.data.db;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.FtsOptions;
+import androidx.room.PrimaryKey;
+
+/**
+ * Full-text index over notes. Uses external content (the `notes` table), so Room keeps it
+ * in sync through triggers and only the index itself is stored here.
+ */
+@Fts4(contentEntity = NoteEntity.class, tokenizer = FtsOptions.TOKENIZER_UNICODE61)
+@Entity(tableName = "notes_fts")
+public class NoteFtsEntity {
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    public long rowid;
+
+    public String title;
+    public String bodyText;
+}
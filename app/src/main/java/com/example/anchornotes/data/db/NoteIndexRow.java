@@ -0,0 +1,10 @@
+package com.example.anchornotes.data.db;
+
+/** What the in-memory search index needs from a note: its text and its list order key. */
+public class NoteIndexRow {
+    public long id;
+    public String title;
+    public String bodyText;
+    public boolean pinned;
+    public long updatedAt;
+}
@@ -0,0 +1,18 @@
+package com.example.anchornotes.data.db;
+
+/**
+ * Summary of every note's list order key, read in one aggregate over the (pinned, updatedAt)
+ * index. A write that inserts, deletes, pins or touches a note changes it, so the in-memory
+ * search index can tell an unrelated write (reminder flags, geofence slots) from one it missed.
+ */
+public class NoteOrderStamp {
+    public int count;
+    public long idSum;
+    public int pinnedCount;
+    public long maxUpdatedAt;
+
+    public boolean sameAs(NoteOrderStamp o) {
+        return count == o.count && idSum == o.idSum
+                && pinnedCount == o.pinnedCount && maxUpdatedAt == o.maxUpdatedAt;
+    }
+}
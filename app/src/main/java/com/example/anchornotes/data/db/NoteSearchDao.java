@@ -8,5 +8,5 @@ import java.util.List;
 @Dao
 public interface NoteSearchDao {
     @RawQuery(observedEntities = {NoteEntity.class})
-    List<NoteEntity> search(SupportSQLiteQuery query);
+    List<NoteSummary> search(SupportSQLiteQuery query);
 }
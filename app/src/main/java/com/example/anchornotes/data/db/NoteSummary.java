@@ -0,0 +1,54 @@
+package com.example.anchornotes.data.db;
+
+import androidx.room.Ignore;
+
+/**
+ * Row projection used by every list and search query. Carries only what a list row shows,
+ * so the multi-KB bodyHtml never leaves SQLite for list rendering. Load the full
+ * {@link NoteEntity} when the note is opened.
+ */
+public class NoteSummary {
+    /** Column list for queries over `notes` that return this projection. */
+    public static final String COLUMNS =
+            "id, title, pinned, updatedAt, hasPhoto, hasVoice, previewText AS preview";
+
+    public long id;
+    public String title;
+    public boolean pinned;
+    public long updatedAt;
+    public boolean hasPhoto;
+    public boolean hasVoice;
+    public String preview; // stored plain-text snippet, see NoteText
+
+    /** Body excerpt around the search hits; null outside search or when only the title matched. */
+    @Ignore public String snippet;
+    /** Hit ranges in {@link #snippet} as [start, end) pairs; see data/search/Snippets. */
+    @Ignore public int[] highlights;
+
+    public NoteSummary() {} // Room
+
+    public NoteSummary copy() {
+        NoteSummary c = new NoteSummary();
+        c.id = id;
+        c.title = title;
+        c.pinned = pinned;
+        c.updatedAt = updatedAt;
+        c.hasPhoto = hasPhoto;
+        c.hasVoice = hasVoice;
+        c.preview = preview;
+        c.snippet = snippet;
+        c.highlights = highlights;
+        return c;
+    }
+
+    /** True if a list row showing {@code o} would look the same as one showing this. */
+    public boolean sameContentAs(NoteSummary o) {
+        return pinned == o.pinned
+                && hasPhoto == o.hasPhoto
+                && hasVoice == o.hasVoice
+                && java.util.Objects.equals(title, o.title)
+                && java.util.Objects.equals(preview, o.preview)
+                && java.util.Objects.equals(snippet, o.snippet)
+                && java.util.Arrays.equals(highlights, o.highlights);
+    }
+}
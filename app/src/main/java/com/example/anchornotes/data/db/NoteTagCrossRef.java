@@ -11,7 +11,8 @@ import androidx.room.Index;
                 @ForeignKey(entity = NoteEntity.class, parentColumns = "id", childColumns = "noteId", onDelete = ForeignKey.CASCADE),
                 @ForeignKey(entity = TagEntity.class, parentColumns = "id", childColumns = "tagId", onDelete = ForeignKey.CASCADE)
         },
-        indices = {@Index("noteId"), @Index("tagId")}
+        // tagId first and noteId second, so tag filters are answered from the index alone
+        indices = {@Index("noteId"), @Index({"tagId", "noteId"})}
 )
 public class NoteTagCrossRef {
     public long noteId;
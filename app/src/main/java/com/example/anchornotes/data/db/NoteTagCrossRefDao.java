@@ -5,6 +5,8 @@ import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
 
+import java.util.List;
+
 @Dao
 public interface NoteTagCrossRefDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
@@ -12,4 +14,8 @@ public interface NoteTagCrossRefDao {
 
     @Query("DELETE FROM note_tag_cross_ref WHERE noteId = :noteId AND tagId = :tagId")
     void delete(long noteId, long tagId);
+
+    /** Every link; read once to build the tag bitmaps. */
+    @Query("SELECT * FROM note_tag_cross_ref")
+    List<NoteTagCrossRef> getAll();
 }
@@ -0,0 +1,27 @@
+package com.example.anchornotes.data.db;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+
+/**
+ * One trigram of a note's title or plain-text body (see data/search/Trigrams). Rows are
+ * rewritten with the note and removed with it by the cascade.
+ */
+@Entity(
+        tableName = "note_trigrams",
+        primaryKeys = {"gram", "noteId"},
+        foreignKeys = {
+                @ForeignKey(entity = NoteEntity.class, parentColumns = "id", childColumns = "noteId", onDelete = ForeignKey.CASCADE)
+        },
+        indices = {@Index("noteId")}
+)
+public class NoteTrigram {
+    public long gram;
+    public long noteId;
+
+    public NoteTrigram(long gram, long noteId) {
+        this.gram = gram;
+        this.noteId = noteId;
+    }
+}
@@ -14,8 +14,14 @@ public interface RelevantDao {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     void upsert(RelevantNoteEntity entity);
     
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertAll(List<RelevantNoteEntity> entities);
+
     @Query("DELETE FROM relevant WHERE noteId = :noteId")
     void delete(long noteId);
+
+    @Query("DELETE FROM relevant WHERE noteId IN (:noteIds)")
+    void deleteAll(List<Long> noteIds);
     
     @Query("DELETE FROM relevant WHERE expiresAt <= :now")
     int expire(long now);
@@ -23,6 +29,11 @@ public interface RelevantDao {
     @Query("SELECT * FROM relevant WHERE expiresAt > :now ORDER BY expiresAt ASC")
     LiveData<List<RelevantNoteEntity>> liveRelevant(long now);
     
+    @Query("SELECT " + NoteSummary.COLUMNS + ", relevant.expiresAt FROM relevant " +
+           "INNER JOIN notes ON notes.id = relevant.noteId " +
+           "WHERE relevant.expiresAt > :now ORDER BY relevant.expiresAt ASC")
+    LiveData<List<RelevantNoteSummary>> liveRelevantNotes(long now);
+
     @Query("SELECT * FROM relevant WHERE noteId = :noteId LIMIT 1")
     RelevantNoteEntity getByNoteId(long noteId);
 }
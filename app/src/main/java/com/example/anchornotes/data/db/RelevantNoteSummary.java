@@ -0,0 +1,9 @@
+package com.example.anchornotes.data.db;
+
+import androidx.room.Embedded;
+
+/** A relevant note joined with its list projection, loaded in one query. */
+public class RelevantNoteSummary {
+    @Embedded public NoteSummary note;
+    public long expiresAt;
+}
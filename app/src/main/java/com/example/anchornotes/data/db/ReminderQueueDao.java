@@ -0,0 +1,48 @@
+package com.example.anchornotes.data.db;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+import androidx.room.Transaction;
+
+import java.util.List;
+
+@Dao
+public interface ReminderQueueDao {
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(ReminderQueueEntity entity);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertAll(List<ReminderQueueEntity> entities);
+
+    /** Queues the reminders not queued yet; queued ones keep their tolerance. */
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    void insertMissing(List<ReminderQueueEntity> entities);
+
+    @Query("DELETE FROM reminder_queue WHERE noteId = :noteId")
+    void delete(long noteId);
+
+    /** The earliest deadline in the queue; null when none is queued. */
+    @Query("SELECT MIN(deadlineAt) FROM reminder_queue")
+    Long nextDeadline();
+
+    /** The latest due time among reminders due by {@code deadline}. */
+    @Query("SELECT MAX(fireAt) FROM reminder_queue WHERE fireAt <= :deadline")
+    Long latestFireAtBy(long deadline);
+
+    @Query("SELECT * FROM reminder_queue WHERE fireAt <= :now ORDER BY fireAt")
+    List<ReminderQueueEntity> getDue(long now);
+
+    @Query("DELETE FROM reminder_queue WHERE fireAt <= :now")
+    void deleteDue(long now);
+
+    /** Removes and returns every reminder due by {@code now}, earliest first. */
+    @Transaction
+    default List<ReminderQueueEntity> takeDue(long now) {
+        List<ReminderQueueEntity> due = getDue(now);
+        if (!due.isEmpty()) deleteDue(now);
+        return due;
+    }
+}
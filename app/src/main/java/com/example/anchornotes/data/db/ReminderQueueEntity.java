@@ -0,0 +1,30 @@
+package com.example.anchornotes.data.db;
+
+import androidx.room.Entity;
+import androidx.room.Ignore;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * A time reminder that hasn't fired yet. It may be delivered anywhere from fireAt to deadlineAt;
+ * for an exact reminder the two are equal. Only the reminders due first share an alarm;
+ * see {@link com.example.anchornotes.context.ReminderManager}.
+ */
+@Entity(tableName = "reminder_queue", indices = {@Index("fireAt"), @Index("deadlineAt")})
+public class ReminderQueueEntity {
+    @PrimaryKey
+    public long noteId;
+
+    public long fireAt; // System.currentTimeMillis() when the reminder is due
+
+    public long deadlineAt; // latest delivery the user accepts
+
+    public ReminderQueueEntity() {} // Room
+
+    @Ignore
+    public ReminderQueueEntity(long noteId, long fireAt, long deadlineAt) {
+        this.noteId = noteId;
+        this.fireAt = fireAt;
+        this.deadlineAt = deadlineAt;
+    }
+}
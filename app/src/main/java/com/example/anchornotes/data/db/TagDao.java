@@ -1,5 +1,6 @@
 package com.example.anchornotes.data.db;
 
+import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Insert;
 import androidx.room.OnConflictStrategy;
@@ -12,6 +13,12 @@ public interface TagDao {
     @Query("SELECT * FROM tags ORDER BY name ASC")
     List<TagEntity> getAll();
 
+    @Query("SELECT * FROM tags ORDER BY name ASC")
+    LiveData<List<TagEntity>> observeAll();
+
+    @Query("SELECT * FROM tags WHERE id IN (:ids)")
+    List<TagEntity> getByIds(List<Long> ids);
+
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     long insert(TagEntity tag);
 
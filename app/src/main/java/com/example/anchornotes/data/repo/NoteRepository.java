@@ -2,59 +2,146 @@ package com.example.anchornotes.data.repo;
 
 import android.content.Context;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.Transformations;
 
 import com.example.anchornotes.context.GeofenceManager;
+import com.example.anchornotes.context.GeofenceScheduler;
 import com.example.anchornotes.context.ReminderManager;
+import com.example.anchornotes.context.ReminderPayloads;
+import com.example.anchornotes.data.PageKey;
 import com.example.anchornotes.data.db.AppDatabase;
 import com.example.anchornotes.data.db.NoteDao;
 import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.db.NoteSummary;
 import com.example.anchornotes.data.db.RelevantDao;
 import com.example.anchornotes.data.db.RelevantNoteEntity;
+import com.example.anchornotes.data.db.RelevantNoteSummary;
+import com.example.anchornotes.data.search.InvertedIndex;
+import com.example.anchornotes.data.search.TagBitmapIndex;
+import com.example.anchornotes.data.search.Trigrams;
 import com.example.anchornotes.model.PlaceSelection;
+import com.example.anchornotes.model.RecurrenceRule;
 import com.example.anchornotes.model.ReminderConflict;
 import com.example.anchornotes.model.ReminderType;
 import com.example.anchornotes.model.RelevantNoteUi;
+import com.example.anchornotes.util.AppExecutors;
+import com.example.anchornotes.util.NoteText;
+import com.example.anchornotes.worker.GeofenceRetryWorker;
 
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 public class NoteRepository {
-    private static final ExecutorService ioExecutor = Executors.newFixedThreadPool(4);
+    private static final Executor readExecutor = AppExecutors.uiRead();
+    private static final Executor writeExecutor = AppExecutors.userWrite();
+    private static final Executor maintenanceExecutor = AppExecutors.maintenance();
 
     private final NoteDao noteDao;
     private final RelevantDao relevantDao;
     private final Context appContext;
+    /** In-memory search index to keep current on text, order and delete writes; may be null. */
+    @Nullable private final InvertedIndex searchIndex;
+    /** Tag bitmaps to drop deleted notes from; may be null. */
+    @Nullable private final TagBitmapIndex tagIndex;
     private ReminderManager reminderManager;
     private GeofenceManager geofenceManager;
+    private GeofenceScheduler geofenceScheduler;
+    /** Pre-rendered reminder notifications to keep in step with edits; null without a context. */
+    @Nullable private ReminderPayloads reminderPayloads;
 
     public NoteRepository(NoteDao noteDao) {
         this.noteDao = noteDao;
         this.relevantDao = null;
         this.appContext = null;
+        this.searchIndex = null;
+        this.tagIndex = null;
     }
 
     public NoteRepository(NoteDao noteDao, RelevantDao relevantDao, Context appContext) {
+        this(noteDao, relevantDao, appContext, null, null);
+    }
+
+    public NoteRepository(NoteDao noteDao, RelevantDao relevantDao, Context appContext,
+                          @Nullable InvertedIndex searchIndex) {
+        this(noteDao, relevantDao, appContext, searchIndex, null);
+    }
+
+    public NoteRepository(NoteDao noteDao, RelevantDao relevantDao, Context appContext,
+                          @Nullable InvertedIndex searchIndex, @Nullable TagBitmapIndex tagIndex) {
         this.noteDao = noteDao;
         this.relevantDao = relevantDao;
+        this.searchIndex = searchIndex;
+        this.tagIndex = tagIndex;
         this.appContext = appContext.getApplicationContext();
         this.reminderManager = new ReminderManager(this.appContext);
         this.geofenceManager = new GeofenceManager(this.appContext);
+        this.geofenceScheduler = new GeofenceScheduler(this.appContext, noteDao, geofenceManager);
+        this.reminderPayloads = new ReminderPayloads(this.appContext);
     }
 
+    /** Every note as a full entity, for tests; see {@link NoteDao#getAll()}. */
+    @VisibleForTesting
     public List<NoteEntity> getAll() {
         return noteDao.getAll();
     }
 
+    /** One page of the home list, starting after {@code after} (null = first page). */
+    public List<NoteSummary> getPage(@Nullable PageKey after, int limit) {
+        if (after == null) return noteDao.getFirstPage(limit);
+        return noteDao.getPageAfter(after.pinned, after.updatedAt, after.id, limit);
+    }
+
     /** Get one note for editor prefill. */
     public NoteEntity get(long id) {                // ← added
         return noteDao.getById(id);
     }
 
-    /** Create or update a note; preserves createdAt on update. */
+    /** Live view of one note; Room re-queries off the main thread whenever it changes. */
+    public LiveData<NoteEntity> observe(long id) {
+        return noteDao.observeNote(id);
+    }
+
+    // ========== Async API (safe to call from the main thread) ==========
+
+    public CompletableFuture<List<NoteSummary>> getPageAsync(@Nullable PageKey after, int limit) {
+        return CompletableFuture.supplyAsync(() -> getPage(after, limit), readExecutor);
+    }
+
+    public CompletableFuture<NoteEntity> getAsync(long id) {
+        return CompletableFuture.supplyAsync(() -> get(id), readExecutor);
+    }
+
+    public CompletableFuture<Long> createOrUpdateAsync(Long id,
+                                                       String title,
+                                                       String bodyHtml,
+                                                       String photoUri,
+                                                       String voiceUri,
+                                                       boolean pinned) {
+        return CompletableFuture.supplyAsync(
+                () -> createOrUpdate(id, title, bodyHtml, photoUri, voiceUri, pinned), writeExecutor);
+    }
+
+    public CompletableFuture<Void> deleteAsync(long noteId) {
+        return CompletableFuture.runAsync(() -> delete(noteId), writeExecutor);
+    }
+
+    public CompletableFuture<Void> setPinnedAsync(long noteId, boolean pinned) {
+        return CompletableFuture.runAsync(() -> setPinned(noteId, pinned), writeExecutor);
+    }
+
+    public CompletableFuture<Void> setLocationAsync(long noteId, Double lat, Double lon, String label) {
+        return CompletableFuture.runAsync(() -> setLocation(noteId, lat, lon, label), writeExecutor);
+    }
+
+    /** Create or update a note; an update keeps createdAt, the location and any reminder. */
     public long createOrUpdate(Long id,
                                String title,
                                String bodyHtml,
@@ -76,33 +163,86 @@ public class NoteRepository {
                     now,         // createdAt
                     now          // updatedAt
             );
-            return noteDao.insert(e);
+            fillDerivedText(e);
+            long newId = noteDao.insertWithTrigrams(e, Trigrams.ofNote(e.title, e.bodyText));
+            indexText(newId, e);
+            return newId;
         } else {
-            NoteEntity old = noteDao.getById(id);
-            long created = (old != null ? old.createdAt : now); // preserve
-            NoteEntity e = new NoteEntity(
-                    id,
-                    safe(title),
-                    safe(bodyHtml),
-                    notEmpty(photoUri),
-                    photoUri,
-                    notEmpty(voiceUri),
-                    voiceUri,
-                    pinned,
-                    created,     // keep original createdAt
-                    now          // updatedAt
-            );
-            noteDao.update(e);
+            NoteEntity e = noteDao.getById(id);
+            if (e == null) {
+                e = new NoteEntity(id, null, null, false, null, false, null, false, now, now);
+            }
+            // edit the stored row so the update keeps what the editor doesn't own:
+            // createdAt, location, reminder and geofence
+            e.title = safe(title);
+            e.bodyHtml = safe(bodyHtml);
+            e.hasPhoto = notEmpty(photoUri);
+            e.photoUri = photoUri;
+            e.hasVoice = notEmpty(voiceUri);
+            e.voiceUri = voiceUri;
+            e.pinned = pinned;
+            e.updatedAt = now;
+            fillDerivedText(e);
+            noteDao.updateWithTrigrams(e, Trigrams.ofNote(e.title, e.bodyText));
+            indexText(id, e);
+            if (reminderPayloads != null) {
+                reminderPayloads.update(e);
+            }
             return id;
         }
     }
 
+    /** Deletes a note, cancelling its reminder or geofence first. */
+    public void delete(long noteId) {
+        NoteEntity note = noteDao.getById(noteId);
+        if (note == null) return;
+        if (ReminderType.TIME == parseReminderType(note.reminderType) && reminderManager != null) {
+            reminderManager.cancel(noteId);
+        }
+        noteDao.delete(note);
+        if (ReminderType.GEOFENCE == parseReminderType(note.reminderType) && geofenceScheduler != null) {
+            // other notes at the same place may still use the geofence
+            geofenceScheduler.release(note.geofenceId);
+        }
+        if (reminderPayloads != null) {
+            reminderPayloads.remove(noteId);
+        }
+        if (relevantDao != null) {
+            relevantDao.delete(noteId);
+        }
+        if (searchIndex != null) {
+            searchIndex.remove(noteId);
+        }
+        if (tagIndex != null) {
+            tagIndex.noteRemoved(noteId);
+        }
+    }
+
+    private void indexText(long id, NoteEntity e) {
+        if (searchIndex != null) {
+            searchIndex.upsert(id, e.title, e.bodyText, e.pinned, e.updatedAt);
+        }
+    }
+
+    /** Tells the search index a write moved the note to {@code updatedAt} in the list order. */
+    private void indexTouched(long id, long updatedAt) {
+        if (searchIndex != null) {
+            searchIndex.touch(id, updatedAt);
+        }
+    }
+
     public void setPinned(long noteId, boolean pinned) {
-        noteDao.setPinned(noteId, pinned, System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        noteDao.setPinned(noteId, pinned, now);
+        if (searchIndex != null) {
+            searchIndex.setPinned(noteId, pinned, now);
+        }
     }
 
     public void setLocation(long noteId, Double lat, Double lon, String label) {
-        noteDao.updateLocation(noteId, lat, lon, label, System.currentTimeMillis());
+        long now = System.currentTimeMillis();
+        noteDao.updateLocation(noteId, lat, lon, label, now);
+        indexTouched(noteId, now);
     }
 
     // ========== Reminder Management ==========
@@ -114,7 +254,20 @@ public class NoteRepository {
                                        Consumer<ReminderConflict> onConflict,
                                        Runnable onScheduled,
                                        Consumer<Throwable> onError) {
-        ioExecutor.execute(() -> {
+        requestSetTimeReminder(noteId, atMillis, 0, null, onConflict, onScheduled, onError);
+    }
+
+    /**
+     * Requests to set a time reminder that may arrive up to {@code toleranceMs} late, which
+     * lets its wakeup be shared with others, and repeats by {@code repeat} if given.
+     * Checks for conflicts like the exact one.
+     */
+    public void requestSetTimeReminder(long noteId, long atMillis, long toleranceMs,
+                                       @Nullable RecurrenceRule repeat,
+                                       Consumer<ReminderConflict> onConflict,
+                                       Runnable onScheduled,
+                                       Consumer<Throwable> onError) {
+        writeExecutor.execute(() -> {
             NoteEntity note = noteDao.getById(noteId);
             if (note == null) {
                 onError.accept(new IllegalArgumentException("Note not found"));
@@ -129,7 +282,7 @@ public class NoteRepository {
             }
 
             // No conflict, proceed
-            confirmReplaceWithTime(noteId, atMillis, onScheduled, onError);
+            confirmReplaceWithTime(noteId, atMillis, toleranceMs, repeat, onScheduled, onError);
         });
     }
 
@@ -140,7 +293,7 @@ public class NoteRepository {
                                            Consumer<ReminderConflict> onConflict,
                                            Runnable onScheduled,
                                            Consumer<Throwable> onError) {
-        ioExecutor.execute(() -> {
+        writeExecutor.execute(() -> {
             NoteEntity note = noteDao.getById(noteId);
             if (note == null) {
                 onError.accept(new IllegalArgumentException("Note not found"));
@@ -165,25 +318,42 @@ public class NoteRepository {
     public void confirmReplaceWithTime(long noteId, long atMillis,
                                        Runnable onScheduled,
                                        Consumer<Throwable> onError) {
-        ioExecutor.execute(() -> {
+        confirmReplaceWithTime(noteId, atMillis, 0, null, onScheduled, onError);
+    }
+
+    /**
+     * As above, for a reminder that may arrive up to {@code toleranceMs} late and repeats by
+     * {@code repeat} if given; {@code atMillis} is its first occurrence.
+     */
+    public void confirmReplaceWithTime(long noteId, long atMillis, long toleranceMs,
+                                       @Nullable RecurrenceRule repeat,
+                                       Runnable onScheduled,
+                                       Consumer<Throwable> onError) {
+        writeExecutor.execute(() -> {
             try {
-                // Cancel existing reminder
+                // an earlier time reminder is replaced by schedule below
                 NoteEntity note = noteDao.getById(noteId);
-                if (note != null) {
-                    if (ReminderType.GEOFENCE == parseReminderType(note.reminderType)) {
-                        if (note.geofenceId != null && geofenceManager != null) {
-                            geofenceManager.removeForNote(note.geofenceId);
-                        }
-                    } else if (reminderManager != null) {
-                        reminderManager.cancel(noteId);
-                    }
-                }
 
                 long now = System.currentTimeMillis();
-                noteDao.setReminderTime(noteId, atMillis, now);
+                if (repeat == null) {
+                    noteDao.setReminderTime(noteId, atMillis, now);
+                } else {
+                    // days and time of day come from the first occurrence, so they don't drift
+                    String rule = repeat.anchoredAt(atMillis, ZoneId.systemDefault()).toString();
+                    noteDao.setRepeatingReminderTime(noteId, atMillis, rule, now);
+                }
+                indexTouched(noteId, now);
+                if (note != null && ReminderType.GEOFENCE == parseReminderType(note.reminderType)
+                        && geofenceScheduler != null) {
+                    geofenceScheduler.release(note.geofenceId);
+                }
 
                 if (reminderManager != null) {
-                    reminderManager.scheduleExact(noteId, atMillis);
+                    if (note != null) {
+                        reminderManager.schedule(note, atMillis, toleranceMs);
+                    } else {
+                        reminderManager.schedule(noteId, atMillis, toleranceMs);
+                    }
                 }
 
                 onScheduled.run();
@@ -204,48 +374,35 @@ public class NoteRepository {
             return;
         }
 
-        ioExecutor.execute(() -> {
+        writeExecutor.execute(() -> {
             try {
                 // Cancel existing reminder
                 NoteEntity note = noteDao.getById(noteId);
-                if (note != null) {
-                    if (ReminderType.TIME == parseReminderType(note.reminderType)) {
-                        if (reminderManager != null) {
-                            reminderManager.cancel(noteId);
-                        }
-                    } else if (note.geofenceId != null) {
-                        geofenceManager.removeForNote(note.geofenceId);
-                    }
+                if (note != null && ReminderType.TIME == parseReminderType(note.reminderType)
+                        && reminderManager != null) {
+                    reminderManager.cancel(noteId);
                 }
 
-                String geofenceId = "note-" + noteId;
                 long now = System.currentTimeMillis();
-                noteDao.setReminderGeofence(noteId, geofenceId, now);
                 noteDao.updateLocation(noteId, place.latitude, place.longitude, place.label, now);
+                indexTouched(noteId, now);
 
-                geofenceManager.addForNote(
+                // joins the geofence of notes already at this place, or registers a new one
+                geofenceScheduler.schedule(
                         noteId,
-                        place.latitude,
-                        place.longitude,
-                        place.radiusMeters,
-                        geofenceId,
+                        place,
                         result -> onScheduled.run(),
-                        error -> {
+                        error -> writeExecutor.execute(() -> {
+                            // Play Services calls back on the main thread; the DB write goes back to io
                             // Mark as pending and schedule retry worker
                             noteDao.setPendingActivation(noteId, true);
-                            // Schedule retry worker
-                            androidx.work.OneTimeWorkRequest workRequest = new androidx.work.OneTimeWorkRequest.Builder(
-                                    com.example.anchornotes.worker.GeofenceRetryWorker.class)
-                                    .setInitialDelay(java.util.concurrent.TimeUnit.MINUTES.toMillis(5), java.util.concurrent.TimeUnit.MILLISECONDS)
-                                    .setBackoffCriteria(
-                                            androidx.work.BackoffPolicy.EXPONENTIAL,
-                                            java.util.concurrent.TimeUnit.MINUTES.toMillis(5),
-                                            java.util.concurrent.TimeUnit.MILLISECONDS)
-                                    .build();
-                            androidx.work.WorkManager.getInstance(appContext).enqueue(workRequest);
+                            GeofenceRetryWorker.enqueue(appContext);
                             onError.accept(error);
-                        }
+                        })
                 );
+                if (note != null && note.geofenceId != null) {
+                    geofenceScheduler.release(note.geofenceId);
+                }
             } catch (Exception e) {
                 onError.accept(e);
             }
@@ -256,21 +413,24 @@ public class NoteRepository {
      * Clears a reminder for a note.
      */
     public void clearReminder(long noteId, Runnable onCleared, Consumer<Throwable> onError) {
-        ioExecutor.execute(() -> {
+        writeExecutor.execute(() -> {
             try {
                 NoteEntity note = noteDao.getById(noteId);
-                if (note != null) {
-                    if (ReminderType.GEOFENCE == parseReminderType(note.reminderType)) {
-                        if (note.geofenceId != null && geofenceManager != null) {
-                            geofenceManager.removeForNote(note.geofenceId);
-                        }
-                    } else if (reminderManager != null) {
-                        reminderManager.cancel(noteId);
-                    }
+                if (note != null && ReminderType.TIME == parseReminderType(note.reminderType)
+                        && reminderManager != null) {
+                    reminderManager.cancel(noteId);
                 }
 
                 long now = System.currentTimeMillis();
                 noteDao.clearReminder(noteId, now);
+                indexTouched(noteId, now);
+                if (note != null && ReminderType.GEOFENCE == parseReminderType(note.reminderType)
+                        && geofenceScheduler != null) {
+                    geofenceScheduler.release(note.geofenceId);
+                }
+                if (reminderPayloads != null) {
+                    reminderPayloads.remove(noteId);
+                }
 
                 if (relevantDao != null) {
                     relevantDao.delete(noteId);
@@ -289,11 +449,17 @@ public class NoteRepository {
      * Marks a note as relevant for a time reminder (expires in 1 hour).
      */
     public void markRelevantForTime(long noteId, long now) {
-        if (relevantDao == null) return;
-        ioExecutor.execute(() -> {
+        markRelevantForTime(Collections.singletonList(noteId), now);
+    }
+
+    /** Marks the notes of several reminders that fired together as relevant, in one write. */
+    public void markRelevantForTime(List<Long> noteIds, long now) {
+        if (relevantDao == null || noteIds.isEmpty()) return;
+        writeExecutor.execute(() -> {
             long expiresAt = now + 10L; // 1 hour
-            RelevantNoteEntity entity = new RelevantNoteEntity(noteId, expiresAt);
-            relevantDao.upsert(entity);
+            List<RelevantNoteEntity> rows = new ArrayList<>();
+            for (long noteId : noteIds) rows.add(new RelevantNoteEntity(noteId, expiresAt));
+            relevantDao.upsertAll(rows);
         });
     }
 
@@ -302,7 +468,7 @@ public class NoteRepository {
      */
     public void markRelevantForGeofenceEnter(long noteId) {
         if (relevantDao == null) return;
-        ioExecutor.execute(() -> {
+        writeExecutor.execute(() -> {
             RelevantNoteEntity entity = new RelevantNoteEntity(noteId, Long.MAX_VALUE);
             relevantDao.upsert(entity);
         });
@@ -313,7 +479,7 @@ public class NoteRepository {
      */
     public void markRelevantForGeofenceExit(long noteId) {
         if (relevantDao == null) return;
-        ioExecutor.execute(() -> {
+        writeExecutor.execute(() -> {
             relevantDao.delete(noteId);
         });
     }
@@ -325,14 +491,12 @@ public class NoteRepository {
         if (relevantDao == null) {
             return new androidx.lifecycle.MutableLiveData<>();
         }
-        LiveData<List<RelevantNoteEntity>> relevant = relevantDao.liveRelevant(System.currentTimeMillis());
-        return Transformations.map(relevant, entities -> {
+        // one join instead of a getById per relevant row
+        LiveData<List<RelevantNoteSummary>> relevant = relevantDao.liveRelevantNotes(System.currentTimeMillis());
+        return Transformations.map(relevant, rows -> {
             java.util.ArrayList<RelevantNoteUi> result = new java.util.ArrayList<>();
-            for (RelevantNoteEntity entity : entities) {
-                NoteEntity note = noteDao.getById(entity.noteId);
-                if (note != null) {
-                    result.add(new RelevantNoteUi(note, entity.expiresAt));
-                }
+            for (RelevantNoteSummary row : rows) {
+                result.add(new RelevantNoteUi(row.note, row.expiresAt));
             }
             return result;
         });
@@ -343,7 +507,7 @@ public class NoteRepository {
      */
     public void cleanupExpired() {
         if (relevantDao == null) return;
-        ioExecutor.execute(() -> {
+        maintenanceExecutor.execute(() -> {
             long now = System.currentTimeMillis();
             relevantDao.expire(now);
         });
@@ -358,6 +522,12 @@ public class NoteRepository {
         return ReminderType.NONE;
     }
 
+    /** Plain-text body and preview are derived here, once per write, not on every list bind. */
+    private static void fillDerivedText(NoteEntity e) {
+        e.bodyText = NoteText.toPlainText(e.bodyHtml);
+        e.previewText = NoteText.preview(e.bodyText);
+    }
+
     private static String safe(String s) { return s == null ? "" : s; }
     private static boolean notEmpty(String s) { return s != null && !s.isEmpty(); }
 }
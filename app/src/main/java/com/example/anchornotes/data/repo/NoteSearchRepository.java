@@ -1,20 +1,75 @@
 package com.example.anchornotes.data.repo;
 
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import androidx.annotation.Nullable;
+import androidx.room.RoomDatabase;
 import androidx.sqlite.db.SimpleSQLiteQuery;
 import androidx.sqlite.db.SupportSQLiteQuery;
 
-import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.PageKey;
+import com.example.anchornotes.data.db.NoteSummary;
 import com.example.anchornotes.data.db.NoteSearchDao;
+import com.example.anchornotes.data.search.Bm25;
+import com.example.anchornotes.data.search.GeoHash;
+import com.example.anchornotes.data.search.QueryTokens;
+import com.example.anchornotes.data.search.SearchEngine;
+import com.example.anchornotes.data.search.SearchMetrics;
+import com.example.anchornotes.data.search.SearchResultCache;
+import com.example.anchornotes.data.search.Snippets;
+import com.example.anchornotes.data.search.TagBitmapIndex;
+import com.example.anchornotes.data.search.Trigrams;
+import com.example.anchornotes.util.AppExecutors;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class NoteSearchRepository {
+    /** Refine in memory only up to this many candidates; beyond that the FTS query is cheaper. */
+    static final int REFINE_MAX_CANDIDATES = 2_000;
+    /** Stays under SQLite's default limit of 999 bound variables. */
+    private static final int ID_CHUNK = 500;
+
     private final NoteSearchDao dao;
+    /** Used for cancellable queries; null means queries run through the DAO and can't be cancelled. */
+    @Nullable private final RoomDatabase db;
+    /** Result ids per filter; null disables caching (requires {@link #db}). */
+    @Nullable private final SearchResultCache cache;
+    /** Asked before any SQL; null or a null answer means SQL (requires {@link #db}). */
+    @Nullable private final SearchEngine engine;
+    /** Answers tag criteria for id queries; null or a null answer means SQL (requires {@link #db}). */
+    @Nullable private final TagBitmapIndex tagIndex;
 
-    public NoteSearchRepository(NoteSearchDao dao) { this.dao = dao; }
+    public NoteSearchRepository(NoteSearchDao dao) { this(dao, null, null, null, null); }
+
+    public NoteSearchRepository(NoteSearchDao dao, @Nullable RoomDatabase db, @Nullable SearchResultCache cache) {
+        this(dao, db, cache, null, null);
+    }
 
-    public List<NoteEntity> search(String queryText,
+    public NoteSearchRepository(NoteSearchDao dao, @Nullable RoomDatabase db, @Nullable SearchResultCache cache,
+                                @Nullable SearchEngine engine) {
+        this(dao, db, cache, engine, null);
+    }
+
+    public NoteSearchRepository(NoteSearchDao dao, @Nullable RoomDatabase db, @Nullable SearchResultCache cache,
+                                @Nullable SearchEngine engine, @Nullable TagBitmapIndex tagIndex) {
+        this.dao = dao;
+        this.db = db;
+        this.cache = db == null ? null : cache;
+        this.engine = db == null ? null : engine;
+        this.tagIndex = db == null ? null : tagIndex;
+    }
+
+    public List<NoteSummary> search(String queryText,
                                    List<Long> tagIds,
                                    Long fromDate,
                                    Long toDate,
@@ -24,11 +79,403 @@ public class NoteSearchRepository {
 
         List<String> where = new ArrayList<>();
         List<Object> args  = new ArrayList<>();
+        addFilterClauses(where, args, queryText, tagIds, false, null, fromDate, toDate, hasPhoto, hasVoice, hasLocation);
+
+        String whereSql = where.isEmpty() ? "" : " WHERE " + String.join(" AND ", where);
+        String sql = "SELECT " + NoteSummary.COLUMNS + " FROM notes" + whereSql + " ORDER BY pinned DESC, updatedAt DESC";
+
+        SupportSQLiteQuery q = new SimpleSQLiteQuery(sql, args.toArray());
+        return dao.search(q);
+    }
+
+    /**
+     * One page of search results in home list order, starting after {@code after}
+     * (null = first page). Uses the same keyset as the plain list, so deep pages stay cheap.
+     */
+    public List<NoteSummary> search(NoteSearchFilter f, @Nullable PageKey after, int limit) {
+        return search(f, after, limit, null);
+    }
+
+    /**
+     * Same as {@link #search(NoteSearchFilter, PageKey, int)}, but cancelling {@code signal}
+     * interrupts SQLite mid-query and the call throws {@link OperationCanceledException}.
+     * Rows matched by the text query carry a highlighted body snippet.
+     */
+    public List<NoteSummary> search(NoteSearchFilter f, @Nullable PageKey after, int limit,
+                                    @Nullable CancellationSignal signal) {
+        List<NoteSummary> page = findPage(f, after, limit, signal);
+        if (db != null) addSnippets(page, f.query, signal);
+        return page;
+    }
+
+    private List<NoteSummary> findPage(NoteSearchFilter f, @Nullable PageKey after, int limit,
+                                       @Nullable CancellationSignal signal) {
+        String match = toFtsMatch(f.query);
+        if (db != null && f.rankByRelevance && match != null) {
+            long[] ids = cache != null ? cache.get(f) : null;
+            if (ids == null) {
+                long version = cache != null ? cache.version() : 0;
+                ids = rankedIds(f, match, signal);
+                if (cache != null) cache.put(f, ids, version);
+            }
+            List<NoteSummary> page = pageOf(ids, after, limit, signal);
+            // there's no keyset to fall back on in relevance order; a vanished key row ends the list
+            return page != null ? page : new ArrayList<>();
+        }
+        if (engine != null) {
+            long[] ids = engine.searchIds(f);
+            if (ids != null) {
+                SearchMetrics.recordEngineHit();
+                List<NoteSummary> page = pageOf(ids, after, limit, signal);
+                if (page != null) return page;
+            }
+        }
+        if (cache != null) {
+            List<NoteSummary> page = searchCached(f, after, limit, signal);
+            if (page != null) return page;
+        }
+        SupportSQLiteQuery q = buildQuery(NoteSummary.COLUMNS, f, after, limit, true);
+        if (db == null) return dao.search(q);
+        return querySummaries(q, signal);
+    }
+
+    /**
+     * Serves a page from the cached id list for {@code f}, running the id query first on a miss.
+     * Returns null if the page can't be served from ids (the key row is no longer in the list),
+     * in which case the caller falls back to the keyset query.
+     */
+    @Nullable
+    private List<NoteSummary> searchCached(NoteSearchFilter f, @Nullable PageKey after, int limit,
+                                           @Nullable CancellationSignal signal) {
+        long[] ids = cache.get(f);
+        if (ids == null) {
+            long version = cache.version();
+            long[] base = cache.refinementBase(f);
+            if (base != null && base.length <= REFINE_MAX_CANDIDATES) {
+                ids = refine(base, QueryTokens.tokenizeFolded(f.query), Trigrams.normalize(f.query), signal);
+                SearchMetrics.recordRefined();
+            } else {
+                ids = listIds(f, signal);
+            }
+            cache.put(f, ids, version);
+        }
+        return pageOf(ids, after, limit, signal);
+    }
+
+    /**
+     * All ids matching {@code f}, in list order. Tag criteria are checked against the tag
+     * bitmaps when they are built, so SQL only handles text, dates and flags; otherwise
+     * everything runs in SQL.
+     */
+    private long[] listIds(NoteSearchFilter f, @Nullable CancellationSignal signal) {
+        TagBitmapIndex.Match tags = tagIndex != null && TagBitmapIndex.hasTagCriteria(f)
+                ? tagIndex.match(f) : null;
+        if (tags == null) return queryIds(buildQuery("id", f, null, 0, true), signal);
+        if (tags.isEmpty()) return new long[0];
+        long[] ids = queryIds(buildQuery("id", f, null, 0, false), signal);
+        int n = 0;
+        for (long id : ids) {
+            if (tags.test(id)) ids[n++] = id;
+        }
+        SearchMetrics.recordTagBitmapHit();
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * The page of {@code ids} (in list order) following {@code after}, hydrated by primary key.
+     * Null if {@code after} is no longer among the ids.
+     */
+    @Nullable
+    private List<NoteSummary> pageOf(long[] ids, @Nullable PageKey after, int limit,
+                                     @Nullable CancellationSignal signal) {
+        int from = 0;
+        if (after != null) {
+            from = -1;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == after.id) { from = i + 1; break; }
+            }
+            if (from < 0) return null;
+        }
+        int to = Math.min(ids.length, from + limit);
+        if (from >= to) return new ArrayList<>();
+        return hydrate(ids, from, to, signal);
+    }
+
+    /**
+     * Narrows the ids of an earlier search to those whose text also matches {@code prefixes}
+     * or contains {@code fragment}, as the SQL query would.
+     * Only the candidates are read, instead of running the FTS query again. The candidates are
+     * already in list order and the data hasn't changed since (the cache would have been
+     * cleared), so filtering keeps the order correct.
+     */
+    private long[] refine(long[] candidates, List<String> prefixes, String fragment,
+                          @Nullable CancellationSignal signal) {
+        boolean substring = fragment.length() >= Trigrams.MIN_LENGTH;
+        Set<Long> matched = new HashSet<>();
+        for (int start = 0; start < candidates.length; start += ID_CHUNK) {
+            int end = Math.min(candidates.length, start + ID_CHUNK);
+            StringBuilder ph = new StringBuilder();
+            Object[] args = new Object[end - start];
+            for (int i = start; i < end; i++) {
+                if (i > start) ph.append(',');
+                ph.append('?');
+                args[i - start] = candidates[i];
+            }
+            if (signal != null) signal.throwIfCanceled();
+            try (Cursor c = db.query(new SimpleSQLiteQuery(
+                    "SELECT id, title, bodyText FROM notes WHERE id IN (" + ph + ")", args), signal)) {
+                while (c.moveToNext()) {
+                    String title = c.getString(1);
+                    String body = c.getString(2);
+                    List<String> words = QueryTokens.tokenizeFolded(title);
+                    words.addAll(QueryTokens.tokenizeFolded(body));
+                    if (QueryTokens.matchesAll(words, prefixes)
+                            || substring && (Trigrams.normalize(title).contains(fragment)
+                                             || Trigrams.normalize(body).contains(fragment))) {
+                        matched.add(c.getLong(0));
+                    }
+                }
+            }
+        }
+        long[] out = new long[matched.size()];
+        int n = 0;
+        for (long id : candidates) {
+            if (matched.contains(id)) out[n++] = id;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Ids matching {@code f}, best BM25 score first (see {@link Bm25}). Notes that match only
+     * as a substring have no FTS score and follow the scored ones, in list order.
+     * Only the notes that passed the filters are scored, in chunks as in {@link #refine}.
+     */
+    private long[] rankedIds(NoteSearchFilter f, String match, @Nullable CancellationSignal signal) {
+        long[] ids = listIds(f, signal);
+        Map<Long, Double> scores = new HashMap<>();
+        for (int start = 0; start < ids.length; start += ID_CHUNK) {
+            int end = Math.min(ids.length, start + ID_CHUNK);
+            Object[] args = new Object[end - start + 1];
+            args[0] = match;
+            for (int i = start; i < end; i++) args[i - start + 1] = ids[i];
+            if (signal != null) signal.throwIfCanceled();
+            try (Cursor c = db.query(new SimpleSQLiteQuery(
+                    "SELECT docid, matchinfo(notes_fts, '" + Bm25.MATCHINFO_FORMAT + "') FROM notes_fts"
+                            + " WHERE notes_fts MATCH ? AND docid IN (" + placeholders(end - start) + ")",
+                    args), signal)) {
+                while (c.moveToNext()) scores.put(c.getLong(0), Bm25.score(c.getBlob(1), Bm25.NOTE_WEIGHTS));
+            }
+        }
+        Integer[] order = new Integer[ids.length];
+        double[] score = new double[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            order[i] = i;
+            Double s = scores.get(ids[i]);
+            score[i] = s == null ? 0 : s;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(score[b], score[a])); // stable: ties keep list order
+        long[] ranked = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) ranked[i] = ids[order[i]];
+        return ranked;
+    }
+
+    /**
+     * Fills {@link NoteSummary#snippet} for the rows of one page whose body matches the text
+     * query, so the list shows the hit in context. One FTS query per page, on this thread.
+     */
+    private void addSnippets(List<NoteSummary> page, @Nullable String queryText,
+                             @Nullable CancellationSignal signal) {
+        String match = toFtsMatch(queryText);
+        if (match == null || page.isEmpty()) return;
+        Map<Long, NoteSummary> byId = new HashMap<>();
+        StringBuilder ph = new StringBuilder();
+        List<Object> args = new ArrayList<>();
+        args.add(Snippets.OPEN);
+        args.add(Snippets.CLOSE);
+        args.add(Snippets.ELLIPSIS);
+        args.add(Snippets.TOKENS);
+        args.add(match);
+        for (NoteSummary n : page) {
+            if (byId.put(n.id, n) != null) continue;
+            if (ph.length() > 0) ph.append(',');
+            ph.append('?');
+            args.add(n.id);
+        }
+        if (signal != null) signal.throwIfCanceled();
+        // column 1 is bodyText; the title is on the row already
+        try (Cursor c = db.query(new SimpleSQLiteQuery(
+                "SELECT docid, snippet(notes_fts, ?, ?, ?, 1, ?) FROM notes_fts"
+                        + " WHERE notes_fts MATCH ? AND docid IN (" + ph + ")", args.toArray()), signal)) {
+            while (c.moveToNext()) {
+                NoteSummary n = byId.get(c.getLong(0));
+                if (n != null) Snippets.apply(n, c.getString(1));
+            }
+        }
+    }
+
+    /** Loads rows for {@code ids[from, to)} and returns them in that order. */
+    private List<NoteSummary> hydrate(long[] ids, int from, int to, @Nullable CancellationSignal signal) {
+        StringBuilder ph = new StringBuilder();
+        Object[] args = new Object[to - from];
+        for (int i = from; i < to; i++) {
+            if (i > from) ph.append(',');
+            ph.append('?');
+            args[i - from] = ids[i];
+        }
+        List<NoteSummary> rows = querySummaries(new SimpleSQLiteQuery(
+                "SELECT " + NoteSummary.COLUMNS + " FROM notes WHERE id IN (" + ph + ")", args), signal);
+
+        Map<Long, NoteSummary> byId = new HashMap<>();
+        for (NoteSummary n : rows) byId.put(n.id, n);
+        List<NoteSummary> out = new ArrayList<>(rows.size());
+        for (int i = from; i < to; i++) {
+            NoteSummary n = byId.get(ids[i]);
+            if (n != null) out.add(n); // deleted since the ids were cached; invalidation is on its way
+        }
+        return out;
+    }
+
+    private List<NoteSummary> querySummaries(SupportSQLiteQuery q, @Nullable CancellationSignal signal) {
+        if (signal != null) signal.throwIfCanceled();
+        try (Cursor c = db.query(q, signal)) {
+            return readSummaries(c);
+        }
+    }
+
+    private long[] queryIds(SupportSQLiteQuery q, @Nullable CancellationSignal signal) {
+        if (signal != null) signal.throwIfCanceled();
+        try (Cursor c = db.query(q, signal)) {
+            long[] ids = new long[c.getCount()];
+            int i = 0;
+            while (c.moveToNext()) ids[i++] = c.getLong(0);
+            return ids;
+        }
+    }
+
+    /**
+     * Builds the search query in home list order. {@code after} adds the keyset predicate;
+     * {@code limit <= 0} means no limit. Without {@code withTags} the tag criteria are left
+     * out, for callers that apply them from the tag bitmaps.
+     */
+    private static SupportSQLiteQuery buildQuery(String columns, NoteSearchFilter f,
+                                                 @Nullable PageKey after, int limit, boolean withTags) {
+        List<String> where = new ArrayList<>();
+        List<Object> args  = new ArrayList<>();
+        addFilterClauses(where, args, f.query,
+                withTags ? f.tagIds : null, f.matchAllTags, withTags ? f.excludedTagIds : null,
+                f.fromDate, f.toDate, f.hasPhoto, f.hasVoice, f.hasLocation);
+        if (f.hasNear()) addNearClauses(where, args, f.nearLatitude, f.nearLongitude, f.nearRadiusMeters);
 
+        if (after != null) {
+            where.add("(pinned < ? OR (pinned = ? AND (updatedAt < ? OR (updatedAt = ? AND id < ?))))");
+            int pinned = after.pinned ? 1 : 0;
+            args.add(pinned); args.add(pinned);
+            args.add(after.updatedAt); args.add(after.updatedAt);
+            args.add(after.id);
+        }
+
+        String whereSql = where.isEmpty() ? "" : " WHERE " + String.join(" AND ", where);
+        String sql = "SELECT " + columns + " FROM notes" + whereSql
+                + " ORDER BY pinned DESC, updatedAt DESC, id DESC";
+        if (limit > 0) {
+            sql += " LIMIT ?";
+            args.add(limit);
+        }
+
+        return new SimpleSQLiteQuery(sql, args.toArray());
+    }
+
+    private static List<NoteSummary> readSummaries(Cursor c) {
+        int id = c.getColumnIndexOrThrow("id");
+        int title = c.getColumnIndexOrThrow("title");
+        int pinned = c.getColumnIndexOrThrow("pinned");
+        int updatedAt = c.getColumnIndexOrThrow("updatedAt");
+        int hasPhoto = c.getColumnIndexOrThrow("hasPhoto");
+        int hasVoice = c.getColumnIndexOrThrow("hasVoice");
+        int preview = c.getColumnIndexOrThrow("preview");
+        List<NoteSummary> out = new ArrayList<>(c.getCount());
+        while (c.moveToNext()) {
+            NoteSummary n = new NoteSummary();
+            n.id = c.getLong(id);
+            n.title = c.isNull(title) ? null : c.getString(title);
+            n.pinned = c.getInt(pinned) != 0;
+            n.updatedAt = c.getLong(updatedAt);
+            n.hasPhoto = c.getInt(hasPhoto) != 0;
+            n.hasVoice = c.getInt(hasVoice) != 0;
+            n.preview = c.isNull(preview) ? null : c.getString(preview);
+            out.add(n);
+        }
+        return out;
+    }
+
+    /** Async variant of {@link #search(NoteSearchFilter, PageKey, int)}. */
+    public CompletableFuture<List<NoteSummary>> searchAsync(NoteSearchFilter f, @Nullable PageKey after, int limit) {
+        return searchAsync(f, after, limit, null);
+    }
+
+    /**
+     * Async, cancellable search. Queue wait and query time are recorded in {@link SearchMetrics};
+     * a query cancelled before or while running completes exceptionally.
+     */
+    public CompletableFuture<List<NoteSummary>> searchAsync(NoteSearchFilter f, @Nullable PageKey after, int limit,
+                                                            @Nullable CancellationSignal signal) {
+        long submitted = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            long started = System.nanoTime();
+            SearchMetrics.record(SearchMetrics.Stage.QUEUE, started - submitted);
+            try {
+                return search(f, after, limit, signal);
+            } catch (OperationCanceledException e) {
+                SearchMetrics.recordCancelled();
+                throw e;
+            } finally {
+                SearchMetrics.record(SearchMetrics.Stage.QUERY, System.nanoTime() - started);
+            }
+        }, AppExecutors.uiRead());
+    }
+
+    private static void addFilterClauses(List<String> where, List<Object> args,
+                                         String queryText,
+                                         List<Long> tagIds,
+                                         boolean matchAllTags,
+                                         List<Long> excludedTagIds,
+                                         Long fromDate,
+                                         Long toDate,
+                                         Boolean hasPhoto,
+                                         Boolean hasVoice,
+                                         Boolean hasLocation) {
         if (queryText != null && !queryText.trim().isEmpty()) {
-            String pat = "%" + queryText.trim() + "%";
-            where.add("(title LIKE ? OR bodyHtml LIKE ?)");
-            args.add(pat); args.add(pat);
+            String match = toFtsMatch(queryText);
+            long[] grams = Trigrams.ofQuery(queryText);
+            if (match != null || grams.length > 0) {
+                // index lookups instead of a LIKE scan over every row: words by FTS prefix,
+                // fragments inside words by trigram candidates, verified with LIKE
+                List<String> sources = new ArrayList<>();
+                if (match != null) {
+                    sources.add("SELECT docid FROM notes_fts WHERE notes_fts MATCH ?");
+                    args.add(match);
+                }
+                if (grams.length > 0) {
+                    StringBuilder ph = new StringBuilder();
+                    for (int i = 0; i < grams.length; i++) {
+                        if (i > 0) ph.append(',');
+                        ph.append('?');
+                        args.add(grams[i]);
+                    }
+                    sources.add("SELECT id FROM notes WHERE id IN (SELECT noteId FROM note_trigrams"
+                            + " WHERE gram IN (" + ph + ") GROUP BY noteId HAVING COUNT(*) = ?)"
+                            + " AND (title LIKE ? ESCAPE '\\' OR bodyText LIKE ? ESCAPE '\\')");
+                    String pat = Trigrams.likePattern(queryText);
+                    args.add(grams.length);
+                    args.add(pat); args.add(pat);
+                }
+                where.add("id IN (" + String.join(" UNION ", sources) + ")");
+            } else {
+                // nothing indexable (only punctuation etc.), keep the old substring behaviour
+                String pat = "%" + queryText.trim() + "%";
+                where.add("(title LIKE ? OR bodyText LIKE ?)");
+                args.add(pat); args.add(pat);
+            }
         }
 
         if (fromDate != null && toDate != null) { where.add("updatedAt BETWEEN ? AND ?"); args.add(fromDate); args.add(toDate); }
@@ -44,19 +491,75 @@ public class NoteSearchRepository {
         }
 
         if (tagIds != null && !tagIds.isEmpty()) {
-            StringBuilder ph = new StringBuilder();
-            for (int i = 0; i < tagIds.size(); i++) {
-                if (i > 0) ph.append(',');
-                ph.append('?');
+            if (matchAllTags) {
+                List<Long> distinct = new ArrayList<>(new HashSet<>(tagIds));
+                where.add("id IN (SELECT noteId FROM note_tag_cross_ref WHERE tagId IN ("
+                        + placeholders(distinct.size()) + ") GROUP BY noteId HAVING COUNT(*) = ?)");
+                args.addAll(distinct);
+                args.add(distinct.size());
+            } else {
+                where.add("id IN (SELECT noteId FROM note_tag_cross_ref WHERE tagId IN ("
+                        + placeholders(tagIds.size()) + "))");
+                args.addAll(tagIds);
             }
-            where.add("id IN (SELECT DISTINCT noteId FROM note_tag_cross_ref WHERE tagId IN (" + ph + "))");
-            args.addAll(tagIds);
         }
+        if (excludedTagIds != null && !excludedTagIds.isEmpty()) {
+            where.add("id NOT IN (SELECT noteId FROM note_tag_cross_ref WHERE tagId IN ("
+                    + placeholders(excludedTagIds.size()) + "))");
+            args.addAll(excludedTagIds);
+        }
+    }
 
-        String whereSql = where.isEmpty() ? "" : " WHERE " + String.join(" AND ", where);
-        String sql = "SELECT DISTINCT * FROM notes" + whereSql + " ORDER BY pinned DESC, updatedAt DESC";
+    /**
+     * Notes within {@code radiusMeters} of a point. The geohash ranges of the covering cells
+     * pick the candidates from the index; the distance check then runs on those rows only. It
+     * treats the Earth as flat around the point (equirectangular), which is well within GPS
+     * accuracy at the radii a "near me" search uses.
+     */
+    private static void addNearClauses(List<String> where, List<Object> args,
+                                       double lat, double lon, double radiusMeters) {
+        List<String> cells = GeoHash.covering(lat, lon, radiusMeters);
+        if (!cells.isEmpty()) {
+            List<String> ranges = new ArrayList<>();
+            for (String cell : cells) {
+                ranges.add("geohash BETWEEN ? AND ?");
+                args.add(cell);
+                args.add(GeoHash.rangeEnd(cell));
+            }
+            where.add("(" + String.join(" OR ", ranges) + ")");
+        }
+        // longitude difference taken the short way round, so the ±180° seam doesn't split a circle
+        String dLon = "min(abs(longitude - ?), 360 - abs(longitude - ?))";
+        where.add("latitude IS NOT NULL AND longitude IS NOT NULL"
+                + " AND (latitude - ?) * (latitude - ?) + " + dLon + " * " + dLon + " * ? <= ?");
+        double cos = Math.cos(Math.toRadians(lat));
+        double radiusDeg = radiusMeters / GeoHash.METERS_PER_DEGREE;
+        args.add(lat); args.add(lat);
+        args.add(lon); args.add(lon); args.add(lon); args.add(lon);
+        args.add(cos * cos);
+        args.add(radiusDeg * radiusDeg);
+    }
 
-        SupportSQLiteQuery q = new SimpleSQLiteQuery(sql, args.toArray());
-        return dao.search(q);
+    private static String placeholders(int n) {
+        StringBuilder ph = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) ph.append(',');
+            ph.append('?');
+        }
+        return ph.toString();
+    }
+
+    /**
+     * Turns free text into an FTS MATCH expression: every word becomes a prefix term and all
+     * terms must match ("meet agen" -> "meet* agen*"). FTS operators typed by the user are
+     * dropped so the query can never be a syntax error. Returns null if no word is left.
+     */
+    static String toFtsMatch(String queryText) {
+        StringBuilder match = new StringBuilder();
+        for (String token : QueryTokens.tokenize(queryText)) {
+            if (match.length() > 0) match.append(' ');
+            match.append(token).append('*');
+        }
+        return match.length() == 0 ? null : match.toString();
     }
 }
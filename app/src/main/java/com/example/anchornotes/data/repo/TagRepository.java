@@ -0,0 +1,67 @@
+package com.example.anchornotes.data.repo;
+
+import androidx.annotation.Nullable;
+import androidx.lifecycle.LiveData;
+
+import com.example.anchornotes.data.db.NoteTagCrossRef;
+import com.example.anchornotes.data.db.NoteTagCrossRefDao;
+import com.example.anchornotes.data.db.TagDao;
+import com.example.anchornotes.data.db.TagEntity;
+import com.example.anchornotes.data.search.TagBitmapIndex;
+import com.example.anchornotes.util.AppExecutors;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/** Async access to tags and note/tag links, so dialogs never query on the main thread. */
+public class TagRepository {
+    private final TagDao tagDao;
+    private final NoteTagCrossRefDao refDao;
+    /** Tag bitmaps to keep current on link changes; may be null. */
+    @Nullable private final TagBitmapIndex tagIndex;
+
+    public TagRepository(TagDao tagDao, NoteTagCrossRefDao refDao) {
+        this(tagDao, refDao, null);
+    }
+
+    public TagRepository(TagDao tagDao, NoteTagCrossRefDao refDao, @Nullable TagBitmapIndex tagIndex) {
+        this.tagDao = tagDao;
+        this.refDao = refDao;
+        this.tagIndex = tagIndex;
+    }
+
+    public LiveData<List<TagEntity>> observeAll() {
+        return tagDao.observeAll();
+    }
+
+    public CompletableFuture<List<TagEntity>> getAllAsync() {
+        return CompletableFuture.supplyAsync(tagDao::getAll, AppExecutors.uiRead());
+    }
+
+    public CompletableFuture<List<TagEntity>> getByIdsAsync(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) return CompletableFuture.completedFuture(new ArrayList<>());
+        return CompletableFuture.supplyAsync(() -> tagDao.getByIds(ids), AppExecutors.uiRead());
+    }
+
+    /** Tags a note, creating the tag if no tag with that name exists yet. */
+    public CompletableFuture<Void> addTagToNoteAsync(long noteId, String name) {
+        return CompletableFuture.runAsync(() -> {
+            TagEntity existing = tagDao.getByName(name);
+            long tagId = (existing != null) ? existing.id : tagDao.insert(new TagEntity(name));
+            refDao.insert(new NoteTagCrossRef(noteId, tagId));
+            if (tagIndex != null) tagIndex.linkAdded(noteId, tagId);
+        }, AppExecutors.userWrite());
+    }
+
+    /** Removes a tag from a note; completes with false if there is no tag with that name. */
+    public CompletableFuture<Boolean> removeTagFromNoteAsync(long noteId, String name) {
+        return CompletableFuture.supplyAsync(() -> {
+            TagEntity tag = tagDao.getByName(name);
+            if (tag == null) return false;
+            refDao.delete(noteId, tag.id);
+            if (tagIndex != null) tagIndex.linkRemoved(noteId, tag.id);
+            return true;
+        }, AppExecutors.userWrite());
+    }
+}
@@ -8,12 +8,14 @@ import com.example.anchornotes.data.ServiceLocator;
 import com.example.anchornotes.data.db.AppDatabase;
 import com.example.anchornotes.data.db.TemplateDao;
 import com.example.anchornotes.data.db.TemplateEntity;
+import com.example.anchornotes.util.AppExecutors;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class TemplateRepository {
     private final TemplateDao dao;
@@ -45,6 +47,11 @@ public class TemplateRepository {
         return dao.getById(id);
     }
 
+    /** Async variant of {@link #getById(long)} for callers on the main thread. */
+    public CompletableFuture<TemplateEntity> getByIdAsync(long id) {
+        return CompletableFuture.supplyAsync(() -> dao.getById(id), AppExecutors.uiRead());
+    }
+
     public List<TemplateEntity> getAll() {
         return dao.getAll();
     }
@@ -0,0 +1,56 @@
+package com.example.anchornotes.data.search;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Okapi BM25 over FTS4 {@code matchinfo(notes_fts, 'pcnalx')}. FTS4 has no built-in rank
+ * (that arrived with FTS5), so the score is computed here from the per-row statistics SQLite
+ * returns with each match: rare terms count more than common ones, repeated terms count with
+ * diminishing returns, and hits in short columns count more than hits in long ones.
+ */
+public final class Bm25 {
+    /** Argument for {@code matchinfo()} that yields everything {@link #score} reads. */
+    public static final String MATCHINFO_FORMAT = "pcnalx";
+    /** Column weights in notes_fts order (title, bodyText): a title hit is worth two body hits. */
+    public static final double[] NOTE_WEIGHTS = {2.0, 1.0};
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private Bm25() {}
+
+    /**
+     * Score of one row. {@code matchinfo} is the raw blob, an array of native-order 32-bit
+     * unsigned ints; {@code weights} has one entry per FTS column.
+     */
+    public static double score(@NonNull byte[] matchinfo, @NonNull double[] weights) {
+        IntBuffer m = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder()).asIntBuffer();
+        int phrases = m.get(0);
+        int cols = m.get(1);
+        long docs = m.get(2) & 0xffffffffL;
+        int avgAt = 3;
+        int lenAt = avgAt + cols;
+        int hitsAt = lenAt + cols;
+
+        double score = 0;
+        for (int p = 0; p < phrases; p++) {
+            for (int c = 0; c < cols; c++) {
+                int x = hitsAt + 3 * (p * cols + c);
+                long tf = m.get(x) & 0xffffffffL;
+                if (tf == 0) continue;
+                long df = m.get(x + 2) & 0xffffffffL;
+                double avg = Math.max(1, m.get(avgAt + c) & 0xffffffffL);
+                double len = m.get(lenAt + c) & 0xffffffffL;
+                // +1 keeps idf positive for terms found in most rows
+                double idf = Math.log(1 + (docs - df + 0.5) / (df + 0.5));
+                double norm = tf * (K1 + 1) / (tf + K1 * (1 - B + B * len / avg));
+                score += (c < weights.length ? weights[c] : 1.0) * idf * norm;
+            }
+        }
+        return score;
+    }
+}
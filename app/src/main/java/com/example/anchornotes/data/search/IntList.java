@@ -0,0 +1,32 @@
+package com.example.anchornotes.data.search;
+
+import java.util.Arrays;
+
+/** Growable list of primitive ints; posting lists hold one per document, so no boxing. */
+final class IntList {
+    private int[] values;
+    private int size;
+
+    IntList() { this(4); }
+
+    IntList(int capacity) { values = new int[Math.max(1, capacity)]; }
+
+    void add(int value) {
+        if (size == values.length) values = Arrays.copyOf(values, size + (size >> 1) + 1);
+        values[size++] = value;
+    }
+
+    int get(int i) { return values[i]; }
+
+    int size() { return size; }
+
+    /** Keeps only values with {@code remap[value] >= 0}, replacing each with {@code remap[value]}. */
+    void remap(int[] remap) {
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            int mapped = remap[values[i]];
+            if (mapped >= 0) values[n++] = mapped;
+        }
+        size = n;
+    }
+}
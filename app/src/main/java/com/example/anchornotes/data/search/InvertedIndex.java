@@ -0,0 +1,506 @@
+package com.example.anchornotes.data.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.InvalidationTracker;
+import androidx.room.RoomDatabase;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.PageKey;
+import com.example.anchornotes.data.db.NoteDao;
+import com.example.anchornotes.data.db.NoteIndexRow;
+import com.example.anchornotes.data.db.NoteOrderStamp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over note titles and plain-text bodies, for text-only searches
+ * without the FTS query or sorting in SQLite. Terms map to posting lists of document numbers
+ * (primitive ints); a query word ORs the postings of every term starting with it, and words
+ * are ANDed, as the FTS prefix query does. Notes containing the whole query as a substring
+ * (three characters or more) are found through trigram postings and checked against the
+ * title and body the index keeps, so results are the same as the SQL path's and a search
+ * never waits on SQLite.
+ *
+ * <p>Lifecycle: built lazily on {@code buildExecutor} the first time it is asked to search;
+ * until then, and whenever it might be out of date, {@link #searchIds} returns null and the
+ * caller uses SQL.
+ *
+ * <p>Keeping it current: NoteRepository reports its writes as it makes them: {@link #upsert}
+ * and {@link #remove} for text changes and deletes, {@link #setPinned} and {@link #touch} for
+ * writes that only move a note in the list order. An invalidation of `notes` that follows
+ * reported writes changes nothing. Any other compares a {@link NoteOrderStamp} of the table
+ * with the index's own, which tells writes to other columns (reminder flags, geofence slots)
+ * from writes made elsewhere; only the latter reload every order key, which also picks up
+ * notes inserted or deleted without going through the repository.
+ *
+ * <p>Updating a note appends a new document and marks the old one dead, so posting lists
+ * stay sorted without rewriting them. Dead documents are compacted away once they outnumber
+ * the live ones.
+ */
+public class InvertedIndex implements SearchEngine {
+    private static final int BUILD_BATCH = 500;
+    /** getIndexRowsByIds binds one variable per id. */
+    private static final int ID_CHUNK = 500;
+    private static final int MIN_COMPACT_DEAD = 1024;
+
+    private enum State { EMPTY, BUILDING, READY }
+
+    private final NoteDao dao;
+    private final Executor buildExecutor;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // --- guarded by lock ---
+    private final TreeMap<String, IntList> postings = new TreeMap<>();
+    /** Trigram (see {@link Trigrams#ofNote}) -> documents holding it. */
+    private final HashMap<Long, IntList> gramPostings = new HashMap<>();
+    private final Map<Long, Integer> docOf = new HashMap<>();
+    private long[] docNoteId = new long[1024];
+    private boolean[] docPinned = new boolean[1024];
+    private long[] docUpdatedAt = new long[1024];
+    /** Title and plain-text body of live documents, to verify substring candidates. */
+    private String[] docTitle = new String[1024];
+    private String[] docBody = new String[1024];
+    private final BitSet live = new BitSet();
+    private int docCount;
+    private State state = State.EMPTY;
+    /** Notes written while the build was running; the build must not overwrite them with older rows. */
+    private final Set<Long> touchedDuringBuild = new HashSet<>();
+    /** Order keys may be out of date; searches fall back to SQL until {@link #refreshOrder} runs. */
+    private boolean orderStale;
+    private long invalidations;
+    /** Writes reported through the update methods, and how many of them invalidations have covered. */
+    private long reportedWrites;
+    private long coveredWrites;
+    private boolean refreshScheduled;
+
+    public InvertedIndex(@NonNull RoomDatabase db, @NonNull NoteDao dao, @NonNull Executor buildExecutor) {
+        this.dao = dao;
+        this.buildExecutor = buildExecutor;
+        db.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("notes") {
+            @Override public void onInvalidated(@NonNull Set<String> tables) {
+                onNotesChanged();
+            }
+        });
+    }
+
+    // ========== Search ==========
+
+    @Nullable
+    @Override
+    public long[] searchIds(@NonNull NoteSearchFilter f) {
+        if (!isTextOnly(f)) return null;
+        List<String> prefixes = QueryTokens.tokenizeFolded(f.query);
+        long[] grams = Trigrams.ofQuery(f.query);
+        if (prefixes.isEmpty() && grams.length == 0) return null;
+
+        boolean build = false;
+        lock.readLock().lock();
+        try {
+            if (state != State.READY || orderStale) {
+                build = state == State.EMPTY;
+                return null;
+            }
+        } finally {
+            lock.readLock().unlock();
+            // build() takes the write lock, so it can't be started while the read lock is held
+            if (build) buildExecutor.execute(this::build);
+        }
+
+        lock.readLock().lock();
+        try {
+            if (state != State.READY || orderStale) return null;
+            BitSet matches = prefixes.isEmpty() ? new BitSet() : matchPrefixes(prefixes);
+            if (grams.length > 0) matches.or(matchFragment(grams, Trigrams.normalize(f.query)));
+            matches.and(live);
+            return inListOrder(matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Documents with a term starting with each of {@code prefixes}, as the FTS prefix query
+     * matches. Terms starting with a word are a contiguous range of the sorted dictionary.
+     */
+    private BitSet matchPrefixes(List<String> prefixes) {
+        BitSet matches = null;
+        for (String prefix : new LinkedHashSet<>(prefixes)) {
+            BitSet docs = new BitSet(docCount);
+            for (IntList list : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+                for (int i = 0; i < list.size(); i++) docs.set(list.get(i));
+            }
+            if (matches == null) matches = docs; else matches.and(docs);
+            if (matches.isEmpty()) break;
+        }
+        return matches;
+    }
+
+    /**
+     * Live documents whose title or body contains {@code fragment}, as the SQL trigram query
+     * finds them: candidates hold every one of {@code grams}, then their text is checked.
+     */
+    private BitSet matchFragment(long[] grams, String fragment) {
+        BitSet candidates = null;
+        for (long gram : grams) {
+            IntList list = gramPostings.get(gram);
+            if (list == null) return new BitSet();
+            BitSet docs = new BitSet(docCount);
+            for (int i = 0; i < list.size(); i++) docs.set(list.get(i));
+            if (candidates == null) candidates = docs; else candidates.and(docs);
+            if (candidates.isEmpty()) return candidates;
+        }
+        candidates.and(live);
+        BitSet matches = new BitSet(docCount);
+        for (int d = candidates.nextSetBit(0); d >= 0; d = candidates.nextSetBit(d + 1)) {
+            if (Trigrams.containsLike(docTitle[d], fragment) || Trigrams.containsLike(docBody[d], fragment)) {
+                matches.set(d);
+            }
+        }
+        return matches;
+    }
+
+    /** The index only knows text and list order; other criteria and ranking go to SQL. */
+    private static boolean isTextOnly(NoteSearchFilter f) {
+        return f.query != null
+                && !f.rankByRelevance
+                && (f.tagIds == null || f.tagIds.isEmpty())
+                && (f.excludedTagIds == null || f.excludedTagIds.isEmpty())
+                && f.fromDate == null && f.toDate == null
+                && !Boolean.TRUE.equals(f.hasPhoto)
+                && !Boolean.TRUE.equals(f.hasVoice)
+                && !Boolean.TRUE.equals(f.hasLocation)
+                && !f.hasNear();
+    }
+
+    private long[] inListOrder(BitSet docs) {
+        Integer[] order = new Integer[docs.cardinality()];
+        int n = 0;
+        for (int d = docs.nextSetBit(0); d >= 0; d = docs.nextSetBit(d + 1)) order[n++] = d;
+        Arrays.sort(order, (a, b) -> {
+            if (docPinned[a] != docPinned[b]) return docPinned[a] ? -1 : 1;
+            if (docUpdatedAt[a] != docUpdatedAt[b]) return Long.compare(docUpdatedAt[b], docUpdatedAt[a]);
+            return Long.compare(docNoteId[b], docNoteId[a]);
+        });
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) ids[i] = docNoteId[order[i]];
+        return ids;
+    }
+
+    // ========== Incremental updates (called after the DB write) ==========
+
+    /** A note was created or its text changed. No-op until the index has been requested once. */
+    public void upsert(long id, String title, String bodyText, boolean pinned, long updatedAt) {
+        lock.writeLock().lock();
+        try {
+            if (state == State.EMPTY) return;
+            if (state == State.BUILDING) touchedDuringBuild.add(id);
+            reportedWrites++;
+            removeDoc(id);
+            addDoc(id, title, bodyText, pinned, updatedAt);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** A note was deleted. */
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            if (state == State.EMPTY) return;
+            if (state == State.BUILDING) touchedDuringBuild.add(id);
+            reportedWrites++;
+            removeDoc(id);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** A note was pinned or unpinned; {@code updatedAt} is the time the write stored. */
+    public void setPinned(long id, boolean pinned, long updatedAt) {
+        lock.writeLock().lock();
+        try {
+            if (state == State.EMPTY) return;
+            reportedWrites++;
+            Integer doc = docOf.get(id);
+            if (doc == null) return; // not loaded yet; the build reads the new row
+            docPinned[doc] = pinned;
+            docUpdatedAt[doc] = updatedAt;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** A write that isn't about the text (location, reminder) set the note's updatedAt. */
+    public void touch(long id, long updatedAt) {
+        lock.writeLock().lock();
+        try {
+            if (state == State.EMPTY) return;
+            reportedWrites++;
+            Integer doc = docOf.get(id);
+            if (doc == null) return;
+            docUpdatedAt[doc] = updatedAt;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addDoc(long id, String title, String bodyText, boolean pinned, long updatedAt) {
+        if (docCount == docNoteId.length) {
+            int cap = docCount * 2;
+            docNoteId = Arrays.copyOf(docNoteId, cap);
+            docPinned = Arrays.copyOf(docPinned, cap);
+            docUpdatedAt = Arrays.copyOf(docUpdatedAt, cap);
+            docTitle = Arrays.copyOf(docTitle, cap);
+            docBody = Arrays.copyOf(docBody, cap);
+        }
+        int doc = docCount++;
+        docNoteId[doc] = id;
+        docPinned[doc] = pinned;
+        docUpdatedAt[doc] = updatedAt;
+        docTitle[doc] = title;
+        docBody[doc] = bodyText;
+        live.set(doc);
+        docOf.put(id, doc);
+
+        Set<String> terms = new HashSet<>(QueryTokens.tokenizeFolded(title));
+        terms.addAll(QueryTokens.tokenizeFolded(bodyText));
+        for (String term : terms) {
+            IntList list = postings.get(term);
+            if (list == null) {
+                list = new IntList();
+                postings.put(term, list);
+            }
+            list.add(doc);
+        }
+        for (long gram : Trigrams.ofNote(title, bodyText)) {
+            IntList list = gramPostings.get(gram);
+            if (list == null) {
+                list = new IntList();
+                gramPostings.put(gram, list);
+            }
+            list.add(doc);
+        }
+    }
+
+    private void removeDoc(long id) {
+        Integer old = docOf.remove(id);
+        if (old != null) killDoc(old);
+    }
+
+    /** Marks {@code doc} dead; its postings go at the next compaction, its text right away. */
+    private void killDoc(int doc) {
+        live.clear(doc);
+        docTitle[doc] = null;
+        docBody[doc] = null;
+    }
+
+    /** Drops dead documents and renumbers the rest, once they cost more than they're worth. */
+    private void compactIfNeeded() {
+        int dead = docCount - live.cardinality();
+        if (dead < MIN_COMPACT_DEAD || dead < docCount / 2) return;
+        int[] remap = new int[docCount];
+        int n = 0;
+        for (int d = 0; d < docCount; d++) {
+            if (live.get(d)) {
+                remap[d] = n;
+                docNoteId[n] = docNoteId[d];
+                docPinned[n] = docPinned[d];
+                docUpdatedAt[n] = docUpdatedAt[d];
+                docTitle[n] = docTitle[d];
+                docBody[n] = docBody[d];
+                docOf.put(docNoteId[n], n);
+                n++;
+            } else {
+                remap[d] = -1;
+            }
+        }
+        Arrays.fill(docTitle, n, docCount, null);
+        Arrays.fill(docBody, n, docCount, null);
+        docCount = n;
+        live.clear();
+        live.set(0, n);
+        postings.values().removeIf(list -> {
+            list.remap(remap);
+            return list.size() == 0;
+        });
+        gramPostings.values().removeIf(list -> {
+            list.remap(remap);
+            return list.size() == 0;
+        });
+    }
+
+    // ========== Build and refresh ==========
+
+    /** Only the first run, while the index is still empty, builds; later ones return at once. */
+    private void build() {
+        lock.writeLock().lock();
+        try {
+            if (state != State.EMPTY) return;
+            state = State.BUILDING;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        long afterId = 0;
+        List<NoteIndexRow> rows;
+        do {
+            rows = dao.getIndexRowsAfter(afterId, BUILD_BATCH);
+            lock.writeLock().lock();
+            try {
+                for (NoteIndexRow r : rows) {
+                    if (!touchedDuringBuild.contains(r.id)) {
+                        addDoc(r.id, r.title, r.bodyText, r.pinned, r.updatedAt);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (!rows.isEmpty()) afterId = rows.get(rows.size() - 1).id;
+        } while (rows.size() == BUILD_BATCH);
+
+        lock.writeLock().lock();
+        try {
+            state = State.READY;
+            touchedDuringBuild.clear();
+            // Pins, deletes and inserts during the build are reconciled by one refresh pass
+            coveredWrites = reportedWrites;
+            orderStale = true;
+            invalidations++;
+            scheduleRefreshLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void onNotesChanged() {
+        lock.writeLock().lock();
+        try {
+            invalidations++;
+            if (state != State.READY) return; // the build ends with a refresh anyway
+            if (reportedWrites != coveredWrites) {
+                // the index already holds what was written; Room batches invalidations, so
+                // one may stand for several reported writes
+                coveredWrites = reportedWrites;
+                return;
+            }
+            orderStale = true;
+            scheduleRefreshLocked();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void scheduleRefreshLocked() {
+        if (refreshScheduled) return;
+        refreshScheduled = true;
+        buildExecutor.execute(this::refreshOrder);
+    }
+
+    /**
+     * Checks the table's order stamp against the index and, if they differ, reloads every
+     * note's order key, drops notes that no longer exist and indexes notes that were inserted
+     * without going through {@link #upsert}.
+     */
+    private void refreshOrder() {
+        long seenInvalidations;
+        lock.writeLock().lock();
+        try {
+            refreshScheduled = false;
+            seenInvalidations = invalidations;
+            // reports that arrive after their invalidation are covered by this pass
+            coveredWrites = reportedWrites;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        NoteOrderStamp stamp = dao.getOrderStamp();
+        lock.writeLock().lock();
+        try {
+            if (stamp.sameAs(stampLocked())) {
+                // the write didn't touch the list order (reminder flags, geofence slots)
+                finishRefreshLocked(seenInvalidations);
+                return;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        List<PageKey> keys = dao.getOrderKeys();
+        List<Long> unknown = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            BitSet seen = new BitSet(docCount);
+            for (PageKey k : keys) {
+                Integer doc = docOf.get(k.id);
+                if (doc == null) {
+                    unknown.add(k.id);
+                    continue;
+                }
+                docPinned[doc] = k.pinned;
+                docUpdatedAt[doc] = k.updatedAt;
+                seen.set(doc);
+            }
+            // Live documents the table no longer has were deleted
+            BitSet gone = (BitSet) live.clone();
+            gone.andNot(seen);
+            for (int d = gone.nextSetBit(0); d >= 0; d = gone.nextSetBit(d + 1)) {
+                docOf.remove(docNoteId[d]);
+                killDoc(d);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (int start = 0; start < unknown.size(); start += ID_CHUNK) {
+            List<NoteIndexRow> rows = dao.getIndexRowsByIds(
+                    unknown.subList(start, Math.min(unknown.size(), start + ID_CHUNK)));
+            lock.writeLock().lock();
+            try {
+                for (NoteIndexRow r : rows) {
+                    if (!docOf.containsKey(r.id)) addDoc(r.id, r.title, r.bodyText, r.pinned, r.updatedAt);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            finishRefreshLocked(seenInvalidations);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void finishRefreshLocked(long seenInvalidations) {
+        // Another write landed while we were reading: go again rather than serve stale order
+        if (invalidations == seenInvalidations) orderStale = false;
+        else scheduleRefreshLocked();
+    }
+
+    /** The {@link NoteOrderStamp} of the live documents, to compare with the table's. */
+    private NoteOrderStamp stampLocked() {
+        NoteOrderStamp stamp = new NoteOrderStamp();
+        for (int d = live.nextSetBit(0); d >= 0; d = live.nextSetBit(d + 1)) {
+            stamp.count++;
+            stamp.idSum += docNoteId[d];
+            if (docPinned[d]) stamp.pinnedCount++;
+            stamp.maxUpdatedAt = Math.max(stamp.maxUpdatedAt, docUpdatedAt[d]);
+        }
+        return stamp;
+    }
+}
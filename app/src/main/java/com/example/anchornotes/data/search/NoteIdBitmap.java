@@ -0,0 +1,335 @@
+package com.example.anchornotes.data.search;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of note ids, laid out like a Roaring bitmap: ids are split by their high
+ * 16 bits into chunks, and each chunk stores its low 16 bits either as a sorted array (sparse,
+ * up to {@link #ARRAY_MAX} ids) or as a 65536-bit bitmap (dense). AND, OR and AND-NOT work
+ * chunk by chunk, so combining tags costs about the size of the smaller set rather than the
+ * number of notes.
+ *
+ * <p>Ids must fit in 32 unsigned bits, which SQLite rowids for notes always do in practice;
+ * see {@link #fits}. Not thread-safe.
+ */
+public final class NoteIdBitmap {
+    /** Above this many ids a chunk switches to a bitmap (8 KB either way). */
+    static final int ARRAY_MAX = 4096;
+
+    private static final class Chunk {
+        /** Sorted low bits; null when {@link #bits} is used. */
+        char[] values;
+        long[] bits;
+        int size;
+
+        static Chunk array(int capacity) {
+            Chunk c = new Chunk();
+            c.values = new char[Math.max(4, capacity)];
+            return c;
+        }
+
+        static Chunk bitmap() {
+            Chunk c = new Chunk();
+            c.bits = new long[1024];
+            return c;
+        }
+
+        boolean contains(char low) {
+            if (bits != null) return (bits[low >>> 6] & (1L << low)) != 0;
+            return Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | (1L << low);
+                if (before == bits[low >>> 6]) return false;
+                size++;
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, size, low);
+            if (i >= 0) return false;
+            i = -i - 1;
+            if (size == ARRAY_MAX) {
+                toBitmap();
+                return add(low);
+            }
+            if (size == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size * 2));
+            System.arraycopy(values, i, values, i + 1, size - i);
+            values[i] = low;
+            size++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before & ~(1L << low);
+                if (before == bits[low >>> 6]) return false;
+                size--;
+                if (size <= ARRAY_MAX) toArray();
+                return true;
+            }
+            int i = Arrays.binarySearch(values, 0, size, low);
+            if (i < 0) return false;
+            System.arraycopy(values, i + 1, values, i, size - i - 1);
+            size--;
+            return true;
+        }
+
+        private void toBitmap() {
+            long[] b = new long[1024];
+            for (int i = 0; i < size; i++) b[values[i] >>> 6] |= 1L << values[i];
+            bits = b;
+            values = null;
+        }
+
+        private void toArray() {
+            char[] v = new char[Math.max(4, size)];
+            int n = 0;
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    v[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            values = v;
+            bits = null;
+        }
+
+        /** Low bits in ascending order into {@code out} from {@code at}; returns the next index. */
+        int copyTo(long high, long[] out, int at) {
+            if (bits == null) {
+                for (int i = 0; i < size; i++) out[at++] = high | values[i];
+                return at;
+            }
+            for (int w = 0; w < bits.length; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    out[at++] = high | (w * 64L + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return at;
+        }
+
+        Chunk copy() {
+            Chunk c = new Chunk();
+            c.values = values == null ? null : values.clone();
+            c.bits = bits == null ? null : bits.clone();
+            c.size = size;
+            return c;
+        }
+
+        /** Result chunk from a bitmap, shrunk to an array if sparse; null if empty. */
+        static Chunk ofBits(long[] b) {
+            int n = 0;
+            for (long w : b) n += Long.bitCount(w);
+            if (n == 0) return null;
+            Chunk c = new Chunk();
+            c.bits = b;
+            c.size = n;
+            if (n <= ARRAY_MAX) c.toArray();
+            return c;
+        }
+
+        static Chunk and(Chunk a, Chunk b) {
+            if (a.bits != null && b.bits != null) {
+                long[] r = new long[1024];
+                for (int i = 0; i < r.length; i++) r[i] = a.bits[i] & b.bits[i];
+                return ofBits(r);
+            }
+            Chunk small = a.bits == null ? a : b;
+            Chunk other = small == a ? b : a;
+            Chunk r = array(small.size);
+            for (int i = 0; i < small.size; i++) {
+                if (other.contains(small.values[i])) r.values[r.size++] = small.values[i];
+            }
+            return r.size == 0 ? null : r;
+        }
+
+        static Chunk or(Chunk a, Chunk b) {
+            if (a.bits == null && b.bits == null && a.size + b.size <= ARRAY_MAX) {
+                Chunk r = array(a.size + b.size);
+                int i = 0, j = 0;
+                while (i < a.size || j < b.size) {
+                    char next;
+                    if (j >= b.size || (i < a.size && a.values[i] < b.values[j])) next = a.values[i++];
+                    else if (i >= a.size || b.values[j] < a.values[i]) next = b.values[j++];
+                    else { next = a.values[i++]; j++; }
+                    r.values[r.size++] = next;
+                }
+                return r;
+            }
+            long[] r = new long[1024];
+            for (Chunk c : new Chunk[]{a, b}) {
+                if (c.bits != null) {
+                    for (int i = 0; i < r.length; i++) r[i] |= c.bits[i];
+                } else {
+                    for (int i = 0; i < c.size; i++) r[c.values[i] >>> 6] |= 1L << c.values[i];
+                }
+            }
+            return ofBits(r);
+        }
+
+        static Chunk andNot(Chunk a, Chunk b) {
+            if (a.bits != null) {
+                long[] r = a.bits.clone();
+                if (b.bits != null) {
+                    for (int i = 0; i < r.length; i++) r[i] &= ~b.bits[i];
+                } else {
+                    for (int i = 0; i < b.size; i++) r[b.values[i] >>> 6] &= ~(1L << b.values[i]);
+                }
+                return ofBits(r);
+            }
+            Chunk r = array(a.size);
+            for (int i = 0; i < a.size; i++) {
+                if (!b.contains(a.values[i])) r.values[r.size++] = a.values[i];
+            }
+            return r.size == 0 ? null : r;
+        }
+    }
+
+    /** High 16 bits of each chunk, ascending; {@link #chunks} is parallel. */
+    private char[] keys = new char[0];
+    private Chunk[] chunks = new Chunk[0];
+    private int count;
+
+    /** True if {@code id} can be stored. */
+    public static boolean fits(long id) {
+        return id >= 0 && id <= 0xFFFF_FFFFL;
+    }
+
+    public boolean add(long id) {
+        checkFits(id);
+        char high = (char) (id >>> 16);
+        int i = Arrays.binarySearch(keys, 0, count, high);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, high, Chunk.array(4));
+        }
+        return chunks[i].add((char) id);
+    }
+
+    public boolean remove(long id) {
+        if (!fits(id)) return false;
+        int i = Arrays.binarySearch(keys, 0, count, (char) (id >>> 16));
+        if (i < 0 || !chunks[i].remove((char) id)) return false;
+        if (chunks[i].size == 0) removeChunk(i);
+        return true;
+    }
+
+    public boolean contains(long id) {
+        if (!fits(id)) return false;
+        int i = Arrays.binarySearch(keys, 0, count, (char) (id >>> 16));
+        return i >= 0 && chunks[i].contains((char) id);
+    }
+
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < count; i++) n += chunks[i].size;
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    /** Ids in ascending order. */
+    @NonNull
+    public long[] toArray() {
+        long[] out = new long[cardinality()];
+        int at = 0;
+        for (int i = 0; i < count; i++) at = chunks[i].copyTo((long) keys[i] << 16, out, at);
+        return out;
+    }
+
+    @NonNull
+    public NoteIdBitmap copy() {
+        NoteIdBitmap r = new NoteIdBitmap();
+        r.keys = Arrays.copyOf(keys, count);
+        r.chunks = new Chunk[count];
+        for (int i = 0; i < count; i++) r.chunks[i] = chunks[i].copy();
+        r.count = count;
+        return r;
+    }
+
+    /** Ids in both {@code a} and {@code b}. */
+    @NonNull
+    public static NoteIdBitmap and(@NonNull NoteIdBitmap a, @NonNull NoteIdBitmap b) {
+        NoteIdBitmap r = new NoteIdBitmap();
+        int i = 0, j = 0;
+        while (i < a.count && j < b.count) {
+            if (a.keys[i] < b.keys[j]) i++;
+            else if (a.keys[i] > b.keys[j]) j++;
+            else {
+                Chunk c = Chunk.and(a.chunks[i], b.chunks[j]);
+                if (c != null) r.appendChunk(a.keys[i], c);
+                i++; j++;
+            }
+        }
+        return r;
+    }
+
+    /** Ids in {@code a} or {@code b}. */
+    @NonNull
+    public static NoteIdBitmap or(@NonNull NoteIdBitmap a, @NonNull NoteIdBitmap b) {
+        NoteIdBitmap r = new NoteIdBitmap();
+        int i = 0, j = 0;
+        while (i < a.count || j < b.count) {
+            if (j >= b.count || (i < a.count && a.keys[i] < b.keys[j])) {
+                r.appendChunk(a.keys[i], a.chunks[i].copy()); i++;
+            } else if (i >= a.count || b.keys[j] < a.keys[i]) {
+                r.appendChunk(b.keys[j], b.chunks[j].copy()); j++;
+            } else {
+                r.appendChunk(a.keys[i], Chunk.or(a.chunks[i], b.chunks[j])); i++; j++;
+            }
+        }
+        return r;
+    }
+
+    /** Ids in {@code a} but not in {@code b}. */
+    @NonNull
+    public static NoteIdBitmap andNot(@NonNull NoteIdBitmap a, @NonNull NoteIdBitmap b) {
+        NoteIdBitmap r = new NoteIdBitmap();
+        int j = 0;
+        for (int i = 0; i < a.count; i++) {
+            while (j < b.count && b.keys[j] < a.keys[i]) j++;
+            Chunk c = j < b.count && b.keys[j] == a.keys[i]
+                    ? Chunk.andNot(a.chunks[i], b.chunks[j])
+                    : a.chunks[i].copy();
+            if (c != null) r.appendChunk(a.keys[i], c);
+        }
+        return r;
+    }
+
+    private static void checkFits(long id) {
+        if (!fits(id)) throw new IllegalArgumentException("note id out of range: " + id);
+    }
+
+    private void appendChunk(char key, Chunk c) {
+        insertChunk(count, key, c);
+    }
+
+    private void insertChunk(int i, char key, Chunk c) {
+        if (count == keys.length) {
+            int cap = Math.max(4, count * 2);
+            keys = Arrays.copyOf(keys, cap);
+            chunks = Arrays.copyOf(chunks, cap);
+        }
+        System.arraycopy(keys, i, keys, i + 1, count - i);
+        System.arraycopy(chunks, i, chunks, i + 1, count - i);
+        keys[i] = key;
+        chunks[i] = c;
+        count++;
+    }
+
+    private void removeChunk(int i) {
+        System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+        System.arraycopy(chunks, i + 1, chunks, i, count - i - 1);
+        chunks[--count] = null;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.anchornotes.data.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Splits search text into words the way the FTS index does (unicode61: letters and digits,
+ * case- and accent-insensitive), so queries can be compared and matched outside SQLite.
+ */
+public final class QueryTokens {
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private QueryTokens() {}
+
+    /** Lowercased words of {@code text}; empty if it has none. */
+    @NonNull
+    public static List<String> tokenize(@Nullable String text) {
+        List<String> out = new ArrayList<>();
+        if (text == null) return out;
+        for (String token : SEPARATORS.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) out.add(token);
+        }
+        return out;
+    }
+
+    /** Like {@link #tokenize}, with accents stripped ("café" -> "cafe") as unicode61 does. */
+    @NonNull
+    public static List<String> tokenizeFolded(@Nullable String text) {
+        if (text == null) return new ArrayList<>();
+        return tokenize(MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll(""));
+    }
+
+    /**
+     * True if every note matching {@code refined} also matches {@code base}, given that each
+     * token is a prefix term and all tokens must match: each base token is a prefix of the
+     * refined token in the same position ("mee" -> "meet", "meet" -> "meet agenda").
+     * An empty base matches everything, but is not treated as a refinement base.
+     */
+    public static boolean isRefinementOf(@NonNull List<String> refined, @NonNull List<String> base) {
+        if (base.isEmpty() || refined.size() < base.size()) return false;
+        for (int i = 0; i < base.size(); i++) {
+            if (!refined.get(i).startsWith(base.get(i))) return false;
+        }
+        return true;
+    }
+
+    /** True if some word in {@code words} starts with each of {@code prefixes}. */
+    public static boolean matchesAll(@NonNull List<String> words, @NonNull List<String> prefixes) {
+        for (String p : prefixes) {
+            boolean found = false;
+            for (String w : words) {
+                if (w.startsWith(p)) { found = true; break; }
+            }
+            if (!found) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.anchornotes.data.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+
+/**
+ * Something that can answer a search without SQL. NoteSearchRepository asks its engine first
+ * and falls back to the SQL search whenever the engine returns null.
+ */
+public interface SearchEngine {
+    /**
+     * Ids of the notes matching {@code f}, in home list order (pinned DESC, updatedAt DESC,
+     * id DESC), or null if this engine can't answer {@code f} right now.
+     */
+    @Nullable
+    long[] searchIds(@NonNull NoteSearchFilter f);
+}
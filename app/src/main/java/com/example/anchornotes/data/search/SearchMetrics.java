@@ -0,0 +1,105 @@
+package com.example.anchornotes.data.search;
+
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency of each search-as-you-type stage, so a slow search can be pinned on typing
+ * (debounce), on a busy executor (queue), on SQLite (query) or on the main thread (deliver).
+ * Enable logging with {@code setprop log.tag.SearchMetrics DEBUG}.
+ */
+public final class SearchMetrics {
+    private static final String TAG = "SearchMetrics";
+
+    public enum Stage {
+        /** First keystroke of a burst until its query is started. */
+        DEBOUNCE,
+        /** Query submitted until a worker thread picks it up. */
+        QUEUE,
+        /** SQL execution and row mapping. */
+        QUERY,
+        /** Rows ready until they reach the main thread. */
+        DELIVER
+    }
+
+    private static final AtomicLong[] COUNT = new AtomicLong[Stage.values().length];
+    private static final AtomicLong[] TOTAL_NS = new AtomicLong[Stage.values().length];
+    private static final AtomicLong[] MAX_NS = new AtomicLong[Stage.values().length];
+    private static final AtomicLong CANCELLED = new AtomicLong();
+    private static final AtomicLong STALE = new AtomicLong();
+    private static final AtomicLong REFINED = new AtomicLong();
+    private static final AtomicLong ENGINE_HITS = new AtomicLong();
+    private static final AtomicLong TAG_BITMAP_HITS = new AtomicLong();
+
+    static {
+        for (int i = 0; i < COUNT.length; i++) {
+            COUNT[i] = new AtomicLong();
+            TOTAL_NS[i] = new AtomicLong();
+            MAX_NS[i] = new AtomicLong();
+        }
+    }
+
+    private SearchMetrics() {}
+
+    public static void record(Stage stage, long nanos) {
+        int i = stage.ordinal();
+        COUNT[i].incrementAndGet();
+        TOTAL_NS[i].addAndGet(nanos);
+        long prev;
+        while (nanos > (prev = MAX_NS[i].get())) {
+            if (MAX_NS[i].compareAndSet(prev, nanos)) break;
+        }
+    }
+
+    /** A query was interrupted because a newer one replaced it. */
+    public static void recordCancelled() { CANCELLED.incrementAndGet(); }
+
+    /** A query finished but a newer one had started, so its rows were dropped. */
+    public static void recordStale() { STALE.incrementAndGet(); }
+
+    /** A query was answered by narrowing an earlier result instead of a full search. */
+    public static void recordRefined() { REFINED.incrementAndGet(); }
+
+    /** A query was answered by the in-memory {@link SearchEngine} instead of SQL. */
+    public static void recordEngineHit() { ENGINE_HITS.incrementAndGet(); }
+
+    /** Tag criteria of a query were answered by {@link TagBitmapIndex} instead of SQL. */
+    public static void recordTagBitmapHit() { TAG_BITMAP_HITS.incrementAndGet(); }
+
+    public static double averageMs(Stage stage) {
+        long n = COUNT[stage.ordinal()].get();
+        return n == 0 ? 0 : TOTAL_NS[stage.ordinal()].get() / 1e6 / n;
+    }
+
+    public static double maxMs(Stage stage) {
+        return MAX_NS[stage.ordinal()].get() / 1e6;
+    }
+
+    public static long cancelled() { return CANCELLED.get(); }
+
+    public static long stale() { return STALE.get(); }
+
+    public static long refined() { return REFINED.get(); }
+
+    public static long engineHits() { return ENGINE_HITS.get(); }
+
+    public static long tagBitmapHits() { return TAG_BITMAP_HITS.get(); }
+
+    public static String summary() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage s : Stage.values()) {
+            sb.append(String.format(Locale.US, "%s(n=%d avg=%.1fms max=%.1fms) ",
+                    s, COUNT[s.ordinal()].get(), averageMs(s), maxMs(s)));
+        }
+        sb.append("cancelled=").append(cancelled()).append(" stale=").append(stale())
+                .append(" refined=").append(refined()).append(" engine=").append(engineHits())
+                .append(" tagBitmaps=").append(tagBitmapHits());
+        return sb.toString();
+    }
+
+    public static void log() {
+        if (Log.isLoggable(TAG, Log.DEBUG)) Log.d(TAG, summary());
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.anchornotes.data.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.InvalidationTracker;
+import androidx.room.RoomDatabase;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * LRU cache of search results, stored as note ids in list order. Switching back to a filter
+ * seen recently then costs one hydrate query for the visible page instead of the full search.
+ *
+ * <p>Any write to `notes` or `note_tag_cross_ref` clears the cache (via Room's
+ * InvalidationTracker). A version number guards the window between a query reading rows and
+ * its result being stored: if the tables changed in between, the result is not cached.
+ */
+public class SearchResultCache {
+    static final int MAX_ENTRIES = 16;
+    /** Upper bound on ids held across all entries (8 bytes each). */
+    static final int MAX_TOTAL_IDS = 50_000;
+
+    private static final class Entry {
+        final long[] ids;
+        /** Key of the filter without its query; entries only refine others with the same rest. */
+        final String restKey;
+        final List<String> tokens;
+        /** The query as the substring search sees it (Trigrams.normalize). */
+        final String fragment;
+
+        Entry(long[] ids, String restKey, List<String> tokens, String fragment) {
+            this.ids = ids;
+            this.restKey = restKey;
+            this.tokens = tokens;
+            this.fragment = fragment;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true);
+    private int totalIds;
+    private long version;
+
+    public SearchResultCache(@NonNull RoomDatabase db) {
+        db.getInvalidationTracker().addObserver(
+                new InvalidationTracker.Observer("notes", "note_tag_cross_ref") {
+                    @Override public void onInvalidated(@NonNull Set<String> tables) {
+                        invalidate();
+                    }
+                });
+    }
+
+    /** Canonical key: the same filter typed differently (case, spacing, tag order) maps to one entry. */
+    @NonNull
+    public static String keyOf(@NonNull NoteSearchFilter f) {
+        String q = f.query == null ? "" : f.query.trim().toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        return restKeyOf(f) + "|q=" + q;
+    }
+
+    private static String restKeyOf(NoteSearchFilter f) {
+        StringBuilder sb = new StringBuilder();
+        if (f.tagIds != null && !f.tagIds.isEmpty()) {
+            List<Long> tags = new ArrayList<>(new TreeSet<>(f.tagIds));
+            sb.append("t=").append(tags);
+            if (f.matchAllTags) sb.append("|all");
+        }
+        if (f.excludedTagIds != null && !f.excludedTagIds.isEmpty()) {
+            sb.append("|not=").append(new ArrayList<>(new TreeSet<>(f.excludedTagIds)));
+        }
+        if (f.fromDate != null) sb.append("|from=").append(f.fromDate);
+        if (f.toDate != null) sb.append("|to=").append(f.toDate);
+        if (Boolean.TRUE.equals(f.hasPhoto)) sb.append("|photo");
+        if (Boolean.TRUE.equals(f.hasVoice)) sb.append("|voice");
+        if (Boolean.TRUE.equals(f.hasLocation)) sb.append("|loc");
+        if (f.hasNear()) {
+            sb.append("|near=").append(f.nearLatitude).append(',').append(f.nearLongitude)
+                    .append(',').append(f.nearRadiusMeters);
+        }
+        if (f.rankByRelevance) sb.append("|rank");
+        return sb.toString();
+    }
+
+    /** Current data version; read it before running the query whose result you will {@link #put}. */
+    public synchronized long version() {
+        return version;
+    }
+
+    @Nullable
+    public synchronized long[] get(@NonNull NoteSearchFilter f) {
+        Entry e = entries.get(keyOf(f));
+        return e == null ? null : e.ids;
+    }
+
+    /**
+     * Ids of a cached search that {@code f} only narrows: same filters, and a query that
+     * extends the cached one word by word (see {@link QueryTokens#isRefinementOf}).
+     * Picks the smallest such result. Null if there is none, or if {@code f} is ranked by
+     * relevance: a longer query ranks the same notes differently.
+     */
+    @Nullable
+    public synchronized long[] refinementBase(@NonNull NoteSearchFilter f) {
+        if (f.rankByRelevance) return null;
+        String rest = restKeyOf(f);
+        List<String> tokens = QueryTokens.tokenize(f.query);
+        String fragment = Trigrams.normalize(f.query);
+        long[] best = null;
+        for (Entry e : entries.values()) {
+            if (!e.restKey.equals(rest) || !QueryTokens.isRefinementOf(tokens, e.tokens)) continue;
+            if (!coversSubstrings(e.fragment, fragment)) continue;
+            if (best == null || e.ids.length < best.length) best = e.ids;
+        }
+        return best;
+    }
+
+    /**
+     * True if every note containing {@code fragment} is among the results for {@code base}:
+     * {@code fragment} is too short for substring search, or the base searched substrings too
+     * and {@code fragment} contains it. "b1" finds no "rm4b17" (too short for substrings) but
+     * "b17" does, so "b1" can't be refined into "b17".
+     */
+    private static boolean coversSubstrings(String base, String fragment) {
+        if (fragment.length() < Trigrams.MIN_LENGTH) return true;
+        return base.length() >= Trigrams.MIN_LENGTH && fragment.contains(base);
+    }
+
+    /** Stores {@code ids} unless the tables changed since {@code versionAtQuery} was read. */
+    public synchronized void put(@NonNull NoteSearchFilter f, @NonNull long[] ids, long versionAtQuery) {
+        if (versionAtQuery != version || ids.length > MAX_TOTAL_IDS) return;
+        String key = keyOf(f);
+        Entry old = entries.put(key, new Entry(ids, restKeyOf(f), QueryTokens.tokenize(f.query),
+                Trigrams.normalize(f.query)));
+        if (old != null) totalIds -= old.ids.length;
+        totalIds += ids.length;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > MAX_ENTRIES || totalIds > MAX_TOTAL_IDS) && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) continue;
+            totalIds -= eldest.getValue().ids.length;
+            it.remove();
+        }
+    }
+
+    public synchronized void invalidate() {
+        version++;
+        entries.clear();
+        totalIds = 0;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.anchornotes.data.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.anchornotes.data.db.NoteSummary;
+
+import java.util.Arrays;
+
+/**
+ * Match snippets from FTS4 {@code snippet()}. SQLite wraps each hit in {@link #OPEN} and
+ * {@link #CLOSE}; {@link #apply} strips the markers and keeps the hit ranges as offsets, so
+ * the list can style them without searching the text again on the main thread.
+ */
+public final class Snippets {
+    /** Control characters nobody types, so they can't be confused with note text. */
+    public static final String OPEN = "\u0001";
+    public static final String CLOSE = "\u0002";
+    public static final String ELLIPSIS = "\u2026";
+    /** Tokens of context per snippet. */
+    public static final int TOKENS = 16;
+
+    private Snippets() {}
+
+    /**
+     * Sets {@link NoteSummary#snippet} and {@link NoteSummary#highlights} from a marked
+     * snippet. Leaves the note alone if the snippet has no hit (e.g. the match was in the title).
+     */
+    public static void apply(@NonNull NoteSummary n, @Nullable String marked) {
+        if (marked == null || !marked.contains(OPEN)) return;
+        StringBuilder text = new StringBuilder(marked.length());
+        int[] ranges = new int[8];
+        int count = 0;
+        int start = -1;
+        for (int i = 0; i < marked.length(); i++) {
+            char ch = marked.charAt(i);
+            if (ch == OPEN.charAt(0)) {
+                start = text.length();
+            } else if (ch == CLOSE.charAt(0)) {
+                if (start >= 0 && text.length() > start) {
+                    if (count + 2 > ranges.length) ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                    ranges[count++] = start;
+                    ranges[count++] = text.length();
+                }
+                start = -1;
+            } else {
+                text.append(ch);
+            }
+        }
+        if (count == 0) return;
+        n.snippet = text.toString();
+        n.highlights = Arrays.copyOf(ranges, count);
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.anchornotes.data.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.room.InvalidationTracker;
+import androidx.room.RoomDatabase;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.db.NoteTagCrossRef;
+import com.example.anchornotes.data.db.NoteTagCrossRefDao;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * One {@link NoteIdBitmap} per tag, so tag filters (any of, all of, none of) are answered in
+ * memory and the SQL query only has to handle the other criteria.
+ *
+ * <p>Built lazily on {@code buildExecutor} the first time a tag filter asks for it.
+ * TagRepository and NoteRepository report their writes, so results are current as soon as the
+ * write returns. Links can also change without them (e.g. a deleted tag cascades), so a
+ * change to `note_tag_cross_ref` that no reported write accounts for schedules a rebuild. The
+ * rebuild is only swapped in if no reported write happened while it was reading. When it finds links the reported writes had
+ * missed, the search cache is cleared after the swap: the cache was cleared by the same table
+ * change, but searches run before the swap may have stored results from the old bitmaps.
+ */
+public class TagBitmapIndex {
+
+    /** Tag criteria of a filter, resolved to bitmaps. */
+    public static final class Match {
+        /** Notes that pass the any/all criteria; null means every note does. */
+        @Nullable private final NoteIdBitmap include;
+        @Nullable private final NoteIdBitmap exclude;
+
+        Match(@Nullable NoteIdBitmap include, @Nullable NoteIdBitmap exclude) {
+            this.include = include;
+            this.exclude = exclude;
+        }
+
+        public boolean test(long noteId) {
+            return (include == null || include.contains(noteId))
+                    && (exclude == null || !exclude.contains(noteId));
+        }
+
+        /** True if no note can pass, so the rest of the query can be skipped. */
+        public boolean isEmpty() {
+            return include != null && include.isEmpty();
+        }
+    }
+
+    private final NoteTagCrossRefDao dao;
+    private final Executor buildExecutor;
+    /** Cleared when a rebuild changes the bitmaps; may be null. */
+    @Nullable private final SearchResultCache cache;
+
+    // --- guarded by this ---
+    private Map<Long, NoteIdBitmap> byTag = new HashMap<>();
+    private boolean ready;
+    /** A rebuild is queued or running; only one at a time, so an older read never wins. */
+    private boolean building;
+    /** The table changed while {@link #building}; read it again when done. */
+    private boolean dirty;
+    /** Incremented by every reported write; a rebuild that saw an older value is dropped. */
+    private long writes;
+    /** {@link #writes} as of the last build or table change; a change past it was reported. */
+    private long coveredWrites;
+    /** A link used an id that doesn't fit a bitmap; every query goes to SQL from then on. */
+    private boolean unsupported;
+
+    public TagBitmapIndex(@NonNull RoomDatabase db, @NonNull NoteTagCrossRefDao dao, @NonNull Executor buildExecutor) {
+        this(db, dao, buildExecutor, null);
+    }
+
+    public TagBitmapIndex(@NonNull RoomDatabase db, @NonNull NoteTagCrossRefDao dao, @NonNull Executor buildExecutor,
+                          @Nullable SearchResultCache cache) {
+        this.dao = dao;
+        this.buildExecutor = buildExecutor;
+        this.cache = cache;
+        db.getInvalidationTracker().addObserver(new InvalidationTracker.Observer("note_tag_cross_ref") {
+            @Override public void onInvalidated(@NonNull Set<String> tables) {
+                scheduleRebuild();
+            }
+        });
+    }
+
+    /** True if {@code f} has any tag criteria. */
+    public static boolean hasTagCriteria(@NonNull NoteSearchFilter f) {
+        return (f.tagIds != null && !f.tagIds.isEmpty())
+                || (f.excludedTagIds != null && !f.excludedTagIds.isEmpty());
+    }
+
+    /**
+     * The tag criteria of {@code f} as bitmaps, or null if the index isn't built yet (the first
+     * call starts the build) and the caller must filter tags in SQL.
+     */
+    @Nullable
+    public synchronized Match match(@NonNull NoteSearchFilter f) {
+        if (unsupported) return null;
+        if (!ready) {
+            if (!building) {
+                building = true;
+                buildExecutor.execute(this::rebuild);
+            }
+            return null;
+        }
+        NoteIdBitmap include = null;
+        if (f.tagIds != null && !f.tagIds.isEmpty()) {
+            for (Long tagId : f.tagIds) {
+                NoteIdBitmap notes = byTag.get(tagId);
+                if (notes == null) notes = new NoteIdBitmap();
+                if (include == null) include = notes.copy();
+                else include = f.matchAllTags ? NoteIdBitmap.and(include, notes) : NoteIdBitmap.or(include, notes);
+            }
+        }
+        NoteIdBitmap exclude = null;
+        if (f.excludedTagIds != null) {
+            for (Long tagId : f.excludedTagIds) {
+                NoteIdBitmap notes = byTag.get(tagId);
+                if (notes == null) continue;
+                exclude = exclude == null ? notes.copy() : NoteIdBitmap.or(exclude, notes);
+            }
+        }
+        return new Match(include, exclude);
+    }
+
+    // ========== Reported writes ==========
+
+    public synchronized void linkAdded(long noteId, long tagId) {
+        writes++;
+        if (!ready) return;
+        if (!NoteIdBitmap.fits(noteId)) { unsupported = true; return; }
+        NoteIdBitmap notes = byTag.get(tagId);
+        if (notes == null) {
+            notes = new NoteIdBitmap();
+            byTag.put(tagId, notes);
+        }
+        notes.add(noteId);
+    }
+
+    public synchronized void linkRemoved(long noteId, long tagId) {
+        writes++;
+        if (!ready) return;
+        NoteIdBitmap notes = byTag.get(tagId);
+        if (notes != null && notes.remove(noteId) && notes.isEmpty()) byTag.remove(tagId);
+    }
+
+    /** A note was deleted; its links went with it. */
+    public synchronized void noteRemoved(long noteId) {
+        writes++;
+        if (!ready) return;
+        byTag.values().removeIf(notes -> notes.remove(noteId) && notes.isEmpty());
+    }
+
+    // ========== Rebuild ==========
+
+    private synchronized void scheduleRebuild() {
+        if (!ready) return; // not requested yet, or the first build will read current rows
+        if (writes != coveredWrites) {
+            // the bitmaps already hold what was written; Room batches invalidations, so one
+            // may stand for several reported writes
+            coveredWrites = writes;
+            return;
+        }
+        if (building) {
+            dirty = true;
+            return;
+        }
+        building = true;
+        buildExecutor.execute(this::rebuild);
+    }
+
+    private void rebuild() {
+        long seenWrites;
+        synchronized (this) {
+            dirty = false;
+            seenWrites = writes;
+        }
+        List<NoteTagCrossRef> links = dao.getAll();
+        Map<Long, NoteIdBitmap> fresh = new HashMap<>();
+        boolean fits = true;
+        for (NoteTagCrossRef link : links) {
+            if (!NoteIdBitmap.fits(link.noteId)) { fits = false; break; }
+            NoteIdBitmap notes = fresh.get(link.tagId);
+            if (notes == null) {
+                notes = new NoteIdBitmap();
+                fresh.put(link.tagId, notes);
+            }
+            notes.add(link.noteId);
+        }
+        boolean changed = false;
+        synchronized (this) {
+            if (!fits) {
+                unsupported = true;
+                byTag = new HashMap<>();
+                building = false;
+                return;
+            }
+            // a reported write that landed meanwhile may be missing from what we read
+            if (writes == seenWrites) {
+                // before the first build every tag filter went to SQL, so nothing cached used it
+                changed = ready && !sameLinks(byTag, fresh);
+                byTag = fresh;
+                ready = true;
+                coveredWrites = writes;
+            }
+            if (writes != seenWrites || dirty) {
+                buildExecutor.execute(this::rebuild);
+            } else {
+                building = false;
+            }
+        }
+        if (changed && cache != null) cache.invalidate();
+    }
+
+    private static boolean sameLinks(Map<Long, NoteIdBitmap> a, Map<Long, NoteIdBitmap> b) {
+        if (a.size() != b.size()) return false;
+        for (Map.Entry<Long, NoteIdBitmap> e : a.entrySet()) {
+            NoteIdBitmap other = b.get(e.getKey());
+            if (other == null || !Arrays.equals(e.getValue().toArray(), other.toArray())) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.anchornotes.data.search;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Three-character substrings of note text, for substring search ("4b1" in "RM-4B17").
+ * A note contains a fragment only if it contains every trigram of the fragment, so the
+ * trigram table narrows a substring query to a few candidates that are then verified.
+ *
+ * <p>Each trigram is packed into a long (three UTF-16 units, 16 bits each), which keeps the
+ * table and its index small. Text is lowercased first; nothing else is dropped, so part
+ * numbers and codes keep their punctuation.
+ */
+public final class Trigrams {
+    /** Shortest fragment the trigram table can answer. */
+    public static final int MIN_LENGTH = 3;
+    /** Trigrams used to find candidates for a long fragment; verification checks the rest. */
+    static final int MAX_QUERY_GRAMS = 12;
+
+    private Trigrams() {}
+
+    /** Lowercased text with runs of whitespace collapsed, as stored bodies are. */
+    @NonNull
+    public static String normalize(@Nullable String text) {
+        if (text == null) return "";
+        return text.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ").trim();
+    }
+
+    /** Distinct trigrams of the normalized title and body, for the `note_trigrams` table. */
+    @NonNull
+    public static long[] ofNote(@Nullable String title, @Nullable String bodyText) {
+        long[] a = distinct(normalize(title));
+        long[] b = distinct(normalize(bodyText));
+        long[] all = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, all, a.length, b.length);
+        return unique(all);
+    }
+
+    /**
+     * Trigrams to look up for a substring query, at most {@link #MAX_QUERY_GRAMS} spread over
+     * the fragment. Empty if the fragment is shorter than {@link #MIN_LENGTH}.
+     */
+    @NonNull
+    public static long[] ofQuery(@Nullable String fragment) {
+        long[] grams = distinct(normalize(fragment));
+        if (grams.length <= MAX_QUERY_GRAMS) return grams;
+        long[] picked = new long[MAX_QUERY_GRAMS];
+        for (int i = 0; i < MAX_QUERY_GRAMS; i++) {
+            picked[i] = grams[(int) ((long) i * (grams.length - 1) / (MAX_QUERY_GRAMS - 1))];
+        }
+        return unique(picked);
+    }
+
+    /** LIKE pattern (escaped with '\\') for notes containing the normalized {@code fragment}. */
+    @NonNull
+    public static String likePattern(@Nullable String fragment) {
+        String s = normalize(fragment).replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return "%" + s + "%";
+    }
+
+    /**
+     * Whether {@code text} contains the normalized {@code fragment} the way
+     * {@code LIKE likePattern(fragment)} decides it: ASCII letters in either case, every other
+     * character only as itself.
+     */
+    public static boolean containsLike(@Nullable String text, @NonNull String fragment) {
+        if (text == null) return false;
+        int n = fragment.length();
+        outer:
+        for (int i = 0; i + n <= text.length(); i++) {
+            for (int j = 0; j < n; j++) {
+                if (asciiLower(text.charAt(i + j)) != asciiLower(fragment.charAt(j))) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static char asciiLower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    static long pack(char a, char b, char c) {
+        return ((long) a << 32) | ((long) b << 16) | c;
+    }
+
+    private static long[] distinct(String s) {
+        if (s.length() < MIN_LENGTH) return new long[0];
+        long[] grams = new long[s.length() - MIN_LENGTH + 1];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = pack(s.charAt(i), s.charAt(i + 1), s.charAt(i + 2));
+        }
+        return unique(grams);
+    }
+
+    /** Sorted copy without duplicates. */
+    private static long[] unique(long[] grams) {
+        long[] sorted = grams.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[n++] = sorted[i];
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+}
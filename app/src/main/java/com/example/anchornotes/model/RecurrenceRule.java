@@ -0,0 +1,240 @@
+package com.example.anchornotes.model;
+
+import androidx.annotation.NonNull;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Locale;
+
+/**
+ * How a time reminder repeats: the RRULE subset FREQ=DAILY|WEEKLY|MONTHLY with INTERVAL,
+ * BYDAY (weekly, plain days), BYMONTHDAY (monthly, one day; -1 is the last), BYHOUR, BYMINUTE
+ * and UNTIL. Stored on the note as its {@link #toString()}.
+ * <p>
+ * {@link #nextAfter} works out the next occurrence with date arithmetic, so it costs the same
+ * whether the last one was a minute or ten years ago. Unlike RFC 5545, a monthly day past the
+ * end of a shorter month falls on its last day instead of skipping the month.
+ */
+public final class RecurrenceRule {
+    public enum Frequency { DAILY, WEEKLY, MONTHLY }
+
+    private static final String[] DAY_CODES = {"MO", "TU", "WE", "TH", "FR", "SA", "SU"};
+    private static final DateTimeFormatter UNTIL_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+    private static final int UNSET = -1;
+
+    public final Frequency frequency;
+    public final int interval;
+    /** Weekly: one bit per day, Monday = bit 0; 0 until anchored. */
+    public final int weekDays;
+    /** Monthly: 1..31, or -1 for the last day; 0 until anchored. */
+    public final int monthDay;
+    /** Local time of day; -1 until anchored. */
+    public final int hour;
+    public final int minute;
+    /** No occurrence after this (millis); Long.MAX_VALUE for none. */
+    public final long until;
+
+    private RecurrenceRule(Frequency frequency, int interval, int weekDays, int monthDay,
+                           int hour, int minute, long until) {
+        if (interval < 1) throw new IllegalArgumentException("INTERVAL must be at least 1");
+        this.frequency = frequency;
+        this.interval = interval;
+        this.weekDays = weekDays;
+        this.monthDay = monthDay;
+        this.hour = hour;
+        this.minute = minute;
+        this.until = until;
+    }
+
+    public static RecurrenceRule daily(int interval) {
+        return new RecurrenceRule(Frequency.DAILY, interval, 0, 0, UNSET, UNSET, Long.MAX_VALUE);
+    }
+
+    /** @param days the days it repeats on; none for the first occurrence's day */
+    public static RecurrenceRule weekly(int interval, DayOfWeek... days) {
+        int mask = 0;
+        for (DayOfWeek d : days) mask |= 1 << (d.getValue() - 1);
+        return new RecurrenceRule(Frequency.WEEKLY, interval, mask, 0, UNSET, UNSET, Long.MAX_VALUE);
+    }
+
+    /** @param monthDay 1..31, -1 for the last day, 0 for the first occurrence's day */
+    public static RecurrenceRule monthly(int interval, int monthDay) {
+        return new RecurrenceRule(Frequency.MONTHLY, interval, 0, checkMonthDay(monthDay), UNSET, UNSET, Long.MAX_VALUE);
+    }
+
+    /**
+     * Parses an RRULE value such as {@code FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,TH}.
+     * @throws IllegalArgumentException for a malformed rule or a part outside the subset
+     */
+    @NonNull
+    public static RecurrenceRule parse(@NonNull String rule) {
+        Frequency frequency = null;
+        int interval = 1, weekDays = 0, monthDay = 0, hour = UNSET, minute = UNSET;
+        long until = Long.MAX_VALUE;
+        String value = rule.trim();
+        if (value.regionMatches(true, 0, "RRULE:", 0, 6)) value = value.substring(6);
+        for (String part : value.split(";")) {
+            int eq = part.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Malformed rule part: " + part);
+            String key = part.substring(0, eq).toUpperCase(Locale.ROOT);
+            String v = part.substring(eq + 1).toUpperCase(Locale.ROOT);
+            try {
+                switch (key) {
+                    case "FREQ": frequency = Frequency.valueOf(v); break;
+                    case "INTERVAL": interval = Integer.parseInt(v); break;
+                    case "BYDAY":
+                        for (String day : v.split(",")) weekDays |= 1 << dayIndex(day);
+                        break;
+                    case "BYMONTHDAY": monthDay = checkMonthDay(Integer.parseInt(v)); break;
+                    case "BYHOUR": hour = checkRange(Integer.parseInt(v), 23); break;
+                    case "BYMINUTE": minute = checkRange(Integer.parseInt(v), 59); break;
+                    case "UNTIL": until = parseUntil(v); break;
+                    default: throw new IllegalArgumentException("Unsupported rule part: " + key);
+                }
+            } catch (NumberFormatException | DateTimeParseException e) {
+                throw new IllegalArgumentException("Malformed rule part: " + part, e);
+            }
+        }
+        if (frequency == null) throw new IllegalArgumentException("FREQ is required");
+        if (weekDays != 0 && frequency != Frequency.WEEKLY) throw new IllegalArgumentException("BYDAY needs FREQ=WEEKLY");
+        if (monthDay != 0 && frequency != Frequency.MONTHLY) throw new IllegalArgumentException("BYMONTHDAY needs FREQ=MONTHLY");
+        return new RecurrenceRule(frequency, interval, weekDays, monthDay, hour, minute, until);
+    }
+
+    /**
+     * Fills in what the rule leaves to its first occurrence (the day of the week or month and
+     * the time of day), so later occurrences don't drift when one is moved, e.g. the 31st
+     * falling on the 30th.
+     */
+    @NonNull
+    public RecurrenceRule anchoredAt(long firstMillis, @NonNull ZoneId zone) {
+        ZonedDateTime first = Instant.ofEpochMilli(firstMillis).atZone(zone);
+        return new RecurrenceRule(frequency, interval,
+                frequency == Frequency.WEEKLY && weekDays == 0 ? 1 << (first.getDayOfWeek().getValue() - 1) : weekDays,
+                frequency == Frequency.MONTHLY && monthDay == 0 ? first.getDayOfMonth() : monthDay,
+                hour == UNSET ? first.getHour() : hour,
+                minute == UNSET ? first.getMinute() : minute,
+                until);
+    }
+
+    /**
+     * The first occurrence after {@code afterMillis}, or -1 once the rule has ended.
+     * @param anchorMillis an earlier occurrence (the one that just fired); INTERVAL counts from it
+     */
+    public long nextAfter(long anchorMillis, long afterMillis, @NonNull ZoneId zone) {
+        RecurrenceRule rule = anchoredAt(anchorMillis, zone);
+        LocalDate anchor = Instant.ofEpochMilli(anchorMillis).atZone(zone).toLocalDate();
+        LocalDate from = Instant.ofEpochMilli(afterMillis).atZone(zone).toLocalDate();
+        if (from.isBefore(anchor)) from = anchor;
+        LocalTime time = LocalTime.of(rule.hour, rule.minute);
+
+        LocalDate date = rule.firstOnOrAfter(anchor, from);
+        long at = ZonedDateTime.of(date, time, zone).toInstant().toEpochMilli();
+        if (at <= afterMillis) {
+            // today's occurrence has passed
+            date = rule.firstOnOrAfter(anchor, date.plusDays(1));
+            at = ZonedDateTime.of(date, time, zone).toInstant().toEpochMilli();
+        }
+        return at > until ? -1 : at;
+    }
+
+    /** The first day on or after {@code from} with an occurrence, counting intervals from {@code anchor}. */
+    private LocalDate firstOnOrAfter(LocalDate anchor, LocalDate from) {
+        switch (frequency) {
+            case DAILY: {
+                long days = from.toEpochDay() - anchor.toEpochDay();
+                return anchor.plusDays(ceilToInterval(days));
+            }
+            case WEEKLY: {
+                LocalDate anchorWeek = anchor.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                LocalDate fromWeek = from.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                long weeks = (fromWeek.toEpochDay() - anchorWeek.toEpochDay()) / 7;
+                if (weeks % interval == 0) {
+                    // days left in this week, from's day included
+                    int left = weekDays >> (from.getDayOfWeek().getValue() - 1);
+                    if (left != 0) return from.plusDays(Integer.numberOfTrailingZeros(left));
+                    weeks += interval;
+                }
+                LocalDate week = anchorWeek.plusWeeks(ceilToInterval(weeks));
+                return week.plusDays(Integer.numberOfTrailingZeros(weekDays));
+            }
+            case MONTHLY: {
+                long months = (from.getYear() - anchor.getYear()) * 12L + from.getMonthValue() - anchor.getMonthValue();
+                long k = ceilToInterval(months);
+                LocalDate date = dayInMonth(anchor.withDayOfMonth(1).plusMonths(k));
+                if (date.isBefore(from)) date = dayInMonth(anchor.withDayOfMonth(1).plusMonths(k + interval));
+                return date;
+            }
+            default:
+                throw new IllegalStateException(frequency.name());
+        }
+    }
+
+    /** The smallest multiple of the interval at least {@code n} (n >= 0). */
+    private long ceilToInterval(long n) {
+        return (n + interval - 1) / interval * interval;
+    }
+
+    private LocalDate dayInMonth(LocalDate firstOfMonth) {
+        int length = firstOfMonth.lengthOfMonth();
+        return firstOfMonth.withDayOfMonth(monthDay == -1 ? length : Math.min(monthDay, length));
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("FREQ=").append(frequency.name());
+        if (interval != 1) sb.append(";INTERVAL=").append(interval);
+        if (weekDays != 0) {
+            sb.append(";BYDAY=");
+            String sep = "";
+            for (int i = 0; i < 7; i++) {
+                if ((weekDays & (1 << i)) == 0) continue;
+                sb.append(sep).append(DAY_CODES[i]);
+                sep = ",";
+            }
+        }
+        if (monthDay != 0) sb.append(";BYMONTHDAY=").append(monthDay);
+        if (hour != UNSET) sb.append(";BYHOUR=").append(hour);
+        if (minute != UNSET) sb.append(";BYMINUTE=").append(minute);
+        if (until != Long.MAX_VALUE) {
+            sb.append(";UNTIL=").append(UNTIL_FORMAT.format(Instant.ofEpochMilli(until).atOffset(ZoneOffset.UTC)));
+        }
+        return sb.toString();
+    }
+
+    private static int dayIndex(String code) {
+        for (int i = 0; i < DAY_CODES.length; i++) {
+            if (DAY_CODES[i].equals(code)) return i;
+        }
+        throw new IllegalArgumentException("Unsupported BYDAY value: " + code);
+    }
+
+    private static int checkMonthDay(int day) {
+        if (day == -1 || (day >= 0 && day <= 31)) return day;
+        throw new IllegalArgumentException("BYMONTHDAY out of range: " + day);
+    }
+
+    private static int checkRange(int value, int max) {
+        if (value < 0 || value > max) throw new IllegalArgumentException("Out of range: " + value);
+        return value;
+    }
+
+    /** UNTIL as a UTC date-time (yyyyMMddTHHmmssZ), or a date meaning the end of that day in UTC. */
+    private static long parseUntil(String v) {
+        if (v.length() == 8) {
+            return LocalDate.parse(v, DateTimeFormatter.BASIC_ISO_DATE).plusDays(1)
+                    .atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli() - 1;
+        }
+        return LocalDateTime.parse(v, UNTIL_FORMAT).toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+}
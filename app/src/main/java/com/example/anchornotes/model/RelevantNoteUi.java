@@ -1,15 +1,15 @@
 package com.example.anchornotes.model;
 
-import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.db.NoteSummary;
 
 /**
  * UI model for a relevant note, combining note data with expiration info.
  */
 public class RelevantNoteUi {
-    public final NoteEntity note;
+    public final NoteSummary note;
     public final long expiresAt;
 
-    public RelevantNoteUi(NoteEntity note, long expiresAt) {
+    public RelevantNoteUi(NoteSummary note, long expiresAt) {
         this.note = note;
         this.expiresAt = expiresAt;
     }
@@ -5,49 +5,111 @@ import android.content.Context;
 import android.content.Intent;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import com.example.anchornotes.context.NotificationHelper;
+import com.example.anchornotes.context.ReminderManager;
+import com.example.anchornotes.context.ReminderPayloads;
 import com.example.anchornotes.data.ServiceLocator;
 import com.example.anchornotes.data.db.AppDatabase;
 import com.example.anchornotes.data.db.NoteEntity;
-import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.db.ReminderQueueEntity;
+import com.example.anchornotes.model.RecurrenceRule;
+import com.example.anchornotes.util.AppExecutors;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
- * BroadcastReceiver for handling time-based reminder alarms.
+ * BroadcastReceiver for handling time-based reminder alarms. One alarm stands for every
+ * reminder due by the time it fires; they are handled as a batch, repeating ones are queued
+ * again for their next occurrence and the alarm is re-armed for the next one. Alarms set per
+ * note by older versions land here too and just drain the queue.
  */
 public class AlarmReceiver extends BroadcastReceiver {
-    public static final String EXTRA_NOTE_ID = "noteId";
-
-    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
 
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
-        if (!intent.hasExtra(EXTRA_NOTE_ID)) {
+        PendingResult pending = goAsync();
+        // Posting the notification is what the user is waiting for
+        AppExecutors.userWrite().execute(() -> {
+            try {
+                fireDue(context, new ReminderManager(context), System.currentTimeMillis());
+            } finally {
+                pending.finish();
+            }
+        });
+    }
+
+    /**
+     * Shows every reminder due by {@code now} and marks its note relevant, moves repeating
+     * reminders on to their next occurrence, then leaves the alarm on the next one.
+     * Reminders with a stored payload are posted before the database is opened.
+     * Call from a background thread.
+     */
+    @VisibleForTesting
+    public static void fireDue(@NonNull Context context, @NonNull ReminderManager reminderManager, long now) {
+        NotificationHelper notifications = new NotificationHelper(context);
+        ReminderPayloads payloads = new ReminderPayloads(context);
+        List<ReminderPayloads.Payload> ready = payloads.dueBy(now);
+        notifications.showPayloads(ready);
+        Set<Long> posted = new HashSet<>();
+        for (ReminderPayloads.Payload p : ready) posted.add(p.noteId);
+
+        List<ReminderQueueEntity> due = reminderManager.takeDueReminders(now);
+        List<Long> ids = new ArrayList<>();
+        Map<Long, Long> tolerance = new HashMap<>();
+        for (ReminderQueueEntity r : due) {
+            ids.add(r.noteId);
+            tolerance.put(r.noteId, r.deadlineAt - r.fireAt);
+        }
+        // a payload whose reminder isn't queued (its scheduling failed halfway) is done with
+        Set<Long> stale = new HashSet<>(posted);
+        stale.removeAll(ids);
+        payloads.removeAll(stale);
+        if (due.isEmpty()) {
             return;
         }
 
-        long noteId = intent.getLongExtra(EXTRA_NOTE_ID, -1);
-        if (noteId == -1) {
-            return;
+        AppDatabase db = AppDatabase.get(context);
+        List<NoteEntity> notes = db.noteDao().getByIds(ids);
+        // reminders set before payloads were stored
+        List<NoteEntity> unposted = new ArrayList<>();
+        for (NoteEntity note : notes) {
+            if (!posted.contains(note.id)) unposted.add(note);
         }
+        notifications.showReminders(unposted);
 
-        executor.execute(() -> {
-            AppDatabase db = AppDatabase.get(context);
-            NoteEntity note = db.noteDao().getById(noteId);
-            if (note == null) {
-                return;
+        // Only the notes that fired are looked at; each next occurrence is one calculation
+        List<ReminderQueueEntity> next = new ArrayList<>();
+        List<ReminderPayloads.Payload> nextPayloads = new ArrayList<>();
+        ZoneId zone = ZoneId.systemDefault();
+        for (NoteEntity note : notes) {
+            if (note.reminderRule == null || note.reminderAt == null) continue;
+            long at;
+            try {
+                at = RecurrenceRule.parse(note.reminderRule).nextAfter(note.reminderAt, now, zone);
+            } catch (IllegalArgumentException e) {
+                continue; // not a rule this version understands; it stays a one-off
             }
+            if (at < 0) continue; // past UNTIL
+            next.add(new ReminderQueueEntity(note.id, at, at + tolerance.get(note.id)));
+            nextPayloads.add(ReminderPayloads.Payload.of(note, at, null));
+        }
+        if (!next.isEmpty()) {
+            db.runInTransaction(() -> {
+                for (ReminderQueueEntity r : next) db.noteDao().advanceReminder(r.noteId, r.fireAt);
+            });
+            reminderManager.scheduleAll(next, nextPayloads);
+        }
 
-            // Show notification
-            NotificationHelper notificationHelper = new NotificationHelper(context);
-            notificationHelper.showReminder(note);
-
-            // Mark note as relevant (expires in 1 hour)
-            NoteRepository repo = ServiceLocator.noteRepository(context);
-            repo.markRelevantForTime(noteId, System.currentTimeMillis());
-        });
+        // Mark notes as relevant (expires in 1 hour)
+        ServiceLocator.noteRepository(context).markRelevantForTime(ids, now);
     }
 }
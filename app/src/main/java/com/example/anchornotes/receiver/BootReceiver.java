@@ -0,0 +1,25 @@
+package com.example.anchornotes.receiver;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+
+import com.example.anchornotes.worker.RestoreRemindersWorker;
+
+/**
+ * Alarms and geofences don't survive a reboot or an app update; this starts putting them back.
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(@NonNull Context context, @NonNull Intent intent) {
+        String action = intent.getAction();
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(action)
+                && !Intent.ACTION_MY_PACKAGE_REPLACED.equals(action)) {
+            return;
+        }
+        RestoreRemindersWorker.enqueue(context);
+    }
+}
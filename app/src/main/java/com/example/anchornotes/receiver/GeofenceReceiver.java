@@ -3,30 +3,37 @@ package com.example.anchornotes.receiver;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.location.Location;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.example.anchornotes.context.GeofenceManager;
 import com.example.anchornotes.context.NotificationHelper;
+import com.example.anchornotes.context.ReminderPayloads;
 import com.example.anchornotes.data.ServiceLocator;
+import com.example.anchornotes.data.db.ActiveGeofenceEntity;
 import com.example.anchornotes.data.db.AppDatabase;
 import com.example.anchornotes.data.db.NoteEntity;
-import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.db.RelevantNoteEntity;
+import com.example.anchornotes.util.AppExecutors;
+import com.example.anchornotes.worker.RebalanceGeofencesWorker;
 import com.google.android.gms.location.Geofence;
 import com.google.android.gms.location.GeofencingEvent;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
 
 /**
- * BroadcastReceiver for handling geofence transition events.
+ * BroadcastReceiver for handling geofence transition events. All geofences of one event are
+ * handled as a batch, finished before the broadcast is.
  */
 public class GeofenceReceiver extends BroadcastReceiver {
     public static final String EXTRA_NOTE_ID = "noteId";
 
-    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
-
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         GeofencingEvent geofencingEvent = GeofencingEvent.fromIntent(intent);
@@ -45,47 +52,93 @@ public class GeofenceReceiver extends BroadcastReceiver {
             return;
         }
 
-        executor.execute(() -> {
-            AppDatabase db = AppDatabase.get(context);
-            NoteRepository repo = ServiceLocator.noteRepository(context);
-            GeofenceManager geofenceManager = ServiceLocator.geofenceManager(context);
+        boolean entered = geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER;
+        List<String> geofenceIds = new ArrayList<>();
+        for (Geofence geofence : triggeringGeofences) {
+            if (geofence.getRequestId() != null) geofenceIds.add(geofence.getRequestId());
+        }
+        Location location = geofencingEvent.getTriggeringLocation();
 
-            for (Geofence geofence : triggeringGeofences) {
-                String geofenceId = geofence.getRequestId();
-                if (geofenceId == null) {
-                    continue;
-                }
+        // Keep the process alive until the notifications are posted; the receiver's ~10 s
+        // budget is plenty for one query and one transaction.
+        PendingResult pending = goAsync();
+        // Posting the notification is what the user is waiting for
+        AppExecutors.userWrite().execute(() -> {
+            try {
+                handleTransition(context, entered, geofenceIds, location);
+            } finally {
+                pending.finish();
+            }
+        });
+    }
 
-                // Handle both note geofences (note-123) and template geofences (template-office, template-home, etc.)
-                if (geofenceId.startsWith("note-")) {
-                    try {
-                        long noteId = Long.parseLong(geofenceId.substring(5));
-                        NoteEntity note = db.noteDao().getById(noteId);
-                        if (note == null) {
-                            continue;
-                        }
+    /**
+     * Handles one transition for all its geofences at once: the notifications posted together
+     * from their stored payloads, then one query for their notes and one transaction for the
+     * relevant notes and the active-geofence set. Call from a background thread.
+     */
+    @VisibleForTesting
+    public static void handleTransition(@NonNull Context context, boolean entered,
+                                        @NonNull List<String> geofenceIds, @Nullable Location location) {
+        List<String> ids = new ArrayList<>(geofenceIds);
+        boolean rebalance = ids.remove(GeofenceManager.REBALANCE_ID);
 
-                        if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER) {
-                            // Show notification and mark as relevant (no expiration)
-                            NotificationHelper notificationHelper = new NotificationHelper(context);
-                            notificationHelper.showReminder(note);
-                            repo.markRelevantForGeofenceEnter(noteId);
-                        } else if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) {
-                            // Remove from relevant
-                            repo.markRelevantForGeofenceExit(noteId);
-                        }
-                    } catch (NumberFormatException e) {
-                        // Invalid geofence ID format
-                    }
-                }
+        if (!ids.isEmpty()) {
+            NotificationHelper notifications = new NotificationHelper(context);
+            Set<Long> posted = new HashSet<>();
+            if (entered) {
+                // Posted before the database is opened
+                List<ReminderPayloads.Payload> ready = new ReminderPayloads(context).forGeofences(ids);
+                notifications.showPayloads(ready);
+                for (ReminderPayloads.Payload p : ready) posted.add(p.noteId);
+            }
 
-                // Track active geofences for template prioritization
-                if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_ENTER) {
-                    geofenceManager.addToActiveGeofences(geofenceId);
-                } else if (geofenceTransition == Geofence.GEOFENCE_TRANSITION_EXIT) {
-                    geofenceManager.removeFromActiveGeofences(geofenceId);
+            AppDatabase db = AppDatabase.get(context);
+            // Note geofences (place-..., older note-123) can be shared by several notes;
+            // template geofences (template-office, template-home, etc.) have none
+            List<NoteEntity> notes = db.runInTransaction(() -> apply(db, entered, ids));
+            if (entered) {
+                // reminders set before payloads were stored
+                List<NoteEntity> unposted = new ArrayList<>();
+                for (NoteEntity note : notes) {
+                    if (!posted.contains(note.id)) unposted.add(note);
                 }
+                notifications.showReminders(unposted);
             }
-        });
+        }
+
+        if (rebalance) {
+            // The user left the area the registered geofences were picked for
+            if (location != null) {
+                ServiceLocator.geofenceScheduler(context).rebalance(location.getLatitude(), location.getLongitude());
+            } else {
+                // the event came without a location; look one up off the receiver's clock
+                RebalanceGeofencesWorker.enqueue(context);
+            }
+        }
+    }
+
+    /**
+     * Marks every note attached to the geofences relevant on enter (no expiration), or no
+     * longer relevant on exit, and tracks the geofences as active for template prioritization.
+     * Returns the notes.
+     */
+    private static List<NoteEntity> apply(AppDatabase db, boolean entered, List<String> geofenceIds) {
+        List<NoteEntity> notes = db.noteDao().getByGeofenceIds(geofenceIds);
+        List<Long> noteIds = new ArrayList<>();
+        for (NoteEntity note : notes) noteIds.add(note.id);
+        if (entered) {
+            long now = System.currentTimeMillis();
+            List<RelevantNoteEntity> rows = new ArrayList<>();
+            for (long noteId : noteIds) rows.add(new RelevantNoteEntity(noteId, Long.MAX_VALUE));
+            if (!rows.isEmpty()) db.relevantDao().upsertAll(rows);
+            List<ActiveGeofenceEntity> active = new ArrayList<>();
+            for (String geofenceId : geofenceIds) active.add(new ActiveGeofenceEntity(geofenceId, now));
+            db.activeGeofenceDao().upsertAll(active);
+        } else {
+            if (!noteIds.isEmpty()) db.relevantDao().deleteAll(noteIds);
+            db.activeGeofenceDao().deleteAll(geofenceIds);
+        }
+        return notes;
     }
 }
@@ -2,6 +2,9 @@ package com.example.anchornotes.ui;
 
 import android.app.DatePickerDialog;
 import android.app.Dialog;
+import android.content.pm.PackageManager;
+import android.graphics.Paint;
+import android.location.Location;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -9,17 +12,20 @@ import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.LinearLayout;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.DialogFragment;
 
 import com.example.anchornotes.R;
 import com.example.anchornotes.data.NoteSearchFilter;
 import com.example.anchornotes.data.ServiceLocator;
-import com.example.anchornotes.data.db.TagDao;
 import com.example.anchornotes.data.db.TagEntity;
 import com.example.anchornotes.databinding.DialogFilterBinding;
+import com.example.anchornotes.util.AppExecutors;
+import com.google.android.gms.location.LocationServices;
 
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -33,7 +39,11 @@ public class FilterDialogFragment extends DialogFragment {
 
     private DialogFilterBinding b;
     private final java.util.Set<Long> selectedTagIds = new java.util.HashSet<>();
+    private final java.util.Set<Long> excludedTagIds = new java.util.HashSet<>();
     private Long fromDate = null, toDate = null;
+    private static final float NEAR_ME_RADIUS_METERS = 500f;
+    /** Last known location, fetched when "near me" is checked. */
+    private Location nearMe;
 
     public static FilterDialogFragment newInstance() { return new FilterDialogFragment(); }
 
@@ -51,22 +61,33 @@ public class FilterDialogFragment extends DialogFragment {
     @Override public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
 
-        // Load tags (synchronously, allowed because DB allows main thread queries)
-        TagDao tagDao = ServiceLocator.tagDao(requireContext());
-        List<TagEntity> tags = tagDao.getAll();
-        populateTags(tags);
+        // Load tags off the main thread; the view may be gone by the time they arrive
+        ServiceLocator.tagRepository(requireContext()).getAllAsync()
+                .thenAcceptAsync(tags -> {
+                    if (b != null) populateTags(tags);
+                }, AppExecutors.main());
 
         b.btnFromDate.setOnClickListener(v -> showDatePicker(true));
         b.btnToDate.setOnClickListener(v -> showDatePicker(false));
+        b.checkboxNearMe.setOnCheckedChangeListener((buttonView, isChecked) -> {
+            if (isChecked && nearMe == null) fetchLocation();
+        });
 
         b.btnApply.setOnClickListener(v -> {
             NoteSearchFilter f = new NoteSearchFilter();
             f.tagIds.addAll(selectedTagIds);
+            f.matchAllTags = b.checkboxMatchAllTags.isChecked();
+            f.excludedTagIds.addAll(excludedTagIds);
             f.fromDate = fromDate;
             f.toDate = toDate;
             f.hasPhoto = b.checkboxHasPhoto.isChecked() ? Boolean.TRUE : null;
             f.hasVoice = b.checkboxHasVoice.isChecked() ? Boolean.TRUE : null;
             f.hasLocation = b.checkboxHasLocation.isChecked() ? Boolean.TRUE : null;
+            if (b.checkboxNearMe.isChecked() && nearMe != null) {
+                f.nearLatitude = nearMe.getLatitude();
+                f.nearLongitude = nearMe.getLongitude();
+                f.nearRadiusMeters = NEAR_ME_RADIUS_METERS;
+            }
 
             Bundle result = new Bundle();
             result.putParcelable(FILTER_EXTRA, f);
@@ -76,12 +97,15 @@ public class FilterDialogFragment extends DialogFragment {
 
         b.btnClear.setOnClickListener(v -> {
             selectedTagIds.clear();
+            excludedTagIds.clear();
+            b.checkboxMatchAllTags.setChecked(false);
             fromDate = toDate = null;
             b.btnFromDate.setText(R.string.select_from_date);
             b.btnToDate.setText(R.string.select_to_date);
             b.checkboxHasPhoto.setChecked(false);
             b.checkboxHasVoice.setChecked(false);
             b.checkboxHasLocation.setChecked(false);
+            b.checkboxNearMe.setChecked(false);
             clearTagChecks();
         });
 
@@ -101,8 +125,19 @@ public class FilterDialogFragment extends DialogFragment {
             CheckBox cb = new CheckBox(requireContext());
             cb.setText(t.name);
             cb.setOnCheckedChangeListener((buttonView, isChecked) -> {
-                if (isChecked) selectedTagIds.add(t.id);
-                else selectedTagIds.remove(t.id);
+                if (isChecked) {
+                    selectedTagIds.add(t.id);
+                    setExcluded(cb, t.id, false);
+                } else {
+                    selectedTagIds.remove(t.id);
+                }
+            });
+            // long-press toggles "without this tag"; a tag is either wanted or excluded
+            cb.setOnLongClickListener(v -> {
+                boolean exclude = !excludedTagIds.contains(t.id);
+                if (exclude) cb.setChecked(false);
+                setExcluded(cb, t.id, exclude);
+                return true;
             });
             LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(
                     LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT);
@@ -111,11 +146,51 @@ public class FilterDialogFragment extends DialogFragment {
         }
     }
 
+    private void setExcluded(CheckBox cb, long tagId, boolean excluded) {
+        if (excluded) excludedTagIds.add(tagId);
+        else excludedTagIds.remove(tagId);
+        int flags = cb.getPaintFlags();
+        cb.setPaintFlags(excluded ? flags | Paint.STRIKE_THRU_TEXT_FLAG : flags & ~Paint.STRIKE_THRU_TEXT_FLAG);
+    }
+
     private void clearTagChecks() {
         for (int i = 0; i < b.layoutTags.getChildCount(); i++) {
             View v = b.layoutTags.getChildAt(i);
-            if (v instanceof CheckBox) ((CheckBox) v).setChecked(false);
+            if (v instanceof CheckBox) {
+                CheckBox cb = (CheckBox) v;
+                cb.setChecked(false);
+                cb.setPaintFlags(cb.getPaintFlags() & ~Paint.STRIKE_THRU_TEXT_FLAG);
+            }
+        }
+    }
+
+    private void fetchLocation() {
+        if (ContextCompat.checkSelfPermission(requireContext(),
+                android.Manifest.permission.ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED &&
+            ContextCompat.checkSelfPermission(requireContext(),
+                    android.Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            b.checkboxNearMe.setChecked(false);
+            requestPermissions(new String[]{
+                    android.Manifest.permission.ACCESS_FINE_LOCATION,
+                    android.Manifest.permission.ACCESS_COARSE_LOCATION
+            }, 100);
+            return;
         }
+        LocationServices.getFusedLocationProviderClient(requireContext()).getLastLocation()
+                .addOnSuccessListener(location -> {
+                    if (b == null) return;
+                    if (location != null) {
+                        nearMe = location;
+                    } else {
+                        b.checkboxNearMe.setChecked(false);
+                        Toast.makeText(requireContext(), R.string.location_unavailable, Toast.LENGTH_SHORT).show();
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    if (b == null) return;
+                    b.checkboxNearMe.setChecked(false);
+                    Toast.makeText(requireContext(), R.string.location_unavailable, Toast.LENGTH_SHORT).show();
+                });
     }
 
     private void showDatePicker(boolean isFrom) {
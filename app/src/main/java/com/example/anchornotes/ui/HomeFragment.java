@@ -14,12 +14,11 @@ import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentTransaction;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.anchornotes.R;
 import com.example.anchornotes.data.NoteSearchFilter;
-import com.example.anchornotes.data.ServiceLocator;
-import com.example.anchornotes.data.db.NoteEntity;
-import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.db.NoteSummary;
 import com.example.anchornotes.databinding.FragmentHomeBinding;
 import com.example.anchornotes.model.RelevantNoteUi;
 import com.example.anchornotes.viewmodel.NoteListViewModel;
@@ -32,6 +31,10 @@ public class HomeFragment extends Fragment {
     private NotesAdapter adapter;
     private NotesAdapter relevantAdapter;
     private NoteViewModel noteViewModel;
+    private NoteListViewModel listViewModel;
+
+    /** Load the next page once the user is this many rows from the end. */
+    private static final int PREFETCH_DISTANCE = 10;
 
     // --- NEW: search/filter state ---
     private String currentQuery = null;
@@ -52,8 +55,9 @@ public class HomeFragment extends Fragment {
                 (requestKey, bundle) -> {
                     NoteSearchFilter f = bundle.getParcelable(FilterDialogFragment.FILTER_EXTRA);
                     if (f != null) {
-                        // preserve the current query typed in the SearchView
+                        // preserve the current query typed in the SearchView, and the sort
                         f.query = currentQuery;
+                        f.rankByRelevance = currentFilter.rankByRelevance;
                         currentFilter = f;
                         runSearch();
                     }
@@ -95,8 +99,25 @@ public class HomeFragment extends Fragment {
             ft.commit();
         });
 
-        binding.rvNotes.setLayoutManager(new LinearLayoutManager(requireContext()));
+        LinearLayoutManager notesLayout = new LinearLayoutManager(requireContext());
+        binding.rvNotes.setLayoutManager(notesLayout);
         binding.rvNotes.setAdapter(adapter);
+        listViewModel = new ViewModelProvider(this).get(NoteListViewModel.class);
+
+        // Page in more notes as the user scrolls instead of loading the whole table up front
+        binding.rvNotes.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override public void onScrolled(@NonNull RecyclerView rv, int dx, int dy) {
+                if (dy <= 0 || !listViewModel.hasMore()) return;
+                int last = notesLayout.findLastVisibleItemPosition();
+                if (last >= adapter.getItemCount() - PREFETCH_DISTANCE) {
+                    listViewModel.loadNextPage();
+                }
+            }
+        });
+        listViewModel.getPages().observe(getViewLifecycleOwner(), page -> {
+            if (page.reset) adapter.submit(page.items, page.ranked);
+            else adapter.append(page.items);
+        });
 
         binding.fabNew.setOnClickListener(v -> {
             // Open template picker instead of directly opening note editor
@@ -110,7 +131,8 @@ public class HomeFragment extends Fragment {
             @Override public boolean onQueryTextChange(String newText) {
                 currentQuery = (newText == null || newText.trim().isEmpty()) ? null : newText;
                 currentFilter.query = currentQuery;
-                runSearch();
+                // debounced: typing fast only queries once the user pauses
+                listViewModel.search(hasActiveFilter(currentFilter) ? currentFilter : null);
                 return true;
             }
         });
@@ -130,7 +152,7 @@ public class HomeFragment extends Fragment {
         noteViewModel = new ViewModelProvider(requireActivity()).get(NoteViewModel.class);
         noteViewModel.getRelevantNotes().observe(getViewLifecycleOwner(), relevantNotes -> {
             if (relevantNotes != null && !relevantNotes.isEmpty()) {
-                List<NoteEntity> notes = new java.util.ArrayList<>();
+                List<NoteSummary> notes = new java.util.ArrayList<>();
                 for (RelevantNoteUi ui : relevantNotes) {
                     notes.add(ui.note);
                 }
@@ -148,15 +170,16 @@ public class HomeFragment extends Fragment {
                         payload.noteId,
                         payload.newType,
                         payload.atMillis,
+                        payload.toleranceMs,
+                        payload.repeat,
                         payload.place
                 );
                 dialog.show(getParentFragmentManager(), "ReplaceReminder");
             }
         });
 
-        // Initial load (kept): show all notes before any search/filter is applied
-        NoteListViewModel vm = new ViewModelProvider(this).get(NoteListViewModel.class);
-        adapter.submit(vm.loadNotes());
+        // Initial load (kept): first page of all notes before any search/filter is applied
+        listViewModel.loadFirstPage(null);
     }
 
     // --- NEW: inflate the Filter action in the toolbar ---
@@ -164,6 +187,7 @@ public class HomeFragment extends Fragment {
     public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
         super.onCreateOptionsMenu(menu, inflater);
         inflater.inflate(R.menu.home_menu, menu);
+        menu.findItem(R.id.action_rank_relevance).setChecked(currentFilter.rankByRelevance);
     }
 
     // --- NEW: open the filter dialog when the menu item is tapped ---
@@ -172,6 +196,11 @@ public class HomeFragment extends Fragment {
         if (item.getItemId() == R.id.action_filter) {
             new FilterDialogFragment().show(getParentFragmentManager(), FilterDialogFragment.TAG);
             return true;
+        } else if (item.getItemId() == R.id.action_rank_relevance) {
+            currentFilter.rankByRelevance = !item.isChecked();
+            item.setChecked(currentFilter.rankByRelevance);
+            runSearch();
+            return true;
         } else if (item.getItemId() == R.id.action_templates) {
             androidx.fragment.app.FragmentTransaction ft = requireActivity()
                     .getSupportFragmentManager().beginTransaction();
@@ -190,45 +219,34 @@ public class HomeFragment extends Fragment {
         if (hasActiveFilter(currentFilter)) {
             runSearch();
         } else {
-            NoteListViewModel vm = new ViewModelProvider(this).get(NoteListViewModel.class);
-            adapter.submit(vm.loadNotes());
+            listViewModel.loadFirstPage(null);
         }
     }
 
     @Override
     public void onDestroyView() { super.onDestroyView(); binding = null; }
 
-    // --- NEW: runSearch helper that calls the Java NoteSearchRepository or falls back to "all" ---
+    // --- NEW: runSearch helper that pages NoteSearchRepository results or falls back to "all" ---
     private void runSearch() {
         if (!hasActiveFilter(currentFilter)) {
             // nothing active => show all
-            NoteListViewModel vm = new ViewModelProvider(this).get(NoteListViewModel.class);
-            adapter.submit(vm.loadNotes());
+            listViewModel.loadFirstPage(null);
             return;
         }
-
-        NoteSearchRepository repo = ServiceLocator.noteSearchRepository(requireContext());
-        List<NoteEntity> results = repo.search(
-                currentFilter.query,
-                currentFilter.tagIds,
-                currentFilter.fromDate,
-                currentFilter.toDate,
-                currentFilter.hasPhoto,
-                currentFilter.hasVoice,
-                currentFilter.hasLocation
-        );
-        adapter.submit(results);
+        listViewModel.loadFirstPage(currentFilter);
     }
 
     private boolean hasActiveFilter(NoteSearchFilter f) {
         return (f != null) && (
                 (f.query != null && !f.query.trim().isEmpty()) ||
                         (f.tagIds != null && !f.tagIds.isEmpty()) ||
+                        (f.excludedTagIds != null && !f.excludedTagIds.isEmpty()) ||
                         f.fromDate != null ||
                         f.toDate != null ||
                         f.hasPhoto != null ||
                         f.hasVoice != null ||
-                        f.hasLocation != null
+                        f.hasLocation != null ||
+                        f.hasNear()
         );
     }
 }
@@ -30,9 +30,11 @@ import com.example.anchornotes.data.ServiceLocator;
 import com.example.anchornotes.data.db.NoteEntity;
 import com.example.anchornotes.data.db.TagEntity;
 import com.example.anchornotes.data.db.TemplateEntity;
+import com.example.anchornotes.data.repo.NoteRepository;
 import com.example.anchornotes.data.repo.TemplateRepository;
 import com.example.anchornotes.databinding.FragmentNoteEditorBinding;
 import com.example.anchornotes.model.ReminderType;
+import com.example.anchornotes.util.AppExecutors;
 import com.example.anchornotes.viewmodel.NoteEditorViewModel;
 import com.example.anchornotes.viewmodel.NoteViewModel;
 import com.google.android.material.chip.Chip;
@@ -40,6 +42,7 @@ import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
 
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
 public class NoteEditorFragment extends Fragment {
     private static final String ARG_ID = "id";
@@ -52,6 +55,9 @@ public class NoteEditorFragment extends Fragment {
     private MediaRecorder recorder;
     private MediaPlayer player;
     private NoteEditorViewModel vm;
+    /** Latest copy of the note from the database; null until the first emission. */
+    @Nullable private NoteEntity currentNote;
+    private boolean prefilled;
 
     // --- Location state ---
     private FusedLocationProviderClient fused;
@@ -131,29 +137,7 @@ public class NoteEditorFragment extends Fragment {
 
         /* ---------- Prefill when editing or from template ---------- */
         if (noteId != null) {
-            try {
-                NoteEntity n = vm.load(noteId);
-                if (n != null) {
-                    b.etTitle.setText(n.title == null ? "" : n.title);
-                    b.etBody.setText(Html.fromHtml(
-                            n.bodyHtml == null ? "" : n.bodyHtml,
-                            Html.FROM_HTML_MODE_LEGACY));
-                    if (n.photoUri != null && !n.photoUri.isEmpty()) {
-                        photoUri = n.photoUri;
-                        b.imgPreview.setVisibility(View.VISIBLE);
-                        Glide.with(this).load(n.photoUri).into(b.imgPreview);
-                    }
-                    if (n.voiceUri != null && !n.voiceUri.isEmpty()) {
-                        voicePath = n.voiceUri;
-                        b.btnPlay.setEnabled(true);
-                    }
-                    // --- prefill location ---
-                    noteLat = n.latitude;
-                    noteLon = n.longitude;
-                    noteLocLabel = n.locationLabel;
-                    updateLocationButtonLabel();
-                }
-            } catch (Exception ignored) {}
+            observeNote(noteId);
         } else if (templateId != null) {
             // Apply template for new note creation
             applyTemplate(templateId);
@@ -191,18 +175,15 @@ public class NoteEditorFragment extends Fragment {
         // Long press on reminder button to clear reminder
         b.btnReminder.setOnLongClickListener(v -> {
             if (noteId == null) return false;
-            NoteEntity note = vm.load(noteId);
+            NoteEntity note = currentNote;
             if (note != null && note.reminderType != null) {
                 new androidx.appcompat.app.AlertDialog.Builder(requireContext())
                         .setTitle("Clear Reminder?")
                         .setMessage("Remove the reminder for this note?")
                         .setPositiveButton("Clear", (d, w) -> {
                             NoteViewModel noteVm = new ViewModelProvider(requireActivity()).get(NoteViewModel.class);
+                            // the observer refreshes the button once the reminder is gone
                             noteVm.onClearReminder(noteId);
-                            NoteEntity updated = vm.load(noteId);
-                            if (updated != null) {
-                                updateReminderButtonText(updated);
-                            }
                             Toast.makeText(requireContext(), "Reminder cleared", Toast.LENGTH_SHORT).show();
                         })
                         .setNegativeButton("Cancel", null)
@@ -212,47 +193,88 @@ public class NoteEditorFragment extends Fragment {
             return false;
         });
 
-        // Update reminder button text if note has a reminder
-        if (noteId != null) {
-            NoteEntity n = vm.load(noteId);
-            if (n != null && n.reminderType != null) {
-                updateReminderButtonText(n);
-            }
-        }
-
         b.btnSave.setOnClickListener(v -> {
             String title = b.etTitle.getText().toString().trim();
             String bodyHtml = Html.toHtml(b.etBody.getText());
 
             boolean isNew = (noteId == null);
-            long savedId = vm.save(noteId, title, bodyHtml, photoUri, voicePath, false);
+            b.btnSave.setEnabled(false);
+            vm.save(noteId, title, bodyHtml, photoUri, voicePath, false)
+                    .whenCompleteAsync((savedId, e) -> {
+                        if (b == null) return;
+                        b.btnSave.setEnabled(true);
+                        if (e != null) {
+                            Toast.makeText(requireContext(), "Save failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        onSaved(savedId, isNew);
+                    }, AppExecutors.main());
+        });
+    }
+
+    private void onSaved(long savedId, boolean isNew) {
+        if (isNew) {
             noteId = savedId;
+            // Reminder button text follows the note from here on; the form is already filled
+            prefilled = true;
+            observeNote(savedId);
+        }
 
-            // Update reminder button text after saving
-            NoteEntity savedNote = vm.load(savedId);
-            if (savedNote != null) {
-                updateReminderButtonText(savedNote);
-            }
+        // Ask to update location on edit (if we have permission)
+        if (!isNew && hasLocPermission()) {
+            new androidx.appcompat.app.AlertDialog.Builder(requireContext())
+                    .setMessage("Update location to current?")
+                    .setPositiveButton("Yes", (d,w) -> onAddOrUpdateLocation())
+                    .setNegativeButton("No", null)
+                    .show();
+        }
 
-            // Ask to update location on edit (if we have permission)
-            if (!isNew && hasLocPermission()) {
-                new androidx.appcompat.app.AlertDialog.Builder(requireContext())
-                        .setMessage("Update location to current?")
-                        .setPositiveButton("Yes", (d,w) -> onAddOrUpdateLocation())
-                        .setNegativeButton("No", null)
-                        .show();
-            }
+        Toast.makeText(requireContext(), "Saved", Toast.LENGTH_SHORT).show();
+        // Don't pop back stack if we just created a new note - allow user to set reminder
+        if (isNew) {
+            // Note saved, reminder button is now enabled
+        } else {
+            requireActivity().getSupportFragmentManager().popBackStack();
+        }
+    }
 
-            Toast.makeText(requireContext(), "Saved", Toast.LENGTH_SHORT).show();
-            // Don't pop back stack if we just created a new note - allow user to set reminder
-            if (isNew) {
-                // Note saved, reminder button is now enabled
-            } else {
-                requireActivity().getSupportFragmentManager().popBackStack();
+    /**
+     * Follows the note in the database. The first emission prefills the form; later ones only
+     * refresh state the user does not edit here (reminder, location set from elsewhere).
+     */
+    private void observeNote(long id) {
+        vm.observe(id).observe(getViewLifecycleOwner(), n -> {
+            if (n == null || b == null) return;
+            currentNote = n;
+            if (!prefilled) {
+                prefilled = true;
+                prefill(n);
             }
+            updateReminderButtonText(n);
         });
     }
 
+    private void prefill(NoteEntity n) {
+        b.etTitle.setText(n.title == null ? "" : n.title);
+        b.etBody.setText(Html.fromHtml(
+                n.bodyHtml == null ? "" : n.bodyHtml,
+                Html.FROM_HTML_MODE_LEGACY));
+        if (n.photoUri != null && !n.photoUri.isEmpty()) {
+            photoUri = n.photoUri;
+            b.imgPreview.setVisibility(View.VISIBLE);
+            Glide.with(this).load(n.photoUri).into(b.imgPreview);
+        }
+        if (n.voiceUri != null && !n.voiceUri.isEmpty()) {
+            voicePath = n.voiceUri;
+            b.btnPlay.setEnabled(true);
+        }
+        // --- prefill location ---
+        noteLat = n.latitude;
+        noteLon = n.longitude;
+        noteLocLabel = n.locationLabel;
+        updateLocationButtonLabel();
+    }
+
     /* ===================== Formatting ===================== */
 
     private void setupFormatting() {
@@ -406,24 +428,39 @@ public class NoteEditorFragment extends Fragment {
                     Toast.makeText(requireContext(), "Could not get location", Toast.LENGTH_SHORT).show();
                     return;
                 }
+                if (b == null) return;
                 Double lat = loc.getLatitude();
                 Double lon = loc.getLongitude();
                 String label = "Current location";
 
                 // If note not yet saved, save a draft first to get an id
-                if (noteId == null) {
+                boolean isNew = (noteId == null);
+                CompletableFuture<Long> idFuture;
+                if (isNew) {
                     String title = b.etTitle.getText().toString().trim();
                     String bodyHtml = Html.toHtml(b.etBody.getText());
-                    long id = vm.save(null, title, bodyHtml, photoUri, voicePath, false);
-                    noteId = id;
+                    idFuture = vm.save(null, title, bodyHtml, photoUri, voicePath, false);
+                } else {
+                    idFuture = CompletableFuture.completedFuture(noteId);
                 }
 
-                ServiceLocator.noteRepository(requireContext())
-                        .setLocation(noteId, lat, lon, label);
-
-                noteLat = lat; noteLon = lon; noteLocLabel = label;
-                updateLocationButtonLabel();
-                Toast.makeText(requireContext(), "Location saved", Toast.LENGTH_SHORT).show();
+                NoteRepository repo = ServiceLocator.noteRepository(requireContext());
+                idFuture.thenCompose(id -> repo.setLocationAsync(id, lat, lon, label).thenApply(v -> id))
+                        .whenCompleteAsync((id, e) -> {
+                            if (b == null) return;
+                            if (e != null) {
+                                Toast.makeText(requireContext(), "Location error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                                return;
+                            }
+                            if (isNew) {
+                                noteId = id;
+                                prefilled = true;
+                                observeNote(id);
+                            }
+                            noteLat = lat; noteLon = lon; noteLocLabel = label;
+                            updateLocationButtonLabel();
+                            Toast.makeText(requireContext(), "Location saved", Toast.LENGTH_SHORT).show();
+                        }, AppExecutors.main());
             });
         } catch (Exception e) {
             Toast.makeText(requireContext(), "Location error: " + e.getMessage(), Toast.LENGTH_SHORT).show();
@@ -436,10 +473,17 @@ public class NoteEditorFragment extends Fragment {
             return;
         }
         ServiceLocator.noteRepository(requireContext())
-                .setLocation(noteId, null, null, null);
-        noteLat = noteLon = null; noteLocLabel = null;
-        updateLocationButtonLabel();
-        Toast.makeText(requireContext(), "Location removed", Toast.LENGTH_SHORT).show();
+                .setLocationAsync(noteId, null, null, null)
+                .whenCompleteAsync((v, e) -> {
+                    if (b == null) return;
+                    if (e != null) {
+                        Toast.makeText(requireContext(), "Remove failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    noteLat = noteLon = null; noteLocLabel = null;
+                    updateLocationButtonLabel();
+                    Toast.makeText(requireContext(), "Location removed", Toast.LENGTH_SHORT).show();
+                }, AppExecutors.main());
     }
 
     /* ===================== Audio ===================== */
@@ -517,10 +561,20 @@ public class NoteEditorFragment extends Fragment {
     }
 
     private void applyTemplate(long templateId) {
-        try {
-            TemplateRepository templateRepo = ServiceLocator.templateRepository(requireContext());
-            TemplateEntity template = templateRepo.getById(templateId);
+        TemplateRepository templateRepo = ServiceLocator.templateRepository(requireContext());
+        templateRepo.getByIdAsync(templateId).whenCompleteAsync((template, e) -> {
+            if (b == null) return;
+            if (e != null) {
+                Toast.makeText(requireContext(), "Error applying template: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                updateLocationButtonLabel();
+                return;
+            }
+            applyTemplate(templateRepo, template);
+        }, AppExecutors.main());
+    }
 
+    private void applyTemplate(TemplateRepository templateRepo, @Nullable TemplateEntity template) {
+        try {
             if (template == null) {
                 Toast.makeText(requireContext(), "Template not found", Toast.LENGTH_SHORT).show();
                 updateLocationButtonLabel();
@@ -569,27 +623,14 @@ public class NoteEditorFragment extends Fragment {
     }
 
     private void loadAndDisplayTagsFromIds(java.util.List<Long> tagIds) {
-        try {
-            for (Long tagId : tagIds) {
-                TagEntity tag = ServiceLocator.tagDao(requireContext()).getById(tagId);
-                if (tag != null) {
-                    Toast.makeText(requireContext(), "Applied tag: " + tag.name, Toast.LENGTH_SHORT).show();
-                }
-            }
-        } catch (Exception e) {
-            // Failed to load tags, continue anyway
-        }
-    }
-
-    @Override
-    public void onResume() {
-        super.onResume();
-        if (noteId != null && b != null) {
-            NoteEntity note = vm.load(noteId);
-            if (note != null) {
-                updateReminderButtonText(note);
-            }
-        }
+        ServiceLocator.tagRepository(requireContext()).getByIdsAsync(tagIds)
+                .whenCompleteAsync((tags, e) -> {
+                    // Failed to load tags, continue anyway
+                    if (e != null || b == null) return;
+                    for (TagEntity tag : tags) {
+                        Toast.makeText(requireContext(), "Applied tag: " + tag.name, Toast.LENGTH_SHORT).show();
+                    }
+                }, AppExecutors.main());
     }
 
     @Override public void onStop() {
@@ -599,5 +640,10 @@ public class NoteEditorFragment extends Fragment {
         player = null;
     }
 
-    @Override public void onDestroyView() { super.onDestroyView(); b = null; }
+    @Override public void onDestroyView() {
+        super.onDestroyView();
+        b = null;
+        // a recreated view has an empty form and must be filled again
+        prefilled = false;
+    }
 }
@@ -1,7 +1,11 @@
 package com.example.anchornotes.ui;
 
 import android.content.Context;
-import android.text.Html;
+import android.graphics.Typeface;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.StyleSpan;
 import android.view.LayoutInflater;
 import android.view.MenuInflater;
 import android.view.View;
@@ -11,72 +15,156 @@ import android.widget.PopupMenu;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.anchornotes.R;
 import com.example.anchornotes.data.ServiceLocator;
-import com.example.anchornotes.data.db.NoteEntity;
-import com.example.anchornotes.data.db.NoteTagCrossRef;
-import com.example.anchornotes.data.db.TagDao;
-import com.example.anchornotes.data.db.TagEntity;
+import com.example.anchornotes.data.db.NoteSummary;
 import com.example.anchornotes.data.repo.NoteRepository;
 import com.example.anchornotes.databinding.ItemNoteBinding;
+import com.example.anchornotes.util.AppExecutors;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
-/** Adapter with section headers: “Pinned” and “Others”. */
+/**
+ * Adapter with section headers: “Pinned” and “Others”. Search results ranked by relevance are
+ * shown as one section in the order given.
+ */
 public class NotesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
 
-    public interface OnClick { void onNote(NoteEntity n); }
+    public interface OnClick { void onNote(NoteSummary n); }
 
     private static final int TYPE_HEADER = 0;
     private static final int TYPE_NOTE   = 1;
 
     private final OnClick onClick;
 
-    /** Flattened list that includes header rows and notes. */
-    private final List<Row> rows = new ArrayList<>();
+    /** Notes in display order (pinned first), as the DB returned them. Main thread only. */
+    private List<NoteSummary> notes = new ArrayList<>();
+    /** Notes are in relevance order: no pinned section, and pinning doesn't move rows. */
+    private boolean ranked;
+    /** Bumped on every change so a slow background row build can't overwrite a newer one. */
+    private int generation;
+
+    /** Flattened list that includes header rows and notes; diffed off the main thread. */
+    private final AsyncListDiffer<Row> differ;
+
+    public NotesAdapter(OnClick onClick) {
+        this.onClick = onClick;
+        this.differ = new AsyncListDiffer<>(new AdapterListUpdateCallback(this),
+                new AsyncDifferConfig.Builder<>(ROW_DIFF)
+                        .setBackgroundThreadExecutor(AppExecutors.uiRead())
+                        .build());
+        setHasStableIds(true);
+    }
 
-    public NotesAdapter(OnClick onClick) { this.onClick = onClick; }
+    /** Public API – submit raw notes (already in list order); adapter will section them. */
+    public void submit(List<NoteSummary> list) {
+        submit(list, false);
+    }
 
-    /** Public API – submit raw notes; adapter will section them. */
-    public void submit(List<NoteEntity> list) {
-        buildRows(list == null ? new ArrayList<>() : new ArrayList<>(list));
-        notifyDataSetChanged();
+    /** Like {@link #submit(List)}; {@code ranked} lists keep their order in a single section. */
+    public void submit(List<NoteSummary> list, boolean ranked) {
+        notes = list == null ? new ArrayList<>() : new ArrayList<>(list);
+        this.ranked = ranked;
+        publish();
     }
 
-    private void buildRows(List<NoteEntity> items) {
-        rows.clear();
-        // Sort: pinned first, then updatedAt desc
-        Collections.sort(items, new Comparator<NoteEntity>() {
-            @Override public int compare(NoteEntity a, NoteEntity b) {
-                if (a.pinned != b.pinned) return a.pinned ? -1 : 1;
-                return Long.compare(b.updatedAt, a.updatedAt);
-            }
+    /**
+     * Appends the next page. Pages arrive in list order (pinned first), so the rows already
+     * shown never move and only the new tail has to be bound.
+     */
+    public void append(List<NoteSummary> page) {
+        if (page == null || page.isEmpty()) return;
+        List<NoteSummary> all = new ArrayList<>(notes);
+        java.util.Set<Long> shown = new java.util.HashSet<>();
+        for (NoteSummary n : all) shown.add(n.id);
+        // a note pinned/unpinned locally can come back in a later page; keep the shown copy
+        for (NoteSummary n : page) if (shown.add(n.id)) all.add(n);
+        notes = all;
+        publish();
+    }
+
+    /**
+     * Moves a note to the top of its new section, where the DB order would put it after the
+     * pin change (its updatedAt is now the newest). The diff turns this into a single move.
+     */
+    private void applyPinned(long noteId, boolean pinned) {
+        List<NoteSummary> all = new ArrayList<>(notes);
+        int index = -1;
+        for (int i = 0; i < all.size(); i++) {
+            if (all.get(i).id == noteId) { index = i; break; }
+        }
+        if (index < 0) return;
+        // Copy rather than mutate: the differ compares against the instance it already shows
+        NoteSummary updated = all.remove(index).copy();
+        updated.pinned = pinned;
+        updated.updatedAt = System.currentTimeMillis();
+        if (ranked) {
+            // relevance doesn't depend on pinning; update the star in place
+            all.add(index, updated);
+            notes = all;
+            publish();
+            return;
+        }
+        int insertAt = 0;
+        if (!pinned) {
+            while (insertAt < all.size() && all.get(insertAt).pinned) insertAt++;
+        }
+        all.add(insertAt, updated);
+        notes = all;
+        publish();
+    }
+
+    private void publish() {
+        final int gen = ++generation;
+        final List<NoteSummary> snapshot = notes;
+        final boolean flat = ranked;
+        AppExecutors.uiRead().execute(() -> {
+            List<Row> rows = flat ? buildRankedRows(snapshot) : buildRows(snapshot);
+            AppExecutors.main().execute(() -> {
+                if (gen == generation) differ.submitList(rows);
+            });
         });
+    }
 
-        List<NoteEntity> pinned = new ArrayList<>();
-        List<NoteEntity> others = new ArrayList<>();
-        for (NoteEntity n : items) {
+    private static List<Row> buildRows(List<NoteSummary> items) {
+        List<NoteSummary> pinned = new ArrayList<>();
+        List<NoteSummary> others = new ArrayList<>();
+        for (NoteSummary n : items) {
             if (n.pinned) pinned.add(n); else others.add(n);
         }
 
+        List<Row> rows = new ArrayList<>(items.size() + 2);
         if (!pinned.isEmpty()) {
-            rows.add(Row.header("Pinned"));
-            for (NoteEntity n : pinned) rows.add(Row.note(n));
+            rows.add(Row.header(HEADER_PINNED_ID, "Pinned"));
+            for (NoteSummary n : pinned) rows.add(Row.note(n));
         }
         // Always show “Others” header so the “section” is obvious,
         // but skip it if there are no others AND there was no pinned header (single section).
         if (!others.isEmpty() || pinned.isEmpty()) {
-            rows.add(Row.header(pinned.isEmpty() ? "Notes" : "Others"));
-            for (NoteEntity n : others) rows.add(Row.note(n));
+            rows.add(Row.header(HEADER_OTHERS_ID, pinned.isEmpty() ? "Notes" : "Others"));
+            for (NoteSummary n : others) rows.add(Row.note(n));
         }
+        return rows;
     }
 
-    @Override public int getItemViewType(int position) { return rows.get(position).type; }
+    private static List<Row> buildRankedRows(List<NoteSummary> items) {
+        List<Row> rows = new ArrayList<>(items.size() + 1);
+        rows.add(Row.header(HEADER_RANKED_ID, "Best matches"));
+        for (NoteSummary n : items) rows.add(Row.note(n));
+        return rows;
+    }
+
+    @Override public int getItemViewType(int position) { return differ.getCurrentList().get(position).type; }
+
+    @Override public long getItemId(int position) { return differ.getCurrentList().get(position).id; }
 
     @NonNull @Override
     public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -98,7 +186,7 @@ public class NotesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
     }
 
     @Override public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        Row row = rows.get(position);
+        Row row = differ.getCurrentList().get(position);
         if (row.type == TYPE_HEADER) {
             ((HeaderVH) holder).bind(row.headerTitle);
         } else {
@@ -106,22 +194,39 @@ public class NotesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         }
     }
 
-    @Override public int getItemCount() { return rows.size(); }
+    @Override public int getItemCount() { return differ.getCurrentList().size(); }
 
     // --- Rows ---
 
+    // Note ids are positive, so negative ids can never collide with a note row
+    private static final long HEADER_PINNED_ID = -1;
+    private static final long HEADER_OTHERS_ID = -2;
+    private static final long HEADER_RANKED_ID = -3;
+
     private static class Row {
         final int type;
+        final long id;
         final String headerTitle;
-        final NoteEntity note;
+        final NoteSummary note;
 
-        private Row(int type, String headerTitle, NoteEntity note) {
-            this.type = type; this.headerTitle = headerTitle; this.note = note;
+        private Row(int type, long id, String headerTitle, NoteSummary note) {
+            this.type = type; this.id = id; this.headerTitle = headerTitle; this.note = note;
         }
-        static Row header(String title) { return new Row(TYPE_HEADER, title, null); }
-        static Row note(NoteEntity n) { return new Row(TYPE_NOTE, null, n); }
+        static Row header(long id, String title) { return new Row(TYPE_HEADER, id, title, null); }
+        static Row note(NoteSummary n) { return new Row(TYPE_NOTE, n.id, null, n); }
     }
 
+    private static final DiffUtil.ItemCallback<Row> ROW_DIFF = new DiffUtil.ItemCallback<Row>() {
+        @Override public boolean areItemsTheSame(@NonNull Row a, @NonNull Row b) {
+            return a.type == b.type && a.id == b.id;
+        }
+
+        @Override public boolean areContentsTheSame(@NonNull Row a, @NonNull Row b) {
+            if (a.type == TYPE_HEADER) return a.headerTitle.equals(b.headerTitle);
+            return a.note.sameContentAs(b.note);
+        }
+    };
+
     // --- VHs ---
 
     static class HeaderVH extends RecyclerView.ViewHolder {
@@ -134,9 +239,13 @@ public class NotesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
         ItemNoteBinding b;
         NoteVH(ItemNoteBinding b) { super(b.getRoot()); this.b = b; }
 
-        void bind(NoteEntity n) {
+        void bind(NoteSummary n) {
             b.tvTitle.setText(n.title == null || n.title.isEmpty() ? "(Untitled)" : n.title);
-            b.tvPreview.setText(Html.fromHtml(n.bodyHtml == null ? "" : n.bodyHtml, Html.FROM_HTML_MODE_LEGACY));
+            if (n.snippet != null) {
+                b.tvPreview.setText(highlighted(n.snippet, n.highlights));
+            } else {
+                b.tvPreview.setText(n.preview == null ? "" : n.preview);
+            }
             // Show a star icon if pinned
             b.tvTitle.setCompoundDrawablePadding((int) (6 * b.tvTitle.getResources().getDisplayMetrics().density));
             b.tvTitle.setCompoundDrawablesWithIntrinsicBounds(
@@ -153,7 +262,19 @@ public class NotesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             });
         }
 
-        private void showPopup(View anchor, NoteEntity note) {
+        /** Bold + tint on the hit ranges found by the search query; no text scanning here. */
+        private CharSequence highlighted(String text, int[] ranges) {
+            if (ranges == null || ranges.length == 0) return text;
+            SpannableString s = new SpannableString(text);
+            int tint = ContextCompat.getColor(b.getRoot().getContext(), R.color.search_highlight);
+            for (int i = 0; i + 1 < ranges.length; i += 2) {
+                s.setSpan(new StyleSpan(Typeface.BOLD), ranges[i], ranges[i + 1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                s.setSpan(new BackgroundColorSpan(tint), ranges[i], ranges[i + 1], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+            return s;
+        }
+
+        private void showPopup(View anchor, NoteSummary note) {
             PopupMenu menu = new PopupMenu(anchor.getContext(), anchor);
             MenuInflater inflater = menu.getMenuInflater();
             menu.getMenu().add(0, 1, 0, note.pinned ? "Unpin" : "Pin");
@@ -164,19 +285,16 @@ public class NotesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
                 Context ctx = anchor.getContext();
                 switch (item.getItemId()) {
                     case 1: { // Pin / Unpin
-                        try {
-                            NoteRepository repo = ServiceLocator.noteRepository(ctx);
-                            boolean newPinned = !note.pinned;
-                            repo.setPinned(note.id, newPinned);
-                            note.pinned = newPinned;
-                            note.updatedAt = System.currentTimeMillis();
-                            // re-run a local resort and full refresh
-                            List<NoteEntity> raw = collectNotesOnly();
-                            submit(raw);
+                        NoteRepository repo = ServiceLocator.noteRepository(ctx);
+                        boolean newPinned = !note.pinned;
+                        repo.setPinnedAsync(note.id, newPinned).whenCompleteAsync((ignored, e) -> {
+                            if (e != null) {
+                                Toast.makeText(ctx, "Pin toggle failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                                return;
+                            }
+                            applyPinned(note.id, newPinned);
                             Toast.makeText(ctx, newPinned ? "Pinned" : "Unpinned", Toast.LENGTH_SHORT).show();
-                        } catch (Exception e) {
-                            Toast.makeText(ctx, "Pin toggle failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        }
+                        }, AppExecutors.main());
                         return true;
                     }
                     case 2: { // Add Tag
@@ -193,13 +311,7 @@ public class NotesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
             menu.show();
         }
 
-        private List<NoteEntity> collectNotesOnly() {
-            List<NoteEntity> all = new ArrayList<>();
-            for (Row r : rows) if (r.type == TYPE_NOTE && r.note != null) all.add(r.note);
-            return all;
-        }
-
-        private void showAddTagDialog(Context ctx, NoteEntity note) {
+        private void showAddTagDialog(Context ctx, NoteSummary note) {
             final EditText input = new EditText(ctx);
             input.setHint("e.g., Biology");
             new androidx.appcompat.app.AlertDialog.Builder(ctx)
@@ -208,21 +320,20 @@ public class NotesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
                     .setPositiveButton("Add", (d, w) -> {
                         String name = input.getText().toString().trim();
                         if (name.isEmpty()) return;
-                        try {
-                            TagDao tagDao = ServiceLocator.tagDao(ctx);
-                            TagEntity existing = tagDao.getByName(name);
-                            long tagId = (existing != null) ? existing.id : tagDao.insert(new TagEntity(name));
-                            ServiceLocator.refDao(ctx).insert(new NoteTagCrossRef(note.id, tagId));
-                            Toast.makeText(ctx, "Tag added", Toast.LENGTH_SHORT).show();
-                        } catch (Exception e) {
-                            Toast.makeText(ctx, "Add tag failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        }
+                        ServiceLocator.tagRepository(ctx).addTagToNoteAsync(note.id, name)
+                                .whenCompleteAsync((ignored, e) -> {
+                                    if (e != null) {
+                                        Toast.makeText(ctx, "Add tag failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                                    } else {
+                                        Toast.makeText(ctx, "Tag added", Toast.LENGTH_SHORT).show();
+                                    }
+                                }, AppExecutors.main());
                     })
                     .setNegativeButton("Cancel", null)
                     .show();
         }
 
-        private void showRemoveTagsDialog(Context ctx, NoteEntity note) {
+        private void showRemoveTagsDialog(Context ctx, NoteSummary note) {
             // Simple approach: fetch all tags and let user type which to remove.
             // For a quick UX, ask for tag name to remove:
             final EditText input = new EditText(ctx);
@@ -233,18 +344,16 @@ public class NotesAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>
                     .setPositiveButton("Remove", (d, w) -> {
                         String name = input.getText().toString().trim();
                         if (name.isEmpty()) return;
-                        try {
-                            TagDao tagDao = ServiceLocator.tagDao(ctx);
-                            TagEntity t = tagDao.getByName(name);
-                            if (t == null) {
-                                Toast.makeText(ctx, "No such tag", Toast.LENGTH_SHORT).show();
-                                return;
-                            }
-                            ServiceLocator.refDao(ctx).delete(note.id, t.id);
-                            Toast.makeText(ctx, "Tag removed", Toast.LENGTH_SHORT).show();
-                        } catch (Exception e) {
-                            Toast.makeText(ctx, "Remove failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        }
+                        ServiceLocator.tagRepository(ctx).removeTagFromNoteAsync(note.id, name)
+                                .whenCompleteAsync((removed, e) -> {
+                                    if (e != null) {
+                                        Toast.makeText(ctx, "Remove failed: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                                    } else if (!removed) {
+                                        Toast.makeText(ctx, "No such tag", Toast.LENGTH_SHORT).show();
+                                    } else {
+                                        Toast.makeText(ctx, "Tag removed", Toast.LENGTH_SHORT).show();
+                                    }
+                                }, AppExecutors.main());
                     })
                     .setNegativeButton("Cancel", null)
                     .show();
@@ -9,9 +9,11 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.LinearLayout;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -21,7 +23,9 @@ import androidx.core.content.ContextCompat;
 import androidx.fragment.app.DialogFragment;
 
 import com.example.anchornotes.R;
+import com.example.anchornotes.context.ReminderManager;
 import com.example.anchornotes.model.PlaceSelection;
+import com.example.anchornotes.model.RecurrenceRule;
 import com.example.anchornotes.viewmodel.NoteViewModel;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
@@ -40,6 +44,8 @@ public class ReminderDialogFragment extends DialogFragment {
     private LinearLayout llTimeOptions;
     private LinearLayout llGeofenceOptions;
     private Button btnSelectDateTime;
+    private CheckBox cbFlexibleTime;
+    private Spinner spRepeat;
     private Button btnSelectPlace;
     private TextView tvPlaceInfo;
     private long selectedDateTime = -1;
@@ -76,6 +82,8 @@ public class ReminderDialogFragment extends DialogFragment {
         llTimeOptions = view.findViewById(R.id.llTimeOptions);
         llGeofenceOptions = view.findViewById(R.id.llGeofenceOptions);
         btnSelectDateTime = view.findViewById(R.id.btnSelectDateTime);
+        cbFlexibleTime = view.findViewById(R.id.cbFlexibleTime);
+        spRepeat = view.findViewById(R.id.spRepeat);
         btnSelectPlace = view.findViewById(R.id.btnSelectPlace);
         tvPlaceInfo = view.findViewById(R.id.tvPlaceInfo);
 
@@ -101,7 +109,8 @@ public class ReminderDialogFragment extends DialogFragment {
                     Toast.makeText(requireContext(), "Please select a date and time", Toast.LENGTH_SHORT).show();
                     return;
                 }
-                viewModel.onSetTimeReminder(noteId, selectedDateTime);
+                long toleranceMs = cbFlexibleTime.isChecked() ? ReminderManager.FLEXIBLE_TOLERANCE_MS : 0;
+                viewModel.onSetTimeReminder(noteId, selectedDateTime, toleranceMs, selectedRepeat());
             } else {
                 if (selectedPlace == null) {
                     Toast.makeText(requireContext(), "Please select a location", Toast.LENGTH_SHORT).show();
@@ -118,6 +127,17 @@ public class ReminderDialogFragment extends DialogFragment {
         return builder.create();
     }
 
+    /** The repeat picked in spRepeat, in R.array.reminder_repeat_options order. */
+    @Nullable
+    private RecurrenceRule selectedRepeat() {
+        switch (spRepeat.getSelectedItemPosition()) {
+            case 1: return RecurrenceRule.daily(1);
+            case 2: return RecurrenceRule.weekly(1);
+            case 3: return RecurrenceRule.monthly(1, 0);
+            default: return null;
+        }
+    }
+
     private void showDateTimePicker() {
         Calendar calendar = Calendar.getInstance();
         int year = calendar.get(Calendar.YEAR);
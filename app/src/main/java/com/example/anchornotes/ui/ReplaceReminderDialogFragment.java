@@ -9,6 +9,7 @@ import androidx.fragment.app.DialogFragment;
 
 import com.example.anchornotes.R;
 import com.example.anchornotes.model.PlaceSelection;
+import com.example.anchornotes.model.RecurrenceRule;
 import com.example.anchornotes.model.ReminderType;
 import com.example.anchornotes.viewmodel.NoteViewModel;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
@@ -20,16 +21,24 @@ public class ReplaceReminderDialogFragment extends DialogFragment {
     private static final String ARG_NOTE_ID = "noteId";
     private static final String ARG_NEW_TYPE = "newType";
     private static final String ARG_AT_MILLIS = "atMillis";
+    private static final String ARG_TOLERANCE_MS = "toleranceMs";
+    private static final String ARG_REPEAT = "repeat";
 
     private NoteViewModel viewModel;
     private PlaceSelection place;
 
-    public static ReplaceReminderDialogFragment newInstance(long noteId, ReminderType newType, long atMillis, PlaceSelection place) {
+    public static ReplaceReminderDialogFragment newInstance(long noteId, ReminderType newType, long atMillis,
+                                                            long toleranceMs, RecurrenceRule repeat,
+                                                            PlaceSelection place) {
         ReplaceReminderDialogFragment fragment = new ReplaceReminderDialogFragment();
         Bundle args = new Bundle();
         args.putLong(ARG_NOTE_ID, noteId);
         args.putString(ARG_NEW_TYPE, newType.name());
         args.putLong(ARG_AT_MILLIS, atMillis);
+        args.putLong(ARG_TOLERANCE_MS, toleranceMs);
+        if (repeat != null) {
+            args.putString(ARG_REPEAT, repeat.toString());
+        }
         // PlaceSelection is not Parcelable, so we'll pass coordinates separately if needed
         if (place != null) {
             args.putDouble("lat", place.latitude);
@@ -52,6 +61,9 @@ public class ReplaceReminderDialogFragment extends DialogFragment {
         long noteId = args.getLong(ARG_NOTE_ID);
         ReminderType newType = ReminderType.valueOf(args.getString(ARG_NEW_TYPE));
         long atMillis = args.getLong(ARG_AT_MILLIS);
+        long toleranceMs = args.getLong(ARG_TOLERANCE_MS);
+        String rule = args.getString(ARG_REPEAT);
+        RecurrenceRule repeat = rule != null ? RecurrenceRule.parse(rule) : null;
 
         if (newType == ReminderType.GEOFENCE && args.containsKey("lat")) {
             place = new PlaceSelection(
@@ -68,7 +80,7 @@ public class ReplaceReminderDialogFragment extends DialogFragment {
         builder.setTitle("Replace Reminder?");
         builder.setMessage("This note already has a reminder. Replace it?");
         builder.setPositiveButton("Replace", (dialog, which) -> {
-            viewModel.onConfirmReplace(newType, noteId, atMillis, place);
+            viewModel.onConfirmReplace(newType, noteId, atMillis, toleranceMs, repeat, place);
             dismiss();
         });
         builder.setNegativeButton("Cancel", (dialog, which) -> dismiss());
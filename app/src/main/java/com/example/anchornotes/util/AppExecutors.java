@@ -0,0 +1,49 @@
+package com.example.anchornotes.util;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * App-wide executors. All background work shares one {@link PriorityScheduler}, so the thread
+ * count is bounded in one place and queueing shows up in {@link #stats()}.
+ * Pick the lane by who is waiting for the result, not by which class submits it.
+ */
+public final class AppExecutors {
+    private static final String TAG = "AppExecutors";
+
+    // Room serialises writes anyway; a few threads are enough to keep reads from queueing behind them
+    private static final int THREADS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final PriorityScheduler SCHEDULER = new PriorityScheduler(THREADS, "anchor-bg");
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static final Executor MAIN = MAIN_HANDLER::post;
+
+    private AppExecutors() {}
+
+    /** Reads the UI is waiting on; runs ahead of everything else. */
+    public static Executor uiRead() { return SCHEDULER.executor(PriorityScheduler.Lane.UI_READ); }
+
+    /** Writes the user asked for. */
+    public static Executor userWrite() { return SCHEDULER.executor(PriorityScheduler.Lane.USER_WRITE); }
+
+    /** Cleanup and other work nobody is waiting on. */
+    public static Executor maintenance() { return SCHEDULER.executor(PriorityScheduler.Lane.MAINTENANCE); }
+
+    /** Runs on the main thread; use with thenAcceptAsync/whenCompleteAsync to touch views. */
+    public static Executor main() { return MAIN; }
+
+    /** Queue depth and wait/run times per lane. */
+    public static List<PriorityScheduler.LaneStats> stats() { return SCHEDULER.stats(); }
+
+    /** Writes the current lane stats to logcat; enable with {@code setprop log.tag.AppExecutors DEBUG}. */
+    public static void logStats() {
+        if (!Log.isLoggable(TAG, Log.DEBUG)) return;
+        for (PriorityScheduler.LaneStats s : SCHEDULER.stats()) {
+            Log.d(TAG, s.toString());
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.anchornotes.util;
+
+import android.text.Html;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Derives the plain-text columns stored next to a note's HTML body. Run once when a note is
+ * written so list rows and notifications never have to parse HTML.
+ */
+public final class NoteText {
+    /** Characters kept in the stored preview snippet. */
+    public static final int PREVIEW_LENGTH = 200;
+
+    private NoteText() {}
+
+    /** Body HTML as plain text with runs of whitespace collapsed. */
+    @NonNull
+    public static String toPlainText(@Nullable String html) {
+        if (html == null || html.isEmpty()) return "";
+        String text = Html.fromHtml(html, Html.FROM_HTML_MODE_LEGACY).toString();
+        // fromHtml turns block tags into newlines and images into U+FFFC
+        return text.replace('\uFFFC', ' ').replaceAll("\\s+", " ").trim();
+    }
+
+    /** Preview snippet cut from plain text, ellipsized if it was longer. */
+    @NonNull
+    public static String preview(@NonNull String plainText) {
+        if (plainText.length() <= PREVIEW_LENGTH) return plainText;
+        return plainText.substring(0, PREVIEW_LENGTH).trim() + "\u2026";
+    }
+}
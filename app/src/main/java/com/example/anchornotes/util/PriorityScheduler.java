@@ -0,0 +1,177 @@
+package com.example.anchornotes.util;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One bounded thread pool shared by every lane. Tasks are ordered by a deadline: enqueue time
+ * plus the lane's slack. A UI read therefore runs ahead of queued writes and maintenance, but
+ * a maintenance task can only be overtaken for its slack, so it is never starved.
+ * Within a lane, tasks start in submission order; with more than one thread they may overlap
+ * and finish in any order, so a lane is not a serial executor.
+ */
+public final class PriorityScheduler {
+
+    public enum Lane {
+        /** Reads the user is waiting on (list pages, search, editor prefill). */
+        UI_READ(0),
+        /** Writes the user triggered (save, pin, tag, reminders). */
+        USER_WRITE(100),
+        /** Housekeeping nobody is waiting on (cleanup, seeding, backfills). */
+        MAINTENANCE(2_000);
+
+        final long slackNanos;
+
+        Lane(long slackMillis) {
+            this.slackNanos = TimeUnit.MILLISECONDS.toNanos(slackMillis);
+        }
+    }
+
+    /** Point-in-time counters for one lane; times are in milliseconds. */
+    public static final class LaneStats {
+        public final Lane lane;
+        public final int queued;
+        public final int running;
+        public final long completed;
+        public final double avgWaitMs;
+        public final double maxWaitMs;
+        public final double avgRunMs;
+        public final double maxRunMs;
+
+        LaneStats(Lane lane, int queued, int running, long completed,
+                  long totalWaitNs, long maxWaitNs, long totalRunNs, long maxRunNs) {
+            this.lane = lane;
+            this.queued = queued;
+            this.running = running;
+            this.completed = completed;
+            this.avgWaitMs = completed == 0 ? 0 : totalWaitNs / 1e6 / completed;
+            this.maxWaitMs = maxWaitNs / 1e6;
+            this.avgRunMs = completed == 0 ? 0 : totalRunNs / 1e6 / completed;
+            this.maxRunMs = maxRunNs / 1e6;
+        }
+
+        @NonNull @Override public String toString() {
+            return String.format(Locale.US,
+                    "%s queued=%d running=%d done=%d wait(avg=%.1fms max=%.1fms) run(avg=%.1fms max=%.1fms)",
+                    lane, queued, running, completed, avgWaitMs, maxWaitMs, avgRunMs, maxRunMs);
+        }
+    }
+
+    private static final class Metrics {
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong totalWaitNs = new AtomicLong();
+        final AtomicLong maxWaitNs = new AtomicLong();
+        final AtomicLong totalRunNs = new AtomicLong();
+        final AtomicLong maxRunNs = new AtomicLong();
+    }
+
+    private final class Task implements Runnable, Comparable<Task> {
+        final Lane lane;
+        final Runnable body;
+        final long enqueuedAt;
+        final long deadline;
+        final long seq;
+
+        Task(Lane lane, Runnable body) {
+            this.lane = lane;
+            this.body = body;
+            this.enqueuedAt = System.nanoTime();
+            this.deadline = enqueuedAt + lane.slackNanos;
+            this.seq = sequence.getAndIncrement();
+        }
+
+        @Override public int compareTo(Task o) {
+            // nanoTime values may wrap, so compare the difference rather than the values
+            long d = deadline - o.deadline;
+            if (d != 0) return d < 0 ? -1 : 1;
+            return Long.compare(seq, o.seq);
+        }
+
+        @Override public void run() {
+            Metrics m = metrics[lane.ordinal()];
+            long start = System.nanoTime();
+            m.queued.decrementAndGet();
+            m.running.incrementAndGet();
+            try {
+                body.run();
+            } finally {
+                long end = System.nanoTime();
+                m.running.decrementAndGet();
+                record(m.totalWaitNs, m.maxWaitNs, start - enqueuedAt);
+                record(m.totalRunNs, m.maxRunNs, end - start);
+                m.completed.incrementAndGet();
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final Metrics[] metrics = new Metrics[Lane.values().length];
+    private final Executor[] laneExecutors = new Executor[Lane.values().length];
+    private final AtomicLong sequence = new AtomicLong();
+
+    public PriorityScheduler(int threads, @NonNull String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, name + "-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        // Core == max: with an unbounded queue the pool never grows past its core size anyway
+        pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        for (Lane lane : Lane.values()) {
+            metrics[lane.ordinal()] = new Metrics();
+            laneExecutors[lane.ordinal()] = r -> execute(lane, r);
+        }
+    }
+
+    public void execute(@NonNull Lane lane, @NonNull Runnable r) {
+        metrics[lane.ordinal()].queued.incrementAndGet();
+        pool.execute(new Task(lane, r));
+    }
+
+    /** Executor view of one lane, for CompletableFuture.*Async and similar APIs. */
+    @NonNull
+    public Executor executor(@NonNull Lane lane) {
+        return laneExecutors[lane.ordinal()];
+    }
+
+    @NonNull
+    public LaneStats stats(@NonNull Lane lane) {
+        Metrics m = metrics[lane.ordinal()];
+        return new LaneStats(lane, m.queued.get(), m.running.get(), m.completed.get(),
+                m.totalWaitNs.get(), m.maxWaitNs.get(), m.totalRunNs.get(), m.maxRunNs.get());
+    }
+
+    @NonNull
+    public List<LaneStats> stats() {
+        List<LaneStats> out = new ArrayList<>();
+        for (Lane lane : Lane.values()) out.add(stats(lane));
+        return out;
+    }
+
+    public int threadCount() {
+        return pool.getMaximumPoolSize();
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long value) {
+        total.addAndGet(value);
+        long prev;
+        while (value > (prev = max.get())) {
+            if (max.compareAndSet(prev, value)) break;
+        }
+    }
+}
@@ -4,24 +4,28 @@ import android.app.Application;
 
 import androidx.annotation.NonNull;
 import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
 
 import com.example.anchornotes.data.ServiceLocator;
 import com.example.anchornotes.data.db.NoteEntity;
 
+import java.util.concurrent.CompletableFuture;
+
 public class NoteEditorViewModel extends AndroidViewModel {
 
     public NoteEditorViewModel(@NonNull Application app) {
         super(app);
     }
 
-    public long save(Long id, String title, String bodyHtml,
-                     String photoUri, String voiceUri, boolean pinned) {
+    /** Saves off the main thread; completes with the note id. */
+    public CompletableFuture<Long> save(Long id, String title, String bodyHtml,
+                                        String photoUri, String voiceUri, boolean pinned) {
         return ServiceLocator.noteRepository(getApplication())
-                .createOrUpdate(id, title, bodyHtml, photoUri, voiceUri, pinned);
+                .createOrUpdateAsync(id, title, bodyHtml, photoUri, voiceUri, pinned);
     }
 
-    /** Load a single note for editing. */
-    public NoteEntity load(long id) {                           // ← added
-        return ServiceLocator.noteRepository(getApplication()).get(id);
+    /** Observe a single note for editing; re-emits when reminders or location change. */
+    public LiveData<NoteEntity> observe(long id) {
+        return ServiceLocator.noteRepository(getApplication()).observe(id);
     }
 }
@@ -1,18 +1,172 @@
 package com.example.anchornotes.viewmodel;
 
 import android.app.Application;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import com.example.anchornotes.data.NotePageSource;
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.PageKey;
 import com.example.anchornotes.data.ServiceLocator;
-import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.search.SearchMetrics;
+import com.example.anchornotes.util.AppExecutors;
 import java.util.List;
 
+/**
+ * Pages the home list (plain or filtered) in keyset order instead of loading every note.
+ * Pages are loaded off the main thread and delivered through {@link #getPages()}.
+ *
+ * <p>Search-as-you-type goes through {@link #search}: keystrokes are debounced, a newer
+ * query cancels the one still running, and only pages for the latest filter are delivered.
+ */
 public class NoteListViewModel extends AndroidViewModel {
+    public static final int PAGE_SIZE = 50;
+    /** Quiet time after the last keystroke before the query runs. */
+    public static final long SEARCH_DEBOUNCE_MS = 250;
+
+    /**
+     * A loaded page. {@code reset} means it replaces the list instead of extending it;
+     * {@code ranked} means items are in relevance order rather than pinned-first list order.
+     */
+    public static class NotePage {
+        public final List<NoteSummary> items;
+        public final boolean reset;
+        public final boolean ranked;
+
+        NotePage(List<NoteSummary> items, boolean reset, boolean ranked) {
+            this.items = items;
+            this.reset = reset;
+            this.ranked = ranked;
+        }
+    }
+
+    private final MutableLiveData<NotePage> pages = new MutableLiveData<>();
+
+    // Paging state is only touched on the main thread
+    private NotePageSource source;
+    private boolean ranked;
+    private PageKey lastKey;
+    private boolean endReached;
+    private boolean loading;
+    private int generation;
+    @Nullable private CancellationSignal inFlight;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    @Nullable private Runnable pendingSearch;
+    private long burstStartedAt;
+
     public NoteListViewModel(@NonNull Application app) {
         super(app);
     }
 
-    public List<NoteEntity> loadNotes() {
-        return ServiceLocator.noteRepository(getApplication()).getAll();
+    public LiveData<NotePage> getPages() {
+        return pages;
+    }
+
+    /**
+     * Debounced {@link #loadFirstPage}: for input that changes on every keystroke. Only the
+     * last filter of a burst is queried. The filter is copied now, so later edits don't leak in.
+     */
+    public void search(@Nullable NoteSearchFilter filter) {
+        NoteSearchFilter snapshot = filter == null ? null : new NoteSearchFilter(filter);
+        if (pendingSearch == null) {
+            burstStartedAt = System.nanoTime();
+        } else {
+            handler.removeCallbacks(pendingSearch);
+        }
+        pendingSearch = () -> {
+            SearchMetrics.record(SearchMetrics.Stage.DEBOUNCE, System.nanoTime() - burstStartedAt);
+            loadFirstPage(snapshot);
+        };
+        handler.postDelayed(pendingSearch, SEARCH_DEBOUNCE_MS);
+    }
+
+    /**
+     * Starts paging from the top. A null filter pages the plain list, otherwise the
+     * search results for that filter. A load still running for an older source is cancelled
+     * and its pages are dropped, as is any debounced search not yet started.
+     */
+    public void loadFirstPage(@Nullable NoteSearchFilter filter) {
+        if (pendingSearch != null) {
+            handler.removeCallbacks(pendingSearch);
+            pendingSearch = null;
+        }
+        ranked = filter != null && filter.rankByRelevance
+                && filter.query != null && !filter.query.trim().isEmpty();
+        if (filter == null) {
+            NoteRepository repo = ServiceLocator.noteRepository(getApplication());
+            source = (after, limit, signal) -> repo.getPageAsync(after, limit);
+        } else {
+            NoteSearchRepository repo = ServiceLocator.noteSearchRepository(getApplication());
+            NoteSearchFilter snapshot = new NoteSearchFilter(filter);
+            source = (after, limit, signal) -> repo.searchAsync(snapshot, after, limit, signal);
+        }
+        cancelInFlight();
+        generation++;
+        lastKey = null;
+        endReached = false;
+        loadPage(true);
+    }
+
+    /** Requests the next page of the current source; no-op while loading or at the end. */
+    public void loadNextPage() {
+        if (source == null || endReached || loading) return;
+        loadPage(false);
+    }
+
+    public boolean hasMore() {
+        return source != null && !endReached;
+    }
+
+    private void loadPage(boolean reset) {
+        int gen = generation;
+        boolean pageRanked = ranked;
+        CancellationSignal signal = new CancellationSignal();
+        inFlight = signal;
+        loading = true;
+        long[] readyAt = new long[1];
+        source.load(lastKey, PAGE_SIZE, signal)
+                .whenComplete((page, error) -> readyAt[0] = System.nanoTime())
+                .whenCompleteAsync((page, error) -> {
+                    if (gen != generation) { // superseded by a newer loadFirstPage
+                        if (error == null) SearchMetrics.recordStale();
+                        return;
+                    }
+                    SearchMetrics.record(SearchMetrics.Stage.DELIVER, System.nanoTime() - readyAt[0]);
+                    loading = false;
+                    inFlight = null;
+                    if (error != null) {
+                        error.printStackTrace();
+                        return;
+                    }
+                    if (page.size() < PAGE_SIZE) endReached = true;
+                    if (!page.isEmpty()) lastKey = PageKey.after(page.get(page.size() - 1));
+                    pages.setValue(new NotePage(page, reset, pageRanked));
+                }, AppExecutors.main());
+    }
+
+    private void cancelInFlight() {
+        if (inFlight != null) {
+            inFlight.cancel();
+            inFlight = null;
+        }
+        loading = false;
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        if (pendingSearch != null) handler.removeCallbacks(pendingSearch);
+        cancelInFlight();
+        SearchMetrics.log();
     }
 }
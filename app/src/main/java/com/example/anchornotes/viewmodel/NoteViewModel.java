@@ -3,12 +3,14 @@ package com.example.anchornotes.viewmodel;
 import android.app.Application;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
 
 import com.example.anchornotes.data.ServiceLocator;
 import com.example.anchornotes.data.repo.NoteRepository;
 import com.example.anchornotes.model.PlaceSelection;
+import com.example.anchornotes.model.RecurrenceRule;
 import com.example.anchornotes.model.ReminderConflict;
 import com.example.anchornotes.model.ReminderType;
 import com.example.anchornotes.model.RelevantNoteUi;
@@ -42,9 +44,19 @@ public class NoteViewModel extends AndroidViewModel {
      * Sets a time reminder for a note.
      */
     public void onSetTimeReminder(long noteId, long atMillis) {
+        onSetTimeReminder(noteId, atMillis, 0, null);
+    }
+
+    /**
+     * Sets a time reminder for a note that may arrive up to {@code toleranceMs} late and
+     * repeats by {@code repeat} if given.
+     */
+    public void onSetTimeReminder(long noteId, long atMillis, long toleranceMs, @Nullable RecurrenceRule repeat) {
         repository.requestSetTimeReminder(
                 noteId,
                 atMillis,
+                toleranceMs,
+                repeat,
                 conflict -> {
                     // Conflict detected, show dialog - handled in UI
                     android.os.Handler handler = new android.os.Handler(android.os.Looper.getMainLooper());
@@ -53,6 +65,8 @@ public class NoteViewModel extends AndroidViewModel {
                                 noteId,
                                 ReminderType.TIME,
                                 atMillis,
+                                toleranceMs,
+                                repeat,
                                 null
                         );
                         replaceDialogEvent.setValue(payload);
@@ -83,6 +97,8 @@ public class NoteViewModel extends AndroidViewModel {
                                 noteId,
                                 ReminderType.GEOFENCE,
                                 -1,
+                                0,
+                                null,
                                 place
                         );
                         replaceDialogEvent.setValue(payload);
@@ -102,10 +118,21 @@ public class NoteViewModel extends AndroidViewModel {
      * Confirms replacement of existing reminder (called from dialog).
      */
     public void onConfirmReplace(ReminderType newType, long noteId, long atMillis, PlaceSelection place) {
+        onConfirmReplace(newType, noteId, atMillis, 0, null, place);
+    }
+
+    /**
+     * Confirms replacement of existing reminder with one that may arrive up to {@code toleranceMs}
+     * late and repeats by {@code repeat} if given.
+     */
+    public void onConfirmReplace(ReminderType newType, long noteId, long atMillis, long toleranceMs,
+                                 @Nullable RecurrenceRule repeat, PlaceSelection place) {
         if (newType == ReminderType.TIME) {
             repository.confirmReplaceWithTime(
                     noteId,
                     atMillis,
+                    toleranceMs,
+                    repeat,
                     () -> {},
                     error -> error.printStackTrace()
             );
@@ -137,12 +164,17 @@ public class NoteViewModel extends AndroidViewModel {
         public final long noteId;
         public final ReminderType newType;
         public final long atMillis; // -1 if not time reminder
+        public final long toleranceMs; // 0 for an exact or geofence reminder
+        public final RecurrenceRule repeat; // null if it doesn't repeat
         public final PlaceSelection place; // null if not geofence reminder
 
-        public ReplaceDialogPayload(long noteId, ReminderType newType, long atMillis, PlaceSelection place) {
+        public ReplaceDialogPayload(long noteId, ReminderType newType, long atMillis, long toleranceMs,
+                                    RecurrenceRule repeat, PlaceSelection place) {
             this.noteId = noteId;
             this.newType = newType;
             this.atMillis = atMillis;
+            this.toleranceMs = toleranceMs;
+            this.repeat = repeat;
             this.place = place;
         }
     }
@@ -10,15 +10,16 @@ import androidx.lifecycle.MutableLiveData;
 import com.example.anchornotes.data.ServiceLocator;
 import com.example.anchornotes.data.db.TemplateEntity;
 import com.example.anchornotes.data.repo.TemplateRepository;
+import com.example.anchornotes.util.AppExecutors;
 import com.example.anchornotes.util.SingleLiveEvent;
 
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
 
 public class TemplateViewModel extends AndroidViewModel {
     private final TemplateRepository repository;
-    private final ExecutorService executor;
+    /** Completes once the example templates exist; reads wait for it so the first list isn't empty. */
+    private final CompletableFuture<Void> seeded;
 
     private final MutableLiveData<List<TemplateEntity>> allTemplates = new MutableLiveData<>();
     private final MutableLiveData<List<TemplateEntity>> templatesForSelection = new MutableLiveData<>();
@@ -28,14 +29,17 @@ public class TemplateViewModel extends AndroidViewModel {
     public TemplateViewModel(@NonNull Application application) {
         super(application);
         this.repository = ServiceLocator.templateRepository(application);
-        this.executor = Executors.newSingleThreadExecutor();
-        executor.execute(() -> repository.ensureExampleTemplates());
+        this.seeded = CompletableFuture
+                .runAsync(repository::ensureExampleTemplates, AppExecutors.userWrite())
+                .exceptionally(e -> null);
     }
 
-    @Override
-    protected void onCleared() {
-        super.onCleared();
-        executor.shutdown();
+    private void read(Runnable task) {
+        seeded.thenRunAsync(task, AppExecutors.uiRead());
+    }
+
+    private void write(Runnable task) {
+        seeded.thenRunAsync(task, AppExecutors.userWrite());
     }
 
     public LiveData<List<TemplateEntity>> getAllTemplates() {
@@ -55,7 +59,7 @@ public class TemplateViewModel extends AndroidViewModel {
     }
 
     public void loadAllTemplates() {
-        executor.execute(() -> {
+        read(() -> {
             try {
                 List<TemplateEntity> templates = repository.getAll();
                 allTemplates.postValue(templates);
@@ -66,7 +70,7 @@ public class TemplateViewModel extends AndroidViewModel {
     }
 
     public void loadTemplatesForSelection() {
-        executor.execute(() -> {
+        read(() -> {
             try {
                 List<TemplateEntity> templates = repository.getTemplatesForSelection();
                 templatesForSelection.postValue(templates);
@@ -81,7 +85,7 @@ public class TemplateViewModel extends AndroidViewModel {
     }
 
     public void searchTemplates(String query) {
-        executor.execute(() -> {
+        read(() -> {
             try {
                 List<TemplateEntity> templates = repository.search(query);
                 allTemplates.postValue(templates);
@@ -93,7 +97,7 @@ public class TemplateViewModel extends AndroidViewModel {
 
     public void createTemplate(String name, String pageColor, String prefilledHtml,
                               List<Long> associatedTagIds, String associatedGeofenceId) {
-        executor.execute(() -> {
+        write(() -> {
             try {
                 if (!repository.isNameUnique(name, 0)) {
                     errorMessage.postValue("Template name already exists");
@@ -125,7 +129,7 @@ public class TemplateViewModel extends AndroidViewModel {
     public void updateTemplate(long templateId, String name, String pageColor,
                               String prefilledHtml, List<Long> associatedTagIds,
                               String associatedGeofenceId) {
-        executor.execute(() -> {
+        write(() -> {
             try {
                 if (!repository.isNameUnique(name, templateId)) {
                     errorMessage.postValue("Template name already exists");
@@ -154,7 +158,7 @@ public class TemplateViewModel extends AndroidViewModel {
     }
 
     public void deleteTemplate(TemplateEntity template) {
-        executor.execute(() -> {
+        write(() -> {
             try {
                 if (template.isExample) {
                     errorMessage.postValue("Cannot delete example template");
@@ -171,7 +175,7 @@ public class TemplateViewModel extends AndroidViewModel {
     }
 
     public void duplicateTemplate(TemplateEntity original) {
-        executor.execute(() -> {
+        write(() -> {
             try {
                 String newName = original.name + " (Copy)";
                 int counter = 2;
@@ -202,8 +206,8 @@ public class TemplateViewModel extends AndroidViewModel {
         });
     }
 
-    public TemplateEntity getTemplateById(long templateId) {
-        return repository.getById(templateId);
+    public CompletableFuture<TemplateEntity> getTemplateById(long templateId) {
+        return repository.getByIdAsync(templateId);
     }
 
     public List<Long> parseAssociatedTagIds(String tagIdsJson) {
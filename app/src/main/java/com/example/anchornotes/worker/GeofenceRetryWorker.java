@@ -4,39 +4,81 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 
 import androidx.annotation.NonNull;
+import androidx.concurrent.futures.CallbackToFutureAdapter;
 import androidx.core.content.ContextCompat;
-import androidx.work.Worker;
+import androidx.work.BackoffPolicy;
+import androidx.work.ListenableWorker;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
 import androidx.work.WorkerParameters;
 
 import com.example.anchornotes.context.GeofenceManager;
+import com.example.anchornotes.context.GeofenceScheduler;
 import com.example.anchornotes.context.NotificationHelper;
 import com.example.anchornotes.context.ReminderManager;
 import com.example.anchornotes.data.db.AppDatabase;
 import com.example.anchornotes.data.db.NoteEntity;
-import com.example.anchornotes.data.repo.NoteRepository;
-import com.google.android.gms.common.api.ApiException;
+import com.example.anchornotes.util.AppExecutors;
+import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Worker that retries geofence registration for notes that failed to activate.
+ * All pending notes go to Play Services in one batch ({@link GeofenceManager#addAll}); the
+ * worker doesn't hold a thread while waiting for it. Each geofence counts its own failed attempts
+ * (notes.geofenceAttempts), so one bad geofence falls back to a time reminder without taking
+ * the others with it.
  */
-public class GeofenceRetryWorker extends Worker {
+public class GeofenceRetryWorker extends ListenableWorker {
+    /** Failed attempts after which a note gets a time reminder instead. */
+    static final int MAX_ATTEMPTS = 3;
+    static final long FALLBACK_DELAY_MS = 5 * 60 * 1000;
+
     public GeofenceRetryWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
     }
 
+    /** Retries the pending notes in 5 minutes, backing off from there. */
+    public static void enqueue(@NonNull Context context) {
+        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(GeofenceRetryWorker.class)
+                .setInitialDelay(TimeUnit.MINUTES.toMillis(5), TimeUnit.MILLISECONDS)
+                .setBackoffCriteria(
+                        BackoffPolicy.EXPONENTIAL,
+                        TimeUnit.MINUTES.toMillis(5),
+                        TimeUnit.MILLISECONDS)
+                .build();
+        WorkManager.getInstance(context).enqueue(workRequest);
+    }
+
     @NonNull
     @Override
-    public Result doWork() {
+    public ListenableFuture<Result> startWork() {
+        return CallbackToFutureAdapter.getFuture(completer -> {
+            // startWork runs on the main thread; the reads go to the background lane
+            AppExecutors.maintenance().execute(() -> {
+                try {
+                    retryPending(completer);
+                } catch (Exception e) {
+                    completer.setException(e);
+                }
+            });
+            return "GeofenceRetryWorker";
+        });
+    }
+
+    private void retryPending(CallbackToFutureAdapter.Completer<Result> completer) {
         Context context = getApplicationContext();
         AppDatabase db = AppDatabase.get(context);
         List<NoteEntity> pendingNotes = db.noteDao().getPendingActivationNotes();
 
         if (pendingNotes.isEmpty()) {
-            return Result.success();
+            completer.set(Result.success());
+            return;
         }
 
         // Check location permissions
@@ -47,72 +89,82 @@ public class GeofenceRetryWorker extends Worker {
 
         if (!hasPermission) {
             // Permissions not granted, will retry later
-            return Result.retry();
+            completer.set(Result.retry());
+            return;
         }
 
-        GeofenceManager geofenceManager = new GeofenceManager(context);
-        NoteRepository repo = new NoteRepository(db.noteDao());
-        ReminderManager reminderManager = new ReminderManager(context);
-
-        boolean allSucceeded = true;
-        int failureCount = 0;
-
+        // notes at the same place share a geofence; register it once
+        Map<String, List<NoteEntity>> byGeofenceId = new LinkedHashMap<>();
         for (NoteEntity note : pendingNotes) {
-            if (note.latitude == null || note.longitude == null || note.geofenceId == null) {
+            if (note.geofenceLat == null || note.geofenceLon == null || note.geofenceId == null) {
                 continue;
             }
+            byGeofenceId.computeIfAbsent(note.geofenceId, id -> new ArrayList<>()).add(note);
+        }
+        List<GeofenceManager.Spec> specs = new ArrayList<>();
+        for (List<NoteEntity> notes : byGeofenceId.values()) {
+            NoteEntity note = notes.get(0);
+            float radius = note.geofenceRadius != null ? note.geofenceRadius : GeofenceScheduler.DEFAULT_RADIUS_METERS;
+            specs.add(new GeofenceManager.Spec(note.geofenceId, note.geofenceLat, note.geofenceLon, radius));
+        }
+        if (specs.isEmpty()) {
+            completer.set(Result.success());
+            return;
+        }
 
-            AtomicBoolean success = new AtomicBoolean(false);
-            CountDownLatch latch = new CountDownLatch(1);
-
-            geofenceManager.addForNote(
-                    note.id,
-                    note.latitude,
-                    note.longitude,
-                    175.0f, // Default radius
-                    note.geofenceId,
-                    result -> {
-                        success.set(true);
-                        latch.countDown();
-                    },
-                    exception -> {
-                        success.set(false);
-                        latch.countDown();
-                    }
-            );
-
-            try {
-                latch.await();
-                if (success.get()) {
-                    // Clear pending flag
-                    db.noteDao().setPendingActivation(note.id, false);
-                } else {
-                    allSucceeded = false;
-                    failureCount++;
-
-                    // After multiple failures, schedule fallback time reminder (5 minutes from now)
-                    if (failureCount >= 3) {
-                        long fallbackTime = System.currentTimeMillis() + (5 * 60 * 1000);
-                        reminderManager.scheduleExact(note.id, fallbackTime);
-                        db.noteDao().setReminderTime(note.id, fallbackTime, System.currentTimeMillis());
-                        db.noteDao().setPendingActivation(note.id, false);
-
-                        // Notify user
-                        NotificationHelper notificationHelper = new NotificationHelper(context);
-                        // Create a simple notification text for fallback
-                        NoteEntity fallbackNote = new NoteEntity();
-                        fallbackNote.id = note.id;
-                        fallbackNote.title = note.title;
-                        fallbackNote.bodyHtml = "Geofence reminder failed, using time reminder instead";
-                        notificationHelper.showReminder(fallbackNote);
+        GeofenceManager geofenceManager = new GeofenceManager(context);
+        geofenceManager.addAll(specs, result ->
+                // Play Services calls back on the main thread; the DB writes go back to the background
+                AppExecutors.maintenance().execute(() -> {
+                    try {
+                        completer.set(record(db, geofenceManager, byGeofenceId, result));
+                    } catch (Exception e) {
+                        completer.setException(e);
                     }
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return Result.retry();
+                }));
+    }
+
+    /** Stores the batch outcome and falls back to time reminders for geofences out of attempts. */
+    private Result record(AppDatabase db, GeofenceManager geofenceManager,
+                          Map<String, List<NoteEntity>> byGeofenceId, GeofenceManager.BatchResult result) {
+        List<String> added = new ArrayList<>(result.added);
+        List<String> retrying = new ArrayList<>();
+        List<NoteEntity> exhausted = new ArrayList<>();
+        for (String geofenceId : result.failed.keySet()) {
+            List<NoteEntity> notes = byGeofenceId.get(geofenceId);
+            if (notes.get(0).geofenceAttempts + 1 >= MAX_ATTEMPTS) exhausted.addAll(notes);
+            else retrying.add(geofenceId);
+        }
+
+        long now = System.currentTimeMillis();
+        long fallbackTime = now + FALLBACK_DELAY_MS;
+        db.runInTransaction(() -> {
+            if (!added.isEmpty()) db.noteDao().markGeofencesActive(added);
+            if (!retrying.isEmpty()) db.noteDao().recordGeofenceFailures(retrying);
+            for (NoteEntity note : exhausted) {
+                // also clears pendingActivation
+                db.noteDao().setReminderTime(note.id, fallbackTime, now);
+            }
+        });
+
+        if (!exhausted.isEmpty()) {
+            Context context = getApplicationContext();
+            ReminderManager reminderManager = new ReminderManager(context);
+            NotificationHelper notificationHelper = new NotificationHelper(context);
+            for (NoteEntity note : exhausted) {
+                reminderManager.schedule(note, fallbackTime, 0);
+
+                // Notify user
+                NoteEntity fallbackNote = new NoteEntity();
+                fallbackNote.id = note.id;
+                fallbackNote.title = note.title;
+                fallbackNote.previewText = "Geofence reminder failed, using time reminder instead";
+                notificationHelper.showReminder(fallbackNote);
             }
+            // their slots go to the nearest reminders still waiting
+            new GeofenceScheduler(context, db.noteDao(), geofenceManager).refill();
         }
 
-        return allSucceeded ? Result.success() : Result.retry();
+        return retrying.isEmpty() ? Result.success() : Result.retry();
     }
 }
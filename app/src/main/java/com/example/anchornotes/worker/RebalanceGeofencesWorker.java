@@ -0,0 +1,95 @@
+package com.example.anchornotes.worker;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.concurrent.futures.CallbackToFutureAdapter;
+import androidx.core.content.ContextCompat;
+import androidx.work.BackoffPolicy;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.ListenableWorker;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.WorkerParameters;
+
+import com.example.anchornotes.data.ServiceLocator;
+import com.example.anchornotes.util.AppExecutors;
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.location.Priority;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the geofence selection again when the rebalance geofence fired without a triggering
+ * location. Starts from the last known location, or asks for a fresh one if there is none, and
+ * retries with backoff until a location is available.
+ */
+public class RebalanceGeofencesWorker extends ListenableWorker {
+    private static final String WORK_NAME = "rebalance_geofences";
+
+    public RebalanceGeofencesWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /** Rebalances as soon as possible; a rebalance already waiting covers this request too. */
+    public static void enqueue(@NonNull Context context) {
+        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(RebalanceGeofencesWorker.class)
+                .setBackoffCriteria(
+                        BackoffPolicy.EXPONENTIAL,
+                        TimeUnit.MINUTES.toMillis(1),
+                        TimeUnit.MILLISECONDS)
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, workRequest);
+    }
+
+    @NonNull
+    @Override
+    public ListenableFuture<Result> startWork() {
+        return CallbackToFutureAdapter.getFuture(completer -> {
+            Context context = getApplicationContext();
+            boolean hasPermission = ContextCompat.checkSelfPermission(context,
+                    android.Manifest.permission.ACCESS_FINE_LOCATION) == PackageManager.PERMISSION_GRANTED ||
+                    ContextCompat.checkSelfPermission(context,
+                            android.Manifest.permission.ACCESS_COARSE_LOCATION) == PackageManager.PERMISSION_GRANTED;
+            if (!hasPermission) {
+                // Permissions not granted, will retry later
+                completer.set(Result.retry());
+                return "RebalanceGeofencesWorker";
+            }
+
+            FusedLocationProviderClient fused = LocationServices.getFusedLocationProviderClient(context);
+            // Play Services calls back on the main thread
+            fused.getLastLocation()
+                    .continueWithTask(last -> last.isSuccessful() && last.getResult() != null
+                            ? last
+                            : fused.getCurrentLocation(Priority.PRIORITY_BALANCED_POWER_ACCURACY, null))
+                    .addOnCompleteListener(task -> {
+                        Location location = task.isSuccessful() ? task.getResult() : null;
+                        rebalance(completer, location);
+                    });
+            return "RebalanceGeofencesWorker";
+        });
+    }
+
+    private void rebalance(CallbackToFutureAdapter.Completer<Result> completer, @Nullable Location location) {
+        if (location == null) {
+            completer.set(Result.retry());
+            return;
+        }
+        // the selection reads Room; back to the background lane
+        AppExecutors.maintenance().execute(() -> {
+            try {
+                ServiceLocator.geofenceScheduler(getApplicationContext())
+                        .rebalance(location.getLatitude(), location.getLongitude());
+                completer.set(Result.success());
+            } catch (Exception e) {
+                completer.setException(e);
+            }
+        });
+    }
+}
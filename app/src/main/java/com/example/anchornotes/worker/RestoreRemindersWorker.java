@@ -0,0 +1,72 @@
+package com.example.anchornotes.worker;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.anchornotes.context.GeofenceManager;
+import com.example.anchornotes.context.GeofenceScheduler;
+import com.example.anchornotes.context.ReminderManager;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteDao;
+import com.example.anchornotes.data.db.ReminderQueueEntity;
+
+import java.util.List;
+
+/**
+ * Puts reminders back after a reboot or app update, which drop every alarm and geofence.
+ * Time reminders are read from NoteDao a page at a time and only the missing ones are queued,
+ * then the one alarm is set again; geofences go back to Play Services in one batched request
+ * ({@link GeofenceScheduler#restore}). Neither grows with the number of reminders beyond the
+ * page reads: there is one alarm and at most {@link GeofenceScheduler#MAX_GEOFENCES} geofences.
+ */
+public class RestoreRemindersWorker extends Worker {
+    private static final String WORK_NAME = "restore_reminders";
+    private static final int PAGE_SIZE = 500;
+
+    public RestoreRemindersWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /** Runs the restore once; a restore already waiting covers this request too. */
+    public static void enqueue(@NonNull Context context) {
+        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(RestoreRemindersWorker.class).build();
+        WorkManager.getInstance(context).enqueueUniqueWork(WORK_NAME, ExistingWorkPolicy.KEEP, workRequest);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        NoteDao noteDao = AppDatabase.get(context).noteDao();
+
+        restoreAlarms(noteDao, new ReminderManager(context), System.currentTimeMillis(), PAGE_SIZE);
+        new GeofenceScheduler(context, noteDao, new GeofenceManager(context)).restore();
+        return Result.success();
+    }
+
+    /** Queues the time reminders still to come that aren't queued, page by page, then arms once. */
+    @VisibleForTesting
+    public static void restoreAlarms(@NonNull NoteDao noteDao, @NonNull ReminderManager reminderManager,
+                                     long now, int pageSize) {
+        long afterAt = now;
+        long afterId = Long.MAX_VALUE; // reminders due exactly now have fired
+        List<ReminderQueueEntity> page;
+        do {
+            page = noteDao.getTimeRemindersAfter(afterAt, afterId, pageSize);
+            reminderManager.requeue(page);
+            if (!page.isEmpty()) {
+                ReminderQueueEntity last = page.get(page.size() - 1);
+                afterAt = last.fireAt;
+                afterId = last.noteId;
+            }
+        } while (page.size() == pageSize);
+        reminderManager.rearm();
+    }
+}
@@ -0,0 +1,155 @@
+package white_tests;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.room.util.FtsTableInfo;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:
+ * Note text search runs against the notes_fts index. The migrations build the same table and
+ * triggers Room does and index the notes already stored, and query text is only ever matched
+ * as words, never read as FTS syntax.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class FtsSearchTest {
+
+    private static final String[] FTS_TRIGGERS = {
+            "room_fts_content_sync_notes_fts_BEFORE_UPDATE",
+            "room_fts_content_sync_notes_fts_BEFORE_DELETE",
+            "room_fts_content_sync_notes_fts_AFTER_UPDATE",
+            "room_fts_content_sync_notes_fts_AFTER_INSERT",
+    };
+
+    private Context context;
+    private AppDatabase database;
+    private NoteRepository repository;
+    private NoteSearchRepository search;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        repository = new NoteRepository(database.noteDao());
+        search = new NoteSearchRepository(database.noteSearchDao());
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private List<Long> find(String q) {
+        List<Long> ids = new ArrayList<>();
+        for (NoteSummary n : search.search(q, null, null, null, null, null, false)) ids.add(n.id);
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static List<Long> ftsMatches(SupportSQLiteDatabase db, String match) {
+        List<Long> ids = new ArrayList<>();
+        try (Cursor c = db.query("SELECT docid FROM notes_fts WHERE notes_fts MATCH ? ORDER BY docid",
+                new Object[]{match})) {
+            while (c.moveToNext()) ids.add(c.getLong(0));
+        }
+        return ids;
+    }
+
+    private static List<String> ftsTriggers(SupportSQLiteDatabase db) {
+        List<String> names = new ArrayList<>();
+        try (Cursor c = db.query("SELECT name FROM sqlite_master WHERE type = 'trigger'" +
+                " AND name LIKE 'room_fts_content_sync_notes_fts_%' ORDER BY name")) {
+            while (c.moveToNext()) names.add(c.getString(0));
+        }
+        return names;
+    }
+
+    /**
+     * Description: Upgrading a database with notes but no index (v4) builds notes_fts over the
+     * existing rows; v6 re-indexes it over the backfilled plain text with the table and
+     * triggers Room expects, and later edits keep it in sync.
+     */
+    @Test
+    public void migrationsIndexExistingNotes() {
+        long meeting = repository.createOrUpdate(null, "Team meeting", "<p>Agenda: <b>budget</b></p>", null, null, false);
+        long errand = repository.createOrUpdate(null, "Errand", "<p>Buy milk</p>", null, null, false);
+        SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+        // back to a v4 database: stored HTML only, no index
+        db.execSQL("UPDATE notes SET bodyText = NULL, previewText = NULL");
+        for (String trigger : FTS_TRIGGERS) db.execSQL("DROP TRIGGER " + trigger);
+        db.execSQL("DROP TABLE notes_fts");
+
+        AppDatabase.MIGRATION_4_5.migrate(db);
+        assertEquals(Collections.singletonList(meeting), ftsMatches(db, "agenda*"));
+        assertEquals(Collections.singletonList(errand), ftsMatches(db, "milk*"));
+
+        AppDatabase.MIGRATION_5_6.migrate(db);
+        assertEquals(Collections.singletonList(meeting), ftsMatches(db, "budget*"));
+        assertTrue("HTML markup is no longer indexed", ftsMatches(db, "b").isEmpty());
+
+        AppDatabase fresh = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        try {
+            SupportSQLiteDatabase expected = fresh.getOpenHelper().getWritableDatabase();
+            assertEquals(FtsTableInfo.read(expected, "notes_fts"), FtsTableInfo.read(db, "notes_fts"));
+            assertEquals(ftsTriggers(expected), ftsTriggers(db));
+        } finally {
+            fresh.close();
+        }
+
+        assertEquals(Collections.singletonList(meeting), find("agenda"));
+        repository.createOrUpdate(errand, "Errand", "<p>Buy milk and the agenda folder</p>", null, null, false);
+        assertEquals(Arrays.asList(meeting, errand), find("agenda"));
+        database.noteDao().delete(database.noteDao().getById(meeting));
+        assertEquals(Collections.singletonList(errand), find("agenda"));
+    }
+
+    /**
+     * Description: Quotes, stars, column names, operators and brackets in the query are
+     * searched as plain words; none of them changes the match or makes the query fail.
+     */
+    @Test
+    public void ftsSyntaxInQueriesIsMatchedAsWords() {
+        long meeting = repository.createOrUpdate(null, "Team meeting", "<p>Agenda: budget</p>", null, null, false);
+        long groceries = repository.createOrUpdate(null, "Groceries", "<p>Milk, eggs</p>", null, null, false);
+
+        assertEquals(Collections.singletonList(meeting), find("\"meeting"));
+        assertEquals(Collections.singletonList(meeting), find("meet*"));
+        assertEquals(Collections.singletonList(meeting), find("-agenda"));
+        assertEquals(Collections.singletonList(meeting), find("(budget)"));
+        assertEquals(Collections.singletonList(groceries), find("eggs^"));
+
+        // as FTS syntax these would match a column, or either word
+        assertTrue(find("title:budget").isEmpty());
+        assertTrue(find("meeting OR milk").isEmpty());
+        assertTrue(find("team NEAR/3 agenda").isEmpty());
+
+        // with no words left, punctuation is matched literally in the text
+        assertEquals(Collections.singletonList(groceries), find(", "));
+        assertTrue(find("\"*").isEmpty());
+    }
+}
@@ -0,0 +1,101 @@
+package white_tests;
+
+import android.app.PendingIntent;
+import android.content.Context;
+import android.os.Looper;
+
+import com.example.anchornotes.context.GeofenceManager;
+import com.google.android.gms.common.api.ApiException;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofenceStatusCodes;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.Tasks;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.MockedStatic;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class GeofenceBatchTest {
+
+    private GeofencingClient client;
+    private GeofenceManager manager;
+    private int calls;
+
+    private void setUp(String rejectedId, int statusCode) {
+        Context context = RuntimeEnvironment.getApplication();
+        calls = 0;
+        client = mock(GeofencingClient.class);
+        // a request fails as a whole if it contains the rejected geofence
+        when(client.addGeofences(any(GeofencingRequest.class), any(PendingIntent.class))).thenAnswer(inv -> {
+            calls++;
+            GeofencingRequest request = inv.getArgument(0);
+            for (Geofence g : request.getGeofences()) {
+                if (g.getRequestId().equals(rejectedId)) {
+                    return Tasks.forException(new ApiException(new Status(statusCode)));
+                }
+            }
+            return Tasks.forResult(null);
+        });
+        try (MockedStatic<LocationServices> services = mockStatic(LocationServices.class)) {
+            services.when(() -> LocationServices.getGeofencingClient(any(Context.class))).thenReturn(client);
+            manager = new GeofenceManager(context);
+        }
+    }
+
+    private GeofenceManager.BatchResult addAll(int count) {
+        List<GeofenceManager.Spec> specs = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            specs.add(new GeofenceManager.Spec("note-" + i, 34.0 + i / 1000.0, -118.0, 175f));
+        }
+        GeofenceManager.BatchResult[] out = new GeofenceManager.BatchResult[1];
+        manager.addAll(specs, r -> out[0] = r);
+        shadowOf(Looper.getMainLooper()).idle();
+        assertNotNull("onDone not called", out[0]);
+        return out[0];
+    }
+
+    /**
+     * Description: A clean batch is one request, and a batch with one rejected geofence is
+     * split until only that geofence fails.
+     */
+    @Test
+    public void rejectedGeofenceIsIsolated() {
+        setUp("none", GeofenceStatusCodes.GEOFENCE_TOO_MANY_GEOFENCES);
+        assertEquals(8, addAll(8).added.size());
+        assertEquals(1, calls);
+
+        setUp("note-6", GeofenceStatusCodes.GEOFENCE_TOO_MANY_GEOFENCES);
+        GeofenceManager.BatchResult result = addAll(8);
+        assertEquals(new HashSet<>(Arrays.asList("note-6")), result.failed.keySet());
+        assertEquals(7, result.added.size());
+        assertFalse(result.added.contains("note-6"));
+    }
+
+    /**
+     * Description: An error about the service itself fails the whole batch after one request.
+     */
+    @Test
+    public void serviceErrorFailsBatchWithoutSplitting() {
+        setUp("note-2", GeofenceStatusCodes.GEOFENCE_NOT_AVAILABLE);
+        GeofenceManager.BatchResult result = addAll(8);
+        assertEquals(8, result.failed.size());
+        assertTrue(result.added.isEmpty());
+        assertEquals(1, calls);
+    }
+}
@@ -0,0 +1,269 @@
+package white_tests;
+
+import android.app.PendingIntent;
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.context.GeofenceManager;
+import com.example.anchornotes.context.GeofenceScheduler;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.GeofenceTarget;
+import com.example.anchornotes.data.db.NoteDao;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.search.GeoHash;
+import com.example.anchornotes.model.PlaceSelection;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.tasks.Tasks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.MockedStatic;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class GeofenceSchedulerTest {
+
+    private static final double LAT = 34.0224;
+    private static final double LON = -118.2851;
+
+    private AppDatabase database;
+    private NoteDao noteDao;
+    private GeofencingClient client;
+    private GeofenceScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        noteDao = database.noteDao();
+        client = mock(GeofencingClient.class);
+        when(client.addGeofences(any(GeofencingRequest.class), any(PendingIntent.class)))
+                .thenReturn(Tasks.forResult(null));
+        when(client.removeGeofences(anyList())).thenReturn(Tasks.forResult(null));
+        try (MockedStatic<LocationServices> services = mockStatic(LocationServices.class)) {
+            services.when(() -> LocationServices.getGeofencingClient(any(Context.class))).thenReturn(client);
+            // 3 slots for notes, one for the rebalance geofence
+            scheduler = new GeofenceScheduler(context, noteDao, new GeofenceManager(context), 4);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    /** A geofence reminder {@code km} kilometres north of the test point, without a slot. */
+    private long reminderAt(double km) {
+        long id = new NoteRepository(noteDao).createOrUpdate(null, km + " km", "<p>x</p>", null, null, false);
+        long now = System.currentTimeMillis();
+        double lat = LAT + km * 1000 / GeoHash.METERS_PER_DEGREE;
+        noteDao.setReminderGeofence(id, "note-" + id, lat, LON, 100f, now);
+        noteDao.updateLocation(id, lat, LON, null, now);
+        return id;
+    }
+
+    /** What NoteRepository.confirmReplaceWithGeofence does. */
+    private void schedule(long noteId, PlaceSelection place) {
+        noteDao.updateLocation(noteId, place.latitude, place.longitude, place.label, System.currentTimeMillis());
+        scheduler.schedule(noteId, place, ok -> {}, e -> fail(e.toString()));
+    }
+
+    private Set<String> registered() {
+        Set<String> ids = new HashSet<>();
+        for (GeofenceTarget t : noteDao.getGeofenceTargets()) if (t.geofenceRegistered) ids.add(t.geofenceId);
+        return ids;
+    }
+
+    /**
+     * Description: Only the nearest reminders get a slot, and moving to the far ones swaps
+     * the slots over, unregistering only the ones that no longer fit.
+     */
+    @Test
+    public void nearestRemindersHoldTheSlots() {
+        List<String> ids = new ArrayList<>();
+        for (double km : new double[]{1, 2, 3, 10, 11, 12}) ids.add("note-" + reminderAt(km));
+
+        scheduler.rebalance(LAT, LON);
+        assertEquals(new HashSet<>(ids.subList(0, 3)), registered());
+
+        reset(client);
+        when(client.addGeofences(any(GeofencingRequest.class), any(PendingIntent.class)))
+                .thenReturn(Tasks.forResult(null));
+        scheduler.rebalance(LAT + 11 / (GeoHash.METERS_PER_DEGREE / 1000), LON);
+        assertEquals(new HashSet<>(ids.subList(3, 6)), registered());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<String>> removed = ArgumentCaptor.forClass(List.class);
+        verify(client, atLeastOnce()).removeGeofences(removed.capture());
+        assertEquals(ids.subList(0, 3), removed.getAllValues().get(0));
+    }
+
+    /**
+     * Description: The rebalance geofence reaches to the edge of the nearest reminder left out,
+     * and is dropped once every reminder fits.
+     */
+    @Test
+    public void rebalanceFenceStopsAtTheNearestWaitingReminder() {
+        List<Long> reminderIds = new ArrayList<>();
+        for (double km : new double[]{1, 2, 3, 10}) reminderIds.add(reminderAt(km));
+
+        scheduler.rebalance(LAT, LON);
+        ArgumentCaptor<GeofencingRequest> requests = ArgumentCaptor.forClass(GeofencingRequest.class);
+        verify(client, atLeastOnce()).addGeofences(requests.capture(), any(PendingIntent.class));
+        GeofencingRequest fence = null;
+        for (GeofencingRequest r : requests.getAllValues()) {
+            if (GeofenceManager.REBALANCE_ID.equals(r.getGeofences().get(0).getRequestId())) fence = r;
+        }
+        assertNotNull("no rebalance geofence", fence);
+        // 10 km away with a 100 m radius
+        assertEquals(9_900, fence.getGeofences().get(0).getRadius(), 5);
+
+        long far = reminderIds.get(3);
+        noteDao.clearReminder(far, System.currentTimeMillis());
+        reset(client);
+        when(client.removeGeofences(anyList())).thenReturn(Tasks.forResult(null));
+        scheduler.rebalance(LAT, LON);
+        verify(client).removeGeofences(Arrays.asList(GeofenceManager.REBALANCE_ID));
+    }
+
+    /**
+     * Description: After a reboot the nearest reminders are registered again from the last
+     * rebalance centre, in one request, together with the rebalance geofence.
+     */
+    @Test
+    public void restoreRegistersTheNearestAgainInOneBatch() {
+        List<String> ids = new ArrayList<>();
+        for (double km : new double[]{1, 2, 3, 10}) ids.add("note-" + reminderAt(km));
+        scheduler.rebalance(LAT, LON);
+
+        reset(client);
+        when(client.addGeofences(any(GeofencingRequest.class), any(PendingIntent.class)))
+                .thenReturn(Tasks.forResult(null));
+        scheduler.restore();
+
+        assertEquals(new HashSet<>(ids.subList(0, 3)), registered());
+        ArgumentCaptor<GeofencingRequest> requests = ArgumentCaptor.forClass(GeofencingRequest.class);
+        verify(client, times(2)).addGeofences(requests.capture(), any(PendingIntent.class));
+        Set<String> restored = new HashSet<>();
+        for (GeofencingRequest r : requests.getAllValues()) {
+            if (GeofenceManager.REBALANCE_ID.equals(r.getGeofences().get(0).getRequestId())) continue;
+            assertEquals(3, r.getGeofences().size());
+            for (Geofence g : r.getGeofences()) restored.add(g.getRequestId());
+        }
+        assertEquals(new HashSet<>(ids.subList(0, 3)), restored);
+    }
+
+    /**
+     * Description: A note placed on nearly the same circle as another joins its geofence
+     * without a new registration, and the geofence is only removed with its last note.
+     */
+    @Test
+    public void notesAtTheSamePlaceShareAGeofence() {
+        NoteRepository repository = new NoteRepository(noteDao);
+        long first = repository.createOrUpdate(null, "Office 1", "<p>x</p>", null, null, false);
+        long second = repository.createOrUpdate(null, "Office 2", "<p>x</p>", null, null, false);
+        long elsewhere = repository.createOrUpdate(null, "Home", "<p>x</p>", null, null, false);
+        PlaceSelection office = new PlaceSelection(LAT, LON, 150f, "Office");
+        // 10 m north: within the merge tolerance
+        PlaceSelection officeDoor = new PlaceSelection(LAT + 10 / GeoHash.METERS_PER_DEGREE, LON, 150f, "Door");
+
+        schedule(first, office);
+        schedule(second, officeDoor);
+        schedule(elsewhere, new PlaceSelection(LAT + 0.1, LON, 150f, "Home"));
+        verify(client, times(2)).addGeofences(any(GeofencingRequest.class), any(PendingIntent.class));
+
+        String shared = noteDao.getById(first).geofenceId;
+        assertEquals(shared, noteDao.getById(second).geofenceId);
+        assertNotEquals(shared, noteDao.getById(elsewhere).geofenceId);
+        assertEquals(2, noteDao.getByGeofenceIds(Collections.singletonList(shared)).size());
+        assertTrue(noteDao.getById(second).geofenceRegistered);
+
+        noteDao.clearReminder(first, System.currentTimeMillis());
+        scheduler.release(shared);
+        verify(client, never()).removeGeofences(anyList());
+        noteDao.clearReminder(second, System.currentTimeMillis());
+        scheduler.release(shared);
+        verify(client).removeGeofences(Arrays.asList(shared));
+    }
+
+    /**
+     * Description: Moving a note's geofence reminder to another place registers a geofence
+     * there and removes the old one, rather than keeping the note on its old geofence.
+     */
+    @Test
+    public void movingANoteRegistersItsNewPlace() {
+        long id = new NoteRepository(noteDao).createOrUpdate(null, "Office", "<p>x</p>", null, null, false);
+        schedule(id, new PlaceSelection(LAT, LON, 150f, "Office"));
+        String old = noteDao.getById(id).geofenceId;
+
+        // what confirmReplaceWithGeofence does after scheduling
+        schedule(id, new PlaceSelection(LAT + 0.1, LON, 150f, "Home"));
+        scheduler.release(old);
+
+        String moved = noteDao.getById(id).geofenceId;
+        assertNotEquals(old, moved);
+        assertEquals(Collections.singleton(moved), registered());
+        verify(client, times(2)).addGeofences(any(GeofencingRequest.class), any(PendingIntent.class));
+        verify(client).removeGeofences(Arrays.asList(old));
+    }
+
+    /**
+     * Description: A note that joins a geofence doesn't move it: the next note is measured
+     * against the centre the geofence was registered at, so notes can't chain one geofence
+     * along a street, and a rebalance registers it at that centre.
+     */
+    @Test
+    public void joiningDoesNotMoveTheGeofence() {
+        NoteRepository repository = new NoteRepository(noteDao);
+        long first = repository.createOrUpdate(null, "Gate", "<p>x</p>", null, null, false);
+        long second = repository.createOrUpdate(null, "Lobby", "<p>x</p>", null, null, false);
+        long third = repository.createOrUpdate(null, "Lift", "<p>x</p>", null, null, false);
+        double metre = 1 / GeoHash.METERS_PER_DEGREE;
+
+        schedule(first, new PlaceSelection(LAT, LON, 150f, "Gate"));
+        // 20 m on: joins; 40 m on is 20 m from the second note but 40 m from the centre
+        schedule(second, new PlaceSelection(LAT + 20 * metre, LON, 150f, "Lobby"));
+        schedule(third, new PlaceSelection(LAT + 40 * metre, LON, 150f, "Lift"));
+
+        String gate = noteDao.getById(first).geofenceId;
+        assertEquals(gate, noteDao.getById(second).geofenceId);
+        assertNotEquals(gate, noteDao.getById(third).geofenceId);
+
+        noteDao.clearGeofenceSlots();
+        reset(client);
+        when(client.addGeofences(any(GeofencingRequest.class), any(PendingIntent.class)))
+                .thenReturn(Tasks.forResult(null));
+        when(client.removeGeofences(anyList())).thenReturn(Tasks.forResult(null));
+        scheduler.rebalance(LAT, LON);
+        ArgumentCaptor<GeofencingRequest> requests = ArgumentCaptor.forClass(GeofencingRequest.class);
+        verify(client).addGeofences(requests.capture(), any(PendingIntent.class));
+        for (Geofence g : requests.getValue().getGeofences()) {
+            if (!gate.equals(g.getRequestId())) continue;
+            assertEquals(LAT, g.getLatitude(), 1e-9);
+            return;
+        }
+        fail("shared geofence not registered");
+    }
+}
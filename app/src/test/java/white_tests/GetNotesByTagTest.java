@@ -7,7 +7,7 @@ import androidx.test.core.app.ApplicationProvider;
 
 import com.example.anchornotes.data.db.AppDatabase;
 import com.example.anchornotes.data.db.NoteDao;
-import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.db.NoteSummary;
 import com.example.anchornotes.data.db.NoteTagCrossRef;
 import com.example.anchornotes.data.db.NoteTagCrossRefDao;
 import com.example.anchornotes.data.db.TagDao;
@@ -92,7 +92,7 @@ public class GetNotesByTagTest {
         List<Long> workTagIds = new ArrayList<>();
         workTagIds.add(workTagId);
         
-        List<NoteEntity> results = searchRepository.search(
+        List<NoteSummary> results = searchRepository.search(
                 null, // no text query
                 workTagIds,
                 null, null, null, null, null // no other filters
@@ -107,7 +107,7 @@ public class GetNotesByTagTest {
         boolean foundBothNote = false;
         boolean foundPersonalNote = false;
         
-        for (NoteEntity note : results) {
+        for (NoteSummary note : results) {
             if (note.id == workNoteId) foundWorkNote = true;
             if (note.id == bothNoteId) foundBothNote = true;
             if (note.id == personalNoteId) foundPersonalNote = true;
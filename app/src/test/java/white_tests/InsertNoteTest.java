@@ -78,5 +78,38 @@ public class InsertNoteTest {
         assertEquals("Note title should match", "Test Note", found.title);
         assertEquals("Note body should match", "Test content", found.bodyHtml);
     }
-}
 
+    /**
+     * NoteRepository.updateNote KeepsReminderAndLocation
+     *
+     * Description: Saving an edited note keeps its repeating reminder, geofence and location,
+     * which the editor doesn't pass back
+     */
+    @Test
+    public void updateNote_keepsReminderAndLocation() {
+        long timed = repository.createOrUpdate(null, "Standup", "Daily", null, null, false);
+        noteDao.setRepeatingReminderTime(timed, 1_900_000_000_000L, "FREQ=DAILY", 1L);
+        noteDao.updateLocation(timed, 48.85, 2.35, "Office", 1L);
+        long placed = repository.createOrUpdate(null, "Badge", "At the door", null, null, false);
+        noteDao.setReminderGeofence(placed, "place-a", 48.85, 2.35, 150f, 1L);
+
+        repository.createOrUpdate(timed, "Standup notes", "Daily at ten", null, null, true);
+        repository.createOrUpdate(placed, "Badge", "At the front door", null, null, false);
+
+        NoteEntity t = noteDao.getById(timed);
+        assertEquals("Standup notes", t.title);
+        assertTrue(t.pinned);
+        assertEquals("TIME", t.reminderType);
+        assertEquals(Long.valueOf(1_900_000_000_000L), t.reminderAt);
+        assertEquals("FREQ=DAILY", t.reminderRule);
+        assertEquals(48.85, t.latitude, 0.0);
+        assertEquals("Office", t.locationLabel);
+        assertNotNull(t.geohash);
+
+        NoteEntity p = noteDao.getById(placed);
+        assertEquals("At the front door", p.bodyHtml);
+        assertEquals("GEOFENCE", p.reminderType);
+        assertEquals("place-a", p.geofenceId);
+        assertEquals(150f, p.geofenceRadius, 0f);
+    }
+}
@@ -0,0 +1,208 @@
+package white_tests;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.search.InvertedIndex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class InvertedIndexTest {
+
+    private static final String ORDER_KEYS_SQL = "SELECT pinned, updatedAt, id FROM notes";
+
+    private AppDatabase database;
+    private NoteRepository repository;
+    /**
+     * Stands in for the maintenance lane, so the test decides when the index builds.
+     * Room's invalidation callbacks arrive on its own threads and may add refreshes here.
+     */
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private InvertedIndex index;
+    /** SQL run against the database, from any thread. */
+    private final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .setQueryCallback((sql, args) -> statements.add(sql), Runnable::run)
+                .build();
+        index = new InvertedIndex(database, database.noteDao(), pending::add);
+        repository = new NoteRepository(database.noteDao(), database.relevantDao(), context, index);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private void runPending() {
+        Runnable r;
+        while ((r = pending.poll()) != null) r.run();
+    }
+
+    /** Runs queued index work until the index answers {@code f} (it declines while refreshing). */
+    private long[] searchWhenReady(NoteSearchFilter f) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            runPending();
+            long[] ids = index.searchIds(f);
+            if (ids != null) return ids;
+            Thread.sleep(20);
+        }
+        fail("index never became ready");
+        return null;
+    }
+
+    private static NoteSearchFilter query(String q) {
+        NoteSearchFilter f = new NoteSearchFilter();
+        f.query = q;
+        return f;
+    }
+
+    /**
+     * Description: The index builds lazily on first use, then answers prefix, accent- and
+     * case-insensitive queries in home list order (pinned first, then newest).
+     */
+    @Test
+    public void buildsLazilyAndMatchesPrefixesInListOrder() throws InterruptedException {
+        long older = repository.createOrUpdate(null, "Team meeting", "<p>Agenda</p>", null, null, false);
+        long pinned = repository.createOrUpdate(null, "Caf\u00e9 plans", "<p>Meet Sam</p>", null, null, true);
+        repository.createOrUpdate(null, "Groceries", "<p>Milk</p>", null, null, false);
+        long newer = repository.createOrUpdate(null, "Meetup", "<p>Bring slides</p>", null, null, false);
+
+        assertNull("not built yet", index.searchIds(query("meet")));
+
+        long[] ids = searchWhenReady(query("MEET"));
+        assertEquals(pinned, ids[0]);
+        List<Long> rest = new ArrayList<>();
+        for (int i = 1; i < ids.length; i++) rest.add(ids[i]);
+        assertEquals(2, rest.size());
+        assertTrue(rest.contains(older) && rest.contains(newer));
+
+        long[] cafe = searchWhenReady(query("cafe mee"));
+        assertArrayEquals(new long[]{pinned}, cafe);
+    }
+
+    /**
+     * Description: Filters the index can't evaluate (tags, dates, attachments) are left to SQL.
+     */
+    @Test
+    public void nonTextFiltersFallBackToSql() throws InterruptedException {
+        repository.createOrUpdate(null, "Meeting", "<p>Notes</p>", null, null, false);
+        assertEquals(1, searchWhenReady(query("meeting")).length);
+
+        NoteSearchFilter f = query("meeting");
+        f.hasPhoto = true;
+        assertNull(index.searchIds(f));
+    }
+
+    /**
+     * Description: Edits and deletes through NoteRepository are reflected in search results,
+     * whether the index or SQL ends up answering.
+     */
+    @Test
+    public void editsAndDeletesAreVisibleToSearch() throws InterruptedException {
+        long id = repository.createOrUpdate(null, "Draft", "<p>Quarterly report</p>", null, null, false);
+        searchWhenReady(query("report"));
+
+        NoteSearchRepository search = new NoteSearchRepository(database.noteSearchDao(), database, null, index);
+        repository.createOrUpdate(id, "Draft", "<p>Annual summary</p>", null, null, false);
+        runPending();
+        assertTrue(search.search(query("report"), null, 20).isEmpty());
+        List<NoteSummary> hits = search.search(query("annual"), null, 20);
+        assertEquals(1, hits.size());
+        assertEquals(id, hits.get(0).id);
+
+        repository.delete(id);
+        runPending();
+        assertTrue(search.search(query("annual"), null, 20).isEmpty());
+    }
+
+    /**
+     * Description: The index gives the same results as SQL: every word must start a word of
+     * the note, and a fragment inside a word matches only as the whole query.
+     */
+    @Test
+    public void matchesLikeTheSqlSearch() throws InterruptedException {
+        long part = repository.createOrUpdate(null, "Order", "<p>Valve RM-4B17</p>", null, null, false);
+        long infixes = repository.createOrUpdate(null, "Words", "<p>xfoo ybar</p>", null, null, false);
+        long words = repository.createOrUpdate(null, "More", "<p>foo bar</p>", null, null, false);
+        NoteSearchRepository sql = new NoteSearchRepository(database.noteSearchDao(), database, null);
+
+        for (String q : new String[]{"foo bar", "b17", "m-4b", "foo", "oo b", "valve b1"}) {
+            long[] fromIndex = searchWhenReady(query(q));
+            List<Long> fromSql = new ArrayList<>();
+            for (NoteSummary n : sql.search(query(q), null, 20)) fromSql.add(n.id);
+            List<Long> indexed = new ArrayList<>();
+            for (long id : fromIndex) indexed.add(id);
+            assertEquals(q, fromSql, indexed);
+        }
+        assertArrayEquals(new long[]{words}, searchWhenReady(query("foo bar")));
+        assertArrayEquals(new long[]{part}, searchWhenReady(query("b17")));
+        assertArrayEquals(new long[]{infixes}, searchWhenReady(query("foo yb")));
+    }
+
+    /**
+     * Description: A fragment inside a word is matched from the index's own trigrams and
+     * text, without running a query.
+     */
+    @Test
+    public void substringSearchRunsNoQuery() throws InterruptedException {
+        long part = repository.createOrUpdate(null, "Order", "<p>Valve RM-4B17</p>", null, null, false);
+        searchWhenReady(query("valve"));
+
+        statements.clear();
+        assertArrayEquals(new long[]{part}, index.searchIds(query("4b1")));
+        assertArrayEquals(new long[0], index.searchIds(query("4b2")));
+        assertTrue(statements.toString(), statements.isEmpty());
+    }
+
+    /**
+     * Description: Pins and location changes made through NoteRepository update the index in
+     * place, and a write to other columns is told apart by one stamp query; only a write that
+     * moved notes behind the index's back reloads every order key.
+     */
+    @Test
+    public void onlyUnreportedOrderChangesReloadTheOrder() throws InterruptedException {
+        long first = repository.createOrUpdate(null, "Meeting A", "<p>Agenda</p>", null, null, false);
+        long second = repository.createOrUpdate(null, "Meeting B", "<p>Agenda</p>", null, null, false);
+        database.getInvalidationTracker().refreshVersionsSync();
+        searchWhenReady(query("meeting"));
+
+        statements.clear();
+        repository.setPinned(first, true);
+        repository.setLocation(second, 1.0, 2.0, "Office");
+        database.noteDao().setPendingActivation(first, true);
+        database.getInvalidationTracker().refreshVersionsSync();
+        assertArrayEquals(new long[]{first, second}, searchWhenReady(query("meeting")));
+        assertFalse(statements.toString(), statements.contains(ORDER_KEYS_SQL));
+
+        database.noteDao().setPinned(second, true, System.currentTimeMillis() + 60_000);
+        database.getInvalidationTracker().refreshVersionsSync();
+        assertNull("stale until reconciled", index.searchIds(query("meeting")));
+        assertArrayEquals(new long[]{second, first}, searchWhenReady(query("meeting")));
+        assertTrue(statements.contains(ORDER_KEYS_SQL));
+    }
+}
@@ -0,0 +1,135 @@
+package white_tests;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.PageKey;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.search.SearchResultCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:
+ * Pages of the home list and of search results continue strictly after the last row shown,
+ * by (pinned, updatedAt, id). Notes saved in the same millisecond are neither repeated nor
+ * skipped, wherever a page boundary falls among them.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class KeysetPagingTest {
+
+    private static final long T = 1_700_000_000_000L;
+
+    private AppDatabase database;
+    private NoteRepository repository;
+    /** Ids in list order: pinned first, then newest, then highest id. */
+    private List<Long> expected;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        repository = new NoteRepository(database.noteDao());
+
+        long[] ids = new long[7];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = repository.createOrUpdate(null, "Note " + i, "<p>Same day</p>", null, null, i < 2);
+        }
+        // two pinned notes and four others saved at the same instant, one older note
+        database.getOpenHelper().getWritableDatabase().execSQL(
+                "UPDATE notes SET updatedAt = CASE WHEN id = ? THEN ? ELSE ? END",
+                new Object[]{ids[6], T - 1, T});
+        expected = Arrays.asList(ids[1], ids[0], ids[5], ids[4], ids[3], ids[2], ids[6]);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private interface Pager {
+        List<NoteSummary> page(PageKey after, int limit);
+    }
+
+    /** Walks every page of {@code limit} rows and returns the ids in the order they came. */
+    private static List<Long> walk(Pager pager, int limit) {
+        List<Long> seen = new ArrayList<>();
+        PageKey after = null;
+        for (int pages = 0; pages < 20; pages++) {
+            List<NoteSummary> page = pager.page(after, limit);
+            assertTrue(page.size() <= limit);
+            for (NoteSummary n : page) seen.add(n.id);
+            if (page.size() < limit) return seen;
+            after = PageKey.after(page.get(page.size() - 1));
+        }
+        fail("paging never ended");
+        return seen;
+    }
+
+    private static NoteSearchFilter query(String q) {
+        NoteSearchFilter f = new NoteSearchFilter();
+        f.query = q;
+        return f;
+    }
+
+    /**
+     * Description: The home list pages through equal timestamps with every page size,
+     * including boundaries inside a run of equal keys and at the pinned/unpinned switch.
+     */
+    @Test
+    public void homeListPagesThroughEqualTimestamps() {
+        for (int limit = 1; limit <= expected.size() + 1; limit++) {
+            assertEquals("limit " + limit, expected, walk(repository::getPage, limit));
+        }
+    }
+
+    /**
+     * Description: Search pages the same way, from SQL and from a cached id list.
+     */
+    @Test
+    public void searchPagesThroughEqualTimestamps() {
+        NoteSearchRepository sql = new NoteSearchRepository(database.noteSearchDao(), database, null);
+        NoteSearchRepository cached = new NoteSearchRepository(database.noteSearchDao(), database,
+                new SearchResultCache(database));
+        for (int limit = 1; limit <= 3; limit++) {
+            assertEquals("sql, limit " + limit, expected,
+                    walk((after, n) -> sql.search(query("note"), after, n), limit));
+            assertEquals("cached, limit " + limit, expected,
+                    walk((after, n) -> cached.search(query("note"), after, n), limit));
+        }
+    }
+
+    /**
+     * Description: A page after the last row is empty, and a key whose row was deleted
+     * still continues from its place in the order.
+     */
+    @Test
+    public void pageAfterTheEndOrADeletedRow() {
+        List<NoteSummary> all = repository.getPage(null, expected.size());
+        assertTrue(repository.getPage(PageKey.after(all.get(all.size() - 1)), 5).isEmpty());
+
+        PageKey afterThird = PageKey.after(all.get(2));
+        database.noteDao().delete(database.noteDao().getById(expected.get(2)));
+        List<Long> rest = new ArrayList<>();
+        for (NoteSummary n : repository.getPage(afterThird, 10)) rest.add(n.id);
+        assertEquals(expected.subList(3, expected.size()), rest);
+    }
+}
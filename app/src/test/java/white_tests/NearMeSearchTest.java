@@ -0,0 +1,107 @@
+package white_tests;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteDao;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.search.GeoHash;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class NearMeSearchTest {
+
+    private static final double LAT = 34.0224;
+    private static final double LON = -118.2851;
+
+    private AppDatabase database;
+    private NoteDao noteDao;
+    private NoteRepository repository;
+    private NoteSearchRepository search;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        noteDao = database.noteDao();
+        repository = new NoteRepository(noteDao);
+        search = new NoteSearchRepository(database.noteSearchDao(), database, null);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    /** A note placed {@code metersNorth} north of the test point. */
+    private long noteAt(String title, double metersNorth) {
+        long id = repository.createOrUpdate(null, title, "<p>" + title + "</p>", null, null, false);
+        noteDao.updateLocation(id, LAT + metersNorth / GeoHash.METERS_PER_DEGREE, LON, title, System.currentTimeMillis());
+        return id;
+    }
+
+    private List<Long> near(double radiusMeters) {
+        NoteSearchFilter f = new NoteSearchFilter();
+        f.nearLatitude = LAT;
+        f.nearLongitude = LON;
+        f.nearRadiusMeters = (float) radiusMeters;
+        List<Long> ids = new ArrayList<>();
+        for (NoteSummary n : search.search(f, null, 50)) ids.add(n.id);
+        return ids;
+    }
+
+    /**
+     * Description: Only notes inside the radius are returned, including ones in a neighbouring
+     * geohash cell; notes without a location never match.
+     */
+    @Test
+    public void onlyNotesInsideTheRadiusMatch() {
+        long here = noteAt("Here", 0);
+        long close = noteAt("Close", 300);
+        long far = noteAt("Far", 700);
+        long nowhere = repository.createOrUpdate(null, "Nowhere", "<p>x</p>", null, null, false);
+
+        List<Long> ids = near(500);
+        assertTrue(ids.contains(here));
+        assertTrue(ids.contains(close));
+        assertFalse(ids.contains(far));
+        assertFalse(ids.contains(nowhere));
+
+        assertTrue(near(1_000).contains(far));
+    }
+
+    /**
+     * Description: Moving or clearing a note's location updates its geohash, so the note
+     * leaves the old area's results.
+     */
+    @Test
+    public void movingANoteUpdatesItsGeohash() {
+        long id = noteAt("Moved", 100);
+        assertTrue(near(500).contains(id));
+
+        noteDao.updateLocation(id, LAT + 1, LON, "Elsewhere", System.currentTimeMillis());
+        assertFalse(near(500).contains(id));
+        assertEquals(GeoHash.encode(LAT + 1, LON), noteDao.getById(id).geohash);
+
+        noteDao.updateLocation(id, null, null, null, System.currentTimeMillis());
+        assertNull(noteDao.getById(id).geohash);
+    }
+}
@@ -0,0 +1,85 @@
+package white_tests;
+
+import com.example.anchornotes.data.search.NoteIdBitmap;
+
+import org.junit.Test;
+
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class NoteIdBitmapTest {
+
+    private static NoteIdBitmap of(Iterable<Long> ids) {
+        NoteIdBitmap b = new NoteIdBitmap();
+        for (long id : ids) b.add(id);
+        return b;
+    }
+
+    private static long[] toArray(TreeSet<Long> ids) {
+        long[] out = new long[ids.size()];
+        int i = 0;
+        for (long id : ids) out[i++] = id;
+        return out;
+    }
+
+    /**
+     * Description: AND, OR and AND-NOT agree with plain sets, for sparse and dense chunks
+     * and ids spread over several chunks.
+     */
+    @Test
+    public void setOperationsMatchPlainSets() {
+        TreeSet<Long> evens = new TreeSet<>();
+        TreeSet<Long> thirds = new TreeSet<>();
+        for (long id = 0; id < 200_000; id += 2) evens.add(id);   // dense chunks
+        for (long id = 0; id < 200_000; id += 300) thirds.add(id); // sparse chunks
+        thirds.add(0xFFFF_FFFFL); // top of the range
+        NoteIdBitmap a = of(evens);
+        NoteIdBitmap b = of(thirds);
+
+        TreeSet<Long> and = new TreeSet<>(evens);
+        and.retainAll(thirds);
+        TreeSet<Long> or = new TreeSet<>(evens);
+        or.addAll(thirds);
+        TreeSet<Long> andNot = new TreeSet<>(evens);
+        andNot.removeAll(thirds);
+
+        assertArrayEquals(toArray(and), NoteIdBitmap.and(a, b).toArray());
+        assertArrayEquals(toArray(or), NoteIdBitmap.or(a, b).toArray());
+        assertArrayEquals(toArray(andNot), NoteIdBitmap.andNot(a, b).toArray());
+        assertEquals(evens.size(), a.cardinality());
+    }
+
+    /**
+     * Description: A chunk keeps every id when it grows past the array limit and shrinks
+     * back, and removing the last id empties the bitmap.
+     */
+    @Test
+    public void chunkSurvivesGrowingAndShrinking() {
+        NoteIdBitmap b = new NoteIdBitmap();
+        for (long id = 1; id <= 10_000; id++) assertTrue(b.add(id));
+        assertFalse(b.add(5_000));
+        assertEquals(10_000, b.cardinality());
+
+        for (long id = 1; id <= 10_000; id++) {
+            if (id % 10 != 0) assertTrue(b.remove(id));
+        }
+        assertEquals(1_000, b.cardinality());
+        assertTrue(b.contains(10_000));
+        assertFalse(b.contains(9_999));
+
+        for (long id = 10; id <= 10_000; id += 10) b.remove(id);
+        assertTrue(b.isEmpty());
+    }
+
+    /**
+     * Description: Ids outside 32 bits are rejected on add and never reported as present.
+     */
+    @Test
+    public void idsOutOfRangeAreRejected() {
+        NoteIdBitmap b = new NoteIdBitmap();
+        assertFalse(NoteIdBitmap.fits(1L << 32));
+        assertFalse(b.contains(-1));
+        assertThrows(IllegalArgumentException.class, () -> b.add(1L << 32));
+    }
+}
@@ -0,0 +1,115 @@
+package white_tests;
+
+import android.content.Context;
+
+import androidx.arch.core.executor.testing.InstantTaskExecutorRule;
+import androidx.room.Room;
+
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.db.RelevantNoteEntity;
+import com.example.anchornotes.data.db.RelevantNoteSummary;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.util.NoteText;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:
+ * List rows load a NoteSummary: the short preview instead of the body, and for the relevant
+ * section the summary and its expiry from one join.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteSummaryTest {
+
+    @Rule
+    public InstantTaskExecutorRule instantTaskExecutorRule = new InstantTaskExecutorRule();
+
+    private AppDatabase database;
+    private NoteRepository repository;
+    /** SQL statements run against the database, in order. */
+    private final List<String> statements = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .setQueryCallback((sql, args) -> statements.add(sql), Runnable::run)
+                .build();
+        repository = new NoteRepository(database.noteDao());
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < n; i++) b.append(s);
+        return b.toString();
+    }
+
+    /**
+     * Description: A list row carries the preview cut at PREVIEW_LENGTH, not the long body.
+     */
+    @Test
+    public void listRowsCarryTheCutPreview() {
+        String body = repeat("word ", NoteText.PREVIEW_LENGTH);
+        long id = repository.createOrUpdate(null, "Long", "<p>" + body + "</p>", null, null, false);
+
+        List<NoteSummary> page = database.noteDao().getFirstPage(10);
+        assertEquals(1, page.size());
+        NoteSummary row = page.get(0);
+        assertEquals(id, row.id);
+        assertEquals("Long", row.title);
+        assertEquals(NoteText.preview(body.trim()), row.preview);
+        assertTrue(row.preview.length() <= NoteText.PREVIEW_LENGTH + 1);
+    }
+
+    /**
+     * Description: The relevant section reads the summaries of unexpired relevant notes,
+     * soonest expiry first, in one query rather than one per note.
+     */
+    @Test
+    public void relevantNotesLoadInOneJoin() {
+        long now = System.currentTimeMillis();
+        long office = repository.createOrUpdate(null, "Office", "<p>Badge</p>", null, null, false);
+        long shop = repository.createOrUpdate(null, "Shop", "<p>Milk</p>", null, null, false);
+        long old = repository.createOrUpdate(null, "Old", "<p>Gone</p>", null, null, false);
+        database.relevantDao().upsertAll(Arrays.asList(
+                new RelevantNoteEntity(office, now + 120_000),
+                new RelevantNoteEntity(shop, now + 60_000),
+                new RelevantNoteEntity(old, now - 1)));
+        statements.clear();
+
+        List<List<RelevantNoteSummary>> seen = new ArrayList<>();
+        database.relevantDao().liveRelevantNotes(now).observeForever(seen::add);
+
+        assertEquals(1, seen.size());
+        List<RelevantNoteSummary> rows = seen.get(0);
+        assertEquals(2, rows.size());
+        assertEquals(shop, rows.get(0).note.id);
+        assertEquals("Milk", rows.get(0).note.preview);
+        assertEquals(now + 60_000, rows.get(0).expiresAt);
+        assertEquals(office, rows.get(1).note.id);
+        long reads = statements.stream()
+                .filter(s -> s.trim().startsWith("SELECT") && s.contains("notes"))
+                .count();
+        assertEquals(statements.toString(), 1, reads);
+    }
+}
@@ -0,0 +1,91 @@
+package white_tests;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.util.NoteText;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:
+ * The plain text and preview stored with a note: markup stripped, entities decoded, blocks
+ * and line breaks turned into single spaces, and the preview cut to PREVIEW_LENGTH.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteTextTest {
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /**
+     * Description: Tags, entities, images and whitespace are normalized to one line of text.
+     */
+    @Test
+    public void htmlBecomesOneLineOfText() {
+        assertEquals("", NoteText.toPlainText(null));
+        assertEquals("", NoteText.toPlainText(""));
+        assertEquals("Buy milk", NoteText.toPlainText("<p>Buy <b>milk</b></p>"));
+        assertEquals("First Second Third",
+                NoteText.toPlainText("<p>First</p><p>Second<br>Third</p>"));
+        assertEquals("Tom & Jerry <3", NoteText.toPlainText("Tom &amp; Jerry &lt;3"));
+        assertEquals("Before after", NoteText.toPlainText("<p>Before <img src=\"x.png\"> after</p>"));
+        assertEquals("a b", NoteText.toPlainText("  a \n\t\n  b  "));
+        assertEquals("", NoteText.toPlainText("<p></p><br><img src=\"x.png\">"));
+    }
+
+    /**
+     * Description: Short text is its own preview; longer text is cut at PREVIEW_LENGTH,
+     * without a trailing space, and ellipsized.
+     */
+    @Test
+    public void previewIsCutAndEllipsized() {
+        String exact = repeat('a', NoteText.PREVIEW_LENGTH);
+        assertEquals("", NoteText.preview(""));
+        assertEquals(exact, NoteText.preview(exact));
+        assertEquals(exact + "\u2026", NoteText.preview(exact + "b"));
+
+        String spaceAtCut = repeat('a', NoteText.PREVIEW_LENGTH - 1) + " bbb";
+        assertEquals(repeat('a', NoteText.PREVIEW_LENGTH - 1) + "\u2026", NoteText.preview(spaceAtCut));
+    }
+
+    /**
+     * Description: Saving a note stores both derived columns, and an edit replaces them.
+     */
+    @Test
+    public void savedNotesStoreTextAndPreview() {
+        Context context = RuntimeEnvironment.getApplication();
+        AppDatabase database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        try {
+            NoteRepository repository = new NoteRepository(database.noteDao());
+            long id = repository.createOrUpdate(null, "List", "<ul><li>Eggs</li><li>Flour</li></ul>", null, null, false);
+            NoteEntity saved = database.noteDao().getById(id);
+            assertEquals("Eggs Flour", saved.bodyText);
+            assertEquals("Eggs Flour", saved.previewText);
+
+            String longBody = "<p>" + repeat('x', NoteText.PREVIEW_LENGTH + 50) + "</p>";
+            repository.createOrUpdate(id, "List", longBody, null, null, false);
+            NoteEntity edited = database.noteDao().getById(id);
+            assertEquals(NoteText.PREVIEW_LENGTH + 50, edited.bodyText.length());
+            assertEquals(NoteText.preview(edited.bodyText), edited.previewText);
+        } finally {
+            database.close();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package white_tests;
+
+import android.os.Looper;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.ui.NotesAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Description:
+ * NotesAdapter builds its section rows and diffs them in the background, then applies only
+ * the changes: a list that differs in one note rebinds that row, and a pin change is a move.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NotesAdapterTest {
+
+    private NotesAdapter adapter;
+    /** Adapter notifications since the last {@link #awaitRows}; "all" is notifyDataSetChanged. */
+    private final List<String> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        adapter = new NotesAdapter(n -> {});
+        adapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override public void onChanged() { events.add("all"); }
+            @Override public void onItemRangeChanged(int start, int count) { events.add("change " + start + "+" + count); }
+            @Override public void onItemRangeChanged(int start, int count, Object payload) { onItemRangeChanged(start, count); }
+            @Override public void onItemRangeInserted(int start, int count) { events.add("insert " + start + "+" + count); }
+            @Override public void onItemRangeRemoved(int start, int count) { events.add("remove " + start + "+" + count); }
+            @Override public void onItemRangeMoved(int from, int to, int count) { events.add("move " + from + ">" + to); }
+        });
+    }
+
+    private static NoteSummary note(long id, String title, boolean pinned, long updatedAt) {
+        NoteSummary n = new NoteSummary();
+        n.id = id;
+        n.title = title;
+        n.pinned = pinned;
+        n.updatedAt = updatedAt;
+        n.preview = "";
+        return n;
+    }
+
+    private List<Long> rowIds() {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < adapter.getItemCount(); i++) ids.add(adapter.getItemId(i));
+        return ids;
+    }
+
+    /** Runs the main looper until the background row build and diff have been applied. */
+    private void awaitRows(List<Long> expected) throws InterruptedException {
+        for (int attempt = 0; attempt < 200; attempt++) {
+            shadowOf(Looper.getMainLooper()).idle();
+            if (rowIds().equals(expected)) return;
+            Thread.sleep(10);
+        }
+        assertEquals(expected, rowIds());
+    }
+
+    /**
+     * Description: Rows are the pinned section then the others, with stable ids (note ids,
+     * negative ids for headers); with nothing pinned there is a single "Notes" section.
+     */
+    @Test
+    public void sectionsHaveStableIds() throws InterruptedException {
+        assertTrue(adapter.hasStableIds());
+
+        adapter.submit(Arrays.asList(note(3, "Pinned", true, 30), note(2, "B", false, 20), note(1, "A", false, 10)));
+        awaitRows(Arrays.asList(-1L, 3L, -2L, 2L, 1L));
+        assertNotEquals(adapter.getItemViewType(0), adapter.getItemViewType(1));
+
+        adapter.submit(Arrays.asList(note(2, "B", false, 20), note(1, "A", false, 10)));
+        awaitRows(Arrays.asList(-2L, 2L, 1L));
+    }
+
+    /**
+     * Description: Resubmitting the list with one edited note rebinds only that row.
+     */
+    @Test
+    public void editRebindsOnlyThatRow() throws InterruptedException {
+        adapter.submit(Arrays.asList(note(3, "C", false, 30), note(2, "B", false, 20), note(1, "A", false, 10)));
+        awaitRows(Arrays.asList(-2L, 3L, 2L, 1L));
+        events.clear();
+
+        adapter.submit(Arrays.asList(note(3, "C", false, 30), note(2, "B edited", false, 20), note(1, "A", false, 10)));
+        for (int attempt = 0; attempt < 200 && events.isEmpty(); attempt++) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList("change 2+1"), events);
+    }
+
+    /**
+     * Description: Pinning a note, as the next DB load returns it, moves its row into the
+     * pinned section instead of refreshing the whole list.
+     */
+    @Test
+    public void pinShowsAsAMove() throws InterruptedException {
+        adapter.submit(Arrays.asList(note(4, "P", true, 40), note(3, "C", false, 30), note(2, "B", false, 20)));
+        awaitRows(Arrays.asList(-1L, 4L, -2L, 3L, 2L));
+        events.clear();
+
+        adapter.submit(Arrays.asList(note(2, "B", true, 50), note(4, "P", true, 40), note(3, "C", false, 30)));
+        awaitRows(Arrays.asList(-1L, 2L, 4L, -2L, 3L));
+
+        assertFalse(events.contains("all"));
+        assertTrue(events.toString(), events.stream().anyMatch(e -> e.startsWith("move ")));
+        assertFalse(events.toString(), events.stream().anyMatch(e -> e.startsWith("insert ") || e.startsWith("remove ")));
+    }
+}
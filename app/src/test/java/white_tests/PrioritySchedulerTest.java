@@ -0,0 +1,118 @@
+package white_tests;
+
+import com.example.anchornotes.util.PriorityScheduler;
+import com.example.anchornotes.util.PriorityScheduler.Lane;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class PrioritySchedulerTest {
+
+    /**
+     * Description: With the only worker busy, a queued UI read runs before earlier-queued
+     * writes and maintenance, and tasks in the same lane keep their submission order.
+     */
+    @Test
+    public void uiReadsJumpTheQueue() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler(1, "test");
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        scheduler.execute(Lane.MAINTENANCE, () -> {
+            try { gate.await(); } catch (InterruptedException ignored) {}
+        });
+        scheduler.execute(Lane.MAINTENANCE, () -> { order.add("cleanup"); done.countDown(); });
+        scheduler.execute(Lane.USER_WRITE, () -> { order.add("write1"); done.countDown(); });
+        scheduler.execute(Lane.USER_WRITE, () -> { order.add("write2"); done.countDown(); });
+        scheduler.execute(Lane.UI_READ, () -> { order.add("read1"); done.countDown(); });
+        scheduler.execute(Lane.UI_READ, () -> { order.add("read2"); done.countDown(); });
+        gate.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("read1", "read2", "write1", "write2", "cleanup"), order);
+    }
+
+    /**
+     * Description: Lane stats count completed tasks and report an empty queue afterwards.
+     */
+    @Test
+    public void statsTrackCompletedTasks() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler(2, "test");
+        CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            scheduler.execute(Lane.USER_WRITE, done::countDown);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        // countDown runs inside the task, so give the wrapper a moment to record it
+        long deadline = System.currentTimeMillis() + 2000;
+        while (scheduler.stats(Lane.USER_WRITE).completed < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        PriorityScheduler.LaneStats stats = scheduler.stats(Lane.USER_WRITE);
+        assertEquals(3, stats.completed);
+        assertEquals(0, stats.queued);
+        assertEquals(0, scheduler.stats(Lane.UI_READ).completed);
+    }
+
+    /**
+     * Description: A UI read only overtakes a queued write within the write's slack: a write
+     * that has waited longer than that runs first.
+     */
+    @Test
+    public void slackBoundsHowLongATaskIsOvertaken() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler(1, "test");
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+
+        scheduler.execute(Lane.MAINTENANCE, () -> {
+            try { gate.await(); } catch (InterruptedException ignored) {}
+        });
+        scheduler.execute(Lane.USER_WRITE, () -> { order.add("write"); done.countDown(); });
+        Thread.sleep(150); // past USER_WRITE's 100 ms slack
+        scheduler.execute(Lane.UI_READ, () -> { order.add("read"); done.countDown(); });
+        gate.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("write", "read"), order);
+    }
+
+    /**
+     * Description: A future cancelled while its task is still queued never runs its body,
+     * and the lane goes on with the next task.
+     */
+    @Test
+    public void cancelledQueuedTaskDoesNotRun() throws InterruptedException {
+        PriorityScheduler scheduler = new PriorityScheduler(1, "test");
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch next = new CountDownLatch(1);
+        AtomicBoolean ran = new AtomicBoolean();
+
+        scheduler.execute(Lane.UI_READ, () -> {
+            try { gate.await(); } catch (InterruptedException ignored) {}
+        });
+        CompletableFuture<String> stale = CompletableFuture.supplyAsync(() -> {
+            ran.set(true);
+            return "stale";
+        }, scheduler.executor(Lane.UI_READ));
+        scheduler.execute(Lane.UI_READ, next::countDown);
+
+        assertTrue(stale.cancel(false));
+        gate.countDown();
+
+        assertTrue(next.await(5, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+        assertTrue(stale.isCancelled());
+    }
+}
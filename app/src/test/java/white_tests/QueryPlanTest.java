@@ -0,0 +1,251 @@
+package white_tests;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.PageKey;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteDao;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.db.NoteTagCrossRef;
+import com.example.anchornotes.data.db.TagEntity;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.search.SearchResultCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the NoteDao and NoteSearchRepository queries, records the SQL Room actually executes
+ * and checks each statement's EXPLAIN QUERY PLAN for full scans.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class QueryPlanTest {
+
+    /** A scan of notes that doesn't go through an index reads every row. */
+    private static final Pattern NOTES_TABLE_SCAN = Pattern.compile("^SCAN (TABLE )?notes\\b(?!.*USING)");
+    /** The link tables are only ever looked up by key. */
+    private static final Pattern LINK_TABLE_SCAN = Pattern.compile("^SCAN (TABLE )?(note_tag_cross_ref|note_trigrams)\\b");
+    private static final Pattern TOUCHES_NOTES = Pattern.compile("\\b(notes|note_tag_cross_ref|note_trigrams)\\b");
+
+    private AppDatabase database;
+    private NoteDao noteDao;
+    private NoteRepository repository;
+    /** SQL -> bind args of the statements run while {@link #recording}. */
+    private final Map<String, List<Object>> statements = new LinkedHashMap<>();
+    private volatile boolean recording;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .addCallback(AppDatabase.PARTIAL_INDEXES)
+                .setQueryCallback((sql, args) -> {
+                    if (recording) statements.put(sql, new ArrayList<>(args));
+                }, Runnable::run)
+                .build();
+        noteDao = database.noteDao();
+        repository = new NoteRepository(noteDao);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private List<String> plan(String sql, List<Object> args) {
+        List<String> details = new ArrayList<>();
+        try (Cursor c = database.getOpenHelper().getWritableDatabase()
+                .query("EXPLAIN QUERY PLAN " + sql, args.toArray())) {
+            int detail = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) details.add(c.getString(detail));
+        }
+        return details;
+    }
+
+    /** Every recorded statement on the note tables whose plan scans a table instead of an index. */
+    private List<String> fullScans() {
+        recording = false;
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, List<Object>> e : statements.entrySet()) {
+            String sql = e.getKey().trim();
+            boolean dml = false;
+            for (String verb : new String[]{"SELECT", "UPDATE", "DELETE"}) {
+                dml |= sql.regionMatches(true, 0, verb, 0, verb.length());
+            }
+            if (!dml) continue;
+            if (!TOUCHES_NOTES.matcher(sql).find()) continue;
+            for (String step : plan(sql, e.getValue())) {
+                if (NOTES_TABLE_SCAN.matcher(step).find() || LINK_TABLE_SCAN.matcher(step).find()) {
+                    failures.add(step + "  <-  " + sql);
+                }
+            }
+        }
+        return failures;
+    }
+
+    private long[] seed() {
+        long meeting = repository.createOrUpdate(null, "Meeting", "<p>Agenda for the team meeting</p>", "content://p/1", null, true);
+        long errand = repository.createOrUpdate(null, "Errand", "<p>Buy valve RM-4B17</p>", null, "content://v/1", false);
+        noteDao.updateLocation(errand, 1.001, 2.0, "Shop", System.currentTimeMillis());
+        long tagA = database.tagDao().insert(new TagEntity("work"));
+        long tagB = database.tagDao().insert(new TagEntity("home"));
+        database.noteTagCrossRefDao().insert(new NoteTagCrossRef(meeting, tagA));
+        database.noteTagCrossRefDao().insert(new NoteTagCrossRef(errand, tagB));
+        return new long[]{meeting, errand, tagA, tagB};
+    }
+
+    /**
+     * Description: Every NoteDao query and update finds its rows through an index, and the
+     * home list pages are read in index order without sorting.
+     */
+    @Test
+    public void noteDaoQueriesUseIndexes() {
+        long[] ids = seed();
+        long now = System.currentTimeMillis();
+
+        recording = true;
+        noteDao.getAll();
+        noteDao.getFirstPage(20);
+        noteDao.getPageAfter(false, now, ids[1], 20);
+        noteDao.getIndexRowsAfter(0, 500);
+        noteDao.getIndexRowsByIds(Arrays.asList(ids[0], ids[1]));
+        noteDao.getOrderKeys();
+        noteDao.getOrderStamp();
+        noteDao.getById(ids[0]);
+        noteDao.getByIds(Arrays.asList(ids[0], ids[1]));
+        noteDao.setPinned(ids[0], false, now);
+        noteDao.updateLocation(ids[0], 1.0, 2.0, "Office", now);
+        noteDao.setReminderTime(ids[0], now + 60_000, now);
+        noteDao.setRepeatingReminderTime(ids[0], now + 60_000, "FREQ=DAILY", now);
+        noteDao.advanceReminder(ids[0], now + 120_000);
+        noteDao.setReminderGeofence(ids[1], "note-" + ids[1], 1.0, 2.0, 150f, now);
+        noteDao.getGeofenceTargets();
+        noteDao.getTimeRemindersAfter(now, ids[0], 100);
+        noteDao.countGeofences(false);
+        noteDao.clearGeofenceSlots();
+        noteDao.moveGeofenceSlots(Arrays.asList("note-" + ids[1]), Arrays.asList("note-" + ids[0]));
+        noteDao.getByGeofenceIds(Arrays.asList("note-" + ids[1], "template-home"));
+        noteDao.countNotesWithGeofence("note-" + ids[1]);
+        noteDao.clearReminder(ids[0], now);
+        noteDao.setPendingActivation(ids[1], true);
+        noteDao.getPendingActivationNotes();
+        noteDao.recordGeofenceFailures(Arrays.asList(ids[1]));
+        noteDao.markGeofencesActive(Arrays.asList(ids[1]));
+        noteDao.deleteTrigrams(ids[1]);
+        noteDao.delete(noteDao.getById(ids[1]));
+
+        List<String> failures = fullScans();
+        assertTrue("full scans:\n" + String.join("\n", failures), failures.isEmpty());
+
+        int pages = 0;
+        for (Map.Entry<String, List<Object>> e : statements.entrySet()) {
+            if (!e.getKey().contains("ORDER BY pinned DESC") || !e.getKey().contains("LIMIT")) continue;
+            pages++;
+            for (String step : plan(e.getKey(), e.getValue())) {
+                assertFalse("list page sorts: " + step, step.contains("TEMP B-TREE"));
+            }
+        }
+        assertEquals(2, pages);
+    }
+
+    /**
+     * Description: Search with text, substring, tag, date, flag and near filters, on first and
+     * later pages, with and without the result cache, never scans a whole table.
+     */
+    @Test
+    public void searchQueriesUseIndexes() {
+        long[] ids = seed();
+        NoteSearchRepository keyset = new NoteSearchRepository(database.noteSearchDao(), database, null);
+        NoteSearchRepository cached = new NoteSearchRepository(database.noteSearchDao(), database,
+                new SearchResultCache(database));
+
+        List<NoteSearchFilter> filters = new ArrayList<>();
+        NoteSearchFilter text = new NoteSearchFilter();
+        text.query = "meet";
+        filters.add(text);
+        NoteSearchFilter fragment = new NoteSearchFilter();
+        fragment.query = "b17";
+        filters.add(fragment);
+        NoteSearchFilter ranked = new NoteSearchFilter();
+        ranked.query = "agenda";
+        ranked.rankByRelevance = true;
+        filters.add(ranked);
+        NoteSearchFilter anyTag = new NoteSearchFilter();
+        anyTag.tagIds.addAll(Arrays.asList(ids[2], ids[3]));
+        filters.add(anyTag);
+        NoteSearchFilter allTags = new NoteSearchFilter(anyTag);
+        allTags.matchAllTags = true;
+        filters.add(allTags);
+        NoteSearchFilter notTag = new NoteSearchFilter();
+        notTag.excludedTagIds.add(ids[2]);
+        filters.add(notTag);
+        NoteSearchFilter dates = new NoteSearchFilter();
+        dates.fromDate = 0L;
+        dates.toDate = Long.MAX_VALUE;
+        filters.add(dates);
+        NoteSearchFilter photo = new NoteSearchFilter();
+        photo.hasPhoto = true;
+        filters.add(photo);
+        NoteSearchFilter voice = new NoteSearchFilter();
+        voice.hasVoice = true;
+        filters.add(voice);
+        NoteSearchFilter location = new NoteSearchFilter();
+        location.hasLocation = true;
+        filters.add(location);
+        NoteSearchFilter near = new NoteSearchFilter();
+        near.nearLatitude = 1.0;
+        near.nearLongitude = 2.0;
+        near.nearRadiusMeters = 500f;
+        filters.add(near);
+
+        recording = true;
+        for (NoteSearchFilter f : filters) {
+            for (NoteSearchRepository search : new NoteSearchRepository[]{keyset, cached}) {
+                List<NoteSummary> first = search.search(f, null, 1);
+                if (!first.isEmpty()) search.search(f, PageKey.after(first.get(0)), 1);
+            }
+        }
+        // extending a cached query narrows the earlier result instead of searching again
+        NoteSearchFilter longer = new NoteSearchFilter();
+        longer.query = "meeting";
+        cached.search(longer, null, 1);
+
+        List<String> failures = fullScans();
+        assertTrue("full scans:\n" + String.join("\n", failures), failures.isEmpty());
+    }
+
+    /**
+     * Description: The photo, voice, pending, reminder and geofence indexes are partial on a new
+     * database, so they only hold the rows their queries ask for.
+     */
+    @Test
+    public void flagIndexesArePartial() {
+        for (String name : new String[]{"index_notes_photo_order", "index_notes_voice_order",
+                "index_notes_pending", "index_notes_reminderAt", "index_notes_geofence"}) {
+            try (Cursor c = database.query("SELECT sql FROM sqlite_master WHERE type = 'index' AND name = ?",
+                    new Object[]{name})) {
+                assertTrue(name, c.moveToFirst());
+                assertTrue(name + ": " + c.getString(0), c.getString(0).contains("WHERE"));
+            }
+        }
+    }
+}
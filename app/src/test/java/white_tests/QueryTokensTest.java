@@ -0,0 +1,41 @@
+package white_tests;
+
+import com.example.anchornotes.data.search.QueryTokens;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class QueryTokensTest {
+
+    /**
+     * Description: A longer query that extends the previous one word by word is a refinement;
+     * changing an earlier word or dropping a word is not.
+     */
+    @Test
+    public void refinementFollowsPrefixRelationship() {
+        List<String> mee = QueryTokens.tokenize("mee");
+        assertTrue(QueryTokens.isRefinementOf(QueryTokens.tokenize("meet"), mee));
+        assertTrue(QueryTokens.isRefinementOf(QueryTokens.tokenize("Meeting agenda"), mee));
+        assertTrue(QueryTokens.isRefinementOf(QueryTokens.tokenize("meet agenda"), QueryTokens.tokenize("meet ag")));
+
+        assertFalse(QueryTokens.isRefinementOf(QueryTokens.tokenize("me"), mee));
+        assertFalse(QueryTokens.isRefinementOf(QueryTokens.tokenize("met"), mee));
+        assertFalse(QueryTokens.isRefinementOf(QueryTokens.tokenize("agenda"), QueryTokens.tokenize("meet agenda")));
+        assertFalse(QueryTokens.isRefinementOf(mee, QueryTokens.tokenize("")));
+    }
+
+    /**
+     * Description: In-memory matching is case- and accent-insensitive and treats every query
+     * word as a prefix, like the FTS index.
+     */
+    @Test
+    public void matchesAllIsPrefixAndAccentInsensitive() {
+        List<String> words = QueryTokens.tokenizeFolded("Caf\u00e9 meeting, room 4B");
+        assertTrue(QueryTokens.matchesAll(words, QueryTokens.tokenizeFolded("cafe meet")));
+        assertTrue(QueryTokens.matchesAll(words, QueryTokens.tokenizeFolded("4b")));
+        assertFalse(QueryTokens.matchesAll(words, QueryTokens.tokenizeFolded("meet lunch")));
+    }
+}
@@ -0,0 +1,111 @@
+package white_tests;
+
+import com.example.anchornotes.model.RecurrenceRule;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+
+import static org.junit.Assert.*;
+
+public class RecurrenceRuleTest {
+
+    private static final ZoneId ZONE = ZoneId.of("America/Los_Angeles");
+
+    private static long at(String localDateTime) {
+        return LocalDateTime.parse(localDateTime).atZone(ZONE).toInstant().toEpochMilli();
+    }
+
+    /**
+     * Description: A daily rule with an interval counts from the anchor, and a gap of years is
+     * a single step rather than a walk through the missed days.
+     */
+    @Test
+    public void dailyKeepsItsIntervalAcrossLongGaps() {
+        RecurrenceRule rule = RecurrenceRule.daily(3);
+        long anchor = at("2026-01-01T09:00");
+
+        assertEquals(at("2026-01-07T09:00"), rule.nextAfter(anchor, at("2026-01-05T10:00"), ZONE));
+        assertEquals(at("2026-01-04T09:00"), rule.nextAfter(anchor, anchor, ZONE));
+
+        long next = rule.nextAfter(anchor, at("2036-06-15T12:00"), ZONE);
+        LocalDateTime local = Instant.ofEpochMilli(next).atZone(ZONE).toLocalDateTime();
+        assertEquals(0, ChronoUnit.DAYS.between(LocalDateTime.parse("2026-01-01T09:00"), local) % 3);
+        assertTrue(next > at("2036-06-15T12:00"));
+        assertTrue(next <= at("2036-06-18T09:00"));
+    }
+
+    /**
+     * Description: A weekly rule on several days visits them in order and skips the weeks
+     * between intervals.
+     */
+    @Test
+    public void weeklyVisitsItsDaysEveryOtherWeek() {
+        RecurrenceRule rule = RecurrenceRule.weekly(2, DayOfWeek.MONDAY, DayOfWeek.THURSDAY);
+        long anchor = at("2026-01-01T08:30"); // a Thursday
+
+        long first = rule.nextAfter(anchor, anchor, ZONE);
+        assertEquals(at("2026-01-12T08:30"), first);
+        long second = rule.nextAfter(first, first, ZONE);
+        assertEquals(at("2026-01-15T08:30"), second);
+        assertEquals(at("2026-01-26T08:30"), rule.nextAfter(second, second, ZONE));
+    }
+
+    /**
+     * Description: A monthly day past the end of a month falls on its last day, and the month
+     * after goes back to the day asked for once the rule is anchored.
+     */
+    @Test
+    public void monthlyFallsOnTheLastDayOfShortMonths() {
+        long anchor = at("2026-01-31T18:00");
+        RecurrenceRule rule = RecurrenceRule.monthly(1, 0).anchoredAt(anchor, ZONE);
+        assertEquals("FREQ=MONTHLY;BYMONTHDAY=31;BYHOUR=18;BYMINUTE=0", rule.toString());
+
+        long feb = rule.nextAfter(anchor, anchor, ZONE);
+        assertEquals(at("2026-02-28T18:00"), feb);
+        assertEquals(at("2026-03-31T18:00"), rule.nextAfter(feb, feb, ZONE));
+
+        RecurrenceRule last = RecurrenceRule.parse("FREQ=MONTHLY;INTERVAL=2;BYMONTHDAY=-1");
+        assertEquals(at("2026-03-31T18:00"), last.nextAfter(anchor, anchor, ZONE));
+    }
+
+    /**
+     * Description: Occurrences keep their local time across a daylight saving change, and a
+     * rule ends at UNTIL.
+     */
+    @Test
+    public void keepsLocalTimeAndStopsAtUntil() {
+        RecurrenceRule rule = RecurrenceRule.parse("FREQ=DAILY;BYHOUR=9;BYMINUTE=0;UNTIL=20260309T000000Z");
+        long beforeDst = at("2026-03-07T09:00");
+        long afterDst = rule.nextAfter(beforeDst, beforeDst, ZONE);
+        assertEquals(at("2026-03-08T09:00"), afterDst);
+        assertEquals(23 * 60 * 60 * 1000L, afterDst - beforeDst);
+
+        assertEquals(-1, rule.nextAfter(afterDst, afterDst, ZONE));
+    }
+
+    /**
+     * Description: Rules round-trip through their stored form, and anything outside the
+     * supported subset is rejected instead of being silently misread.
+     */
+    @Test
+    public void parsesTheSupportedSubsetOnly() {
+        String stored = "FREQ=WEEKLY;INTERVAL=2;BYDAY=MO,WE,SU;BYHOUR=7;BYMINUTE=45;UNTIL=20271231T235959Z";
+        assertEquals(stored, RecurrenceRule.parse(stored).toString());
+        assertEquals("FREQ=DAILY", RecurrenceRule.parse("RRULE:freq=daily").toString());
+
+        for (String bad : new String[]{"FREQ=YEARLY", "FREQ=DAILY;COUNT=3", "FREQ=DAILY;BYDAY=MO",
+                "INTERVAL=2", "FREQ=WEEKLY;BYDAY=1MO", "FREQ=DAILY;INTERVAL=0"}) {
+            try {
+                RecurrenceRule.parse(bad);
+                fail(bad);
+            } catch (IllegalArgumentException expected) {
+                // rejected
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package white_tests;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.search.Bm25;
+import com.example.anchornotes.data.search.Snippets;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class RelevanceRankingTest {
+
+    /** matchinfo 'pcnalx' blob for one phrase over (title, body) in a table of {@code docs} rows. */
+    private static byte[] matchinfo(int docs, int titleLen, int bodyLen,
+                                    int titleHits, int bodyHits, int docsWithHit) {
+        int[] values = {
+                1, 2, docs,            // p, c, n
+                5, 100,                // a: average title / body length
+                titleLen, bodyLen,     // l
+                titleHits, titleHits, docsWithHit,  // x: title
+                bodyHits, bodyHits, docsWithHit     // x: body
+        };
+        ByteBuffer buf = ByteBuffer.allocate(values.length * 4).order(ByteOrder.nativeOrder());
+        for (int v : values) buf.putInt(v);
+        return buf.array();
+    }
+
+    /**
+     * Description: A title hit outscores the same hit in the body, more hits score higher,
+     * and a hit in a short body beats one in a long body.
+     */
+    @Test
+    public void scoresFollowBm25() {
+        double inTitle = Bm25.score(matchinfo(1000, 5, 100, 1, 0, 10), Bm25.NOTE_WEIGHTS);
+        double inBody = Bm25.score(matchinfo(1000, 5, 100, 0, 1, 10), Bm25.NOTE_WEIGHTS);
+        double inBodyTwice = Bm25.score(matchinfo(1000, 5, 100, 0, 2, 10), Bm25.NOTE_WEIGHTS);
+        double inLongBody = Bm25.score(matchinfo(1000, 5, 1000, 0, 1, 10), Bm25.NOTE_WEIGHTS);
+
+        assertTrue(inTitle > inBody);
+        assertTrue(inBodyTwice > inBody);
+        assertTrue(inBody > inLongBody);
+        assertTrue(inLongBody > 0);
+    }
+
+    /**
+     * Description: Rare terms are worth more than terms found in most rows.
+     */
+    @Test
+    public void rareTermsScoreHigher() {
+        double rare = Bm25.score(matchinfo(1000, 5, 100, 0, 1, 3), Bm25.NOTE_WEIGHTS);
+        double common = Bm25.score(matchinfo(1000, 5, 100, 0, 1, 900), Bm25.NOTE_WEIGHTS);
+        assertTrue(rare > common);
+    }
+
+    /**
+     * Description: A ranked search with filters orders the notes that pass them by score, and
+     * only those notes are read from the FTS index to be scored.
+     */
+    @Test
+    public void rankingScoresOnlyFilteredNotes() {
+        List<List<Object>> scored = Collections.synchronizedList(new ArrayList<>());
+        AppDatabase database = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.getApplication(), AppDatabase.class)
+                .allowMainThreadQueries()
+                .setQueryCallback((sql, args) -> {
+                    if (sql.contains("matchinfo(")) scored.add(new ArrayList<>(args));
+                }, Runnable::run)
+                .build();
+        try {
+            NoteRepository repository = new NoteRepository(database.noteDao());
+            long inBody = repository.createOrUpdate(null, "Plans", "<p>Agenda</p>", "content://p/1", null, false);
+            long inTitle = repository.createOrUpdate(null, "Agenda", "<p>Slides</p>", "content://p/2", null, false);
+            repository.createOrUpdate(null, "Agenda agenda", "<p>Agenda</p>", null, null, false);
+
+            NoteSearchFilter f = new NoteSearchFilter();
+            f.query = "agenda";
+            f.hasPhoto = true;
+            f.rankByRelevance = true;
+            List<Long> ids = new ArrayList<>();
+            for (NoteSummary n : new NoteSearchRepository(database.noteSearchDao(), database, null)
+                    .search(f, null, 20)) {
+                ids.add(n.id);
+            }
+
+            assertEquals(Arrays.asList(inTitle, inBody), ids);
+            assertEquals(1, scored.size());
+            List<Object> args = scored.get(0);
+            assertEquals(new HashSet<>(Arrays.asList(inBody, inTitle)), new HashSet<>(args.subList(1, args.size())));
+        } finally {
+            database.close();
+        }
+    }
+
+    /**
+     * Description: Snippet markers are stripped and each hit becomes a [start, end) range.
+     */
+    @Test
+    public void snippetMarkersBecomeOffsets() {
+        NoteSummary n = new NoteSummary();
+        Snippets.apply(n, "\u2026call " + Snippets.OPEN + "Sam" + Snippets.CLOSE
+                + " about the " + Snippets.OPEN + "meeting" + Snippets.CLOSE + " agenda");
+
+        assertEquals("\u2026call Sam about the meeting agenda", n.snippet);
+        assertArrayEquals(new int[]{6, 9, 20, 27}, n.highlights);
+        assertEquals("Sam", n.snippet.substring(n.highlights[0], n.highlights[1]));
+    }
+
+    /**
+     * Description: A snippet without hits leaves the stored preview in use.
+     */
+    @Test
+    public void snippetWithoutHitIsIgnored() {
+        NoteSummary n = new NoteSummary();
+        Snippets.apply(n, "plain body text");
+        assertNull(n.snippet);
+        assertNull(n.highlights);
+    }
+}
@@ -0,0 +1,164 @@
+package white_tests;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.context.ReminderManager;
+import com.example.anchornotes.context.ReminderPayloads;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteDao;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.receiver.AlarmReceiver;
+import com.example.anchornotes.receiver.GeofenceReceiver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowNotificationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Description:
+ * Reminders scheduled with their note store a pre-rendered notification. The receivers post
+ * it as stored rather than re-reading the note, post notes without one from Room, and never
+ * post a note twice.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class ReminderPayloadsTest {
+
+    private static final long T = 1_900_000_000_000L;
+
+    private Context context;
+    private AppDatabase database;
+    private NoteDao noteDao;
+    private NoteRepository repository;
+    private ReminderManager reminders;
+    private ReminderPayloads payloads;
+    private ShadowNotificationManager notifications;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        AppDatabase.setInstanceForTesting(database);
+        noteDao = database.noteDao();
+        repository = new NoteRepository(noteDao);
+        reminders = new ReminderManager(context, database.reminderQueueDao());
+        payloads = new ReminderPayloads(context);
+        notifications = shadowOf((NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE));
+    }
+
+    @After
+    public void tearDown() {
+        AppDatabase.setInstanceForTesting(null);
+        database.close();
+    }
+
+    private String postedTitle(long noteId) {
+        Notification n = notifications.getNotification((int) noteId);
+        assertNotNull(n);
+        return n.extras.getString(Notification.EXTRA_TITLE);
+    }
+
+    /**
+     * Description: A due time reminder is posted from its payload, an older one without a
+     * payload from Room, and both payloads are gone once the reminders have fired.
+     */
+    @Test
+    public void alarmPostsFromPayloadsAndFallsBackToRoom() {
+        long stored = repository.createOrUpdate(null, "Stored", "<p>Call the bank</p>", null, null, false);
+        long older = repository.createOrUpdate(null, "Older", "<p>x</p>", null, null, false);
+        noteDao.setReminderTime(stored, T, T);
+        noteDao.setReminderTime(older, T, T);
+        reminders.schedule(noteDao.getById(stored), T, 0);
+        reminders.scheduleExact(older, T);
+        // only the payload has the old title, so it shows where the notification came from
+        database.getOpenHelper().getWritableDatabase().execSQL(
+                "UPDATE notes SET title = 'Edited elsewhere' WHERE id = ?", new Object[]{stored});
+
+        assertEquals(1, payloads.dueBy(T).size());
+        assertTrue(payloads.dueBy(T - 1).isEmpty());
+
+        AlarmReceiver.fireDue(context, reminders, T);
+
+        assertEquals("Stored", postedTitle(stored));
+        assertEquals("Older", postedTitle(older));
+        // one notification each, the stored one before the database was read
+        assertEquals(2, notifications.getAllNotifications().size());
+        assertTrue(payloads.dueBy(Long.MAX_VALUE).isEmpty());
+    }
+
+    /**
+     * Description: Entering a geofence posts the payloads of the notes attached to it, each
+     * once, and editing a note re-renders its payload.
+     */
+    @Test
+    public void geofenceEnterPostsFromPayloads() {
+        long office = repository.createOrUpdate(null, "Office", "<p>Badge</p>", null, null, false);
+        noteDao.setReminderGeofence(office, "place-a", 34.02, -118.29, 150f, T);
+        payloads.put(ReminderPayloads.Payload.of(noteDao.getById(office), 0, "place-a"));
+
+        new NoteRepository(noteDao, database.relevantDao(), context)
+                .createOrUpdate(office, "Office badge", "<p>Badge</p>", null, null, false);
+        assertEquals("Office badge",
+                payloads.forGeofences(Collections.singletonList("place-a")).get(0).title);
+
+        GeofenceReceiver.handleTransition(context, true, Collections.singletonList("place-a"), null);
+
+        assertEquals(1, notifications.getAllNotifications().size());
+        assertEquals("Office badge", postedTitle(office));
+        assertNotNull(database.relevantDao().getByNoteId(office));
+        assertTrue(payloads.forGeofences(Collections.singletonList("place-b")).isEmpty());
+    }
+
+    /**
+     * Description: Payloads are found through their fireAt or geofence without reading the
+     * others: a moved or removed reminder leaves its old lookup, and a payload the index
+     * doesn't list (stored by an older version) is left to the Room fallback.
+     */
+    @Test
+    public void lookupsOnlyReadTheirOwnPayloads() {
+        payloads.put(new ReminderPayloads.Payload(1, "Office", "", 0, "place-a"));
+        payloads.put(new ReminderPayloads.Payload(2, "Bank", "", T, null));
+        payloads.put(new ReminderPayloads.Payload(3, "Dentist", "", T + 1000, null));
+        context.getSharedPreferences("reminder_payloads", Context.MODE_PRIVATE).edit()
+                .putString("4", "{not json").commit();
+
+        assertEquals(1, payloads.forGeofences(Collections.singletonList("place-a")).get(0).noteId);
+        payloads.put(new ReminderPayloads.Payload(1, "Office", "", 0, "place-b"));
+        assertTrue(payloads.forGeofences(Collections.singletonList("place-a")).isEmpty());
+        assertEquals(1, payloads.forGeofences(Collections.singletonList("place-b")).get(0).noteId);
+
+        assertEquals(Collections.singletonList(2L), noteIds(payloads.dueBy(T)));
+        assertEquals(Arrays.asList(2L, 3L), noteIds(payloads.dueBy(Long.MAX_VALUE)));
+
+        // the geofence reminder becomes a time reminder
+        payloads.put(new ReminderPayloads.Payload(1, "Office", "", T - 1, null));
+        assertTrue(payloads.forGeofences(Collections.singletonList("place-b")).isEmpty());
+        payloads.remove(2);
+        assertEquals(Collections.singletonList(1L), noteIds(payloads.dueBy(T)));
+    }
+
+    private static List<Long> noteIds(List<ReminderPayloads.Payload> list) {
+        List<Long> ids = new ArrayList<>();
+        for (ReminderPayloads.Payload p : list) ids.add(p.noteId);
+        return ids;
+    }
+}
@@ -0,0 +1,188 @@
+package white_tests;
+
+import android.app.AlarmManager;
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.context.ReminderManager;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteDao;
+import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.model.RecurrenceRule;
+import com.example.anchornotes.receiver.AlarmReceiver;
+import com.example.anchornotes.worker.RestoreRemindersWorker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowAlarmManager;
+
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class ReminderQueueTest {
+
+    private static final long T = 1_900_000_000_000L;
+
+    private Context context;
+    private AppDatabase database;
+    private ReminderManager reminders;
+    private ShadowAlarmManager alarms;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        reminders = new ReminderManager(context, database.reminderQueueDao());
+        alarms = shadowOf((AlarmManager) context.getSystemService(Context.ALARM_SERVICE));
+    }
+
+    @After
+    public void tearDown() {
+        AppDatabase.setInstanceForTesting(null);
+        database.close();
+    }
+
+    private long armedAt() {
+        assertEquals(1, alarms.getScheduledAlarms().size());
+        return alarms.getNextScheduledAlarm().triggerAtTime;
+    }
+
+    /**
+     * Description: However many reminders are scheduled, there is one alarm, set for the
+     * earliest; cancelling or rescheduling that one moves the alarm to the new earliest.
+     */
+    @Test
+    public void onlyTheEarliestReminderHasAnAlarm() {
+        reminders.scheduleExact(1, T + 3_000);
+        reminders.scheduleExact(2, T + 1_000);
+        reminders.scheduleExact(3, T + 2_000);
+        assertEquals(T + 1_000, armedAt());
+
+        reminders.cancel(2);
+        assertEquals(T + 2_000, armedAt());
+
+        reminders.scheduleExact(3, T + 5_000);
+        assertEquals(T + 3_000, armedAt());
+
+        reminders.cancel(1);
+        reminders.cancel(3);
+        assertTrue(alarms.getScheduledAlarms().isEmpty());
+    }
+
+    /**
+     * Description: When the alarm fires, every reminder due by then is taken in one batch,
+     * earliest first, and the alarm moves to the next one.
+     */
+    @Test
+    public void dueRemindersAreTakenTogether() {
+        reminders.scheduleExact(1, T + 1_000);
+        reminders.scheduleExact(2, T + 1_500);
+        reminders.scheduleExact(3, T + 9_000);
+
+        assertEquals(Arrays.asList(1L, 2L), reminders.takeDue(T + 2_000));
+        assertEquals(T + 9_000, armedAt());
+        assertEquals(Collections.emptyList(), reminders.takeDue(T + 2_000));
+
+        assertEquals(Collections.singletonList(3L), reminders.takeDue(T + 9_000));
+        assertTrue(alarms.getScheduledAlarms().isEmpty());
+    }
+
+    /**
+     * Description: Reminders with a tolerance share one wakeup at the latest due time their
+     * windows allow; an exact reminder inside that span pulls the alarm forward and takes the
+     * earlier ones with it. Delivery skew is recorded separately for exact and windowed reminders.
+     */
+    @Test
+    public void overlappingWindowsShareAWakeup() {
+        long tolerance = ReminderManager.FLEXIBLE_TOLERANCE_MS;
+        reminders.schedule(1, T + 1_000, tolerance);
+        reminders.schedule(2, T + 5_000, tolerance);
+        assertEquals(T + 5_000, armedAt());
+
+        reminders.scheduleExact(3, T + 2_000);
+        assertEquals(T + 2_000, armedAt());
+
+        assertEquals(Arrays.asList(1L, 3L), reminders.takeDue(T + 2_000));
+        assertEquals(T + 5_000, armedAt());
+
+        ReminderManager.DeliveryStats exact = reminders.deliveryStats(false);
+        assertEquals(1, exact.delivered);
+        assertEquals(0, exact.totalSkewMs);
+        ReminderManager.DeliveryStats windowed = reminders.deliveryStats(true);
+        assertEquals(1, windowed.delivered);
+        assertEquals(1_000, windowed.maxSkewMs);
+
+        // past the deadline and the grace minute
+        reminders.takeDue(T + 5_000 + tolerance + 120_000);
+        assertEquals(1, reminders.deliveryStats(true).late);
+    }
+
+    /**
+     * Description: Restoring after a reboot pages through the notes' time reminders, queues the
+     * future ones that are missing, keeps queued ones as they were and arms one alarm.
+     */
+    @Test
+    public void restoreQueuesMissingRemindersAndArmsOnce() {
+        NoteDao noteDao = database.noteDao();
+        NoteRepository repository = new NoteRepository(noteDao);
+        long[] ids = new long[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = repository.createOrUpdate(null, "R" + i, "<p>x</p>", null, null, false);
+            // R0 is past; the others are 1..4 s ahead
+            noteDao.setReminderTime(ids[i], T + i * 1_000, T);
+        }
+        reminders.schedule(ids[1], T + 1_000, ReminderManager.FLEXIBLE_TOLERANCE_MS);
+
+        RestoreRemindersWorker.restoreAlarms(noteDao, reminders, T, 2);
+
+        assertEquals(T + 2_000, armedAt());
+        assertEquals(Arrays.asList(ids[1], ids[2], ids[3], ids[4]), reminders.takeDue(T + 10_000));
+        // R1 kept its tolerance
+        assertEquals(1, reminders.deliveryStats(true).delivered);
+    }
+
+    /**
+     * Description: When a repeating reminder fires, its note moves on to the next occurrence
+     * after the delivery time (skipping the ones missed meanwhile) and it is queued again with
+     * its tolerance, while a one-off reminder in the same batch is done.
+     */
+    @Test
+    public void repeatingReminderIsQueuedForItsNextOccurrence() {
+        AppDatabase.setInstanceForTesting(database);
+        NoteDao noteDao = database.noteDao();
+        NoteRepository repository = new NoteRepository(noteDao);
+        long daily = repository.createOrUpdate(null, "Daily", "<p>x</p>", null, null, false);
+        long once = repository.createOrUpdate(null, "Once", "<p>x</p>", null, null, false);
+        RecurrenceRule rule = RecurrenceRule.daily(1).anchoredAt(T, ZoneId.systemDefault());
+        noteDao.setRepeatingReminderTime(daily, T, rule.toString(), T);
+        noteDao.setReminderTime(once, T, T);
+        reminders.schedule(daily, T, ReminderManager.FLEXIBLE_TOLERANCE_MS);
+        reminders.scheduleExact(once, T);
+
+        // delivered three days late
+        long now = T + 3 * 24 * 60 * 60 * 1000L;
+        AlarmReceiver.fireDue(context, reminders, now);
+
+        long next = rule.nextAfter(T, now, ZoneId.systemDefault());
+        assertTrue(next > now);
+        NoteEntity note = noteDao.getById(daily);
+        assertEquals(Long.valueOf(next), note.reminderAt);
+        assertEquals(rule.toString(), note.reminderRule);
+        assertEquals(Long.valueOf(T), noteDao.getById(once).reminderAt);
+        assertEquals(next, armedAt());
+        assertEquals(Collections.singletonList(daily), reminders.takeDue(next + ReminderManager.FLEXIBLE_TOLERANCE_MS));
+    }
+}
@@ -0,0 +1,152 @@
+package white_tests;
+
+import android.app.Application;
+import android.os.CancellationSignal;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.viewmodel.NoteListViewModel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Description:
+ * Keystrokes are debounced so only the last query of a burst runs, a newer load supersedes
+ * the one in flight, and only pages of the latest filter are delivered.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SearchAsYouTypeTest {
+
+    private AppDatabase database;
+    private NoteRepository repository;
+    private NoteListViewModel viewModel;
+    /** Every page the view model delivered, in order. */
+    private final List<NoteListViewModel.NotePage> delivered = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Application app = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(app, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        AppDatabase.setInstanceForTesting(database);
+        repository = new NoteRepository(database.noteDao());
+        viewModel = new NoteListViewModel(app);
+        viewModel.getPages().observeForever(delivered::add);
+    }
+
+    @After
+    public void tearDown() {
+        AppDatabase.setInstanceForTesting(null);
+        database.close();
+    }
+
+    private static NoteSearchFilter query(String q) {
+        NoteSearchFilter f = new NoteSearchFilter();
+        f.query = q;
+        return f;
+    }
+
+    private static List<Long> ids(NoteListViewModel.NotePage page) {
+        List<Long> ids = new ArrayList<>();
+        for (NoteSummary n : page.items) ids.add(n.id);
+        return ids;
+    }
+
+    /** Runs the main looper until {@code count} pages were delivered, then a little longer. */
+    private void awaitDelivered(int count) throws InterruptedException {
+        for (int attempt = 0; attempt < 200 && delivered.size() < count; attempt++) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+        // give a stale page the chance to (wrongly) arrive too
+        for (int i = 0; i < 10; i++) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Description: A burst of keystrokes runs one query, for the last text, once the input
+     * has been quiet for the debounce time.
+     */
+    @Test
+    public void burstRunsOnlyTheLastQuery() throws InterruptedException {
+        repository.createOrUpdate(null, "Meeting", "<p>Agenda</p>", null, null, false);
+        long meetup = repository.createOrUpdate(null, "Meetup", "<p>Slides</p>", null, null, false);
+
+        viewModel.search(query("m"));
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+        viewModel.search(query("meet"));
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(100));
+        viewModel.search(query("meetu"));
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NoteListViewModel.SEARCH_DEBOUNCE_MS - 50));
+        assertTrue("nothing runs while typing", delivered.isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(50));
+        awaitDelivered(1);
+
+        assertEquals(1, delivered.size());
+        assertEquals(Collections.singletonList(meetup), ids(delivered.get(0)));
+        assertTrue(delivered.get(0).reset);
+    }
+
+    /**
+     * Description: Starting a new load while one is in flight delivers only the new one's
+     * page, and a debounced search still waiting is dropped by an immediate load.
+     */
+    @Test
+    public void supersededLoadsAreNeverDelivered() throws InterruptedException {
+        long meeting = repository.createOrUpdate(null, "Meeting", "<p>Agenda</p>", null, null, false);
+        repository.createOrUpdate(null, "Groceries", "<p>Milk</p>", null, null, false);
+
+        viewModel.search(query("milk"));
+        viewModel.loadFirstPage(query("groc"));
+        viewModel.loadFirstPage(query("agenda"));
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMillis(NoteListViewModel.SEARCH_DEBOUNCE_MS * 2));
+        awaitDelivered(1);
+
+        assertEquals(1, delivered.size());
+        assertEquals(Collections.singletonList(meeting), ids(delivered.get(0)));
+    }
+
+    /**
+     * Description: A query whose signal was cancelled stops with OperationCanceledException
+     * instead of returning rows.
+     */
+    @Test
+    public void cancelledQueryStops() {
+        repository.createOrUpdate(null, "Meeting", "<p>Agenda</p>", null, null, false);
+        NoteSearchRepository search = new NoteSearchRepository(database.noteSearchDao(), database, null);
+        CancellationSignal signal = new CancellationSignal();
+        assertEquals(1, search.search(query("meet"), null, 20, signal).size());
+
+        signal.cancel();
+        try {
+            search.search(query("meet"), null, 20, signal);
+            fail("cancelled query returned rows");
+        } catch (OperationCanceledException expected) {
+            // the superseded load completes exceptionally and is dropped
+        }
+    }
+}
@@ -7,7 +7,7 @@ import androidx.test.core.app.ApplicationProvider;
 
 import com.example.anchornotes.data.db.AppDatabase;
 import com.example.anchornotes.data.db.NoteDao;
-import com.example.anchornotes.data.db.NoteEntity;
+import com.example.anchornotes.data.db.NoteSummary;
 import com.example.anchornotes.data.repo.NoteRepository;
 import com.example.anchornotes.data.repo.NoteSearchRepository;
 
@@ -62,19 +62,19 @@ public class SearchCaseInsensitiveTest {
         repository.createOrUpdate(null, "Shopping List", "Content", null, null, false);
         
         // Search with lowercase "meeting"
-        List<NoteEntity> results1 = searchRepository.search(
+        List<NoteSummary> results1 = searchRepository.search(
                 "meeting",
                 null, null, null, null, null, null
         );
         
         // Search with uppercase "MEETING"
-        List<NoteEntity> results2 = searchRepository.search(
+        List<NoteSummary> results2 = searchRepository.search(
                 "MEETING",
                 null, null, null, null, null, null
         );
         
         // Search with mixed case "MeEtInG"
-        List<NoteEntity> results3 = searchRepository.search(
+        List<NoteSummary> results3 = searchRepository.search(
                 "MeEtInG",
                 null, null, null, null, null, null
         );
@@ -86,13 +86,13 @@ public class SearchCaseInsensitiveTest {
         
         // Verify all contain "Meeting Notes"
         boolean found1 = false, found2 = false, found3 = false;
-        for (NoteEntity note : results1) {
+        for (NoteSummary note : results1) {
             if (note.title.equals("Meeting Notes")) found1 = true;
         }
-        for (NoteEntity note : results2) {
+        for (NoteSummary note : results2) {
             if (note.title.equals("Meeting Notes")) found2 = true;
         }
-        for (NoteEntity note : results3) {
+        for (NoteSummary note : results3) {
             if (note.title.equals("Meeting Notes")) found3 = true;
         }
         
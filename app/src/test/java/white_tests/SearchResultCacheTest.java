@@ -0,0 +1,178 @@
+package white_tests;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.db.NoteTagCrossRef;
+import com.example.anchornotes.data.db.TagEntity;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.search.SearchMetrics;
+import com.example.anchornotes.data.search.SearchResultCache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Description:
+ * Search results are cached as id lists per filter: a repeated filter is served from the
+ * cache, a longer query is narrowed from a shorter one's result, and writes to the searched
+ * tables clear it.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SearchResultCacheTest {
+
+    private AppDatabase database;
+    private NoteRepository repository;
+    private SearchResultCache cache;
+    private NoteSearchRepository search;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        repository = new NoteRepository(database.noteDao());
+        cache = new SearchResultCache(database);
+        search = new NoteSearchRepository(database.noteSearchDao(), database, cache);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private static NoteSearchFilter query(String q) {
+        NoteSearchFilter f = new NoteSearchFilter();
+        f.query = q;
+        return f;
+    }
+
+    private List<Long> find(String q) {
+        List<Long> ids = new ArrayList<>();
+        for (NoteSummary n : search.search(query(q), null, 20)) ids.add(n.id);
+        return ids;
+    }
+
+    /**
+     * Description: A query too short for substring search isn't used as the base of a longer
+     * one that is, so typing "b1" then "b17" still finds the part number RM4B17.
+     */
+    @Test
+    public void shortQueryIsNotRefinedIntoASubstringSearch() {
+        long valve = repository.createOrUpdate(null, "Valve", "<p>Order RM4B17</p>", null, null, false);
+
+        assertTrue(find("b1").isEmpty());
+        assertNull(cache.refinementBase(query("b17")));
+        assertEquals(Collections.singletonList(valve), find("b17"));
+
+        // the same holds for a fragment that doesn't contain the cached one
+        long meeting = repository.createOrUpdate(null, "Notes", "<p>xmeet abc</p>", null, null, false);
+        assertTrue(find("mee a").isEmpty());
+        assertNull(cache.refinementBase(query("meet a")));
+        assertEquals(Collections.singletonList(meeting), find("meet a"));
+    }
+
+    /**
+     * Description: A repeated filter is answered from the cache, also when typed with other
+     * case, spacing or tag order, and a different filter is not.
+     */
+    @Test
+    public void repeatedFilterHitsTheCache() {
+        long meeting = repository.createOrUpdate(null, "Team meeting", "<p>Agenda</p>", null, null, false);
+        database.getInvalidationTracker().refreshVersionsSync();
+
+        assertNull(cache.get(query("meeting")));
+        assertEquals(Collections.singletonList(meeting), find("meeting"));
+        long[] cached = cache.get(query("meeting"));
+        assertArrayEquals(new long[]{meeting}, cached);
+        assertSame(cached, cache.get(query("  MEETING ")));
+
+        NoteSearchFilter tagsAb = query("x");
+        tagsAb.tagIds = new ArrayList<>(Arrays.asList(1L, 2L));
+        NoteSearchFilter tagsBa = query("X");
+        tagsBa.tagIds = new ArrayList<>(Arrays.asList(2L, 1L, 2L));
+        assertEquals(SearchResultCache.keyOf(tagsAb), SearchResultCache.keyOf(tagsBa));
+
+        NoteSearchFilter withPhoto = query("meeting");
+        withPhoto.hasPhoto = true;
+        assertNull(cache.get(withPhoto));
+    }
+
+    /**
+     * Description: A query that extends a cached one word by word is narrowed from the
+     * cached ids instead of searching again, with the same result as a fresh search;
+     * other filters or relevance ranking don't reuse it.
+     */
+    @Test
+    public void longerQueryIsRefinedFromTheCachedResult() {
+        long meeting = repository.createOrUpdate(null, "Team meeting", "<p>Agenda</p>", null, null, false);
+        long meetup = repository.createOrUpdate(null, "Meetup", "<p>Slides</p>", null, null, false);
+        repository.createOrUpdate(null, "Groceries", "<p>Milk</p>", null, null, false);
+        database.getInvalidationTracker().refreshVersionsSync();
+
+        assertEquals(Arrays.asList(meetup, meeting), find("mee"));
+        assertNotNull(cache.refinementBase(query("meeti")));
+        assertNotNull(cache.refinementBase(query("mee agenda")));
+        NoteSearchFilter withPhoto = query("meeti");
+        withPhoto.hasPhoto = true;
+        assertNull(cache.refinementBase(withPhoto));
+        NoteSearchFilter ranked = query("meeti");
+        ranked.rankByRelevance = true;
+        assertNull(cache.refinementBase(ranked));
+
+        long refinedBefore = SearchMetrics.refined();
+        assertEquals(Collections.singletonList(meeting), find("meeti"));
+        assertEquals(refinedBefore + 1, SearchMetrics.refined());
+        assertEquals(Collections.singletonList(meeting), find("mee agenda"));
+
+        NoteSearchRepository uncached = new NoteSearchRepository(database.noteSearchDao(), database, null);
+        List<Long> fresh = new ArrayList<>();
+        for (NoteSummary n : uncached.search(query("meeti"), null, 20)) fresh.add(n.id);
+        assertEquals(fresh, find("meeti"));
+    }
+
+    /**
+     * Description: Writes to notes or note_tag_cross_ref clear the cache, so the next search
+     * sees them, and a result read before a write is not stored after it.
+     */
+    @Test
+    public void writesInvalidateTheCache() {
+        long meeting = repository.createOrUpdate(null, "Team meeting", "<p>Agenda</p>", null, null, false);
+        database.getInvalidationTracker().refreshVersionsSync();
+        assertEquals(Collections.singletonList(meeting), find("meeting"));
+
+        long review = repository.createOrUpdate(null, "Review meeting", "<p>Notes</p>", null, null, false);
+        database.getInvalidationTracker().refreshVersionsSync();
+        assertNull(cache.get(query("meeting")));
+        assertEquals(Arrays.asList(review, meeting), find("meeting"));
+
+        long tag = database.tagDao().insert(new TagEntity("work"));
+        database.getInvalidationTracker().refreshVersionsSync();
+        assertNotNull(cache.get(query("meeting")));
+        database.noteTagCrossRefDao().insert(new NoteTagCrossRef(meeting, tag));
+        database.getInvalidationTracker().refreshVersionsSync();
+        assertNull(cache.get(query("meeting")));
+
+        long version = cache.version();
+        cache.invalidate();
+        cache.put(query("meeting"), new long[]{meeting}, version);
+        assertNull("stale result not stored", cache.get(query("meeting")));
+    }
+}
@@ -0,0 +1,146 @@
+package white_tests;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.db.NoteTagCrossRef;
+import com.example.anchornotes.data.db.TagEntity;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+import com.example.anchornotes.data.repo.TagRepository;
+import com.example.anchornotes.data.search.SearchResultCache;
+import com.example.anchornotes.data.search.TagBitmapIndex;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class TagBitmapIndexTest {
+
+    private AppDatabase database;
+    private NoteRepository repository;
+    /** Stands in for the maintenance lane, so the test decides when the bitmaps rebuild. */
+    private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private SearchResultCache cache;
+    private NoteSearchRepository search;
+    private TagRepository tagRepository;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        repository = new NoteRepository(database.noteDao());
+        cache = new SearchResultCache(database);
+        TagBitmapIndex tags = new TagBitmapIndex(database, database.noteTagCrossRefDao(), pending::add, cache);
+        search = new NoteSearchRepository(database.noteSearchDao(), database, cache, null, tags);
+        tagRepository = new TagRepository(database.tagDao(), database.noteTagCrossRefDao(), tags);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private void runPending() {
+        Runnable r;
+        while ((r = pending.poll()) != null) r.run();
+    }
+
+    /** Delivers Room's invalidation callbacks for the writes so far, instead of waiting for them. */
+    private void deliverInvalidations() {
+        database.getInvalidationTracker().refreshVersionsSync();
+    }
+
+    private static NoteSearchFilter tagged(long tagId) {
+        NoteSearchFilter f = new NoteSearchFilter();
+        f.tagIds = new ArrayList<>(Collections.singletonList(tagId));
+        return f;
+    }
+
+    private List<Long> find(NoteSearchFilter f) {
+        List<Long> ids = new ArrayList<>();
+        for (NoteSummary n : search.search(f, null, 20)) ids.add(n.id);
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Description: A link written without telling the index (here straight through the DAO)
+     * is picked up by the rebuild, and a result cached from the old bitmaps in the meantime
+     * is dropped once the rebuild is swapped in.
+     */
+    @Test
+    public void unreportedLinkClearsResultsCachedBeforeTheRebuild() {
+        long first = repository.createOrUpdate(null, "First", "<p>a</p>", null, null, false);
+        long second = repository.createOrUpdate(null, "Second", "<p>b</p>", null, null, false);
+        long work = database.tagDao().insert(new TagEntity("work"));
+        database.noteTagCrossRefDao().insert(new NoteTagCrossRef(first, work));
+        deliverInvalidations();
+        NoteSearchFilter f = tagged(work);
+
+        assertEquals(Collections.singletonList(first), find(f)); // SQL while the bitmaps build
+        runPending();
+        assertEquals(Collections.singletonList(first), find(f));
+        assertNotNull(cache.get(f));
+
+        database.noteTagCrossRefDao().insert(new NoteTagCrossRef(second, work));
+        deliverInvalidations();
+        assertNull("table change clears the cache", cache.get(f));
+        assertFalse("table change queues a rebuild", pending.isEmpty());
+
+        // a search between the table change and the rebuild still sees the old bitmaps
+        assertEquals(Collections.singletonList(first), find(f));
+
+        runPending();
+        assertNull("rebuild clears what the old bitmaps cached", cache.get(f));
+        assertEquals(Arrays.asList(first, second), find(f));
+    }
+
+    /**
+     * Description: Links added and removed through TagRepository update the bitmaps in place;
+     * the table changes they cause don't queue a rebuild.
+     */
+    @Test
+    public void reportedLinksDoNotRebuild() {
+        long first = repository.createOrUpdate(null, "First", "<p>a</p>", null, null, false);
+        long second = repository.createOrUpdate(null, "Second", "<p>b</p>", null, null, false);
+        tagRepository.addTagToNoteAsync(first, "work").join();
+        long work = database.tagDao().getByName("work").id;
+        deliverInvalidations();
+        NoteSearchFilter f = tagged(work);
+        find(f);
+        runPending();
+        assertTrue(pending.isEmpty());
+
+        tagRepository.addTagToNoteAsync(second, "work").join();
+        tagRepository.removeTagFromNoteAsync(first, "work").join();
+        deliverInvalidations();
+        assertTrue("reported writes queue no rebuild", pending.isEmpty());
+        assertEquals(Collections.singletonList(second), find(f));
+
+        database.noteTagCrossRefDao().insert(new NoteTagCrossRef(first, work));
+        deliverInvalidations();
+        assertFalse("an unreported write still does", pending.isEmpty());
+        runPending();
+        assertEquals(Arrays.asList(first, second), find(f));
+    }
+}
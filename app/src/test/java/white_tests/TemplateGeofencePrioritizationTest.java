@@ -3,6 +3,9 @@ package white_tests;
 import android.content.Context;
 import com.example.anchornotes.data.db.TemplateEntity;
 import com.example.anchornotes.data.repo.TemplateRepository;
+import androidx.room.Room;
+import com.example.anchornotes.data.db.AppDatabase;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -22,8 +25,18 @@ public class TemplateGeofencePrioritizationTest {
     @Before
     public void setUp() {
         context = RuntimeEnvironment.getApplication();
+        // The app database no longer allows main-thread queries; tests run on the main looper
+        AppDatabase.setInstanceForTesting(Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build());
         repository = new TemplateRepository(context);
     }
+
+    @After
+    public void tearDown() {
+        AppDatabase.get(context).close();
+        AppDatabase.setInstanceForTesting(null);
+    }
     
     @Test
     public void testGetTemplatesForSelectionWithoutActiveGeofence() {
@@ -5,6 +5,9 @@ import com.example.anchornotes.data.db.TemplateEntity;
 import com.example.anchornotes.data.repo.TemplateRepository;
 import com.example.anchornotes.viewmodel.TemplateViewModel;
 import com.example.anchornotes.data.ServiceLocator;
+import androidx.room.Room;
+import com.example.anchornotes.data.db.AppDatabase;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -26,8 +29,18 @@ public class TemplateViewModelTest {
     @Before
     public void setUp() {
         application = RuntimeEnvironment.getApplication();
+        // The app database no longer allows main-thread queries; tests run on the main looper
+        AppDatabase.setInstanceForTesting(Room.inMemoryDatabaseBuilder(application, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build());
         viewModel = new TemplateViewModel(application);
     }
+
+    @After
+    public void tearDown() {
+        AppDatabase.get(application).close();
+        AppDatabase.setInstanceForTesting(null);
+    }
     
     @Test
     public void testCreateTemplate() throws InterruptedException {
@@ -0,0 +1,91 @@
+package white_tests;
+
+import android.content.Context;
+
+import androidx.room.Room;
+
+import com.example.anchornotes.data.NoteSearchFilter;
+import com.example.anchornotes.data.db.AppDatabase;
+import com.example.anchornotes.data.db.NoteSummary;
+import com.example.anchornotes.data.repo.NoteRepository;
+import com.example.anchornotes.data.repo.NoteSearchRepository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class TrigramSearchTest {
+
+    private AppDatabase database;
+    private NoteRepository repository;
+    private NoteSearchRepository search;
+
+    @Before
+    public void setUp() {
+        Context context = RuntimeEnvironment.getApplication();
+        database = Room.inMemoryDatabaseBuilder(context, AppDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        repository = new NoteRepository(database.noteDao());
+        search = new NoteSearchRepository(database.noteSearchDao(), database, null);
+    }
+
+    @After
+    public void tearDown() {
+        database.close();
+    }
+
+    private List<NoteSummary> find(String q) {
+        NoteSearchFilter f = new NoteSearchFilter();
+        f.query = q;
+        return search.search(f, null, 20);
+    }
+
+    /**
+     * Description: A fragment from the middle of a word (a part number) finds the note,
+     * which word-prefix full-text search alone would miss.
+     */
+    @Test
+    public void fragmentInsideWordMatches() {
+        long id = repository.createOrUpdate(null, "Order", "<p>Replace valve RM-4B17 tomorrow</p>", null, null, false);
+        repository.createOrUpdate(null, "Other", "<p>Nothing here</p>", null, null, false);
+
+        List<NoteSummary> hits = find("b17");
+        assertEquals(1, hits.size());
+        assertEquals(id, hits.get(0).id);
+        assertEquals(1, find("M-4b").size());
+    }
+
+    /**
+     * Description: A note holding every trigram of the fragment, but not the fragment itself,
+     * is rejected by verification.
+     */
+    @Test
+    public void candidatesAreVerified() {
+        // has "abc" and "bcd" but never "abcd"
+        repository.createOrUpdate(null, "Codes", "<p>abc xbcd</p>", null, null, false);
+
+        assertTrue(find("abcd").isEmpty());
+    }
+
+    /**
+     * Description: Editing a note replaces its trigrams, so old fragments stop matching.
+     */
+    @Test
+    public void editReplacesTrigrams() {
+        long id = repository.createOrUpdate(null, "Room", "<p>B-2047</p>", null, null, false);
+        assertEquals(1, find("047").size());
+
+        repository.createOrUpdate(id, "Room", "<p>C-3158</p>", null, null, false);
+        assertTrue(find("047").isEmpty());
+        assertEquals(1, find("158").size());
+    }
+}